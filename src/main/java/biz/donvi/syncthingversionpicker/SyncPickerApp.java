@@ -11,11 +11,15 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 
 public class SyncPickerApp extends Application {
     private static final Logger logger = LogManager.getLogger(SyncPickerApp.class);
 
+    /** Where the app keeps its settings and any other state it needs between runs. */
+    public static final Path STVP_HOME = Path.of(System.getProperty("user.home"), "StVersionPicker");
+
     private static final ArrayList<Runnable> shutdownOperations = new ArrayList<>();
     private static       SyncPickerApp       application;
 
@@ -0,0 +1,208 @@
+package biz.donvi.syncthingversionpicker.controllers;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder.ConflictGroup;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder.Copy;
+import biz.donvi.syncthingversionpicker.services.ConflictResolver;
+import biz.donvi.syncthingversionpicker.services.ConflictResolver.Rule;
+import biz.donvi.syncthingversionpicker.services.FileManipulationService;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ListChangeListener;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * A window that lists every sync conflict in a folder (found by a {@link ConflictFinder}), one row per file and
+ * device, and resolves the selected ones in bulk (see {@link ConflictResolver}).
+ */
+public class ConflictsController {
+
+    private static final Logger logger = LogManager.getLogger(ConflictsController.class);
+
+    /** How often the window polls the search for progress. */
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    private static final DateTimeFormatter conflictDateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm a");
+
+    /**
+     * A single row: the conflicts of one file from one device.
+     *
+     * @param group  The file.
+     * @param device The device.
+     * @param copies The conflict copies of the file from the device.
+     */
+    private record Row(ConflictGroup group, String device, List<Copy> copies) {}
+
+    @FXML private TableView<Row>           conflictTable;
+    @FXML private TableColumn<Row, String> columnPath;
+    @FXML private TableColumn<Row, String> columnDevice;
+    @FXML private TableColumn<Row, String> columnCopies;
+    @FXML private TableColumn<Row, String> columnLatest;
+    @FXML private TableColumn<Row, String> columnWhere;
+    @FXML private Button                   keepNewestButton;
+    @FXML private Button                   keepDeviceButton;
+    @FXML private Button                   rescanButton;
+    @FXML private Text                     statusText;
+
+    private StDirectory    folder;
+    private ConflictFinder finder;
+
+    private final AnimationTimer refresher = new AnimationTimer() {
+        private long lastRefresh = 0;
+
+        @Override
+        public void handle(long now) {
+            if (now - lastRefresh >= REFRESH_NANOS) {
+                lastRefresh = now;
+                statusText.setText("Searching... " + finder.progress().filesDone() + " files looked at so far");
+            }
+        }
+    };
+
+    /**
+     * Opens a new conflicts window for a folder and starts looking for conflicts in it.
+     *
+     * @param folder The directory to find conflicts in (recursively).
+     */
+    public static void open(StDirectory folder) {
+        FXMLLoader loader = new FXMLLoader(SyncPickerApp.class.getResource("picker-view/conflicts.fxml"));
+        Stage stage = new Stage();
+        try {
+            stage.setScene(new Scene(loader.load()));
+        } catch (IOException e) {
+            logger.error("Could not open the conflicts window", e);
+            return;
+        }
+        ConflictsController controller = loader.getController();
+        controller.folder = folder;
+        controller.setUp();
+        String path = folder.getRelativePath().toString();
+        stage.setTitle("Conflicts in " + (path.isEmpty() ? "folder" : path));
+        stage.initOwner(SyncPickerApp.getApplication().getStage());
+        stage.setOnHidden(event -> {
+            controller.refresher.stop();
+            controller.finder.cancel();
+        });
+        stage.show();
+        controller.scan();
+    }
+
+    private void setUp() {
+        conflictTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        columnPath.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().group().relativePath().toString()
+        ));
+        columnDevice.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().device()
+        ));
+        columnCopies.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            Integer.toString(x.getValue().copies().size())
+        ));
+        columnLatest.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().copies().stream()
+             .map(Copy::conflictDate)
+             .filter(Objects::nonNull)
+             .max(Comparator.naturalOrder())
+             .map(d -> d.format(conflictDateFormat))
+             .orElse("")
+        ));
+        columnWhere.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            String.join(", ", x.getValue().copies().stream()
+                               .map(c -> c.location().where.which("Local", "Remote") + " "
+                                         + c.location().when.which("Real", "Backup"))
+                               .distinct()
+                               .toList())
+        ));
+        conflictTable.getSelectionModel().getSelectedItems().addListener(
+            (ListChangeListener<Row>) change -> updateButtons());
+        updateButtons();
+    }
+
+    private void scan() {
+        finder = new ConflictFinder(folder).start();
+        rescanButton.setDisable(true);
+        conflictTable.getItems().clear();
+        refresher.start();
+        finder.future().whenComplete((groups, ex) -> Platform.runLater(() -> {
+            refresher.stop();
+            rescanButton.setDisable(false);
+            if (ex != null) {
+                statusText.setText("Stopped: " + ex.getMessage());
+                return;
+            }
+            List<Row> rows = new ArrayList<>();
+            for (ConflictGroup group : groups)
+                for (String device : group.devices())
+                    rows.add(new Row(group, device, group.conflicts().stream()
+                                                     .filter(c -> c.device().equals(device))
+                                                     .toList()));
+            conflictTable.getItems().setAll(rows);
+            statusText.setText("%d files have conflicts, from %d devices".formatted(
+                groups.size(), rows.stream().map(Row::device).distinct().count()));
+        }));
+    }
+
+    private void updateButtons() {
+        List<Row> selected = conflictTable.getSelectionModel().getSelectedItems();
+        keepNewestButton.setDisable(selected.isEmpty());
+        keepDeviceButton.setDisable(selected.stream().map(Row::device).distinct().count() != 1);
+        String device = selected.isEmpty() ? "Device" : selected.getFirst().device();
+        keepDeviceButton.setText("Keep " + device + "'s Copy");
+    }
+
+    @FXML
+    protected void onKeepNewestButtonPress() {
+        resolve(new Rule.KeepNewest());
+    }
+
+    @FXML
+    protected void onKeepDeviceButtonPress() {
+        List<Row> selected = conflictTable.getSelectionModel().getSelectedItems();
+        if (!selected.isEmpty())
+            resolve(new Rule.KeepDevice(selected.getFirst().device()));
+    }
+
+    @FXML
+    protected void onRescanButtonPress() {
+        scan();
+    }
+
+    private void resolve(Rule rule) {
+        Set<ConflictGroup> groups = new LinkedHashSet<>();
+        for (Row row : conflictTable.getSelectionModel().getSelectedItems())
+            groups.add(row.group());
+        long local = groups.stream()
+                           .flatMap(g -> g.files().stream())
+                           .filter(c -> c.location() == Location.LocalCurrent)
+                           .count();
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.initOwner(SyncPickerApp.getApplication().getStage());
+        alert.setHeaderText("Resolve conflicts of %d files?".formatted(groups.size()));
+        String kept = rule instanceof Rule.KeepDevice(String device) ? device + "'s" : "the newest";
+        alert.setContentText(("One local copy of each file is kept (%s). The other local copies (up to %d) are moved "
+                              + "into the local versions folder, so nothing is deleted.").formatted(
+            kept, local - groups.size()));
+        if (alert.showAndWait().filter(b -> b == ButtonType.OK).isEmpty())
+            return;
+        logger.info("User resolving conflicts of {} files with rule {}", groups.size(), rule);
+        ConflictResolver resolver = folder.getFullStLister().getService(FileManipulationService.class)
+                                          .resolveConflicts(folder, List.copyOf(groups), rule);
+        JobProgressController.open(resolver);
+        resolver.future().whenComplete((x, ex) -> Platform.runLater(this::scan));
+    }
+}
@@ -0,0 +1,152 @@
+package biz.donvi.syncthingversionpicker.controllers;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import biz.donvi.syncthingversionpicker.services.DownloadManager;
+import biz.donvi.syncthingversionpicker.services.DownloadManager.Download;
+import biz.donvi.syncthingversionpicker.services.JobProgress;
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A window that lists every download of a {@link DownloadManager} with its live progress. It lets the user cancel
+ * downloads and change how many run at the same time.
+ */
+public class DownloadsController {
+
+    private static final Logger logger = LogManager.getLogger(DownloadsController.class);
+
+    /** How often the window polls the downloads for progress. */
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    /** The window that is open for each manager, so asking for it again brings it forward instead. */
+    private static final Map<DownloadManager, Stage> openWindows = new WeakHashMap<>();
+
+    @FXML private TableView<Download>           downloadTable;
+    @FXML private TableColumn<Download, String> columnName;
+    @FXML private TableColumn<Download, String> columnStatus;
+    @FXML private TableColumn<Download, Double> columnProgress;
+    @FXML private TableColumn<Download, String> columnTarget;
+    @FXML private Spinner<Integer>              parallelismSpinner;
+
+    private DownloadManager manager;
+
+    private final AnimationTimer refresher = new AnimationTimer() {
+        private long lastRefresh = 0;
+
+        @Override
+        public void handle(long now) {
+            if (now - lastRefresh >= REFRESH_NANOS) {
+                lastRefresh = now;
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * Opens the downloads window for a manager, or brings it to the front if it's already open.
+     *
+     * @param manager The manager to show the downloads of.
+     */
+    public static void open(DownloadManager manager) {
+        Stage open = openWindows.get(manager);
+        if (open != null) {
+            open.toFront();
+            return;
+        }
+        FXMLLoader loader = new FXMLLoader(SyncPickerApp.class.getResource("picker-view/downloads.fxml"));
+        Stage stage = new Stage();
+        try {
+            stage.setScene(new Scene(loader.load()));
+        } catch (IOException e) {
+            logger.error("Could not open downloads window", e);
+            return;
+        }
+        DownloadsController controller = loader.getController();
+        controller.setManager(manager);
+        stage.setTitle("Downloads");
+        stage.initOwner(SyncPickerApp.getApplication().getStage());
+        stage.setOnHidden(event -> {
+            controller.refresher.stop();
+            openWindows.remove(manager);
+        });
+        openWindows.put(manager, stage);
+        controller.refresher.start();
+        stage.show();
+    }
+
+    private void setManager(DownloadManager manager) {
+        this.manager = manager;
+        downloadTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+
+        columnName.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().getFile().nameInfo.originalName() + " (" + x.getValue().getFile().getTimeStamp() + ")"
+        ));
+        columnStatus.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            describe(x.getValue())
+        ));
+        columnProgress.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().getProgress()
+        ));
+        columnProgress.setCellFactory(ProgressBarTableCell.forTableColumn());
+        columnTarget.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            String.join(", ", x.getValue().getTargets().stream().map(Object::toString).toList())
+        ));
+        columnName.setSortable(false);
+        columnStatus.setSortable(false);
+        columnProgress.setSortable(false);
+        columnTarget.setSortable(false);
+
+        parallelismSpinner.getValueFactory().setValue(manager.getParallelism());
+        parallelismSpinner.valueProperty().addListener((obs, was, is) -> {
+            logger.info("User set download parallelism to {}", is);
+            manager.setParallelism(is);
+        });
+        refresh();
+    }
+
+    private static String describe(Download download) {
+        return switch (download.getState()) {
+            case Running -> "%s / %s".formatted(
+                JobProgress.humanBytes(download.getBytesDone()), JobProgress.humanBytes(download.getFile().size));
+            case Done -> "Done (%s)".formatted(JobProgress.humanBytes(download.getFile().size));
+            default -> download.getState().toString();
+        };
+    }
+
+    private void refresh() {
+        List<Download> downloads = manager.getDownloads();
+        if (!downloadTable.getItems().equals(downloads))
+            downloadTable.getItems().setAll(downloads);
+        downloadTable.refresh();
+    }
+
+    @FXML
+    protected void onCancelSelectedButtonPress() {
+        for (Download download : List.copyOf(downloadTable.getSelectionModel().getSelectedItems())) {
+            logger.info("User cancelled download of `{}`", download.getFile());
+            download.cancel();
+        }
+    }
+
+    @FXML
+    protected void onClearFinishedButtonPress() {
+        manager.clearFinished();
+        refresh();
+    }
+}
@@ -0,0 +1,150 @@
+package biz.donvi.syncthingversionpicker.controllers;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.JobProgress;
+import biz.donvi.syncthingversionpicker.services.VersionIndex;
+import biz.donvi.syncthingversionpicker.services.VersionIndex.Hit;
+import biz.donvi.syncthingversionpicker.services.VersionIndex.Query;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A window for finding versions anywhere in a folder by path, extension, location, date, conflict device and
+ * {@code ~VP-PREV} marker, answered from a {@link VersionIndex}.
+ */
+public class FindVersionsController {
+
+    private static final Logger logger = LogManager.getLogger(FindVersionsController.class);
+
+    /** The most hits shown for a single search. */
+    private static final int MAX_HITS = 1000;
+
+    @FXML private TextField  pathField;
+    @FXML private TextField  extensionField;
+    @FXML private DatePicker fromPicker;
+    @FXML private DatePicker toPicker;
+    @FXML private TextField  deviceField;
+    @FXML private CheckBox   localCurrentBox;
+    @FXML private CheckBox   remoteCurrentBox;
+    @FXML private CheckBox   localVersionsBox;
+    @FXML private CheckBox   remoteVersionsBox;
+    @FXML private CheckBox   conflictOnlyBox;
+    @FXML private CheckBox   prevMarkerBox;
+    @FXML private Button     searchButton;
+    @FXML private Text       statusText;
+
+    @FXML private TableView<Hit>           resultTable;
+    @FXML private TableColumn<Hit, String> columnLocation;
+    @FXML private TableColumn<Hit, String> columnPath;
+    @FXML private TableColumn<Hit, String> columnSyncDate;
+    @FXML private TableColumn<Hit, String> columnConflict;
+    @FXML private TableColumn<Hit, String> columnSize;
+
+    private VersionIndex index;
+
+    /**
+     * Opens a new search window. The index gets built first if it hasn't been yet.
+     *
+     * @param index The index to search.
+     * @param under The directory to search under at first, or {@code null} for the whole folder.
+     */
+    public static void open(VersionIndex index, Path under) {
+        FXMLLoader loader = new FXMLLoader(SyncPickerApp.class.getResource("picker-view/find-versions.fxml"));
+        Stage stage = new Stage();
+        try {
+            stage.setScene(new Scene(loader.load()));
+        } catch (IOException e) {
+            logger.error("Could not open the find versions window", e);
+            return;
+        }
+        FindVersionsController controller = loader.getController();
+        if (under != null)
+            controller.pathField.setText(under.toString().replace('\\', '/'));
+        controller.setIndex(index);
+        stage.setTitle("Find Versions");
+        stage.initOwner(SyncPickerApp.getApplication().getStage());
+        stage.show();
+    }
+
+    private void setIndex(VersionIndex index) {
+        this.index = index;
+        columnLocation.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().location().where.which("Local", "Remote") + " "
+            + x.getValue().location().when.which("Real", "Backup")
+        ));
+        columnPath.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().rawRelativePath().toString()
+        ));
+        columnSyncDate.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().syncDate() == null ? "" : x.getValue().syncDate().toString().replace('T', ' ')
+        ));
+        columnConflict.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().conflictDevice() == null ? "" : x.getValue().conflictDevice()
+        ));
+        columnSize.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().size() < 0 ? "" : JobProgress.humanBytes(x.getValue().size())
+        ));
+
+        searchButton.setDisable(true);
+        statusText.setText("Indexing folder...");
+        index.ensureBuilt().whenComplete((x, ex) -> Platform.runLater(() -> {
+            if (ex != null) {
+                statusText.setText("Could not index the folder: " + ex.getMessage());
+                return;
+            }
+            searchButton.setDisable(false);
+            statusText.setText("%d files and versions indexed".formatted(index.size()));
+        }));
+    }
+
+    @FXML
+    protected void onSearchButtonPress() {
+        Set<Location> locations = EnumSet.noneOf(Location.class);
+        if (localCurrentBox.isSelected())
+            locations.add(Location.LocalCurrent);
+        if (remoteCurrentBox.isSelected())
+            locations.add(Location.RemoteCurrent);
+        if (localVersionsBox.isSelected())
+            locations.add(Location.LocalVersions);
+        if (remoteVersionsBox.isSelected())
+            locations.add(Location.RemoteVersions);
+        Query query = Query.ALL
+            .withPathPrefix(pathField.getText())
+            .withExtension(extensionField.getText())
+            .withLocations(locations)
+            .withDates(startOf(fromPicker.getValue()), startOf(toPicker.getValue() == null
+                                                                ? null
+                                                                : toPicker.getValue().plusDays(1)))
+            .withConflict(conflictOnlyBox.isSelected(), deviceField.getText())
+            .withPrevMarker(prevMarkerBox.isSelected() ? true : null)
+            .withLimit(MAX_HITS);
+        long start = System.nanoTime();
+        var hits = index.query(query);
+        long micros = (System.nanoTime() - start) / 1000;
+        logger.debug("Query `{}` found {} hits in {} us", query, hits.size(), micros);
+        resultTable.setItems(FXCollections.observableArrayList(hits));
+        statusText.setText("%s%d results in %.1f ms".formatted(
+            hits.size() == MAX_HITS ? "First " : "", hits.size(), micros / 1000.0));
+    }
+
+    private static LocalDateTime startOf(LocalDate date) {
+        return date == null ? null : date.atStartOfDay();
+    }
+}
@@ -121,11 +121,9 @@ public class HomeController {
         }, Platform::runLater);
     }
 
-    private final Path stvpHome = Path.of(System.getProperty("user.home"), "StVersionPicker");
-
     void readSettingsFile() {
         try {
-            var path = stvpHome.resolve("connections");
+            var path = SyncPickerApp.STVP_HOME.resolve("connections");
             if (path.toFile().exists()) {
                 var lines = Files.readAllLines(path);
                 var local = lines.get(0).split("\t");
@@ -143,8 +141,8 @@ public class HomeController {
                           .map(StPickerComponentController::getTexts)
                           .toList();
         try {
-            var file = stvpHome.resolve("connections");
-            stvpHome.toFile().mkdirs();
+            var file = SyncPickerApp.STVP_HOME.resolve("connections");
+            SyncPickerApp.STVP_HOME.toFile().mkdirs();
             Files.write(file, lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
         } catch (IOException e) {
             logger.warn("Could not read file for reason", e);
@@ -0,0 +1,96 @@
+package biz.donvi.syncthingversionpicker.controllers;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import biz.donvi.syncthingversionpicker.services.JobProgress;
+import biz.donvi.syncthingversionpicker.services.TrackedJob;
+import javafx.animation.AnimationTimer;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * A small window that shows the live progress of a {@link TrackedJob}, and lets the user cancel it.
+ */
+public class JobProgressController {
+
+    private static final Logger logger = LogManager.getLogger(JobProgressController.class);
+
+    /** How often the window polls the job for progress. */
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    @FXML private Text        titleText;
+    @FXML private ProgressBar progressBar;
+    @FXML private Text        detailsText;
+    @FXML private Button      cancelButton;
+
+    private TrackedJob job;
+    private Stage      stage;
+
+    private final AnimationTimer refresher = new AnimationTimer() {
+        private long lastRefresh = 0;
+
+        @Override
+        public void handle(long now) {
+            if (now - lastRefresh >= REFRESH_NANOS) {
+                lastRefresh = now;
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * Opens a new progress window for a job. The window keeps updating until the job finishes.
+     *
+     * @param job The job to show.
+     */
+    public static void open(TrackedJob job) {
+        FXMLLoader loader = new FXMLLoader(SyncPickerApp.class.getResource("picker-view/job-progress.fxml"));
+        Stage stage = new Stage();
+        try {
+            stage.setScene(new Scene(loader.load()));
+        } catch (IOException e) {
+            logger.error("Could not open progress window for job `%s`".formatted(job.title()), e);
+            return;
+        }
+        JobProgressController controller = loader.getController();
+        controller.job = job;
+        controller.stage = stage;
+        controller.titleText.setText(job.title());
+        stage.setTitle(job.title());
+        stage.initOwner(SyncPickerApp.getApplication().getStage());
+        stage.setOnHidden(event -> controller.refresher.stop());
+        controller.refresher.start();
+        stage.show();
+    }
+
+    private void refresh() {
+        JobProgress progress = job.progress();
+        progressBar.setProgress(progress.discoveryDone() || progress.bytesDone() > 0 ? progress.fraction() : -1);
+        detailsText.setText(progress.describe());
+        if (progress.finished()) {
+            refresher.stop();
+            boolean cancelled = job.future().isCancelled() || job.future().isCompletedExceptionally();
+            titleText.setText(job.title() + (cancelled ? " (stopped)" : " (done)"));
+            cancelButton.setText("Close");
+        }
+    }
+
+    @FXML
+    protected void onCancelButtonPress() {
+        if (job.progress().finished()) {
+            stage.close();
+        } else {
+            logger.info("User cancelled job `{}`", job.title());
+            cancelButton.setDisable(true);
+            job.cancel();
+        }
+    }
+}
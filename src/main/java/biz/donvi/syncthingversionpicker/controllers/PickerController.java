@@ -4,17 +4,39 @@ import atlantafx.base.theme.Styles;
 import biz.donvi.syncthingversionpicker.StFolder;
 import biz.donvi.syncthingversionpicker.SyncPickerApp;
 import biz.donvi.syncthingversionpicker.files.*;
+import biz.donvi.syncthingversionpicker.services.ChangeReport;
+import biz.donvi.syncthingversionpicker.services.ContentHashService;
+import biz.donvi.syncthingversionpicker.services.DirectoryRollups;
+import biz.donvi.syncthingversionpicker.services.DownloadManager;
+import biz.donvi.syncthingversionpicker.services.DriftScanner;
 import biz.donvi.syncthingversionpicker.services.FileManipulationService;
+import biz.donvi.syncthingversionpicker.services.JobProgress;
+import biz.donvi.syncthingversionpicker.services.ManifestExporter;
+import biz.donvi.syncthingversionpicker.services.PrunePlan;
+import biz.donvi.syncthingversionpicker.services.PrunePlanner;
+import biz.donvi.syncthingversionpicker.services.RecentChanges;
+import biz.donvi.syncthingversionpicker.services.RestorePlan;
+import biz.donvi.syncthingversionpicker.services.RestorePlanner;
+import biz.donvi.syncthingversionpicker.services.TrigramIndex;
+import biz.donvi.syncthingversionpicker.services.VersionIndex;
+import biz.donvi.syncthingversionpicker.services.VersionStorage;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.Node;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.HBox;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
+import javafx.stage.FileChooser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.kordamp.ikonli.evaicons.Evaicons;
@@ -22,13 +44,45 @@ import org.kordamp.ikonli.feather.Feather;
 import org.kordamp.ikonli.javafx.FontIcon;
 
 import java.net.URL;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 public class PickerController implements Initializable {
 
     private static final Logger logger = LogManager.getLogger(PickerController.class);
 
+    private static final DateTimeFormatter reportTimeFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final DateTimeFormatter viewTimeFormat   = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm a");
+    private static final DateTimeFormatter windowFormat     = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /** The most search results shown at once. */
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    /** How many versions the recent changes window lists. */
+    private static final int MAX_RECENT_CHANGES = 200;
+
+    /** How often the tree is redrawn while directory totals are changing. */
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    /** Searches run here, one at a time, so typing never waits on one. */
+    private static final ExecutorService searchThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "name-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     @FXML
     public TextFlow fileExistsOnLocalFlow;
     @FXML
@@ -49,6 +103,61 @@ public class PickerController implements Initializable {
     @FXML
     private TreeView<StFile> treeView;
 
+    @FXML
+    private TextField searchField;
+
+    @FXML
+    private ListView<TrigramIndex.Hit> searchResults;
+
+    @FXML
+    private CheckBox timeTravelBox;
+    @FXML
+    private Slider   timeSlider;
+    @FXML
+    private Label    timeLabel;
+
+    /**
+     * The point in time the tree shows the folder at, or {@code null} to show it as it is now (FX thread only). See
+     * {@link StFileGroup#resolveAt}.
+     */
+    private LocalDateTime viewTime = null;
+
+    /** The name index of the folder being shown. */
+    private TrigramIndex nameIndex;
+
+    /**
+     * The directory totals of the folder being shown, how many changes to them the tree has drawn, and whether they
+     * have been asked to build yet (FX thread only).
+     */
+    private DirectoryRollups rollups;
+    private long             rollupsDrawn  = -1;
+    private boolean          rollupsWanted = false;
+
+    /** How the children of every directory in the tree are sorted (FX thread only). */
+    private TreeOrder treeOrder = TreeOrder.Name;
+
+    /** Bumped for every search, so that results of a search that was typed over get thrown away. */
+    private final AtomicLong searchCount = new AtomicLong();
+
+    /**
+     * Every {@link FileTreeItem} currently in the tree (including the ones filtered out of it), keyed by the relative
+     * path of the {@link StFile} it holds. This is kept in sync with the tree (FX thread only) so that finding an item
+     * never requires walking the tree.
+     */
+    private final Map<Path, FileTreeItem> treeIndex = new HashMap<>();
+
+    /**
+     * The relative paths of the directories whose children have been listed into the tree (FX thread only).
+     */
+    private final Set<Path> listedDirs = new HashSet<>();
+
+    /**
+     * Mutations waiting to be applied to the tree. These get applied in batches, so that a restore of thousands of
+     * files doesn't flood the FX thread with thousands of separate updates.
+     */
+    private final Queue<FileMutation> pendingMutations = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean       mutationsQueued  = new AtomicBoolean(false);
+
     @FXML
     public Text fileNameText;
 
@@ -74,31 +183,91 @@ public class PickerController implements Initializable {
 
         // Setting Cell Factory
         treeView.setCellFactory(c -> new FileTreeCell());
-        treeView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
-            if (newValue == null) {
-                fileGroupTableController.setSelected(null);
-                fileNameText.setText("** No File Selected **");
-                fileExistsOnLocalFlow.setVisible(false);
-                fileExistsOnRemoteFlow.setVisible(false);
-                fileHasBackupsOnLocalFLow.setVisible(false);
-                fileHasBackupsOnRemoteFLow.setVisible(false);
-            } else if (newValue.getValue() instanceof StFileGroup fileGroup) {
-                fileGroupTableController.setSelected(fileGroup);
-                fileNameText.setText(fileGroup.fileName);
-                long countLocalReal = fileGroup.countFiles(Location.LocalCurrent);
-                long countRemoteReal = fileGroup.countFiles(Location.RemoteCurrent);
-                long countLocalVersions = fileGroup.countFiles(Location.LocalVersions);
-                long countRemoteVersions = fileGroup.countFiles(Location.RemoteVersions);
-                fileExistsOnLocalFlow.setVisible(countLocalReal > 0);
-                fileExistsOnRemoteFlow.setVisible(countRemoteReal > 0);
-                fileHasBackupsOnLocalFLow.setVisible(countLocalVersions > 0);
-                fileHasBackupsOnRemoteFLow.setVisible(countRemoteVersions > 0);
-                fileHasBackupsOnLocalText.setText(String.valueOf(countLocalVersions));
-                fileHasBackupsOnRemoteText.setText(String.valueOf(countRemoteVersions));
+        treeView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        treeView.getSelectionModel().selectedItemProperty().addListener(
+            (observable, oldValue, newValue) -> showSelected(newValue));
+
+        // Search
+        showSearchResults(List.of());
+        searchResults.setCellFactory(c -> new SearchResultCell());
+        searchField.textProperty().addListener((observable, oldValue, newValue) -> search(newValue));
+        // Building the index crawls the whole folder, so that only happens once someone is about to search.
+        searchField.focusedProperty().addListener((observable, oldValue, focused) -> {
+            if (focused)
+                buildNameIndex();
+        });
+        searchField.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.DOWN && !searchResults.getItems().isEmpty()) {
+                searchResults.requestFocus();
+                searchResults.getSelectionModel().selectFirst();
+            } else if (event.getCode() == KeyCode.ENTER && !searchResults.getItems().isEmpty()) {
+                revealSearchResult(searchResults.getItems().getFirst());
+            } else if (event.getCode() == KeyCode.ESCAPE) {
+                searchField.clear();
             }
         });
+        searchResults.setOnMouseClicked(
+            event -> revealSearchResult(searchResults.getSelectionModel().getSelectedItem()));
+        searchResults.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER)
+                revealSearchResult(searchResults.getSelectionModel().getSelectedItem());
+            else if (event.getCode() == KeyCode.ESCAPE)
+                searchField.clear();
+        });
 
+        // Time travel
+        timeSlider.setDisable(true);
+        timeTravelBox.selectedProperty().addListener((observable, oldValue, newValue) -> setTimeTravel(newValue));
+        timeSlider.valueProperty().addListener(
+            (observable, oldValue, newValue) -> showAt(timeOfMinute(newValue.doubleValue())));
+
+        // Directory totals fill in while they are built, and change with every restore.
+        new AnimationTimer() {
+            private long lastRefresh = 0;
+
+            @Override
+            public void handle(long now) {
+                if (now - lastRefresh >= REFRESH_NANOS && rollups != null) {
+                    lastRefresh = now;
+                    long changes = rollups.changeCount();
+                    if (changes != rollupsDrawn) {
+                        rollupsDrawn = changes;
+                        treeView.refresh();
+                    }
+                }
+            }
+        }.start();
+    }
 
+    /**
+     * Updates the file information panel and the version table to show the given {@link TreeItem}.
+     *
+     * @param selected The selected {@link TreeItem}, or {@code null} if nothing is selected.
+     */
+    private void showSelected(TreeItem<StFile> selected) {
+        if (selected == null) {
+            fileGroupTableController.setSelected(null);
+            fileNameText.setText("** No File Selected **");
+            fileExistsOnLocalFlow.setVisible(false);
+            fileExistsOnRemoteFlow.setVisible(false);
+            fileHasBackupsOnLocalFLow.setVisible(false);
+            fileHasBackupsOnRemoteFLow.setVisible(false);
+        } else if (selected.getValue() instanceof StFileGroup fileGroup) {
+            fileGroupTableController.setSelected(fileGroup);
+            fileNameText.setText(fileGroup.fileName);
+            long countLocalReal = fileGroup.countFiles(Location.LocalCurrent);
+            long countRemoteReal = fileGroup.countFiles(Location.RemoteCurrent);
+            long countLocalVersions = fileGroup.countFiles(Location.LocalVersions);
+            long countRemoteVersions = fileGroup.countFiles(Location.RemoteVersions);
+            fileExistsOnLocalFlow.setVisible(countLocalReal > 0);
+            fileExistsOnRemoteFlow.setVisible(countRemoteReal > 0);
+            fileHasBackupsOnLocalFLow.setVisible(countLocalVersions > 0);
+            fileHasBackupsOnRemoteFLow.setVisible(countRemoteVersions > 0);
+            fileHasBackupsOnLocalText.setText(String.valueOf(countLocalVersions));
+            fileHasBackupsOnRemoteText.setText(String.valueOf(countRemoteVersions));
+            if (viewTime != null)
+                fileGroup.resolveAt(viewTime).ifPresent(fileGroupTableController::selectFile);
+        }
     }
 
     @FXML
@@ -108,9 +277,47 @@ public class PickerController implements Initializable {
             (x, y) -> SyncPickerApp.getApplication().getRemoteLister().setupSessionAndChannelAsync(x, y)
         );
         FullStLister lister = rootFile.getFullStLister();
-        lister.setService(FileManipulationService.class, new FileManipulationService());
-
-        var root = new TreeItem<StFile>(rootFile, new FontIcon(Feather.FOLDER));
+        FileManipulationService fileService = new FileManipulationService();
+        fileService.addMutationListener(lister::apply);
+        fileService.addMutationListener(this::queueMutation);
+        lister.setService(FileManipulationService.class, fileService);
+        lister.setService(ContentHashService.class, new ContentHashService(lister));
+        lister.setService(DownloadManager.class, new DownloadManager(4));
+        // Built the first time it's searched, then kept current from the published mutations.
+        VersionIndex versionIndex = new VersionIndex(lister);
+        fileService.addMutationListener(versionIndex::apply);
+        lister.setService(VersionIndex.class, versionIndex);
+        // Scanned the first time it's looked at, then kept current the same way.
+        VersionStorage versionStorage = new VersionStorage(lister);
+        fileService.addMutationListener(versionStorage::apply);
+        lister.setService(VersionStorage.class, versionStorage);
+        // Built the first time the search field gets focus, then kept current the same way.
+        TrigramIndex nameIndex = new TrigramIndex(lister);
+        fileService.addMutationListener(nameIndex::apply);
+        lister.setService(TrigramIndex.class, nameIndex);
+        // The last folder's crawl would only compete with this one's listings.
+        if (this.nameIndex != null)
+            this.nameIndex.cancel();
+        this.nameIndex = nameIndex;
+        searchField.clear();
+        searchField.setPromptText("Search");
+        if (searchField.isFocused())
+            buildNameIndex();
+        // Built once a directory's totals are drawn or sorted by (see `buildRollups`), then kept current the same way.
+        DirectoryRollups rollups = new DirectoryRollups(lister);
+        fileService.addMutationListener(rollups::apply);
+        lister.setService(DirectoryRollups.class, rollups);
+        if (this.rollups != null)
+            this.rollups.cancel();
+        this.rollups = rollups;
+        rollupsWanted = false;
+        if (treeOrder != TreeOrder.Name)
+            buildRollups();
+
+        var root = new FileTreeItem(rootFile, new FontIcon(Feather.FOLDER));
+        treeIndex.clear();
+        listedDirs.clear();
+        treeIndex.put(rootFile.getRelativePath(), root);
 
         logger.debug("Combo box selected new folder `{}`", comboBox.getValue().label());
 
@@ -123,16 +330,17 @@ public class PickerController implements Initializable {
 
 
     /**
-     * This will scan the
+     * This will scan the directory held by {@code parent} and merge the result into its children. Directories that
+     * are new to the tree will have their own children listed as well, so they can show their expansion arrow.
      *
-     * @param parent
-     * @return
+     * @param parent The {@link TreeItem} holding the {@link StDirectory} to scan.
+     * @return A CompletableFuture to tell when this (and the scan of any new child directories) is done.
      */
-    CompletableFuture<Void> scanAndAddFiles(TreeItem<StFile> parent) {
+    CompletableFuture<Void> scanAndAddFiles(FileTreeItem parent) {
         return scanAndAddFiles(parent, true);
     }
 
-    CompletableFuture<Void> scanAndAddFiles(TreeItem<StFile> parent, boolean recursive) {
+    CompletableFuture<Void> scanAndAddFiles(FileTreeItem parent, boolean recursive) {
         // This only works for directories
         if (!(parent.getValue() instanceof StDirectory parentDir))
             return CompletableFuture.completedFuture(null);
@@ -145,16 +353,13 @@ public class PickerController implements Initializable {
         // Prep a completable future to mark when we are done.
         CompletableFuture<Void> theFuture = new CompletableFuture<>();
         parentDir.listFilesAsync().thenAcceptAsync(files -> {
+            List<FileTreeItem> added = mergeChildren(parent, files);
+            // New directories get listed one level down (existing ones already were).
             List<CompletableFuture<Void>> subTasks = new ArrayList<>();
-            // Now the logic for adding files once we actually get them.
-            var children = parent.getChildren();
-            for (StFile file : files) {
-                var item = new TreeItem<>(file);
-                if (file instanceof StDirectory && recursive)
-                    subTasks.add(scanAndAddFiles(item, false));
-                children.add(item);
-            }
-            parent.getChildren().sort(Comparator.comparing(TreeItem::getValue));
+            if (recursive)
+                for (FileTreeItem item : added)
+                    if (item.getValue() instanceof StDirectory)
+                        subTasks.add(scanAndAddFiles(item, false));
             // And let us know when the tasks finish.
             CompletableFuture
                 .allOf(subTasks.toArray(CompletableFuture[]::new))
@@ -163,9 +368,186 @@ public class PickerController implements Initializable {
         return theFuture;
     }
 
-    void fileScannerAndAdder2(TreeItem<StFile> parent) {
-        var children = parent.getChildren();
-        for (TreeItem<StFile> child : children) {
+    /**
+     * Patches the children of {@code parent} so that they match a fresh listing. Children that are gone get removed,
+     * new ones get added, and children whose contents changed get their value swapped in place. Because existing
+     * {@link TreeItem}s are reused, their expansion state and already-listed children are kept.
+     * <br/> Note: A child whose path changed kind (a directory that is now a file, or the other way around) is not
+     * reused. It is removed along with everything beneath it, and a new item is added in its place.
+     * <br/> Note: When showing a point in time, the children are filtered for it again (and so is every directory
+     * above, as whether they are shown may depend on it). See {@link #filterChildren}.
+     * <br/> Note: Must be called on the FX thread.
+     *
+     * @param parent The {@link TreeItem} whose children to patch.
+     * @param files  The new listing of the directory held by {@code parent}.
+     * @return The {@link TreeItem}s that were newly added.
+     */
+    private List<FileTreeItem> mergeChildren(FileTreeItem parent, List<StFile> files) {
+        var children = parent.allChildren;
+        listedDirs.add(parent.getValue().getRelativePath());
+        Map<Path, FileTreeItem> existing = new HashMap<>();
+        for (FileTreeItem child : children)
+            existing.put(child.getValue().getRelativePath(), child);
+        List<FileTreeItem> added = new ArrayList<>();
+        TreeItem<StFile> selected = treeView.getSelectionModel().getSelectedItem();
+        for (StFile file : files) {
+            FileTreeItem item = existing.remove(file.getRelativePath());
+            if (item != null && item.getValue().getClass() != file.getClass()) {
+                removeFromIndex(item);
+                children.remove(item);
+                item = null;
+            }
+            if (item == null) {
+                item = new FileTreeItem(file);
+                treeIndex.put(file.getRelativePath(), item);
+                added.add(item);
+            } else if (!file.sameContentsAs(item.getValue())) {
+                item.setValue(file);
+                if (item == selected)
+                    showSelected(item);
+            }
+        }
+        // Whatever is left over no longer exists.
+        if (!existing.isEmpty()) {
+            existing.values().forEach(this::removeFromIndex);
+            children.removeAll(existing.values());
+        }
+        if (!added.isEmpty())
+            keepingSelection(() -> {
+                children.addAll(added);
+                sortChildren(children);
+            });
+        if (viewTime != null)
+            for (FileTreeItem item = parent; item != null; item = item.getParentItem())
+                filterChildren(item, false);
+        return added;
+    }
+
+    /**
+     * Sorts the children of a directory in the tree by the current {@link #treeOrder}.
+     * <br/> Note: Must be called on the FX thread.
+     *
+     * @param children The children to sort.
+     */
+    private void sortChildren(List<FileTreeItem> children) {
+        if (treeOrder == TreeOrder.Name || rollups == null) {
+            children.sort(Comparator.comparing(TreeItem::getValue));
+            return;
+        }
+        // Every key is worked out once up front, since a directory's comes from the rollups.
+        Map<FileTreeItem, Long> keys = new HashMap<>();
+        for (FileTreeItem child : children)
+            keys.put(child, treeOrder.keyOf(child.getValue(), rollups));
+        children.sort(Comparator.<FileTreeItem>comparingLong(keys::get).reversed()
+                          .thenComparing(TreeItem::getValue));
+    }
+
+    /**
+     * Sorts the children of every directory that has been listed into the tree again, after {@link #treeOrder} (or
+     * what it sorts by) changed. The selection is kept.
+     * <br/> Note: Must be called on the FX thread.
+     */
+    private void sortTree() {
+        keepingSelection(() -> {
+            for (Path dir : listedDirs) {
+                FileTreeItem item = treeIndex.get(dir);
+                if (item != null)
+                    sortChildren(item.allChildren);
+            }
+        });
+    }
+
+    /**
+     * Moves children around in the tree without losing the selection. Reordering the children of a
+     * {@link FileTreeItem} takes them out of the tree and puts them back, which the selection doesn't survive.
+     * <br/> Note: Must be called on the FX thread.
+     *
+     * @param reorder What moves the children around.
+     */
+    private void keepingSelection(Runnable reorder) {
+        List<TreeItem<StFile>> selected = new ArrayList<>(treeView.getSelectionModel().getSelectedItems());
+        reorder.run();
+        treeView.getSelectionModel().clearSelection();
+        for (TreeItem<StFile> item : selected)
+            if (item != null && item.getParent() != null)
+                treeView.getSelectionModel().select(item);
+    }
+
+    /**
+     * Removes a {@link TreeItem} and everything beneath it from the {@link #treeIndex}.
+     *
+     * @param item The item to forget.
+     */
+    private void removeFromIndex(FileTreeItem item) {
+        treeIndex.remove(item.getValue().getRelativePath());
+        listedDirs.remove(item.getValue().getRelativePath());
+        for (FileTreeItem child : item.allChildren)
+            removeFromIndex(child);
+    }
+
+    /**
+     * Queues up a {@link FileMutation} to be applied to the tree. Can be called from any thread.
+     *
+     * @param mutation The mutation to apply.
+     */
+    private void queueMutation(FileMutation mutation) {
+        pendingMutations.add(mutation);
+        if (mutationsQueued.compareAndSet(false, true))
+            Platform.runLater(this::applyQueuedMutations);
+    }
+
+    private void applyQueuedMutations() {
+        mutationsQueued.set(false);
+        boolean patchedGroup = false;
+        for (FileMutation mutation; (mutation = pendingMutations.poll()) != null; )
+            patchedGroup |= applyMutation(mutation);
+        if (patchedGroup) {
+            // What a file group was at the time shown may have changed along with it.
+            if (viewTime != null)
+                filterTree();
+            treeView.refresh();
+        }
+    }
+
+    /**
+     * Applies a {@link FileMutation} published by the {@link FileManipulationService} straight to the tree. File groups
+     * already in the tree patch themselves. Anything else (new files, new or changed directories) is merged in from the
+     * lister's listing cache, which has already had the same mutation applied, so nothing gets listed again.
+     * <br/> Note: Must be called on the FX thread.
+     *
+     * @param mutation The mutation to apply.
+     * @return {@code true} if a file group was patched, meaning the tree's cells should be refreshed.
+     */
+    private boolean applyMutation(FileMutation mutation) {
+        TreeItem<StFile> selected = treeView.getSelectionModel().getSelectedItem();
+        boolean patchedGroup = false;
+        boolean needsMerge = false;
+        for (Path path : mutation.filePaths()) {
+            FileTreeItem item = treeIndex.get(path);
+            if (item != null && item.getValue() instanceof StFileGroup group) {
+                if (!group.apply(mutation))
+                    continue;
+                patchedGroup = true;
+                if (group.getFiles().isEmpty()) {
+                    removeFromIndex(item);
+                    item.getParentItem().allChildren.remove(item);
+                } else if (item == selected) {
+                    showSelected(item);
+                }
+            } else {
+                // Either something new, or a directory which may have changed location.
+                needsMerge = true;
+            }
+        }
+        FileTreeItem parent = treeIndex.get(mutation.directory());
+        if (needsMerge && parent != null && listedDirs.contains(mutation.directory()))
+            scanAndAddFiles(parent);
+        return patchedGroup;
+    }
+
+    void fileScannerAndAdder2(FileTreeItem parent) {
+        var children = parent.allChildren;
+        for (FileTreeItem child : children) {
             scanAndAddFiles(child, false);
         }
     }
@@ -173,56 +555,305 @@ public class PickerController implements Initializable {
 
     private final EventHandler<TreeItem.TreeModificationEvent<Object>> treeItemEventHandler = new EventHandler<>() {
         @Override
-        @SuppressWarnings({"unchecked", "rawtypes"})
+        @SuppressWarnings("rawtypes")
         // Yeah... casting wasn't going as expected, but I know it should work.
         public void handle(TreeItem.TreeModificationEvent<Object> event) {
             event.getTreeItem().removeEventHandler(TreeItem.branchExpandedEvent(), this);
-            fileScannerAndAdder2((TreeItem) event.getTreeItem());
+            fileScannerAndAdder2((FileTreeItem) (TreeItem) event.getTreeItem());
         }
     };
 
     /**
      * Finds a {@link TreeItem} that holds a {@link StFile} with the same name and path as the {@link StFile} passed in.
-     * That means that the {@link StFile} passed in may not be the same as the one found.
+     * That means that the {@link StFile} passed in may not be the same as the one found. If there is no such item
+     * (yet), the closest ancestor that is in the tree is returned instead.
      *
      * @param groupToSelect The {@link StFile} which we want to find the {@link TreeItem} that owns it.
      * @return The {@link TreeItem} that contains a {@link StFile} matching the name and location of the one given.
      */
-    TreeItem<StFile> selectFile(StFile groupToSelect) {
-        TreeItem<StFile> selectedItem = treeView.getRoot();
-        boolean foundItem = true;
-        for (String part : groupToSelect.getRelativePath().toString().split("[\\\\/]")) {
-            boolean foundNewest = false;
-            for (TreeItem<StFile> dirItem : selectedItem.getChildren())
-                if (dirItem.getValue().fileName.equals(part)) {
-                    selectedItem = dirItem;
-                    foundNewest = true;
-                    break;
-                }
-            if (!foundNewest) {
-                foundItem = false;
-                break;
-            }
+    FileTreeItem selectFile(StFile groupToSelect) {
+        return itemAt(groupToSelect.getRelativePath());
+    }
+
+    /**
+     * Finds the {@link TreeItem} for a relative path, or the closest ancestor of it that is in the tree.
+     *
+     * @param path The relative path of the {@link StFile} to find.
+     * @return The {@link TreeItem} closest to the path.
+     */
+    private FileTreeItem itemAt(Path path) {
+        FileTreeItem item = treeIndex.get(path);
+        while (item == null && path != null) {
+            path = path.getParent();
+            item = treeIndex.get(path != null ? path : Path.of(""));
         }
-        return selectedItem;
+        return item != null ? item : (FileTreeItem) treeView.getRoot();
     }
 
     /**
      * This is a convenience method that combines {@link #scanAndAddFiles(TreeItem)} with {@link #selectFile(StFile)}.
      * I noticed that when using these two methods together, I needed to explicitly capture the {@code StFile}
      * beforehand, it became a multi-line ugly process and thus was made its own thing.
+     * <br/> Note: Only the directory held by {@code parentToRescan} gets listed again (plus any directories that are
+     * new to it). Its cached listings are dropped first, so this always reflects what is on disk. The rest of the
+     * tree, including what is expanded, is left as is.
      *
      * @param parentToRescan The {@link TreeItem} to rescan (See {@link #scanAndAddFiles(TreeItem)} for more details).
      * @param fileToSelect   The {@link StFile} to then select (See {@link #selectFile(StFile)} for more details).
      * @return A CompletableFuture to tell when this is done.
      */
-    CompletableFuture<Void> rescanAndSelect(TreeItem<StFile> parentToRescan, StFile fileToSelect) {
-        parentToRescan.getChildren().clear();
+    CompletableFuture<Void> rescanAndSelect(FileTreeItem parentToRescan, StFile fileToSelect) {
+        StFile dir = parentToRescan.getValue();
+        dir.getFullStLister().invalidate(dir.getRelativePath());
         return scanAndAddFiles(parentToRescan)
-            .thenAccept(ignored -> treeView
-                .getSelectionModel()
-                .select(selectFile(fileToSelect))
-            );
+            .thenAccept(ignored -> {
+                // The tree allows multiple selection, so select the file alone rather than adding it.
+                treeView.getSelectionModel().clearSelection();
+                treeView.getSelectionModel().select(shownAncestorOf(selectFile(fileToSelect)));
+            });
+    }
+
+    /* **************************************************************
+     MARK: - Search
+     ****************************************************************/
+
+    /**
+     * Builds the directory totals of the folder being shown, unless that was already asked for.
+     */
+    private void buildRollups() {
+        DirectoryRollups rollups = this.rollups;
+        if (rollups == null || rollupsWanted)
+            return;
+        rollupsWanted = true;
+        rollups.ensureBuilt().whenComplete((x, ex) -> Platform.runLater(() -> {
+            // Whatever was listed while the totals were still coming in was sorted by partial totals.
+            if (this.rollups == rollups && treeOrder != TreeOrder.Name)
+                sortTree();
+        }));
+    }
+
+    /**
+     * Builds the name index of the folder being shown, unless it's already built (or being built).
+     */
+    private void buildNameIndex() {
+        TrigramIndex index = nameIndex;
+        if (index == null)
+            return;
+        CompletableFuture<Void> build = index.ensureBuilt();
+        if (build.isDone())
+            return;
+        searchField.setPromptText("Search (indexing...)");
+        build.whenComplete((x, ex) -> Platform.runLater(() -> {
+            if (this.nameIndex == index)
+                searchField.setPromptText(ex == null ? "Search" : "Search (only partly indexed)");
+        }));
+    }
+
+    /**
+     * Searches the name index on the {@link #searchThread} and shows the results once they're in, unless something
+     * else was typed in the meantime.
+     *
+     * @param text What to search for.
+     */
+    private void search(String text) {
+        long count = searchCount.incrementAndGet();
+        TrigramIndex index = nameIndex;
+        if (index == null || text == null || text.isBlank()) {
+            showSearchResults(List.of());
+            return;
+        }
+        CompletableFuture
+            .supplyAsync(() -> count == searchCount.get() ? index.search(text, MAX_SEARCH_RESULTS) : null, searchThread)
+            .thenAcceptAsync(hits -> {
+                if (hits != null && count == searchCount.get())
+                    showSearchResults(hits);
+            }, Platform::runLater)
+            .exceptionally(ex -> {
+                logger.error("Could not search for `{}`", text, ex);
+                return null;
+            });
+    }
+
+    private void showSearchResults(List<TrigramIndex.Hit> hits) {
+        searchResults.setItems(FXCollections.observableArrayList(hits));
+        searchResults.setVisible(!hits.isEmpty());
+        searchResults.setManaged(!hits.isEmpty());
+    }
+
+    private void revealSearchResult(TrigramIndex.Hit hit) {
+        if (hit == null)
+            return;
+        logger.debug("Revealing search result `{}`", hit.relativePath());
+        reveal(hit.relativePath());
+    }
+
+    /**
+     * Expands the tree down to a file or directory and selects it. Any directory on the way that hasn't been listed
+     * yet gets listed first, one level at a time. If the path isn't there (anymore), its closest ancestor that is gets
+     * selected instead.
+     * <br/> Note: Must be called on the FX thread.
+     *
+     * @param path The relative path of the {@link StFile} to show.
+     * @return A CompletableFuture to tell when it's selected.
+     */
+    CompletableFuture<Void> reveal(Path path) {
+        List<Path> dirs = new ArrayList<>();
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent())
+            dirs.addFirst(dir);
+        dirs.addFirst(Path.of(""));
+        CompletableFuture<Void> listed = CompletableFuture.completedFuture(null);
+        for (Path dir : dirs)
+            listed = listed.thenCompose(ignored -> {
+                FileTreeItem item = treeIndex.get(dir);
+                return item == null || listedDirs.contains(dir)
+                    ? CompletableFuture.completedFuture(null)
+                    : scanAndAddFiles(item, false);
+            });
+        return listed.thenRun(() -> {
+            FileTreeItem item = shownAncestorOf(itemAt(path));
+            for (TreeItem<StFile> parent = item.getParent(); parent != null; parent = parent.getParent())
+                parent.setExpanded(true);
+            treeView.getSelectionModel().clearSelection();
+            treeView.getSelectionModel().select(item);
+            treeView.scrollTo(treeView.getRow(item));
+            treeView.requestFocus();
+        });
+    }
+
+    /* **************************************************************
+     MARK: - Time Travel
+     ****************************************************************/
+
+    /**
+     * Turns showing the folder at a point in time on or off. When turned on, the slider reaches back to the oldest
+     * version of any file in the tree so far, and starts at now.
+     *
+     * @param on {@code true} to pick a point in time with the slider, {@code false} to show the folder as it is now.
+     */
+    private void setTimeTravel(boolean on) {
+        timeSlider.setDisable(!on);
+        if (!on) {
+            showAt(null);
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime oldest = now.minusDays(30);
+        for (FileTreeItem item : treeIndex.values())
+            if (item.getValue() instanceof StFileGroup group)
+                for (StFileGroup.File file : group.getFiles())
+                    if (file.getSyncDate() != null && file.getSyncDate().isBefore(oldest))
+                        oldest = file.getSyncDate();
+        timeSlider.setMin(minuteOf(oldest.minusDays(1)));
+        timeSlider.setMax(minuteOf(now));
+        timeSlider.setValue(minuteOf(now));
+        showAt(now);
+    }
+
+    /**
+     * Shows the folder as it was at a point in time. Files that didn't exist then are filtered out of the tree (see
+     * {@link #filterTree()}), and the cells on screen are redrawn to show what the rest were.
+     *
+     * @param time The point in time, or {@code null} for now.
+     */
+    private void showAt(LocalDateTime time) {
+        viewTime = time;
+        timeLabel.setText(time == null ? "" : time.format(viewTimeFormat));
+        filterTree();
+        treeView.refresh();
+        showSelected(treeView.getSelectionModel().getSelectedItem());
+    }
+
+    /**
+     * Filters every directory that has been listed into the tree for the {@link #viewTime}.
+     * <br/> Note: Only the file groups that have been listed are resolved (see {@link StFileGroup#resolveAt}), so this
+     * stays cheap enough to call for every step of the slider.
+     * <br/> Note: Must be called on the FX thread.
+     */
+    private void filterTree() {
+        if (treeView.getRoot() instanceof FileTreeItem root)
+            filterChildren(root, true);
+    }
+
+    /**
+     * Filters the children of a directory in the tree for the {@link #viewTime}. File groups that didn't exist at that
+     * time are left out, and so are directories that have been listed and have nothing left in them. Directories that
+     * haven't been listed yet are always shown, since there's no telling what is in them.
+     * <br/> Note: Must be called on the FX thread.
+     *
+     * @param item The directory whose children to filter.
+     * @param deep {@code true} to filter everything beneath it first, which whether a directory is shown depends on.
+     */
+    private void filterChildren(FileTreeItem item, boolean deep) {
+        if (deep)
+            for (FileTreeItem child : item.allChildren)
+                if (child.getValue() instanceof StDirectory)
+                    filterChildren(child, true);
+        LocalDateTime time = viewTime;
+        item.setFilter(time == null ? null : child -> switch (child.getValue()) {
+            case StFileGroup group -> group.resolveAt(time).isPresent();
+            case StDirectory dir -> !listedDirs.contains(dir.getRelativePath()) || !child.getChildren().isEmpty();
+        });
+    }
+
+    /**
+     * @param item An item that may have been filtered out of the tree.
+     * @return The item, or if it (or anything above it) is filtered out, the closest ancestor that is in the tree.
+     */
+    private static FileTreeItem shownAncestorOf(FileTreeItem item) {
+        FileTreeItem shown = item;
+        for (FileTreeItem at = item; at.getParentItem() != null; at = at.getParentItem())
+            if (!at.isShown())
+                shown = at.getParentItem();
+        return shown;
+    }
+
+    private static double minuteOf(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond() / 60.0;
+    }
+
+    private static LocalDateTime timeOfMinute(double minute) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond((long) minute * 60), ZoneId.systemDefault());
+    }
+
+    /* **************************************************************
+     MARK: - Tree Order
+     ****************************************************************/
+
+    /**
+     * The ways the tree can be sorted. Everything but {@link #Name} puts the biggest first, and falls back on the name.
+     */
+    enum TreeOrder {
+        Name("Name"),
+        Versions("Most Versions"),
+        VersionBytes("Largest Versions");
+
+        final String label;
+
+        TreeOrder(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @param file    A file or directory in the tree.
+         * @param rollups The directory totals of its folder.
+         * @return What it's sorted by, with larger first.
+         */
+        long keyOf(StFile file, DirectoryRollups rollups) {
+            boolean bytes = this == VersionBytes;
+            return switch (file) {
+                case StDirectory dir -> bytes
+                    ? rollups.of(dir.getRelativePath()).versionBytes()
+                    : rollups.of(dir.getRelativePath()).versions();
+                case StFileGroup group -> {
+                    long key = 0;
+                    for (StFileGroup.File f : group.getFiles())
+                        if (f.location.when == Location.When.Version)
+                            key += bytes ? Math.max(0, f.size) : 1;
+                    yield key;
+                }
+                default -> 0;
+            };
+        }
     }
 
     /* **************************************************************
@@ -319,6 +950,102 @@ public class PickerController implements Initializable {
         }
     }
 
+    /* **************************************************************
+     MARK: - SearchResultCell
+     ****************************************************************/
+
+    private static class SearchResultCell extends ListCell<TrigramIndex.Hit> {
+
+        private final FontIcon folderGraphic = new FontIcon(Evaicons.FOLDER);
+        private final FontIcon fileGraphic   = new FontIcon(Evaicons.FILE);
+
+        private final HBox outerBox = new HBox();
+        private final Text name     = new Text();
+        private final Text parent   = new Text();
+
+        {
+            parent.getStyleClass().add("search-parent");
+            outerBox.setSpacing(4);
+            outerBox.getChildren().addAll(fileGraphic, name, parent);
+        }
+
+        @Override
+        protected void updateItem(TrigramIndex.Hit hit, boolean empty) {
+            super.updateItem(hit, empty);
+
+            if (hit == null || empty) {
+                setText(null);
+                setGraphic(null);
+            } else {
+                setText("");
+                outerBox.getChildren().set(0, hit.isDir() ? folderGraphic : fileGraphic);
+                name.setText(hit.relativePath().getFileName().toString());
+                Path dir = hit.relativePath().getParent();
+                parent.setText(dir == null ? "" : dir.toString());
+                setGraphic(outerBox);
+            }
+        }
+    }
+
+    /* **************************************************************
+     MARK: - FileTreeItem
+     ****************************************************************/
+
+    /**
+     * A {@link TreeItem} whose children can be filtered. Every child is kept in {@link #allChildren}, while
+     * {@link #getChildren()} (which is what the tree shows) only follows the ones that get through the filter. A
+     * filtered out child really leaves the tree, so it can't be navigated to, selected, or acted on.
+     * <br/> Note: Children must only be added to or removed from {@link #allChildren}, never {@link #getChildren()}.
+     */
+    static final class FileTreeItem extends TreeItem<StFile> {
+
+        /** Every child of this item, whether it gets through the filter or not. */
+        final ObservableList<FileTreeItem> allChildren = FXCollections.observableArrayList();
+
+        private final FilteredList<FileTreeItem> shownChildren = new FilteredList<>(allChildren);
+
+        /** The item this is a child of. Unlike {@link #getParent()}, this is still set while it's filtered out. */
+        private FileTreeItem parentItem = null;
+
+        FileTreeItem(StFile file) {
+            this(file, null);
+        }
+
+        FileTreeItem(StFile file, Node graphic) {
+            super(file, graphic);
+            Bindings.bindContent(getChildren(), shownChildren);
+            allChildren.addListener((ListChangeListener<FileTreeItem>) change -> {
+                while (change.next()) {
+                    for (FileTreeItem removed : change.getRemoved())
+                        if (removed.parentItem == this)
+                            removed.parentItem = null;
+                    for (FileTreeItem added : change.getAddedSubList())
+                        added.parentItem = this;
+                }
+            });
+        }
+
+        FileTreeItem getParentItem() {
+            return parentItem;
+        }
+
+        /**
+         * @return Whether this item gets through its parent's filter (the root always does).
+         */
+        boolean isShown() {
+            return parentItem == null || parentItem.getChildren().contains(this);
+        }
+
+        /**
+         * Sets which children get through to the tree.
+         *
+         * @param filter Tests each child, or {@code null} to let every child through.
+         */
+        void setFilter(Predicate<FileTreeItem> filter) {
+            shownChildren.setPredicate(filter);
+        }
+    }
+
     /* **************************************************************
      MARK: - FileTreeCell
      ****************************************************************/
@@ -354,16 +1081,20 @@ public class PickerController implements Initializable {
             if (file == null || empty) {
                 setText(null);
                 setGraphic(null);
-                fileName.getStyleClass().remove("deleted");
+                fileName.getStyleClass().removeAll("deleted", "past");
             } else {
+                // When showing a point in time, files that didn't exist then were filtered out of the tree.
+                StFileGroup.File shown = viewTime != null && file instanceof StFileGroup group
+                    ? group.resolveAt(viewTime).orElse(null)
+                    : null;
                 setText("");
                 setGraphic(outerBox);
                 fileName.setText(file.fileName);
-                if (file.getPrimaryLocation() != Location.LocalCurrent) {
+                fileName.getStyleClass().removeAll("deleted", "past");
+                if (shown != null && shown.location.when == Location.When.Version)
+                    fileName.getStyleClass().add("past");
+                else if (viewTime == null && file.getPrimaryLocation() != Location.LocalCurrent)
                     fileName.getStyleClass().add("deleted");
-                } else {
-                    fileName.getStyleClass().remove("deleted");
-                }
                 if (file instanceof StFileGroup group) {
                     if (!outerBox.getChildren().isEmpty())
                         outerBox.getChildren().set(0, fileGraphic);
@@ -372,14 +1103,29 @@ public class PickerController implements Initializable {
                 } else {
                     if (!outerBox.getChildren().isEmpty())
                         outerBox.getChildren().set(0, folderGraphic);
-                    setOrHideFlow(Location.LocalVersions, 0);
-                    setOrHideFlow(Location.RemoteVersions, 0);
+                    // Directories show the totals of everything beneath them.
+                    buildRollups();
+                    var totals = rollups == null
+                        ? DirectoryRollups.Totals.EMPTY
+                        : rollups.of(file.getRelativePath());
+                    setOrHideFlow(Location.LocalVersions, totals.files(Location.LocalVersions),
+                                  totals.bytes(Location.LocalVersions));
+                    setOrHideFlow(Location.RemoteVersions, totals.files(Location.RemoteVersions),
+                                  totals.bytes(Location.RemoteVersions));
                 }
                 contextMenu.updateMenuForFile(this);
             }
         }
 
         private void setOrHideFlow(Location loc, long count) {
+            setOrHideFlow(loc, count, -1);
+        }
+
+        /**
+         * @param bytes How many bytes the files counted take up, to show next to the count, or {@code -1} to only
+         *              show the count.
+         */
+        private void setOrHideFlow(Location loc, long count, long bytes) {
             var correctText = switch (loc) {
                 case LocalVersions -> localText;
                 case RemoteVersions -> remoteText;
@@ -390,7 +1136,9 @@ public class PickerController implements Initializable {
             outerBox.getChildren().remove(correctTextParent);
             if (count > 0) {
                 outerBox.getChildren().add(correctTextParent);
-                correctText.setText(String.valueOf(count));
+                correctText.setText(bytes < 0
+                                        ? String.valueOf(count)
+                                        : "%d · %s".formatted(count, JobProgress.humanBytes(bytes)));
             }
         }
 
@@ -405,14 +1153,58 @@ public class PickerController implements Initializable {
 
         final MenuItem refreshFolder  = new MenuItem("Refresh Folder");
         final MenuItem restoreVersion = new MenuItem("Restore Previous Version");
+        final MenuItem restoreToTime  = new MenuItem("Restore to Shown Time...");
+        final MenuItem scanForDrift   = new MenuItem("Compare Local and Remote");
+        final MenuItem reportChanges  = new MenuItem("Report Changes...");
+        final MenuItem mirrorVersions = new MenuItem("Mirror Remote Versions");
+        final MenuItem pushVersions   = new MenuItem("Push Local Versions");
+        final MenuItem pruneVersions  = new MenuItem("Prune Remote Versions...");
+        final MenuItem saveNewest     = new MenuItem("Save Newest Versions of Selected...");
+        final MenuItem exportZip      = new MenuItem("Export as ZIP...");
+        final MenuItem exportManifest = new MenuItem("Export Version Manifest...");
+        final MenuItem findVersions   = new MenuItem("Find Versions...");
+        final MenuItem recentChanges  = new MenuItem("Recent Changes...");
+        final MenuItem findConflicts  = new MenuItem("Find Conflicts...");
+        final MenuItem versionStorage = new MenuItem("Version Storage...");
+        final Menu     sortBy         = new Menu("Sort By");
+
+        final Map<TreeOrder, CheckMenuItem> sortItems = new EnumMap<>(TreeOrder.class);
 
         private FileTreeCell     fileTreeCell;
-        private TreeItem<StFile> parentFolder;
+        private FileTreeItem parentFolder;
 
         {
             var items = this.getItems();
             items.add(refreshFolder);
             items.add(restoreVersion);
+            items.add(restoreToTime);
+            items.add(saveNewest);
+            items.add(exportZip);
+            items.add(new SeparatorMenuItem());
+            items.add(findVersions);
+            items.add(recentChanges);
+            items.add(findConflicts);
+            items.add(versionStorage);
+            items.add(scanForDrift);
+            items.add(reportChanges);
+            items.add(exportManifest);
+            items.add(mirrorVersions);
+            items.add(pushVersions);
+            items.add(pruneVersions);
+            items.add(new SeparatorMenuItem());
+            items.add(sortBy);
+            for (TreeOrder order : TreeOrder.values()) {
+                CheckMenuItem item = new CheckMenuItem(order.label);
+                item.setOnAction(event -> {
+                    logger.debug("Sorting the tree by {}", order);
+                    treeOrder = order;
+                    if (order != TreeOrder.Name)
+                        buildRollups();
+                    sortTree();
+                });
+                sortItems.put(order, item);
+                sortBy.getItems().add(item);
+            }
 
             refreshFolder.setOnAction(event -> {
                 rescanAndSelect(parentFolder, fileTreeCell.getItem());
@@ -420,31 +1212,272 @@ public class PickerController implements Initializable {
             restoreVersion.setOnAction(event -> {
                 StFile file = getStFile();
                 logger.debug("Restoring version action triggered for file group `{}`", file);
-                CompletableFuture<?> future = switch (file) {
+                // No need to rescan afterward, the service publishes everything it changed.
+                switch (file) {
                     case StFileGroup fileGroup -> getFileService().restoreVersion(fileGroup, true);
-                    case StDirectory folder -> getFileService().restoreVersion(folder, false);
-                    case null -> null;
-                };
-                assert future != null;
-                future.thenAccept(ignored -> rescanAndSelect(parentFolder, fileTreeCell.getItem()));
+                    case StDirectory folder -> JobProgressController.open(
+                        getFileService().restoreDirectory(folder, false));
+                    case null -> logger.warn("Restore triggered without a file");
+                }
+            });
+            restoreToTime.setOnAction(event -> {
+                if (!(getStFile() instanceof StDirectory folder) || viewTime == null)
+                    return;
+                logger.debug("Restore to time action triggered for folder `{}` at {}", folder, viewTime);
+                FileManipulationService service = getFileService();
+                RestorePlanner planner = service.planRestore(folder, viewTime);
+                JobProgressController.open(planner);
+                planner.future().thenAccept(plan -> Platform.runLater(() -> confirmRestore(service, plan)));
+            });
+            saveNewest.setOnAction(event -> {
+                List<StFileGroup> groups = new ArrayList<>();
+                for (TreeItem<StFile> item : treeView.getSelectionModel().getSelectedItems())
+                    if (item != null && item.getValue() instanceof StFileGroup fileGroup)
+                        groups.add(fileGroup);
+                logger.debug("Save newest versions action triggered for {} file groups", groups.size());
+                if (!getFileService().saveNewestVersions(groups).isEmpty())
+                    DownloadsController.open(getStFile().getFullStLister().getService(DownloadManager.class));
+            });
+            exportZip.setOnAction(event -> {
+                if (!(getStFile() instanceof StDirectory folder))
+                    return;
+                logger.debug("Export as ZIP action triggered for folder `{}`", folder);
+                FileChooser chooser = new FileChooser();
+                chooser.setTitle("Export As...");
+                String name = folder.getRelativePath().toString().isEmpty()
+                    ? comboBox.getValue().label()
+                    : folder.getRelativePath().getFileName().toString();
+                chooser.setInitialFileName(name + ".zip");
+                chooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("ZIP Archive (.zip)", "*.zip"));
+                java.io.File destination = chooser.showSaveDialog(SyncPickerApp.getApplication().getStage());
+                if (destination == null)
+                    return;
+                // While looking at the past, export the folder the way it's being shown.
+                LocalDateTime time = viewTime;
+                JobProgressController.open(time == null
+                    ? getFileService().exportZip(folder, destination.toPath())
+                    : getFileService().exportZip(folder, group -> group.resolveAt(time), destination.toPath()));
+            });
+            exportManifest.setOnAction(event -> {
+                if (!(getStFile() instanceof StDirectory folder))
+                    return;
+                logger.debug("Export manifest action triggered for folder `{}`", folder);
+                FileChooser chooser = new FileChooser();
+                chooser.setTitle("Export Manifest As...");
+                chooser.setInitialFileName("manifest-%s-%s.csv".formatted(
+                    comboBox.getValue().id(), LocalDateTime.now().format(reportTimeFormat)));
+                chooser.getExtensionFilters().addAll(
+                    new FileChooser.ExtensionFilter("CSV (.csv)", "*.csv"),
+                    new FileChooser.ExtensionFilter("JSON Lines (.jsonl)", "*.jsonl")
+                );
+                java.io.File destination = chooser.showSaveDialog(SyncPickerApp.getApplication().getStage());
+                if (destination != null)
+                    JobProgressController.open(new ManifestExporter(
+                        folder, destination.toPath(), ManifestExporter.Format.forFile(destination.toPath())
+                    ).start());
+            });
+            findVersions.setOnAction(event -> {
+                StFile file = getStFile();
+                if (file == null)
+                    return;
+                Path under = file instanceof StDirectory ? file.getRelativePath() : file.getRelativePath().getParent();
+                logger.debug("Find versions action triggered under `{}`", under);
+                FindVersionsController.open(file.getFullStLister().getService(VersionIndex.class), under);
+            });
+            recentChanges.setOnAction(event -> {
+                // For a file, that's the folder it's in.
+                if (!(parentFolder.getValue() instanceof StDirectory folder))
+                    return;
+                logger.debug("Recent changes action triggered for folder `{}`", folder);
+                RecentChangesController.open(new RecentChanges(folder, MAX_RECENT_CHANGES).start(),
+                                             PickerController.this::reveal);
+            });
+            findConflicts.setOnAction(event -> {
+                if (!(parentFolder.getValue() instanceof StDirectory folder))
+                    return;
+                logger.debug("Find conflicts action triggered for folder `{}`", folder);
+                ConflictsController.open(folder);
+            });
+            versionStorage.setOnAction(event -> {
+                StFile file = getStFile();
+                if (file == null)
+                    return;
+                logger.debug("Version storage action triggered");
+                VersionStorageController.open(file.getFullStLister().getService(VersionStorage.class));
+            });
+            mirrorVersions.setOnAction(event -> {
+                if (getStFile() instanceof StDirectory folder) {
+                    logger.debug("Mirror versions action triggered for folder `{}`", folder);
+                    JobProgressController.open(getFileService().mirrorVersions(folder));
+                }
+            });
+            pushVersions.setOnAction(event -> {
+                if (getStFile() instanceof StDirectory folder) {
+                    logger.debug("Push versions action triggered for folder `{}`", folder);
+                    JobProgressController.open(getFileService().pushVersions(folder));
+                }
+            });
+            pruneVersions.setOnAction(event -> {
+                if (!(getStFile() instanceof StDirectory folder))
+                    return;
+                logger.debug("Prune versions action triggered for folder `{}`", folder);
+                LocalDateTime before = (viewTime != null ? viewTime : LocalDateTime.now()).minusDays(90);
+                TextInputDialog dialog = new TextInputDialog("before " + before.format(windowFormat));
+                dialog.initOwner(SyncPickerApp.getApplication().getStage());
+                dialog.setHeaderText("Prune which remote versions? (\"before <time>\" or \"keep <count>\")");
+                dialog.setContentText("Prune");
+                dialog.showAndWait().ifPresent(input -> {
+                    String[] parts = input.strip().split("\\s+", 2);
+                    PrunePlan.Rule rule;
+                    try {
+                        rule = switch (parts[0].toLowerCase()) {
+                            case "before" -> new PrunePlan.Rule.OlderThan(
+                                LocalDateTime.parse(parts[1].strip(), windowFormat));
+                            case "keep" -> new PrunePlan.Rule.KeepNewest(Integer.parseInt(parts[1].strip()));
+                            default -> throw new IllegalArgumentException("Unknown rule `%s`".formatted(parts[0]));
+                        };
+                    } catch (RuntimeException e) {
+                        logger.warn("Could not read prune rule `{}`: {}", input, e.getMessage());
+                        showInputError("Could not read prune rule", ("`%s` is not a rule. Use \"before yyyy-MM-dd "
+                            + "HH:mm\" or \"keep <count>\", where at least one version is kept.").formatted(input));
+                        return;
+                    }
+                    FileManipulationService service = getFileService();
+                    PrunePlanner planner = service.planPrune(folder, rule);
+                    JobProgressController.open(planner);
+                    planner.future().thenAccept(plan -> Platform.runLater(() -> confirmPrune(service, plan)));
+                });
+            });
+            scanForDrift.setOnAction(event -> {
+                if (!(getStFile() instanceof StDirectory folder))
+                    return;
+                logger.debug("Drift scan action triggered for folder `{}`", folder);
+                Path report = SyncPickerApp.STVP_HOME.resolve("reports").resolve("drift-%s-%s.tsv".formatted(
+                    comboBox.getValue().id(), LocalDateTime.now().format(reportTimeFormat)));
+                DriftScanner scanner = new DriftScanner(
+                    folder, folder.getFullStLister().getService(ContentHashService.class), report,
+                    drift -> logger.trace("Drift found: `{}`", drift)
+                ).start();
+                JobProgressController.open(scanner);
+                scanner.future().thenRun(() -> Platform.runLater(
+                    () -> SyncPickerApp.getApplication().getHostServices().showDocument(report.toUri().toString())));
+            });
+            reportChanges.setOnAction(event -> {
+                if (!(getStFile() instanceof StDirectory folder))
+                    return;
+                logger.debug("Report changes action triggered for folder `{}`", folder);
+                LocalDateTime to = viewTime != null ? viewTime : LocalDateTime.now();
+                TextInputDialog dialog = new TextInputDialog(
+                    to.minusDays(7).format(windowFormat) + " to " + to.format(windowFormat));
+                dialog.initOwner(SyncPickerApp.getApplication().getStage());
+                dialog.setHeaderText("Report which files changed, and how often");
+                dialog.setContentText("Between");
+                dialog.showAndWait().ifPresent(window -> {
+                    String[] ends = window.split("\\s+to\\s+");
+                    LocalDateTime start, end;
+                    try {
+                        start = LocalDateTime.parse(ends[0].strip(), windowFormat);
+                        end = LocalDateTime.parse(ends[ends.length - 1].strip(), windowFormat);
+                    } catch (DateTimeParseException e) {
+                        logger.warn("Could not read time window `{}`: {}", window, e.getMessage());
+                        showInputError("Could not read time window",
+                                       "`%s` is not a time window. Use \"yyyy-MM-dd HH:mm to yyyy-MM-dd HH:mm\"."
+                                           .formatted(window));
+                        return;
+                    }
+                    Path report = SyncPickerApp.STVP_HOME.resolve("reports").resolve("changes-%s-%s.tsv".formatted(
+                        comboBox.getValue().id(), LocalDateTime.now().format(reportTimeFormat)));
+                    ChangeReport changes = new ChangeReport(folder, start, end, report).start();
+                    JobProgressController.open(changes);
+                    changes.future().thenRun(() -> Platform.runLater(() -> SyncPickerApp.getApplication()
+                        .getHostServices().showDocument(report.toUri().toString())));
+                });
             });
         }
 
         public void updateMenuForFile(FileTreeCell file) {
             this.fileTreeCell = file;
+            sortItems.forEach((order, item) -> item.setSelected(order == treeOrder));
             if (file != null) {
-                parentFolder = file.getTreeItem();
+                parentFolder = (FileTreeItem) file.getTreeItem();
                 if (parentFolder.getValue() instanceof StFileGroup) {
-                    parentFolder = parentFolder.getParent();
+                    parentFolder = parentFolder.getParentItem();
                     refreshFolder.setText("Refresh Parent Folder");
                     restoreVersion.setText("Restore Previous Version");
+                    restoreToTime.setDisable(true);
+                    scanForDrift.setDisable(true);
+                    reportChanges.setDisable(true);
+                    exportZip.setDisable(true);
+                    exportManifest.setDisable(true);
+                    mirrorVersions.setDisable(true);
+                    pushVersions.setDisable(true);
+                    pruneVersions.setDisable(true);
                 } else {
                     refreshFolder.setText("Refresh Folder");
                     restoreVersion.setText("Restore Entire Folder");
+                    restoreToTime.setDisable(viewTime == null);
+                    scanForDrift.setDisable(false);
+                    reportChanges.setDisable(false);
+                    exportZip.setDisable(false);
+                    exportManifest.setDisable(false);
+                    mirrorVersions.setDisable(false);
+                    pushVersions.setDisable(false);
+                    pruneVersions.setDisable(false);
                 }
             }
         }
 
+        /**
+         * Shows what a planned restore would do, and carries it out if the user agrees.
+         */
+        private void confirmRestore(FileManipulationService service, RestorePlan plan) {
+            if (plan.entries().isEmpty()) {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.initOwner(SyncPickerApp.getApplication().getStage());
+                alert.setHeaderText("Nothing to restore");
+                alert.setContentText(plan.describe());
+                alert.showAndWait();
+                return;
+            }
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+            alert.initOwner(SyncPickerApp.getApplication().getStage());
+            alert.setHeaderText("Restore to shown time?");
+            alert.setContentText(plan.describe());
+            if (alert.showAndWait().filter(b -> b == ButtonType.OK).isPresent())
+                JobProgressController.open(service.restoreDirectory(plan));
+        }
+
+        /**
+         * Shows what a planned prune would delete, and carries it out if the user agrees.
+         */
+        private void confirmPrune(FileManipulationService service, PrunePlan plan) {
+            if (plan.entries().isEmpty()) {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.initOwner(SyncPickerApp.getApplication().getStage());
+                alert.setHeaderText("Nothing to prune");
+                alert.setContentText(plan.describe());
+                alert.showAndWait();
+                return;
+            }
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+            alert.initOwner(SyncPickerApp.getApplication().getStage());
+            alert.setHeaderText("Delete these remote versions?");
+            alert.setContentText(plan.describe());
+            if (alert.showAndWait().filter(b -> b == ButtonType.OK).isPresent())
+                JobProgressController.open(service.prune(plan));
+        }
+
+        /**
+         * Tells the user that what they typed into a dialog could not be read.
+         */
+        private void showInputError(String header, String content) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.initOwner(SyncPickerApp.getApplication().getStage());
+            alert.setHeaderText(header);
+            alert.setContentText(content);
+            alert.showAndWait();
+        }
+
         private StFile getStFile() {
             return fileTreeCell.getTreeItem().getValue();
         }
@@ -5,8 +5,13 @@ import biz.donvi.syncthingversionpicker.SyncPickerApp;
 import biz.donvi.syncthingversionpicker.files.Location;
 import biz.donvi.syncthingversionpicker.files.StFileGroup;
 import biz.donvi.syncthingversionpicker.files.StFileGroup.File;
+import biz.donvi.syncthingversionpicker.services.ContentHashService;
+import biz.donvi.syncthingversionpicker.services.DownloadManager;
 import biz.donvi.syncthingversionpicker.services.FileManipulationService;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -17,6 +22,7 @@ import org.apache.logging.log4j.Logger;
 import java.net.URL;
 import java.time.LocalDateTime;
 import java.util.Comparator;
+import java.util.List;
 import java.util.ResourceBundle;
 
 public class PickerTableComponentController implements Initializable {
@@ -33,15 +39,23 @@ public class PickerTableComponentController implements Initializable {
     @FXML
     public TableColumn<File, String> columnConflict;
     @FXML
+    public TableColumn<File, String> columnIdentical;
+    @FXML
     public TableColumn<File, String> columnDateCreated;
     @FXML
     public TableColumn<File, String> columnTimeSinceCreation;
     @FXML
     public TableColumn<File, String> columnName;
 
+    private final BooleanProperty hideIdentical = new SimpleBooleanProperty(false);
+
+    private StFileGroup selected;
+
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
-        fileGroupTable.setRowFactory(x -> new PickerTableRow());
+        fileGroupTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        fileGroupTable.setRowFactory(x -> new PickerTableRow(hideIdentical, fileGroupTable.getSelectionModel()));
+        hideIdentical.addListener((obs, was, is) -> showFiles());
 
         columnType.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
             x.getValue().location.when.which("Real", "Backup")
@@ -55,6 +69,10 @@ public class PickerTableComponentController implements Initializable {
             x.getValue().nameInfo.hasConflict() ? "Conflict" : ""
         ));
 
+        columnIdentical.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            describeIdentical(x.getValue())
+        ));
+
         columnDateCreated.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
             x.getValue().getTimeStamp()
         ));
@@ -85,11 +103,49 @@ public class PickerTableComponentController implements Initializable {
     }
 
 
+    private static String describeIdentical(File file) {
+        StFileGroup group = file.getParent();
+        if (group.isDuplicate(file)) {
+            File same = group.cheapestIdentical(file);
+            return "Same as " + same.location.where.which("Local", "Remote") + " " + same.getTimeStamp();
+        }
+        int identical = group.getIdenticalFiles(file).size();
+        return identical == 0 ? "" : "%d identical".formatted(identical);
+    }
+
     public void setSelected(StFileGroup fileGroup) {
-        if (fileGroup == null) {
+        selected = fileGroup;
+        showFiles();
+        if (fileGroup == null)
+            return;
+        // Hashes come in after the files are already shown, so show them again (if still selected) once they do.
+        fileGroup.getFullStLister()
+            .getService(ContentHashService.class)
+            .hash(fileGroup)
+            .thenRunAsync(() -> {
+                if (selected == fileGroup)
+                    showFiles();
+            }, Platform::runLater);
+    }
+
+    /**
+     * Selects a single file of the selected file group in the table, and scrolls to it.
+     *
+     * @param file The file to select.
+     */
+    public void selectFile(File file) {
+        fileGroupTable.getSelectionModel().clearSelection();
+        fileGroupTable.getSelectionModel().select(file);
+        fileGroupTable.scrollTo(file);
+    }
+
+    private void showFiles() {
+        if (selected == null) {
             fileGroupTable.setItems(FXCollections.observableArrayList());
         } else {
-            fileGroupTable.setItems(FXCollections.observableArrayList(fileGroup.getFiles()));
+            fileGroupTable.setItems(FXCollections.observableArrayList(
+                hideIdentical.get() ? selected.getDistinctFiles() : selected.getFiles()
+            ));
         }
     }
 
@@ -99,9 +155,10 @@ public class PickerTableComponentController implements Initializable {
 
     static class PickerTableRow extends TableRow<File> {
 
-        private final PickerTableContextMenu contextMenu = new PickerTableContextMenu();
+        private final PickerTableContextMenu contextMenu;
 
-        {
+        PickerTableRow(BooleanProperty hideIdentical, MultipleSelectionModel<File> selection) {
+            contextMenu = new PickerTableContextMenu(hideIdentical, selection);
             setContextMenu(contextMenu);
         }
 
@@ -125,6 +182,9 @@ public class PickerTableComponentController implements Initializable {
                 "-fx-background-color: -color-purple;"
             );
 
+            if (file.getParent().isDuplicate(file))
+                style += "-fx-opacity: 0.6;";
+
             setStyle(style);
 
 
@@ -140,23 +200,33 @@ public class PickerTableComponentController implements Initializable {
 
         private static final Logger logger = LogManager.getLogger(PickerTableContextMenu.class);
 
-        final MenuItem showInExplorer   = new MenuItem("Show in Explorer");
-        final MenuItem openInDefaultApp = new MenuItem("Open in Default App");
-        final MenuItem saveACopy        = new MenuItem("Save a Copy");
-        final MenuItem restoreVersion   = new MenuItem("Restore Version");
+        final MenuItem      showInExplorer   = new MenuItem("Show in Explorer");
+        final MenuItem      openInDefaultApp = new MenuItem("Open in Default App");
+        final MenuItem      saveACopy        = new MenuItem("Save a Copy");
+        final MenuItem      saveCopies       = new MenuItem("Save Copies of Selected...");
+        final MenuItem      restoreVersion   = new MenuItem("Restore Version");
+        final MenuItem      moveVersion      = new MenuItem("Restore Version by Moving It");
+        final CheckMenuItem hideIdentical    = new CheckMenuItem("Hide Identical Versions");
 
         final SyncPickerApp app = SyncPickerApp.getApplication();
 
+        private final MultipleSelectionModel<File> selection;
+
         private File file;
 
-        {
+        PickerTableContextMenu(BooleanProperty hideIdenticalProperty, MultipleSelectionModel<File> selection) {
+            this.selection = selection;
+            hideIdentical.selectedProperty().bindBidirectional(hideIdenticalProperty);
             var items = this.getItems();
             items.add(showInExplorer);
             items.add(openInDefaultApp);
             items.add(new SeparatorMenuItem());
             items.add(saveACopy);
+            items.add(saveCopies);
             items.add(restoreVersion);
-
+            items.add(moveVersion);
+            items.add(new SeparatorMenuItem());
+            items.add(hideIdentical);
 
             showInExplorer.setOnAction(event -> {
                 logger.debug("Show file in explorer action triggered for file `{}`", file);
@@ -170,10 +240,20 @@ public class PickerTableComponentController implements Initializable {
                 logger.debug("Save a copy action triggered for file `{}`", file);
                 getFileService().saveACopy(file);
             });
+            saveCopies.setOnAction(event -> {
+                List<File> files = List.copyOf(selection.getSelectedItems());
+                logger.debug("Save copies action triggered for {} files", files.size());
+                if (!getFileService().saveCopies(files.isEmpty() ? List.of(file) : files).isEmpty())
+                    DownloadsController.open(file.getParent().getFullStLister().getService(DownloadManager.class));
+            });
             restoreVersion.setOnAction(event -> {
                 logger.debug("Restore version action triggered for file `{}`", file);
                 getFileService().restoreVersion(file, true);
             });
+            moveVersion.setOnAction(event -> {
+                logger.debug("Move version action triggered for file `{}`", file);
+                getFileService().restoreVersion(file, true, true);
+            });
         }
 
         private FileManipulationService getFileService() {
@@ -182,6 +262,7 @@ public class PickerTableComponentController implements Initializable {
 
         private void updateMenuForFile(File file) {
             this.file = file;
+            moveVersion.setDisable(file.location != Location.LocalVersions);
 //            showInExplorer.setDisable(file.location.where == Location.Where.Remote);
 //            openInDefaultApp.setDisable(file.location.where == Location.Where.Remote);
         }
@@ -0,0 +1,145 @@
+package biz.donvi.syncthingversionpicker.controllers;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import biz.donvi.syncthingversionpicker.services.JobProgress;
+import biz.donvi.syncthingversionpicker.services.RecentChanges;
+import biz.donvi.syncthingversionpicker.services.RecentChanges.Hit;
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+
+/**
+ * A window that lists the most recently versioned files in a folder, found by a {@link RecentChanges} search. The list
+ * updates live while the search runs. Double-clicking a version shows its file in the tree.
+ */
+public class RecentChangesController {
+
+    private static final Logger logger = LogManager.getLogger(RecentChangesController.class);
+
+    /** How often the window polls the search for new results. */
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    private static final DateTimeFormatter syncDateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss a");
+
+    @FXML private TableView<Hit>           resultTable;
+    @FXML private TableColumn<Hit, String> columnSyncDate;
+    @FXML private TableColumn<Hit, String> columnPath;
+    @FXML private TableColumn<Hit, String> columnLocation;
+    @FXML private TableColumn<Hit, String> columnSize;
+    @FXML private Text                     statusText;
+    @FXML private Button                   cancelButton;
+
+    private RecentChanges search;
+    private Stage         stage;
+    private long          shownChanges = -1;
+
+    private final AnimationTimer refresher = new AnimationTimer() {
+        private long lastRefresh = 0;
+
+        @Override
+        public void handle(long now) {
+            if (now - lastRefresh >= REFRESH_NANOS) {
+                lastRefresh = now;
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * Opens a new window for a search. The window keeps updating until the search finishes.
+     *
+     * @param search The search to show the results of.
+     * @param reveal Shows a file (by its relative path) in the tree.
+     */
+    public static void open(RecentChanges search, Consumer<Path> reveal) {
+        FXMLLoader loader = new FXMLLoader(SyncPickerApp.class.getResource("picker-view/recent-changes.fxml"));
+        Stage stage = new Stage();
+        try {
+            stage.setScene(new Scene(loader.load()));
+        } catch (IOException e) {
+            logger.error("Could not open the recent changes window", e);
+            return;
+        }
+        RecentChangesController controller = loader.getController();
+        controller.search = search;
+        controller.stage = stage;
+        controller.setUp(reveal);
+        stage.setTitle(search.title());
+        stage.initOwner(SyncPickerApp.getApplication().getStage());
+        stage.setOnHidden(event -> {
+            controller.refresher.stop();
+            search.cancel();
+        });
+        controller.refresher.start();
+        stage.show();
+    }
+
+    private void setUp(Consumer<Path> reveal) {
+        columnSyncDate.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().syncDate().format(syncDateFormat)
+        ));
+        columnPath.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().relativePath().toString()
+        ));
+        columnLocation.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().location().where.which("Local", "Remote")
+        ));
+        columnSize.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            x.getValue().size() < 0 ? "" : JobProgress.humanBytes(x.getValue().size())
+        ));
+        resultTable.setOnMouseClicked(event -> {
+            Hit hit = resultTable.getSelectionModel().getSelectedItem();
+            if (event.getClickCount() == 2 && hit != null) {
+                logger.debug("Revealing recent change `{}`", hit.relativePath());
+                reveal.accept(hit.relativePath());
+            }
+        });
+    }
+
+    private void refresh() {
+        long changes = search.changeCount();
+        if (changes != shownChanges) {
+            shownChanges = changes;
+            Hit selected = resultTable.getSelectionModel().getSelectedItem();
+            resultTable.getItems().setAll(search.newest());
+            if (selected != null)
+                resultTable.getSelectionModel().select(selected);
+        }
+        JobProgress progress = search.progress();
+        if (progress.finished()) {
+            refresher.stop();
+            boolean stopped = search.future().isCompletedExceptionally();
+            statusText.setText("%s, %d versions looked at".formatted(
+                stopped ? "Stopped" : "Done", progress.filesDone()));
+            cancelButton.setText("Close");
+            cancelButton.setDisable(false);
+        } else {
+            statusText.setText("Searching... %d versions looked at so far".formatted(progress.filesDone()));
+        }
+    }
+
+    @FXML
+    protected void onCancelButtonPress() {
+        if (search.progress().finished()) {
+            stage.close();
+        } else {
+            logger.info("User stopped `{}`", search.title());
+            cancelButton.setDisable(true);
+            search.cancel();
+        }
+    }
+}
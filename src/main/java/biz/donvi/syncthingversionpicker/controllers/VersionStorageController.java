@@ -0,0 +1,143 @@
+package biz.donvi.syncthingversionpicker.controllers;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import biz.donvi.syncthingversionpicker.services.JobProgress;
+import biz.donvi.syncthingversionpicker.services.VersionStorage;
+import biz.donvi.syncthingversionpicker.services.VersionStorage.Bucket;
+import biz.donvi.syncthingversionpicker.services.VersionStorage.Dimension;
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * A window that shows how much space the versions of a folder take up (see {@link VersionStorage}), broken down by
+ * directory, extension or age. The folder is scanned the first time the window is opened, and the breakdown updates
+ * live while that runs.
+ */
+public class VersionStorageController {
+
+    private static final Logger logger = LogManager.getLogger(VersionStorageController.class);
+
+    /** How often the window polls for new results. */
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    @FXML private TableView<Bucket>           bucketTable;
+    @FXML private TableColumn<Bucket, String> columnKey;
+    @FXML private TableColumn<Bucket, String> columnLocalFiles;
+    @FXML private TableColumn<Bucket, String> columnLocalBytes;
+    @FXML private TableColumn<Bucket, String> columnRemoteFiles;
+    @FXML private TableColumn<Bucket, String> columnRemoteBytes;
+    @FXML private ComboBox<Dimension>         dimensionBox;
+    @FXML private Spinner<Integer>            depthSpinner;
+    @FXML private Text                        statusText;
+    @FXML private Button                      rescanButton;
+
+    private VersionStorage      storage;
+    private VersionStorage.Scan scan;
+    private long                shownChanges = -1;
+
+    private final AnimationTimer refresher = new AnimationTimer() {
+        private long lastRefresh = 0;
+
+        @Override
+        public void handle(long now) {
+            if (now - lastRefresh >= REFRESH_NANOS) {
+                lastRefresh = now;
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * Opens a new window for the version storage of a folder, scanning it first if it hasn't been yet.
+     *
+     * @param storage The version storage of the folder.
+     */
+    public static void open(VersionStorage storage) {
+        FXMLLoader loader = new FXMLLoader(SyncPickerApp.class.getResource("picker-view/version-storage.fxml"));
+        Stage stage = new Stage();
+        try {
+            stage.setScene(new Scene(loader.load()));
+        } catch (IOException e) {
+            logger.error("Could not open the version storage window", e);
+            return;
+        }
+        VersionStorageController controller = loader.getController();
+        controller.storage = storage;
+        controller.setUp();
+        stage.setTitle("Version Storage");
+        stage.initOwner(SyncPickerApp.getApplication().getStage());
+        // A scan that's running is left to finish, so the results are there the next time.
+        stage.setOnHidden(event -> controller.refresher.stop());
+        if (!storage.isScanned())
+            controller.scan = storage.scan();
+        controller.refresher.start();
+        stage.show();
+    }
+
+    private void setUp() {
+        columnKey.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(x.getValue().key()));
+        columnLocalFiles.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            Long.toString(x.getValue().localFiles())
+        ));
+        columnLocalBytes.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            JobProgress.humanBytes(x.getValue().localBytes())
+        ));
+        columnRemoteFiles.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            Long.toString(x.getValue().remoteFiles())
+        ));
+        columnRemoteBytes.setCellValueFactory(x -> new ReadOnlyObjectWrapper<>(
+            JobProgress.humanBytes(x.getValue().remoteBytes())
+        ));
+        dimensionBox.setItems(FXCollections.observableArrayList(Dimension.values()));
+        dimensionBox.setValue(Dimension.Directory);
+        dimensionBox.valueProperty().addListener((obs, was, is) -> {
+            depthSpinner.setDisable(is != Dimension.Directory);
+            showBreakdown();
+        });
+        depthSpinner.valueProperty().addListener((obs, was, is) -> showBreakdown());
+    }
+
+    private void showBreakdown() {
+        shownChanges = storage.changeCount();
+        Dimension dimension = dimensionBox.getValue() == null ? Dimension.Directory : dimensionBox.getValue();
+        Integer depth = depthSpinner.getValue();
+        bucketTable.getItems().setAll(storage.breakdown(dimension, depth == null ? 1 : depth));
+    }
+
+    private void refresh() {
+        if (storage.changeCount() != shownChanges)
+            showBreakdown();
+        if (scan != null && !scan.progress().finished()) {
+            rescanButton.setDisable(true);
+            statusText.setText("Scanning... %d versions looked at so far".formatted(scan.progress().filesDone()));
+            return;
+        }
+        rescanButton.setDisable(false);
+        Bucket total = storage.total();
+        statusText.setText("%s%d local versions (%s), %d remote versions (%s)".formatted(
+            scan != null && scan.future().isCompletedExceptionally() ? "Scan stopped. " : "",
+            total.localFiles(), JobProgress.humanBytes(total.localBytes()),
+            total.remoteFiles(), JobProgress.humanBytes(total.remoteBytes())));
+    }
+
+    @FXML
+    protected void onRescanButtonPress() {
+        logger.info("User rescanning version storage");
+        scan = storage.scan();
+    }
+}
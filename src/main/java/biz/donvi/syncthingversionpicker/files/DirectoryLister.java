@@ -37,11 +37,13 @@ public interface DirectoryLister {
      * A record that holds the information that we are interested
      * in getting from files & folders that we look at.
      *
-     * @param location The location type of the file (basically, where did we find it).
-     * @param name     The file's name (raw name, un-modified).
-     * @param isDir    If this file is a directory or not.
+     * @param location     The location type of the file (basically, where did we find it).
+     * @param name         The file's name (raw name, un-modified).
+     * @param isDir        If this file is a directory or not.
+     * @param size         The size of the file in bytes, or {@code -1} if it is not known.
+     * @param lastModified The last modified time of the file in epoch milliseconds, or {@code -1} if it is not known.
      */
-    record FileWithLocation(Location location, String name, boolean isDir) {}
+    record FileWithLocation(Location location, String name, boolean isDir, long size, long lastModified) {}
 
     /**
      * A {@link DirectoryLister} that returns empty responses;
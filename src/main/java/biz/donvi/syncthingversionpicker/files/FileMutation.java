@@ -0,0 +1,116 @@
+package biz.donvi.syncthingversionpicker.files;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a single change that the app itself made to the file system. Whoever makes the change publishes one of
+ * these, so that anything holding onto file information (file groups, listing caches, the tree) can patch itself
+ * instead of listing directories again.
+ * <br/> Note: All paths are <b>raw</b> relative paths, meaning they are relative to the root of the mutation's
+ * {@link Location} and include any Syncthing text in the name (like {@code fileName~20201201-125465.md}).
+ */
+public sealed interface FileMutation {
+
+    /**
+     * @return The {@link Location} the mutation happened in.
+     */
+    Location location();
+
+    /**
+     * @return The relative directory that the mutation happened in.
+     */
+    Path directory();
+
+    /**
+     * Returns the relative paths of the {@link StFile}s (as in, with the Syncthing text removed) that this mutation
+     * touches. These are the same paths that {@link StFile#getRelativePath()} would return.
+     *
+     * @return The paths of all {@link StFile}s touched by this mutation.
+     */
+    Set<Path> filePaths();
+
+    /**
+     * A new file or directory was created.
+     *
+     * @param location        Where the file was created.
+     * @param rawRelativePath The raw relative path of the new file.
+     * @param isDir           {@code true} if a directory was created.
+     * @param size            The size of the new file in bytes, or {@code -1} if it is not known.
+     * @param lastModified    The last modified time of the new file in epoch milliseconds, or {@code -1}.
+     */
+    record Created(
+        Location location, Path rawRelativePath, boolean isDir, long size, long lastModified
+    ) implements FileMutation {
+        @Override
+        public Path directory() {
+            return parentOf(rawRelativePath);
+        }
+
+        @Override
+        public Set<Path> filePaths() {
+            return Set.of(fixedPathOf(rawRelativePath));
+        }
+    }
+
+    /**
+     * A file was renamed within its directory.
+     *
+     * @param location Where the file is.
+     * @param from     The raw relative path before renaming.
+     * @param to       The raw relative path after renaming. Must be in the same directory as {@code from}.
+     */
+    record Renamed(Location location, Path from, Path to) implements FileMutation {
+        @Override
+        public Path directory() {
+            return parentOf(from);
+        }
+
+        @Override
+        public Set<Path> filePaths() {
+            return Set.copyOf(List.of(fixedPathOf(from), fixedPathOf(to)));
+        }
+    }
+
+    /**
+     * A file or directory was deleted.
+     *
+     * @param location        Where the file was.
+     * @param rawRelativePath The raw relative path of the file that no longer exists.
+     * @param isDir           {@code true} if a directory was deleted.
+     */
+    record Deleted(Location location, Path rawRelativePath, boolean isDir) implements FileMutation {
+        @Override
+        public Path directory() {
+            return parentOf(rawRelativePath);
+        }
+
+        @Override
+        public Set<Path> filePaths() {
+            return Set.of(fixedPathOf(rawRelativePath));
+        }
+    }
+
+    /**
+     * Gets the parent of a relative path, treating the root as the empty path instead of {@code null}.
+     *
+     * @param relativePath The path to get the parent of.
+     * @return The parent directory.
+     */
+    static Path parentOf(Path relativePath) {
+        Path parent = relativePath.getParent();
+        return parent != null ? parent : Path.of("");
+    }
+
+    /**
+     * Turns a raw relative path into the path of the {@link StFile} it would be grouped into.
+     *
+     * @param rawRelativePath The raw relative path.
+     * @return The same path, but with the Syncthing text removed from the file name.
+     */
+    static Path fixedPathOf(Path rawRelativePath) {
+        String nameFixed = new ParsedFileName(rawRelativePath.getFileName().toString()).nameFixed();
+        return parentOf(rawRelativePath).resolve(nameFixed);
+    }
+}
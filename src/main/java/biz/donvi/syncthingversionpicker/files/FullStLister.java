@@ -3,8 +3,12 @@ package biz.donvi.syncthingversionpicker.files;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
@@ -16,11 +20,20 @@ import java.util.concurrent.CompletableFuture;
 public class FullStLister {
     private static final Logger logger = LogManager.getLogger(FullStLister.class);
 
+    /** How long a cached listing is trusted to still match what's on disk. */
+    private static final Duration LISTING_MAX_AGE = Duration.ofSeconds(30);
+
     private final DirectoryLister localDirectoryLister;
     private final DirectoryLister remoteDirectoryLister;
 
     private final Map<Class<? extends FileService>, FileService> serviceMap = new HashMap<>();
 
+    /**
+     * Listings we've already done. Kept up to date by feeding it {@link FileMutation}s through {@link #apply}, and
+     * listed again once they are older than {@link #LISTING_MAX_AGE}.
+     */
+    private final ListingCache listingCache = new ListingCache(2048, LISTING_MAX_AGE);
+
     public FullStLister(DirectoryLister localDirectoryLister, DirectoryLister remoteDirectoryLister) {
         this.localDirectoryLister = localDirectoryLister;
         this.remoteDirectoryLister = remoteDirectoryLister;
@@ -37,22 +50,16 @@ public class FullStLister {
     /**
      * Lists all files from all sources for a given path.
      *
-     * @param path The <b>relative</b> path that we want to list files for.
+     * @param path  The <b>relative</b> path that we want to list files for.
+     * @param fresh If {@code true}, the listing is done like {@link #scanDir}, otherwise like {@link #listDir}.
      * @return A {@link DirectoryLister.FileWithLocation} record containing the location, name, and if its a directory.
      */
-    CompletableFuture<List<DirectoryLister.FileWithLocation>> listAllFiles(Path path) {
+    CompletableFuture<List<DirectoryLister.FileWithLocation>> listAllFiles(Path path, boolean fresh) {
         @SuppressWarnings("unchecked")
         CompletableFuture<List<DirectoryLister.FileWithLocation>>[] futures = Arrays
             .stream(Location.values())
-            .map(loc -> directoryLister(loc.where).listForDir(path, loc.when))
+            .map(loc -> fresh ? scanDir(path, loc) : listDir(path, loc))
             .toArray(CompletableFuture[]::new);
-//        @SuppressWarnings("unchecked")
-//        CompletableFuture<List<DirectoryLister.FileWithLocation>>[] futures = List.of(
-//            localDirectoryLister.listForDir(path, Location.When.Current),
-//            localDirectoryLister.listForDir(path, Location.When.Version),
-//            remoteDirectoryLister.listForDir(path, Location.When.Current),
-//            remoteDirectoryLister.listForDir(path, Location.When.Version)
-//        ).toArray(CompletableFuture[]::new);
         return CompletableFuture.allOf(futures).thenApplyAsync(x -> {
             var files = new ArrayList<DirectoryLister.FileWithLocation>();
             for (var f : futures)
@@ -61,10 +68,156 @@ public class FullStLister {
         });
     }
 
+    /**
+     * Lists the files of a single {@link Location} for a given path. If the listing is cached (and not too old), no
+     * listing is done.
+     *
+     * @param path     The <b>relative</b> path that we want to list files for.
+     * @param location The location to list.
+     * @return A {@link DirectoryLister.FileWithLocation} record for every file in the directory.
+     */
+    public CompletableFuture<List<DirectoryLister.FileWithLocation>> listDir(Path path, Location location) {
+        var cached = listingCache.get(path, location);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        return directoryLister(location.where)
+            .listForDir(path, location.when)
+            .thenApply(files -> {
+                listingCache.put(path, location, files);
+                return files;
+            });
+    }
+
+    /**
+     * Lists the files of a single {@link Location} for a given path, like {@link #listDir}, but always from the file
+     * system. This is meant for crawls and jobs, which must not act on a listing that is out of date. What gets listed
+     * only replaces listings that are cached already, so crawling a whole folder never pushes everything the user has
+     * looked at out of the cache.
+     *
+     * @param path     The <b>relative</b> path that we want to list files for.
+     * @param location The location to list.
+     * @return A {@link DirectoryLister.FileWithLocation} record for every file in the directory.
+     */
+    public CompletableFuture<List<DirectoryLister.FileWithLocation>> scanDir(Path path, Location location) {
+        return directoryLister(location.where)
+            .listForDir(path, location.when)
+            .thenApply(files -> {
+                listingCache.refresh(path, location, files);
+                return files;
+            });
+    }
+
+    /**
+     * Forgets any cached listings for a directory, so that the next listing comes from the file system.
+     *
+     * @param path The <b>relative</b> path of the directory.
+     */
+    public void invalidate(Path path) {
+        logger.debug("Invalidating cached listings for `{}`", path);
+        listingCache.invalidate(path);
+    }
+
+    /**
+     * Patches the cached listings with a change that was made by the app.
+     *
+     * @param mutation The change that was made.
+     */
+    public void apply(FileMutation mutation) {
+        logger.trace("Applying mutation `{}` to listing cache", mutation);
+        listingCache.apply(mutation);
+    }
+
     public CompletableFuture<InputStream> readFile(Path absolutePath, Location location) {
         return directoryLister(location.where).readFile(absolutePath, location.when);
     }
 
+    /* **************************************************************
+     MARK: - Read Routing
+     ****************************************************************/
+
+    /**
+     * Reads a file from wherever it is cheapest to read it. If the file is remote but an equivalent copy of it is
+     * sitting on this computer (see {@link #localReplicaOf}), the local copy is read instead and nothing goes over the
+     * network. The file itself (and so its {@link Location}, as shown to the user) stays the same either way.
+     *
+     * @param file The file to read.
+     * @return A stream of the file's content.
+     */
+    public CompletableFuture<InputStream> readFile(StFileGroup.File file) {
+        StFileGroup.File source = localReplicaOf(file).orElse(file);
+        if (source != file)
+            logger.debug("Reading `{}` from its local replica `{}`", file, source);
+        return readFile(source.getRawRelativePath(), source.location);
+    }
+
+    /**
+     * Finds a local file holding exactly the same content as a remote one. A local file counts as a replica if
+     * <ul>
+     *     <li>it has the same content hash (see {@link StFileGroup.File#getContentHash()}), or</li>
+     *     <li>it has the same raw name, size, and modified time, which is how a file Syncthing has already synced
+     *     (or versioned on both sides) looks.</li>
+     * </ul>
+     * Of several replicas, the one in the cheaper {@link Location} wins. Every candidate is checked against the file
+     * system before it's returned, so a local file that changed since it was listed is never used.
+     * <br/> Note: Local files never have a replica, since they are already as cheap as it gets.
+     *
+     * @param file The file to find a replica for.
+     * @return The replica, if there is one.
+     */
+    public Optional<StFileGroup.File> localReplicaOf(StFileGroup.File file) {
+        if (file.location.where == Location.Where.Local || file.size < 0)
+            return Optional.empty();
+        return file.getParent().getFiles().stream()
+                   .filter(f -> f.location.where == Location.Where.Local)
+                   .filter(f -> sameContent(file, f))
+                   .sorted(Comparator.comparing(f -> f.location))
+                   .filter(this::unchangedOnDisk)
+                   .findFirst();
+    }
+
+    private static boolean sameContent(StFileGroup.File a, StFileGroup.File b) {
+        if (a.size != b.size)
+            return false;
+        Optional<String> hash = a.getContentHash();
+        if (hash.isPresent() && hash.equals(b.getContentHash()))
+            return true;
+        // The remote only reports modified times to the second.
+        return a.nameInfo.originalName().equals(b.nameInfo.originalName())
+               && a.lastModified >= 0 && b.lastModified >= 0
+               && a.lastModified / 1000 == b.lastModified / 1000;
+    }
+
+    private boolean unchangedOnDisk(StFileGroup.File local) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(local.getRawFullPath(), BasicFileAttributes.class);
+            long modifiedSeconds = attrs.lastModifiedTime().toMillis() / 1000;
+            return attrs.isRegularFile()
+                   && attrs.size() == local.size
+                   && (local.lastModified < 0 || modifiedSeconds == local.lastModified / 1000);
+        } catch (IOException e) {
+            logger.trace("Local replica `{}` can't be read, so it isn't one", local);
+            return false;
+        }
+    }
+
+    /**
+     * @return A way to run commands on the remote, if the remote lister supports it.
+     */
+    public Optional<RemoteShell> remoteShell() {
+        return remoteDirectoryLister instanceof RemoteShell shell
+            ? Optional.of(shell)
+            : Optional.empty();
+    }
+
+    /**
+     * @return A way to write files to the remote, if the remote lister supports it.
+     */
+    public Optional<RemoteUploader> remoteUploader() {
+        return remoteDirectoryLister instanceof RemoteUploader uploader
+            ? Optional.of(uploader)
+            : Optional.empty();
+    }
+
     /* **************************************************************
      MARK: - FileService
      ****************************************************************/
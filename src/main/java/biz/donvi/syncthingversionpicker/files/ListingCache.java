@@ -0,0 +1,145 @@
+package biz.donvi.syncthingversionpicker.files;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded, least-recently-used cache of directory listings. There is one entry per relative directory
+ * <em>and</em> {@link Location}, so that a change in one location never throws away what we know about the others.
+ * <br/> Entries can be patched with {@link FileMutation}s, which is how changes the app made itself show up without
+ * anything being listed again. Changes made by anything else (Syncthing, mostly) can't be seen that way, so every
+ * entry is only trusted for a while after it was listed. Patching an entry doesn't make it any younger.
+ */
+class ListingCache {
+
+    private record Key(Path dir, Location location) {}
+
+    /** A listing, and when it was listed (see {@link #clock}). */
+    private record Entry(List<FileWithLocation> files, long listedAt) {}
+
+    private final LinkedHashMap<Key, Entry> entries;
+    private final long                      maxAgeNanos;
+    /** The current time in nanoseconds, as in {@link System#nanoTime()}. */
+    private final LongSupplier              clock;
+
+    ListingCache(int capacity, Duration maxAge) {
+        this(capacity, maxAge, System::nanoTime);
+    }
+
+    ListingCache(int capacity, Duration maxAge, LongSupplier clock) {
+        this.maxAgeNanos = maxAge.toNanos();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cached listing, or {@code null} if there is none or it's too old to trust.
+     */
+    synchronized List<FileWithLocation> get(Path dir, Location location) {
+        Key key = new Key(dir, location);
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (clock.getAsLong() - entry.listedAt() > maxAgeNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.files();
+    }
+
+    synchronized void put(Path dir, Location location, List<FileWithLocation> files) {
+        entries.put(new Key(dir, location), new Entry(List.copyOf(files), clock.getAsLong()));
+    }
+
+    /**
+     * Replaces a cached listing with a fresh one, but only if that directory is cached already. This lets a crawl keep
+     * the cache up to date without pushing out what the user has looked at.
+     */
+    synchronized void refresh(Path dir, Location location, List<FileWithLocation> files) {
+        Key key = new Key(dir, location);
+        if (entries.containsKey(key))
+            entries.put(key, new Entry(List.copyOf(files), clock.getAsLong()));
+    }
+
+    /**
+     * Forgets everything cached for a directory (in every location).
+     *
+     * @param dir The relative directory to forget.
+     */
+    synchronized void invalidate(Path dir) {
+        for (Location location : Location.values())
+            entries.remove(new Key(dir, location));
+    }
+
+    /**
+     * Patches the cached listings touched by a {@link FileMutation}. Directories that aren't cached are left alone,
+     * since they will be listed fresh anyway the next time they are needed.
+     *
+     * @param mutation The mutation to apply.
+     */
+    synchronized void apply(FileMutation mutation) {
+        Key key = new Key(mutation.directory(), mutation.location());
+        Entry entry = entries.get(key);
+        List<FileWithLocation> cached = entry == null ? null : entry.files();
+        switch (mutation) {
+            case FileMutation.Created created -> {
+                String name = created.rawRelativePath().getFileName().toString();
+                if (cached != null && indexOf(cached, name) < 0) {
+                    List<FileWithLocation> patched = new ArrayList<>(cached);
+                    patched.add(new FileWithLocation(
+                        created.location(), name, created.isDir(), created.size(), created.lastModified()));
+                    entries.put(key, new Entry(List.copyOf(patched), entry.listedAt()));
+                }
+                // A directory we just made is empty, so there is no need to list it right away.
+                if (created.isDir()) {
+                    Key dirKey = new Key(created.rawRelativePath(), created.location());
+                    entries.putIfAbsent(dirKey, new Entry(List.of(), clock.getAsLong()));
+                }
+            }
+            case FileMutation.Renamed renamed -> {
+                int i = cached == null ? -1 : indexOf(cached, renamed.from().getFileName().toString());
+                if (i >= 0) {
+                    List<FileWithLocation> patched = new ArrayList<>(cached);
+                    FileWithLocation old = patched.get(i);
+                    String name = renamed.to().getFileName().toString();
+                    patched.set(i, new FileWithLocation(
+                        old.location(), name, old.isDir(), old.size(), old.lastModified()));
+                    // Renaming over an existing file replaces it.
+                    int replaced = indexOf(cached, name);
+                    if (replaced >= 0)
+                        patched.remove(replaced);
+                    entries.put(key, new Entry(List.copyOf(patched), entry.listedAt()));
+                }
+            }
+            case FileMutation.Deleted deleted -> {
+                int i = cached == null ? -1 : indexOf(cached, deleted.rawRelativePath().getFileName().toString());
+                if (i >= 0) {
+                    List<FileWithLocation> patched = new ArrayList<>(cached);
+                    patched.remove(i);
+                    entries.put(key, new Entry(List.copyOf(patched), entry.listedAt()));
+                }
+                if (deleted.isDir())
+                    entries.remove(new Key(deleted.rawRelativePath(), deleted.location()));
+            }
+        }
+    }
+
+    private static int indexOf(List<FileWithLocation> files, String name) {
+        for (int i = 0; i < files.size(); i++)
+            if (files.get(i).name().equals(name))
+                return i;
+        return -1;
+    }
+}
@@ -43,7 +43,9 @@ public class LocalDirectoryLister implements DirectoryLister {
                          .map(file -> new FileWithLocation(
                              when.which(LocalCurrent, LocalVersions),
                              file.getName(),
-                             file.isDirectory()))
+                             file.isDirectory(),
+                             file.length(),
+                             file.lastModified()))
                          .toList();
         });
     }
@@ -0,0 +1,62 @@
+package biz.donvi.syncthingversionpicker.files;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Something that can run commands on the machine a {@link DirectoryLister} lists files for. A remote lister that
+ * implements this lets services do bulk work (streaming many files at once, hashing, finding) in a single command
+ * instead of one round trip per file.
+ * <br/> Use {@link FullStLister#remoteShell()} to find out if one is available.
+ */
+public interface RemoteShell {
+
+    /**
+     * Starts a command. The command is run by the remote user's shell, so any arguments in it must be quoted with
+     * {@link #quote(String)}.
+     * <br/> <b>May complete exceptionally</b>
+     *
+     * @param command The command line to run.
+     * @return The running command.
+     */
+    CompletableFuture<Command> exec(String command);
+
+    /**
+     * A command that has been started with {@link #exec(String)}.
+     * <br/> Note: The command's output should be read on a different thread than the one writing its input. Otherwise,
+     * a command that writes while it reads (like most do) will stall once both buffers are full.
+     */
+    interface Command extends AutoCloseable {
+
+        /** @return The command's standard input. Close it to signal the end of the input. */
+        OutputStream stdin();
+
+        /** @return The command's standard output. */
+        InputStream stdout();
+
+        /** @return Everything the command wrote to standard error so far. */
+        String stderr();
+
+        /**
+         * Waits for the command to finish.
+         *
+         * @return The exit status of the command, or {@code -1} if the connection was lost before it finished.
+         */
+        int waitFor() throws InterruptedException;
+
+        /** Stops the command if it is still running and frees the connection it used. */
+        @Override
+        void close();
+    }
+
+    /**
+     * Quotes a string so that a POSIX shell passes it along as a single argument, whatever characters it contains.
+     *
+     * @param arg The argument to quote.
+     * @return The argument, wrapped in single quotes.
+     */
+    static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+}
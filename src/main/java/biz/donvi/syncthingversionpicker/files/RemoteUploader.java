@@ -0,0 +1,28 @@
+package biz.donvi.syncthingversionpicker.files;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongPredicate;
+
+/**
+ * Something that can write files to the machine a {@link DirectoryLister} lists files for.
+ * <br/> Use {@link FullStLister#remoteUploader()} to find out if one is available.
+ */
+public interface RemoteUploader {
+
+    /**
+     * Uploads a local file. The data is written to a temporary file next to the target first, which is only renamed
+     * over the target once all of it is there, so nobody ever sees a half written file. The upload keeps the local
+     * file's modified time.
+     * <br/> Several uploads may run at the same time, and should, since each one only uses a single connection.
+     * <br/> <b>May complete exceptionally</b>
+     *
+     * @param localFile    The file to upload.
+     * @param relativePath Where to put it, relative to the root of {@code when}. Missing directories are created.
+     * @param when         Which root the path is relative to.
+     * @param progress     Told about every chunk of bytes as it is sent. It may block to slow the upload down, or
+     *                     return {@code false} to stop it, which fails the upload.
+     * @return A future that completes once the file is in place.
+     */
+    CompletableFuture<Void> upload(Path localFile, Path relativePath, Location.When when, LongPredicate progress);
+}
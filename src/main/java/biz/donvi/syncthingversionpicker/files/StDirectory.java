@@ -44,9 +44,23 @@ public final class StDirectory extends StFile {
      * @return A list of {@code StFile}s that are in this directory.
      */
     public CompletableFuture<List<StFile>> listFilesAsync() {
+        return listFilesAsync(false);
+    }
+
+    /**
+     * Like {@link #listFilesAsync()}, but never uses a cached listing (see {@link FullStLister#scanDir}). Jobs that
+     * change files based on what they find should list this way.
+     *
+     * @return A list of {@code StFile}s that are in this directory.
+     */
+    public CompletableFuture<List<StFile>> scanFilesAsync() {
+        return listFilesAsync(true);
+    }
+
+    private CompletableFuture<List<StFile>> listFilesAsync(boolean fresh) {
         // Listing files for a directory, then collecting them into a map
         return fullStLister
-            .listAllFiles(relativePath)
+            .listAllFiles(relativePath, fresh)
             .thenApplyAsync(files -> {
                 Map<String, List<FileWithInfo>> fileGroups = files
                     .stream()
@@ -68,13 +82,13 @@ public final class StDirectory extends StFile {
                             .toList().get(0); // Take the first option in the list.
                         // Resolve the path of the new directory.
                         // Lastly, all we got to do is put this info into the
-                        children.add(new StDirectory(localStFolder, fullStLister, path, mainLoc, parentDir));
+                        children.add(new StDirectory(localStFolder, fullStLister, path, mainLoc, this));
                     } else {
                         // To start, make a new file group.
                         StFileGroup fileGroup = new StFileGroup(localStFolder, this, path);
                         // Then, for each file in the list, add a new file to the file group
                         for (FileWithInfo file : fileList)
-                            fileGroup.add(fileGroup.new File(file.nameInfo,file.loc));
+                            fileGroup.add(fileGroup.new File(file.nameInfo, file.loc, file.size, file.lastModified));
                         // And lastly, add it to the final result
                         children.add(fileGroup);
                     }
@@ -87,6 +101,13 @@ public final class StDirectory extends StFile {
         return fullStLister;
     }
 
+    @Override
+    public boolean sameContentsAs(StFile other) {
+        return other instanceof StDirectory that
+               && this.relativePath.equals(that.relativePath)
+               && this.location == that.location;
+    }
+
     @Override
     public String toString() {
         return "StDirectory{" +
@@ -109,8 +130,12 @@ public final class StDirectory extends StFile {
      *                  that directories have a {@code !} appended to the end to make them sort differently in the map.
      *                  This name is not used for any reasons other than sorting the files.
      * @param timestamp The syncthing timestamp that was in the raw file name.
+     * @param size      The size of the file in bytes (or {@code -1}).
+     * @param lastModified The last modified time of the file in epoch milliseconds (or {@code -1}).
      */
-    private record FileWithInfo(Location loc, ParsedFileName nameInfo, boolean isDir, String sortName) {
+    private record FileWithInfo(
+        Location loc, ParsedFileName nameInfo, boolean isDir, String sortName, long size, long lastModified
+    ) {
         /**
          * Converts a {@link DirectoryLister.FileWithLocation FileWithLocation}
          * into a {@link FileWithInfo FileWithInfo}. This conversion adds additional information that is needed to
@@ -122,7 +147,7 @@ public final class StDirectory extends StFile {
         static FileWithInfo into(DirectoryLister.FileWithLocation f) {
             ParsedFileName parsedFile = new ParsedFileName(f.name());
             String sortName = parsedFile.nameFixed() + (f.isDir() ? "!" : "");
-            return new FileWithInfo(f.location(), parsedFile, f.isDir(), sortName);
+            return new FileWithInfo(f.location(), parsedFile, f.isDir(), sortName, f.size(), f.lastModified());
         }
 
     }
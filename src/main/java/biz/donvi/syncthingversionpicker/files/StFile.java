@@ -62,6 +62,15 @@ public abstract sealed class StFile implements Comparable<StFile> permits StDire
 
     public abstract FullStLister getFullStLister();
 
+    /**
+     * Checks if another {@code StFile} (usually one from a newer listing of the same path) describes exactly what this
+     * one does. If it does, swapping one for the other would change nothing.
+     *
+     * @param other The {@code StFile} to compare against.
+     * @return {@code true} if both describe the same files in the same locations, {@code false} otherwise.
+     */
+    public abstract boolean sameContentsAs(StFile other);
+
     public Path getRelativePath() {return relativePath;}
 
     public Path getFullPath() {
@@ -116,9 +125,22 @@ public abstract sealed class StFile implements Comparable<StFile> permits StDire
         if (localLister == DirectoryLister.emptyLister && remoteLister == DirectoryLister.emptyLister)
             throw new RuntimeException("At lease one lister should be valid!!");
 
-        FullStLister lister = new FullStLister(localLister, remoteLister);
+        return newRootDir(folder.local(), localLister, remoteLister);
+    }
 
-        return new StDirectory(folder.local(), lister, Paths.get(""), Location.LocalCurrent, null);
+    /**
+     * Creates a new root directory that lists its files with the given listers.
+     *
+     * @param localStFolder The local folder, if there is one.
+     * @param localLister   Lists the local side (or {@link DirectoryLister#emptyLister} if there isn't one).
+     * @param remoteLister  Lists the remote side (or {@link DirectoryLister#emptyLister} if there isn't one).
+     * @return A new {@link StDirectory} that represents the root directory of the Syncthing folder.
+     */
+    public static StDirectory newRootDir(
+        StFolder localStFolder, DirectoryLister localLister, DirectoryLister remoteLister
+    ) {
+        FullStLister lister = new FullStLister(localLister, remoteLister);
+        return new StDirectory(localStFolder, lister, Paths.get(""), Location.LocalCurrent, null);
     }
 
 }
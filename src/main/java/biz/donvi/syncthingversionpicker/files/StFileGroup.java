@@ -12,20 +12,36 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Stream;
 
 public final class StFileGroup extends StFile {
 
     private static final Logger logger = LogManager.getLogger(StFileGroup.class);
 
-    private final List<File> files = new ArrayList<>();
+    /**
+     * The files of this group. Mutations (see {@link #apply}) happen on the FX thread while background jobs read the
+     * group, so every read works on a snapshot. Groups only ever hold a handful of files, so copying on write is cheap.
+     */
+    private final List<File> files = new CopyOnWriteArrayList<>();
+
+    private volatile Location location = null;
 
-    private Location location = null;
+    /** The versions of this group, oldest first (see {@link #resolveAt}). Made when first needed. */
+    private volatile File[] versionsByDate = null;
+
+    /**
+     * Local copies of remote files, by content hash. Identical remote files share a single download.
+     */
+    private final Map<String, CompletableFuture<java.io.File>> downloadsByHash = new ConcurrentHashMap<>();
 
     StFileGroup(StFolder localStFolder, StDirectory parentDir, Path relativePath) {
         super(localStFolder, relativePath, parentDir);
@@ -34,6 +50,7 @@ public final class StFileGroup extends StFile {
     /**
      * Returns a list of files that match this file group. See {@link Location} for more information on what
      * type of file can be found.
+     * <br/> Note: The list may be read (and iterated) from any thread, even while the group is being changed.
      *
      * @return A list of files in this file group.
      */
@@ -56,6 +73,48 @@ public final class StFileGroup extends StFile {
             .anyMatch(f -> f != Location.LocalCurrent);
     }
 
+    /**
+     * Returns the files of this group with byte-identical files collapsed into one. Of each set of identical files,
+     * the one kept is the cheapest to read (local before remote, current before versions). Files whose content hash
+     * isn't known yet are never collapsed.
+     *
+     * @return The distinct files of this group, in the same order as {@link #getFiles()}.
+     */
+    public List<File> getDistinctFiles() {
+        return files.stream().filter(f -> !isDuplicate(f)).toList();
+    }
+
+    /**
+     * @param file A file of this group.
+     * @return Every other file in this group with exactly the same content.
+     */
+    public List<File> getIdenticalFiles(File file) {
+        if (file.contentHash == null)
+            return List.of();
+        return files.stream().filter(f -> f != file && file.contentHash.equals(f.contentHash)).toList();
+    }
+
+    /**
+     * @param file A file of this group.
+     * @return {@code true} if another file in this group has the same content and is cheaper to read, making this one
+     * redundant. See {@link #getDistinctFiles()}.
+     */
+    public boolean isDuplicate(File file) {
+        return cheapestIdentical(file) != file;
+    }
+
+    /**
+     * @return The file that stands in for every file identical to the given one (which may be the file itself).
+     */
+    public File cheapestIdentical(File file) {
+        File cheapest = file;
+        for (File other : getIdenticalFiles(file))
+            if (other.location.ordinal() < cheapest.location.ordinal()
+                || other.location == cheapest.location && files.indexOf(other) < files.indexOf(cheapest))
+                cheapest = other;
+        return cheapest;
+    }
+
     public long countFiles(Location... locations) {
         EnumSet<Location> locs = EnumSet.of(locations[0], locations);
         return files.stream().filter(f -> locs.contains(f.location)).count();
@@ -70,6 +129,21 @@ public final class StFileGroup extends StFile {
         return location;
     }
 
+    @Override
+    public boolean sameContentsAs(StFile other) {
+        if (!(other instanceof StFileGroup that)
+            || !this.relativePath.equals(that.relativePath)
+            || this.files.size() != that.files.size())
+            return false;
+        Set<String> ours = new HashSet<>();
+        for (File file : this.files)
+            ours.add(file.identity());
+        for (File file : that.files)
+            if (!ours.contains(file.identity()))
+                return false;
+        return true;
+    }
+
     /**
      * Adds a new file to this file group, and updates the primary location of the group.
      *
@@ -77,12 +151,112 @@ public final class StFileGroup extends StFile {
      */
     void add(File file) {
         files.add(file);
+        versionsByDate = null;
         if (location == null || file.location.ordinal() < location.ordinal()) {
             location = file.location;
         }
         Collections.sort(files);
     }
 
+    /**
+     * Applies a {@link FileMutation} to this group so that it matches the file system again, without listing
+     * anything. Mutations that don't touch a file in this group are ignored.
+     * <br/> Note: A group may end up with no files at all if its last file was deleted or renamed away.
+     *
+     * @param mutation The mutation to apply.
+     * @return {@code true} if the group changed, {@code false} if it did not.
+     */
+    public boolean apply(FileMutation mutation) {
+        boolean changed = switch (mutation) {
+            case FileMutation.Created created -> !created.isDir() && addIfAbsent(
+                created.location(), created.rawRelativePath(), created.size(), created.lastModified());
+            case FileMutation.Renamed renamed -> {
+                Optional<File> old = find(renamed.location(), renamed.from().getFileName().toString());
+                boolean removed = remove(renamed.location(), renamed.from());
+                boolean added = addIfAbsent(
+                    renamed.location(), renamed.to(),
+                    old.map(f -> f.size).orElse(-1L), old.map(f -> f.lastModified).orElse(-1L));
+                yield removed || added;
+            }
+            case FileMutation.Deleted deleted ->
+                !deleted.isDir() && remove(deleted.location(), deleted.rawRelativePath());
+        };
+        if (changed) {
+            location = files.stream().map(f -> f.location).min(Comparator.naturalOrder()).orElse(null);
+            versionsByDate = null;
+        }
+        return changed;
+    }
+
+    /**
+     * Works out which file held this group's content at a point in time. Syncthing stamps a version with the time it
+     * was replaced, so the content at {@code time} is in the oldest version replaced after it, or in the current file
+     * if nothing has been replaced since. The version is found with a binary search, so this stays cheap no matter
+     * how many versions there are.
+     * <br/> A file that was edited in place after {@code time}, with no version made in between, existed at
+     * {@code time} but its content from then is gone. The nearest content that is known (the one that would be
+     * returned anyway) stands in for it. Only a time before the earliest sign of the file (the oldest modified time or
+     * version) means it didn't exist yet.
+     * <br/> Note: Conflict copies (and their versions) are not part of the file's own history, so they are never
+     * returned.
+     *
+     * @param time The point in time.
+     * @return The file holding the content at that time (or the nearest known content), or nothing if the file didn't
+     * exist then. That is, if it was deleted before then, or if there is no sign of it from before then.
+     */
+    public Optional<File> resolveAt(LocalDateTime time) {
+        File[] versionsByDate = this.versionsByDate;
+        if (versionsByDate == null)
+            this.versionsByDate = versionsByDate = files.stream()
+                .filter(f -> f.localDateTime != null && !f.nameInfo.hasConflict())
+                .sorted(Comparator.<File, LocalDateTime>comparing(f -> f.localDateTime).thenComparing(f -> f.location))
+                .toArray(File[]::new);
+        // Finds the first version replaced after `time`.
+        int low = 0;
+        int high = versionsByDate.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (versionsByDate[mid].localDateTime.isAfter(time))
+                high = mid;
+            else low = mid + 1;
+        }
+        Optional<File> file = low < versionsByDate.length
+            ? Optional.of(versionsByDate[low])
+            : files.stream()
+                   .filter(f -> f.location.when == Location.When.Current && !f.nameInfo.hasConflict())
+                   .min(Comparator.comparing(f -> f.location));
+        if (file.isEmpty())
+            return file;
+        Optional<LocalDateTime> firstSeen = files.stream()
+            .filter(f -> !f.nameInfo.hasConflict())
+            .flatMap(f -> Stream.of(f.getLastModifiedTime(), f.localDateTime))
+            .filter(Objects::nonNull)
+            .min(Comparator.naturalOrder());
+        return firstSeen.isPresent() && time.isBefore(firstSeen.get()) ? Optional.empty() : file;
+    }
+
+    private boolean addIfAbsent(Location loc, Path rawRelativePath, long size, long lastModified) {
+        if (!FileMutation.fixedPathOf(rawRelativePath).equals(relativePath))
+            return false;
+        String name = rawRelativePath.getFileName().toString();
+        if (find(loc, name).isPresent())
+            return false;
+        add(new File(new ParsedFileName(name), loc, size, lastModified));
+        return true;
+    }
+
+    private boolean remove(Location loc, Path rawRelativePath) {
+        if (!FileMutation.fixedPathOf(rawRelativePath).equals(relativePath))
+            return false;
+        return find(loc, rawRelativePath.getFileName().toString()).map(files::remove).orElse(false);
+    }
+
+    private Optional<File> find(Location loc, String rawName) {
+        return files.stream()
+                    .filter(f -> f.location == loc && f.nameInfo.originalName().equals(rawName))
+                    .findFirst();
+    }
+
     public class File implements Comparable<File> {
         private static final Logger            logger    = LogManager.getLogger(File.class);
         private static final Path              tmpdir    = Path.of(System.getProperty("java.io.tmpdir"))
@@ -107,11 +281,19 @@ public final class StFileGroup extends StFile {
 
         public final  ParsedFileName nameInfo;
         public final  Location       location;
+        /** The size of this file in bytes, or {@code -1} if it is not known. */
+        public final  long           size;
+        /** The last modified time of this file in epoch milliseconds, or {@code -1} if it is not known. */
+        public final  long           lastModified;
         private final LocalDateTime  localDateTime;
+        /** The SHA-256 of this file's content, once something has worked it out. */
+        private volatile String      contentHash = null;
 
-        File(ParsedFileName nameInfo, Location location) {
+        File(ParsedFileName nameInfo, Location location, long size, long lastModified) {
             this.nameInfo = nameInfo;
             this.location = location;
+            this.size = size;
+            this.lastModified = lastModified;
             this.localDateTime = nameInfo.hasSyncDate() ? LocalDateTime.parse(nameInfo.syncDate(), dfInput) : null;
         }
 
@@ -119,6 +301,47 @@ public final class StFileGroup extends StFile {
             return StFileGroup.this;
         }
 
+        /**
+         * @return The time this file was replaced (and versioned) by Syncthing, or {@code null} for current files.
+         */
+        public LocalDateTime getSyncDate() {
+            return localDateTime;
+        }
+
+        /**
+         * @return The last modified time of this file, in the system's time zone, or {@code null} if it's not known.
+         */
+        public LocalDateTime getLastModifiedTime() {
+            return lastModified < 0
+                ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.systemDefault());
+        }
+
+        /**
+         * A string that identifies this file (and its contents, as far as we can tell without reading it) within its
+         * group: the location, raw name, size, and last modified time.
+         */
+        String identity() {
+            return location + "/" + nameInfo.originalName() + "/" + size + "/" + lastModified;
+        }
+
+        /**
+         * @return The SHA-256 of this file's content (as lower case hex), if it is known.
+         */
+        public Optional<String> getContentHash() {
+            return Optional.ofNullable(contentHash);
+        }
+
+        /**
+         * Records the content hash of this file. This is what lets identical files be collapsed (see
+         * {@link #getDistinctFiles()}) and be downloaded only once.
+         *
+         * @param contentHash The SHA-256 of this file's content, as lower case hex.
+         */
+        public void setContentHash(String contentHash) {
+            this.contentHash = contentHash;
+        }
+
         public String getTimeStamp() {
             return localDateTime != null
                 ? localDateTime.format(dfDisplay)
@@ -208,7 +431,7 @@ public final class StFileGroup extends StFile {
         public CompletableFuture<InputStream> getInputStream() {
             logger.debug("Input stream requested for file `{}`", this);
             logger.trace("Raw path: `{}` \t Location: {}", getRawFullPath(), location);
-            return getFullStLister().readFile(getRawRelativePath(), location);
+            return getFullStLister().readFile(this);
         }
 
         /**
@@ -231,14 +454,37 @@ public final class StFileGroup extends StFile {
          * For direct access to an {@link InputStream}, use {@link #getInputStream()} instead.
          *
          * @return A {@link CompletableFuture} of a {@link java.io.File} that holds this file's data. <br/>
-         * Note: For remote files, this will be a temporary file.
+         * Note: For remote files, this will be a temporary file, unless the file has a local replica (see
+         * {@link FullStLister#localReplicaOf}). Identical remote files also share one download, so the same content is
+         * never downloaded twice.
          */
         public CompletableFuture<java.io.File> getLocalFile() {
+            Optional<File> replica = getFullStLister().localReplicaOf(this);
+            if (replica.isPresent()) {
+                logger.debug("Using local replica `{}` instead of downloading `{}`", replica.get(), this);
+                return replica.get().getLocalFile();
+            }
+            String hash = contentHash;
+            if (location.where == Where.Remote && hash != null) {
+                CompletableFuture<java.io.File> download = downloadsByHash.computeIfAbsent(hash, h -> fetchLocalFile());
+                // Don't hold on to a failed download, so that asking again tries again.
+                download.whenComplete((f, ex) -> {
+                    if (ex != null)
+                        downloadsByHash.remove(hash, download);
+                });
+                return download;
+            }
+            return fetchLocalFile();
+        }
+
+        private CompletableFuture<java.io.File> fetchLocalFile() {
             // Mostly defining this so that I don't accidentally use `when` when I mean `where`.
             final Where where = location.where;
             // The java.io.File that should exist for this file.
             java.io.File file = where.which(this::getRawFullPath, this::getTempLocation).toFile();
-            file.deleteOnExit();
+            // Only our own temporary copies get cleaned up. Never the user's files.
+            if (where == Where.Remote)
+                file.deleteOnExit();
             // And this is an async method, so we got one of these too.
             CompletableFuture<java.io.File> future = new CompletableFuture<>();
             // Now make sure it exists...
@@ -3,19 +3,25 @@ package biz.donvi.syncthingversionpicker.remoteaccess;
 import biz.donvi.syncthingversionpicker.SyncPickerApp;
 import biz.donvi.syncthingversionpicker.files.DirectoryLister;
 import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.RemoteShell;
+import biz.donvi.syncthingversionpicker.files.RemoteUploader;
 import com.jcraft.jsch.*;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.File;
-import java.io.InputStream;
+import java.io.*;
 import java.lang.ref.WeakReference;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 
 import static biz.donvi.syncthingversionpicker.files.Location.RemoteCurrent;
@@ -24,6 +30,10 @@ import static biz.donvi.syncthingversionpicker.files.Location.RemoteVersions;
 public class RemoteFileAccessor {
     private static final ExecutorService pool = Executors.newFixedThreadPool(1);
 
+    /** How many uploads may run at once. Each one gets its own SFTP channel, so they don't wait on each other. */
+    private static final int             UPLOAD_CHANNELS = 4;
+    private static final ExecutorService uploadPool      = Executors.newFixedThreadPool(UPLOAD_CHANNELS);
+
     private static final Logger logger = LogManager.getLogger(RemoteFileAccessor.class);
 
     private final String host;
@@ -151,7 +161,7 @@ public class RemoteFileAccessor {
         MARK: - RemoteLister
     ************************************************************** */
 
-    public class RemoteLister implements DirectoryLister {
+    public class RemoteLister implements DirectoryLister, RemoteShell, RemoteUploader {
 
         private final Path    realRoot;
         private final Path    versionsRoot;
@@ -198,11 +208,18 @@ public class RemoteFileAccessor {
                     .map(file -> new DirectoryLister.FileWithLocation(
                         location,
                         file.getFilename(),
-                        file.getAttrs().isDir()))
+                        file.getAttrs().isDir(),
+                        file.getAttrs().getSize(),
+                        file.getAttrs().getMTime() * 1000L))
                     .collect(Collectors.toList());
             }, pool);
         }
 
+        /**
+         * Opens a file over a pooled SFTP channel of its own, which goes back to the pool once the stream is closed.
+         * A channel's replies can only be read by one reader at a time, so files read in parallel over the listing
+         * channel would take each other's packets.
+         */
         @Override
         public CompletableFuture<InputStream> readFile(Path relativePath, Location.When when) {
             CompletableFuture<InputStream> future = new CompletableFuture<>();
@@ -210,14 +227,234 @@ public class RemoteFileAccessor {
                 ensureConnection();
                 Path fullPath = when.which(realRoot, versionsRoot).resolve(relativePath);
                 String path = fullPath.toString().replace('\\', '/');
+                ChannelSftp sftp = null;
                 try {
-                    future.complete(rlInfo.channelSftp.get(path));
-                } catch (SftpException e) {
+                    sftp = rlInfo.borrowChannel(rlInfo.session);
+                    future.complete(new ChannelInputStream(sftp.get(path), sftp));
+                } catch (JSchException | SftpException e) {
                     logger.error("Could not get file at path " + path, e);
+                    if (sftp != null)
+                        rlInfo.returnChannel(sftp);
+                    future.completeExceptionally(e);
                 }
             });
             return future;
         }
+
+        @Override
+        public CompletableFuture<Void> upload(
+            Path localFile, Path relativePath, Location.When when, LongPredicate progress
+        ) {
+            String target = pathAsStr(rootDir(when).resolve(relativePath));
+            return CompletableFuture.supplyAsync(() -> {
+                ensureConnection();
+                return rlInfo.session;
+            }, pool).thenAcceptAsync(session -> RemoteFileAccessor.this.upload(session, localFile, target, progress),
+                                     uploadPool);
+        }
+
+        /**
+         * Runs a command over its own exec channel. Only opening the channel happens on the shared thread; the
+         * command's streams can then be used from any thread without holding up listings.
+         */
+        @Override
+        public CompletableFuture<Command> exec(String command) {
+            return CompletableFuture.supplyAsync(() -> {
+                ensureConnection();
+                try {
+                    logger.debug("Running remote command `{}`", command);
+                    return new ExecCommand(rlInfo.session, command);
+                } catch (JSchException | IOException e) {
+                    throw new CompletionException("Could not run remote command `%s`".formatted(command), e);
+                }
+            }, pool);
+        }
+    }
+
+    /* **************************************************************
+        MARK: - Reading
+    ************************************************************** */
+
+    /** A remote file being read over a borrowed channel. Closing it gives the channel back. */
+    private class ChannelInputStream extends FilterInputStream {
+        private final ChannelSftp sftp;
+        private       boolean     closed = false;
+
+        private ChannelInputStream(InputStream in, ChannelSftp sftp) {
+            super(in);
+            this.sftp = sftp;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                super.close();
+            } catch (IOException e) {
+                // The channel may still hold replies meant for this stream, so it can't be used for anything else.
+                sftp.disconnect();
+                throw e;
+            } finally {
+                rlInfo.returnChannel(sftp);
+            }
+        }
+    }
+
+    /* **************************************************************
+        MARK: - Uploading
+    ************************************************************** */
+
+    /**
+     * Uploads over a pooled SFTP channel of its own. JSch keeps several write requests in flight per channel (see
+     * {@link ChannelSftp#setBulkRequests}), and with several uploads running at once over separate channels, the link
+     * stays full even when the round trip is long.
+     */
+    private void upload(Session session, Path localFile, String target, LongPredicate progress) {
+        int slash = target.lastIndexOf('/');
+        String dir = target.substring(0, Math.max(slash, 0));
+        String temp = dir + "/." + target.substring(slash + 1) + ".stvp-part";
+        ChannelSftp sftp = null;
+        try {
+            sftp = rlInfo.borrowChannel(session);
+            makeDirs(sftp, dir);
+            UploadMonitor monitor = new UploadMonitor(progress);
+            try (InputStream in = Files.newInputStream(localFile)) {
+                sftp.put(in, temp, monitor, ChannelSftp.OVERWRITE);
+            }
+            if (monitor.stopped)
+                throw new IOException("Upload was stopped");
+            sftp.setMtime(temp, (int) (Files.getLastModifiedTime(localFile).toMillis() / 1000));
+            try {
+                // Servers with the posix-rename extension (which JSch uses when it can) replace the target atomically.
+                sftp.rename(temp, target);
+            } catch (SftpException e) {
+                // Without posix-rename, a rename onto an existing file fails. Only then is the old file removed first;
+                // any other failure (permissions, quota, a directory in the way) must not cost the existing version.
+                if (!isRegularFile(sftp, target))
+                    throw e;
+                sftp.rm(target);
+                sftp.rename(temp, target);
+            }
+            logger.debug("Uploaded `{}` to `{}`", localFile, target);
+            rlInfo.returnChannel(sftp);
+        } catch (JSchException | SftpException | IOException e) {
+            if (sftp != null) {
+                try {
+                    sftp.rm(temp);
+                } catch (SftpException ignored) {
+                    // It may never have been created.
+                }
+                rlInfo.returnChannel(sftp);
+            }
+            throw new CompletionException("Could not upload `%s` to `%s`".formatted(localFile, target), e);
+        }
+    }
+
+    private static boolean isRegularFile(ChannelSftp sftp, String path) {
+        try {
+            return sftp.lstat(path).isReg();
+        } catch (SftpException e) {
+            return false;
+        }
+    }
+
+    private void makeDirs(ChannelSftp sftp, String dir) throws SftpException {
+        if (dir.isEmpty() || rlInfo.knownDirs.contains(dir))
+            return;
+        try {
+            sftp.stat(dir);
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE)
+                throw e;
+            makeDirs(sftp, dir.substring(0, Math.max(dir.lastIndexOf('/'), 0)));
+            try {
+                sftp.mkdir(dir);
+            } catch (SftpException mkdirFailed) {
+                // Another upload may have made it in the meantime.
+                sftp.stat(dir);
+            }
+        }
+        rlInfo.knownDirs.add(dir);
+    }
+
+    /** Forwards JSch's upload progress, remembering if it was told to stop. */
+    private static class UploadMonitor implements SftpProgressMonitor {
+        private final LongPredicate progress;
+        private       boolean       stopped = false;
+
+        private UploadMonitor(LongPredicate progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {}
+
+        @Override
+        public boolean count(long count) {
+            stopped = !progress.test(count);
+            return !stopped;
+        }
+
+        @Override
+        public void end() {}
+    }
+
+    /**
+     * A {@link RemoteShell.Command} running on an exec channel.
+     */
+    private static class ExecCommand implements RemoteShell.Command {
+        private final Session               session;
+        private final ChannelExec           channel;
+        private final InputStream           stdout;
+        private final OutputStream          stdin;
+        private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+        private ExecCommand(Session session, String command) throws JSchException, IOException {
+            if (session == null)
+                throw new JSchException("Not connected");
+            this.session = session;
+            channel = (ChannelExec) session.openChannel("exec");
+            channel.setCommand(command);
+            channel.setErrStream(stderr, true);
+            stdout = channel.getInputStream();
+            stdin = channel.getOutputStream();
+            channel.connect(5000);
+        }
+
+        @Override
+        public OutputStream stdin() {
+            return stdin;
+        }
+
+        @Override
+        public InputStream stdout() {
+            return stdout;
+        }
+
+        @Override
+        public String stderr() {
+            synchronized (stderr) {
+                return stderr.toString(StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            // JSch has no way to block until a channel closes, so we poll.
+            while (!channel.isClosed()) {
+                if (!session.isConnected())
+                    return -1;
+                Thread.sleep(20);
+            }
+            return channel.getExitStatus();
+        }
+
+        @Override
+        public void close() {
+            channel.disconnect();
+        }
     }
 
     /* **************************************************************
@@ -264,6 +501,7 @@ public class RemoteFileAccessor {
                     rl.info.closeConnections();
                 rls.clear();
                 pool.shutdown();
+                uploadPool.shutdown();
             }, pool);
         }
     }
@@ -273,6 +511,11 @@ public class RemoteFileAccessor {
         private Channel     channel     = null;
         private ChannelSftp channelSftp = null;
 
+        /** Upload and read channels that aren't in use right now. */
+        private final Deque<ChannelSftp> idleChannels = new ArrayDeque<>();
+        /** Remote directories that are known to exist, so uploads don't have to check every time. */
+        private final Set<String>        knownDirs    = ConcurrentHashMap.newKeySet();
+
 
         private void closeConnections() {
             if (session != null)
@@ -281,6 +524,35 @@ public class RemoteFileAccessor {
                 channel.disconnect();
             session = null;
             channel = null;
+            synchronized (idleChannels) {
+                idleChannels.forEach(Channel::disconnect);
+                idleChannels.clear();
+            }
+            knownDirs.clear();
+        }
+
+        private ChannelSftp borrowChannel(Session session) throws JSchException {
+            synchronized (idleChannels) {
+                while (!idleChannels.isEmpty()) {
+                    ChannelSftp idle = idleChannels.pop();
+                    if (idle.isConnected())
+                        return idle;
+                }
+            }
+            if (session == null)
+                throw new JSchException("Not connected");
+            ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
+            sftp.connect(5000);
+            sftp.setBulkRequests(64);
+            return sftp;
+        }
+
+        private void returnChannel(ChannelSftp sftp) {
+            if (!sftp.isConnected())
+                return;
+            synchronized (idleChannels) {
+                idleChannels.push(sftp);
+            }
         }
 
         private boolean validateConnections() {
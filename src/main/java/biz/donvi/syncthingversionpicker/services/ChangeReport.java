@@ -0,0 +1,275 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports which files in a folder changed between two points in time, and how often. Every version Syncthing keeps
+ * marks a change (its sync date is when the file was replaced or deleted), and so does a current file that was
+ * modified after its newest version was made (like a new file that was never replaced). The same version in both the
+ * local and remote versions folder only counts once.
+ * <br/> The folder is crawled in every {@link Location} at once with a {@link FolderCrawler}. Each file that changed
+ * gets a row, written as soon as its directory is listed, and each directory gets a row with the totals of everything
+ * under it, written once the crawler leaves it. Only the totals of directories that haven't been left yet are kept,
+ * so memory stays bounded no matter how big the folder is.
+ * <br/> Note: Conflict copies aren't counted as changes.
+ */
+public class ChangeReport implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(ChangeReport.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * The changes made to a single file.
+     *
+     * @param relativePath The relative path of the file.
+     * @param changes      How many times it changed in the window.
+     * @param first        When it first changed in the window.
+     * @param last         When it last changed in the window.
+     */
+    public record FileChanges(Path relativePath, int changes, LocalDateTime first, LocalDateTime last) {}
+
+    /** The running totals of a directory that hasn't been left yet. */
+    private static final class Totals {
+        private long          files   = 0;
+        private long          changes = 0;
+        private LocalDateTime first   = null;
+        private LocalDateTime last    = null;
+
+        synchronized void add(long files, long changes, LocalDateTime first, LocalDateTime last) {
+            this.files += files;
+            this.changes += changes;
+            if (first != null && (this.first == null || first.isBefore(this.first)))
+                this.first = first;
+            if (last != null && (this.last == null || last.isAfter(this.last)))
+                this.last = last;
+        }
+    }
+
+    private final Path              root;
+    private final LocalDateTime     from;
+    private final LocalDateTime     to;
+    private final Path              report;
+    private final FolderCrawler     crawler;
+    private final ProgressTracker   tracker = new ProgressTracker();
+    private final Map<Path, Totals> open    = new ConcurrentHashMap<>();
+
+    private BufferedWriter          writer;
+    private CompletableFuture<Void> future;
+    private long                    changed = 0;
+
+    /**
+     * @param dir    The directory to report on (recursively).
+     * @param from   The start of the window (inclusive).
+     * @param to     The end of the window (exclusive).
+     * @param report The file to write the report to. Anything already there is replaced.
+     */
+    public ChangeReport(StDirectory dir, LocalDateTime from, LocalDateTime to, Path report) {
+        this.root = dir.getRelativePath();
+        this.from = from;
+        this.to = to;
+        this.report = report;
+        this.crawler = new FolderCrawler(
+            dir.getFullStLister(), EnumSet.allOf(Location.class),
+            Math.max(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Starts the report.
+     *
+     * @return This report.
+     */
+    public ChangeReport start() {
+        logger.info("Reporting changes to `{}` from {} to {} in `{}`", root, from, to, report);
+        try {
+            Files.createDirectories(report.getParent());
+            writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8);
+            writer.write("kind\tpath\tchanges\tfiles\tfirst change\tlast change\n");
+        } catch (IOException e) {
+            logger.error("Could not open change report `%s`".formatted(report), e);
+            tracker.finish();
+            future = CompletableFuture.failedFuture(e);
+            return this;
+        }
+        future = crawler.crawl(root, new Visitor());
+        future.whenComplete((x, ex) -> {
+            synchronized (this) {
+                tracker.finish();
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close change report `{}`", report, e);
+                }
+            }
+            if (ex == null)
+                logger.info("Change report of `{}` done, {} files changed", root, changed);
+        });
+        return this;
+    }
+
+    /**
+     * @return The file the report is written to.
+     */
+    public Path report() {
+        return report;
+    }
+
+    @Override
+    public String title() {
+        return "Reporting changes to " + (root.toString().isEmpty() ? "folder" : root);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        crawler.cancel();
+    }
+
+    @Override
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Aggregating
+     ****************************************************************/
+
+    private class Visitor implements FolderCrawler.Visitor {
+
+        @Override
+        public void visit(Path dir, Map<Location, List<FileWithLocation>> listings) throws IOException {
+            List<FileChanges> files = changesIn(dir, listings, from, to);
+            Totals totals = new Totals();
+            StringBuilder rows = new StringBuilder();
+            for (FileChanges file : files) {
+                totals.add(1, file.changes(), file.first(), file.last());
+                rows.append(row("file", pathAsStr(file.relativePath()), file.changes(), 1, file.first(), file.last()));
+            }
+            open.put(dir, totals);
+            synchronized (ChangeReport.this) {
+                // A cancelled crawl may still be finishing a directory after the report was closed.
+                if (tracker.isFinished())
+                    return;
+                writer.write(rows.toString());
+                changed += files.size();
+                for (int i = 0; i < files.size(); i++) {
+                    tracker.found(-1);
+                    tracker.fileDone();
+                }
+            }
+        }
+
+        @Override
+        public void leave(Path dir) throws IOException {
+            Totals totals = open.remove(dir);
+            if (totals == null)
+                return;
+            if (!dir.equals(root)) {
+                Path parent = dir.getParent() == null ? Path.of("") : dir.getParent();
+                Totals parentTotals = open.get(parent);
+                if (parentTotals != null)
+                    parentTotals.add(totals.files, totals.changes, totals.first, totals.last);
+            }
+            if (totals.changes == 0 && !dir.equals(root))
+                return;
+            synchronized (ChangeReport.this) {
+                if (tracker.isFinished())
+                    return;
+                writer.write(row("dir", pathAsStr(dir) + "/", totals.changes, totals.files, totals.first, totals.last));
+            }
+        }
+    }
+
+    /**
+     * Works out how every file in a single directory changed in a window of time.
+     *
+     * @param dir      The relative path of the directory.
+     * @param listings The directory's listing, for each location it exists in.
+     * @param from     The start of the window (inclusive).
+     * @param to       The end of the window (exclusive).
+     * @return Every file that changed at least once in the window, sorted by name.
+     */
+    static List<FileChanges> changesIn(
+        Path dir, Map<Location, List<FileWithLocation>> listings, LocalDateTime from, LocalDateTime to
+    ) {
+        Map<String, TreeSet<LocalDateTime>> versioned = new HashMap<>();
+        Map<String, LocalDateTime> modified = new HashMap<>();
+        listings.forEach((location, files) -> {
+            for (FileWithLocation file : files) {
+                if (file.isDir())
+                    continue;
+                ParsedFileName name = new ParsedFileName(file.name());
+                if (name.hasConflict())
+                    continue;
+                if (location.when == Location.When.Version) {
+                    LocalDateTime synced = syncDateOf(name);
+                    if (synced != null)
+                        versioned.computeIfAbsent(name.nameFixed(), n -> new TreeSet<>()).add(synced);
+                } else if (file.lastModified() >= 0) {
+                    LocalDateTime time = LocalDateTime
+                        .ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault())
+                        .truncatedTo(ChronoUnit.SECONDS);
+                    modified.merge(name.nameFixed(), time, (a, b) -> a.isAfter(b) ? a : b);
+                }
+            }
+        });
+        // A current file modified before its newest version was made is the content that replaced that version, so
+        // the change was already counted.
+        modified.forEach((name, time) -> {
+            TreeSet<LocalDateTime> times = versioned.computeIfAbsent(name, n -> new TreeSet<>());
+            if (times.isEmpty() || time.isAfter(times.last()))
+                times.add(time);
+        });
+        List<FileChanges> changes = new ArrayList<>();
+        versioned.forEach((name, times) -> {
+            NavigableSet<LocalDateTime> inWindow = times.subSet(from, true, to, false);
+            if (!inWindow.isEmpty())
+                changes.add(new FileChanges(dir.resolve(name), inWindow.size(), inWindow.first(), inWindow.last()));
+        });
+        changes.sort(Comparator.comparing(FileChanges::relativePath));
+        return changes;
+    }
+
+    private static LocalDateTime syncDateOf(ParsedFileName name) {
+        if (!name.hasSyncDate())
+            return null;
+        try {
+            return LocalDateTime.parse(name.syncDate(), nameDateFormat);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String row(String kind, String path, long changes, long files, LocalDateTime first,
+                              LocalDateTime last) {
+        return "%s\t%s\t%d\t%d\t%s\t%s\n".formatted(kind, path, changes, files, first == null ? "" : first,
+                                                    last == null ? "" : last);
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
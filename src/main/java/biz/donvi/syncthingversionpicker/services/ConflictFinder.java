@@ -0,0 +1,197 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Finds every sync conflict in a folder, in all four {@link Location}s, and groups them by the file they are a
+ * conflict of. The folder is crawled with a {@link FolderCrawler}, several directories at a time.
+ * <br/> Almost no file is a conflict, so names are checked for the {@code .sync-conflict-} text before being parsed
+ * (see {@link ParsedFileName}). Only conflicts (and the current files they belong to) are kept, so a big folder with
+ * few conflicts is scanned quickly and in little memory.
+ */
+public class ConflictFinder implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(ConflictFinder.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** Text every conflict file has in its name. */
+    private static final String CONFLICT_MARK = ".sync-conflict-";
+
+    /**
+     * A single file of a {@link ConflictGroup}: either a conflict copy or the current file they are a conflict of.
+     *
+     * @param location        Where the file is.
+     * @param rawRelativePath The raw relative path of the file.
+     * @param device          The device the conflict came from, or {@code null} if this isn't a conflict copy.
+     * @param conflictDate    When the conflict happened, or {@code null} if this isn't a conflict copy.
+     * @param size            The size of the file in bytes, or {@code -1} if it is not known.
+     * @param lastModified    The last modified time of the file in epoch milliseconds, or {@code -1}.
+     */
+    public record Copy(
+        Location location, Path rawRelativePath, String device, LocalDateTime conflictDate, long size,
+        long lastModified
+    ) {
+        public boolean isConflict() {
+            return device != null;
+        }
+    }
+
+    /**
+     * Every conflict copy of a file, with the current file itself (where it exists).
+     *
+     * @param relativePath The relative path of the file the conflicts are of.
+     * @param files        The conflict copies and current files.
+     */
+    public record ConflictGroup(Path relativePath, List<Copy> files) {
+
+        /**
+         * @return Just the conflict copies.
+         */
+        public List<Copy> conflicts() {
+            return files.stream().filter(Copy::isConflict).toList();
+        }
+
+        /**
+         * @return Every device that has a conflict copy of this file, sorted.
+         */
+        public SortedSet<String> devices() {
+            SortedSet<String> devices = new TreeSet<>();
+            for (Copy copy : files)
+                if (copy.isConflict())
+                    devices.add(copy.device());
+            return devices;
+        }
+    }
+
+    private final Path                                 root;
+    private final FolderCrawler                        crawler;
+    private final ProgressTracker                      tracker = new ProgressTracker();
+    private final ConcurrentLinkedQueue<ConflictGroup> found   = new ConcurrentLinkedQueue<>();
+
+    private CompletableFuture<List<ConflictGroup>> future;
+
+    /**
+     * @param dir The directory to find conflicts in (recursively).
+     */
+    public ConflictFinder(StDirectory dir) {
+        this.root = dir.getRelativePath();
+        this.crawler = new FolderCrawler(
+            dir.getFullStLister(), EnumSet.allOf(Location.class),
+            Math.max(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Starts the search.
+     *
+     * @return This search.
+     */
+    public ConflictFinder start() {
+        logger.info("Finding conflicts in `{}`", root);
+        future = crawler.crawl(root, this::visit).thenApply(x -> {
+            List<ConflictGroup> groups = new ArrayList<>(found);
+            groups.sort(Comparator.comparing(ConflictGroup::relativePath));
+            logger.info("Found {} files with conflicts in `{}`", groups.size(), root);
+            return List.copyOf(groups);
+        });
+        future.whenComplete((x, ex) -> {
+            tracker.discoveryDone();
+            tracker.finish();
+        });
+        return this;
+    }
+
+    @Override
+    public String title() {
+        return "Finding conflicts in " + (root.toString().isEmpty() ? "folder" : root);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        crawler.cancel();
+    }
+
+    /**
+     * @return A future holding every file with conflicts, sorted by path.
+     */
+    @Override
+    public CompletableFuture<List<ConflictGroup>> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Crawling
+     ****************************************************************/
+
+    private void visit(Path dir, Map<Location, List<FileWithLocation>> listings) {
+        found.addAll(conflictsIn(dir, listings));
+        long files = listings.values().stream().mapToLong(List::size).sum();
+        for (long i = 0; i < files; i++) {
+            tracker.found(-1);
+            tracker.fileDone();
+        }
+    }
+
+    /**
+     * Finds the conflicts in a single directory.
+     *
+     * @param dir      The relative path of the directory.
+     * @param listings The directory's listing, for each location it exists in.
+     * @return Every file in the directory with conflicts, in no particular order.
+     */
+    static List<ConflictGroup> conflictsIn(Path dir, Map<Location, List<FileWithLocation>> listings) {
+        Map<String, List<Copy>> byName = null;
+        for (var entry : listings.entrySet()) {
+            for (FileWithLocation file : entry.getValue()) {
+                if (file.isDir() || !file.name().contains(CONFLICT_MARK))
+                    continue;
+                ParsedFileName name = new ParsedFileName(file.name());
+                if (!name.hasConflict())
+                    continue;
+                if (byName == null)
+                    byName = new HashMap<>();
+                byName.computeIfAbsent(name.nameFixed(), n -> new ArrayList<>()).add(new Copy(
+                    entry.getKey(), dir.resolve(file.name()), name.conflictDevice(), dateOf(name.conflictDate()),
+                    file.size(), file.lastModified()));
+            }
+        }
+        if (byName == null)
+            return List.of();
+        for (Location location : List.of(Location.LocalCurrent, Location.RemoteCurrent)) {
+            for (FileWithLocation file : listings.getOrDefault(location, List.of())) {
+                List<Copy> copies = file.isDir() ? null : byName.get(file.name());
+                if (copies != null)
+                    copies.add(new Copy(location, dir.resolve(file.name()), null, null, file.size(),
+                                        file.lastModified()));
+            }
+        }
+        List<ConflictGroup> groups = new ArrayList<>();
+        byName.forEach((name, copies) -> groups.add(new ConflictGroup(dir.resolve(name), List.copyOf(copies))));
+        return groups;
+    }
+
+    private static LocalDateTime dateOf(String nameDate) {
+        try {
+            return LocalDateTime.parse(nameDate, nameDateFormat);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
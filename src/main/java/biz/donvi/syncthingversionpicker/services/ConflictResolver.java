@@ -0,0 +1,299 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder.ConflictGroup;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder.Copy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Resolves many sync conflicts at once, following a single {@link Rule}. For each file, one copy is kept as the
+ * current file and every other local copy is moved into the local versions folder, named the way Syncthing names
+ * versions, so nothing is ever deleted and every loser can still be restored like any other version.
+ * <br/> Files are resolved in parallel. Within a file, the losers are always moved away before the winner is renamed
+ * into place, so stopping part way never loses a copy. Every move is written to a journal in
+ * {@code ~/StVersionPicker/journals} as soon as it's done, and the journal is kept, as a record of where each copy
+ * went.
+ * <br/> Note: Only {@link Location#LocalCurrent} files are touched. Syncthing carries the result over to the remote.
+ * A file that changed since it was found is left alone.
+ */
+public class ConflictResolver implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(ConflictResolver.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** How to pick the copy of a file that is kept. */
+    public sealed interface Rule {
+        /** Keep whichever local copy was modified last. */
+        record KeepNewest() implements Rule {}
+
+        /**
+         * Keep the newest conflict copy from a device. Files with no conflict copy from that device are left alone.
+         *
+         * @param device The device whose copy is kept.
+         */
+        record KeepDevice(String device) implements Rule {}
+    }
+
+    /**
+     * What resolving a single file does.
+     *
+     * @param group  The file being resolved.
+     * @param winner The copy that becomes the current file.
+     * @param losers The copies that get moved into the versions folder.
+     */
+    record Resolution(ConflictGroup group, Copy winner, List<Copy> losers) {}
+
+    private final FileManipulationService service;
+    private final FullStLister            lister;
+    private final List<ConflictGroup>     groups;
+    private final Rule                    rule;
+    private final ExecutorService         threads;
+    private final ProgressTracker         tracker = new ProgressTracker();
+    private final CompletableFuture<Void> future  = new CompletableFuture<>();
+    private final LocalDateTime           stamp   = LocalDateTime.now().withNano(0);
+    private final Path                    journalFile;
+
+    private          BufferedWriter journal;
+    private volatile boolean        cancelled = false;
+
+    /**
+     * @param service     The service that changes get published through.
+     * @param lister      The folder the conflicts are in.
+     * @param groups      The files to resolve.
+     * @param rule        How to pick the copy of each file that is kept.
+     * @param parallelism How many files may be resolved at the same time.
+     */
+    ConflictResolver(
+        FileManipulationService service, FullStLister lister, List<ConflictGroup> groups, Rule rule, int parallelism
+    ) {
+        this.service = service;
+        this.lister = lister;
+        this.groups = List.copyOf(groups);
+        this.rule = rule;
+        this.threads = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "conflict-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.journalFile = RestoreJournal.journalDir().resolve(
+            "conflicts-%s.tsv".formatted(stamp.format(nameDateFormat)));
+    }
+
+    /**
+     * Starts resolving.
+     *
+     * @return This resolver.
+     */
+    ConflictResolver start() {
+        logger.info("Resolving conflicts of {} files with rule {}", groups.size(), rule);
+        try {
+            Files.createDirectories(journalFile.getParent());
+            journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8);
+            journal.write("action\tfrom\tto\n");
+        } catch (IOException e) {
+            logger.warn("Could not open conflict journal `%s`. Moves will only be logged.".formatted(journalFile), e);
+            journal = null;
+        }
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (ConflictGroup group : groups) {
+            tracker.found(-1);
+            tasks.add(CompletableFuture.runAsync(() -> resolve(group), threads));
+        }
+        tracker.discoveryDone();
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).whenComplete((x, ex) -> {
+            threads.shutdown();
+            closeJournal();
+            tracker.finish();
+            logger.info("Resolving conflicts done: {}", tracker.snapshot().describe());
+            if (cancelled)
+                future.completeExceptionally(new CancellationException("Resolving conflicts was cancelled"));
+            else future.complete(null);
+        });
+        return this;
+    }
+
+    /**
+     * @return The file every move is recorded in.
+     */
+    public Path journalFile() {
+        return journalFile;
+    }
+
+    @Override
+    public String title() {
+        return "Resolving conflicts of %d files".formatted(groups.size());
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Resolving
+     ****************************************************************/
+
+    /**
+     * Works out what resolving a file with a rule would do, without doing it.
+     *
+     * @param group The file to resolve.
+     * @param rule  How to pick the copy that is kept.
+     * @return The resolution, or empty if the rule doesn't apply to this file (or there is nothing to do).
+     */
+    static Optional<Resolution> plan(ConflictGroup group, Rule rule) {
+        List<Copy> local = group.files().stream().filter(c -> c.location() == Location.LocalCurrent).toList();
+        Optional<Copy> winner = switch (rule) {
+            case Rule.KeepNewest() -> local.stream().max(Comparator.comparingLong(Copy::lastModified));
+            case Rule.KeepDevice(String device) -> local.stream()
+                .filter(c -> device.equals(c.device()))
+                .max(Comparator.comparingLong(Copy::lastModified));
+        };
+        if (winner.isEmpty())
+            return Optional.empty();
+        List<Copy> losers = local.stream().filter(c -> !c.equals(winner.get())).toList();
+        if (losers.isEmpty() && !winner.get().isConflict())
+            return Optional.empty();
+        return Optional.of(new Resolution(group, winner.get(), losers));
+    }
+
+    /**
+     * The name a copy gets in the versions folder: its own name, with a Syncthing version stamp added.
+     *
+     * @param name  The name of the copy.
+     * @param stamp The time it was versioned.
+     * @return The name to version it as.
+     */
+    static String versionName(String name, LocalDateTime stamp) {
+        ParsedFileName p = new ParsedFileName(name);
+        return new ParsedFileName(
+            name, p.name(), p.prevMarker(), p.conflictDate(), p.conflictDevice(), stamp.format(nameDateFormat),
+            p.extension()
+        ).rebuild();
+    }
+
+    private void resolve(ConflictGroup group) {
+        if (cancelled) {
+            tracker.skipped(-1);
+            return;
+        }
+        Optional<Resolution> resolution = plan(group, rule);
+        if (resolution.isEmpty()) {
+            tracker.skipped(-1);
+            return;
+        }
+        Path root = lister.rootDir(Location.LocalCurrent);
+        Resolution r = resolution.get();
+        for (Copy copy : r.group().files()) {
+            if (copy.location() == Location.LocalCurrent && !unchanged(root.resolve(copy.rawRelativePath()), copy)) {
+                logger.warn("`{}` changed since it was found, leaving its conflicts alone", copy.rawRelativePath());
+                tracker.skipped(-1);
+                return;
+            }
+        }
+        try {
+            for (Copy loser : r.losers())
+                archive(root, loser);
+            Path original = r.group().relativePath();
+            if (!r.winner().rawRelativePath().equals(original)) {
+                Files.move(root.resolve(r.winner().rawRelativePath()), root.resolve(original));
+                journal("kept", r.winner().rawRelativePath(), original);
+                service.publish(new FileMutation.Renamed(
+                    Location.LocalCurrent, r.winner().rawRelativePath(), original));
+            }
+            tracker.fileDone();
+        } catch (IOException e) {
+            logger.error("Could not resolve conflicts of `%s`".formatted(r.group().relativePath()), e);
+            tracker.fileFailed();
+        }
+    }
+
+    /** Moves a copy into the local versions folder. */
+    private void archive(Path root, Copy copy) throws IOException {
+        Path raw = copy.rawRelativePath();
+        Path dir = FileMutation.parentOf(raw);
+        Path versionsRoot = lister.rootDir(Location.LocalVersions);
+        createVersionDirs(versionsRoot, dir);
+        LocalDateTime at = stamp;
+        Path archived = dir.resolve(versionName(raw.getFileName().toString(), at));
+        // Another copy with the same name was versioned this same second, so go with the next one.
+        while (Files.exists(versionsRoot.resolve(archived))) {
+            at = at.plusSeconds(1);
+            archived = dir.resolve(versionName(raw.getFileName().toString(), at));
+        }
+        Files.move(root.resolve(raw), versionsRoot.resolve(archived));
+        journal("archived", raw, archived);
+        service.publish(new FileMutation.Deleted(Location.LocalCurrent, raw, false));
+        service.publish(new FileMutation.Created(
+            Location.LocalVersions, archived, false, copy.size(), copy.lastModified()));
+    }
+
+    /** Makes sure a directory exists in the versions folder, publishing every directory that had to be created. */
+    private synchronized void createVersionDirs(Path versionsRoot, Path relativeDir) throws IOException {
+        Path dir = Path.of("");
+        for (Path part : relativeDir) {
+            dir = dir.resolve(part);
+            if (!Files.isDirectory(versionsRoot.resolve(dir))) {
+                Files.createDirectory(versionsRoot.resolve(dir));
+                service.publish(new FileMutation.Created(Location.LocalVersions, dir, true, 0, -1));
+            }
+        }
+    }
+
+    private static boolean unchanged(Path file, Copy copy) {
+        try {
+            return Files.size(file) == copy.size()
+                   && (copy.lastModified() < 0 || Files.getLastModifiedTime(file).toMillis() == copy.lastModified());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized void journal(String action, Path from, Path to) {
+        logger.info("Conflict resolution {} `{}` -> `{}`", action, from, to);
+        if (journal == null)
+            return;
+        try {
+            journal.write("%s\t%s\t%s\n".formatted(action, RestoreJournal.escape(from.toString()),
+                                                   RestoreJournal.escape(to.toString())));
+            journal.flush();
+        } catch (IOException e) {
+            logger.warn("Could not write to conflict journal `%s`. Journaling is off for the rest of this job."
+                            .formatted(journalFile), e);
+            closeJournal();
+        }
+    }
+
+    private synchronized void closeJournal() {
+        if (journal != null) try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warn("Could not close conflict journal `%s`".formatted(journalFile), e);
+        } finally {
+            journal = null;
+        }
+    }
+}
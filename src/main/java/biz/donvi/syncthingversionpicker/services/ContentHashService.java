@@ -0,0 +1,182 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.RemoteShell;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import biz.donvi.syncthingversionpicker.files.StFileGroup.File;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Works out the content hashes (SHA-256) of files, so that byte-identical versions can be told apart from ones that
+ * actually differ (see {@link StFileGroup#getDistinctFiles()}).
+ * <ul>
+ *     <li><b>Remote</b> files are hashed on the remote, all of them with a single {@code sha256sum} run over one exec
+ *     channel. Nothing gets downloaded.</li>
+ *     <li><b>Local</b> files are hashed in parallel.</li>
+ * </ul>
+ * Hashes are cached by location, path, size and modified time, so a file is only ever hashed again if it changed.
+ * <br/> Note: Files can only be identical if they are the same size, so files whose size no other file in the batch
+ * shares are never hashed at all.
+ */
+public class ContentHashService implements FullStLister.FileService {
+    private static final Logger logger = LogManager.getLogger(ContentHashService.class);
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()),
+        runnable -> {
+            Thread thread = new Thread(runnable, "content-hash");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private record Key(Location location, Path rawRelativePath, long size, long lastModified) {}
+
+    private final FullStLister     lister;
+    private final Map<Key, String> cache = new ConcurrentHashMap<>();
+
+    public ContentHashService(FullStLister lister) {
+        this.lister = lister;
+    }
+
+    /**
+     * Hashes every file in a group that could have an identical twin.
+     *
+     * @param group The group to hash.
+     * @return A future that completes once every hash that could be worked out has been set on its file.
+     */
+    public CompletableFuture<Void> hash(StFileGroup group) {
+        return hash(group.getFiles());
+    }
+
+    /**
+     * Hashes files, setting each hash on its file with {@link File#setContentHash(String)}. Files that can't be hashed
+     * (say, the remote has no {@code sha256sum}) are left without a hash.
+     *
+     * @param files The files to hash.
+     * @return A future that completes once every hash that could be worked out has been set on its file.
+     */
+    public CompletableFuture<Void> hash(Collection<File> files) {
+        Map<Long, Long> sizeCounts = new HashMap<>();
+        for (File file : files)
+            sizeCounts.merge(file.size, 1L, Long::sum);
+        List<File> remote = new ArrayList<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (File file : files) {
+            if (file.getContentHash().isPresent() || file.size >= 0 && sizeCounts.get(file.size) < 2)
+                continue;
+            String cached = cache.get(keyOf(file));
+            if (cached != null)
+                file.setContentHash(cached);
+            else if (file.location.where == Location.Where.Local)
+                futures.add(CompletableFuture.runAsync(() -> hashLocal(file), pool));
+            else remote.add(file);
+        }
+        if (!remote.isEmpty())
+            futures.add(hashRemote(remote));
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    private void hashLocal(File file) {
+        try {
+            remember(file, RestoreJournal.sha256Of(file.getRawFullPath()));
+        } catch (IOException e) {
+            logger.warn("Could not hash local file `{}`: {}", file, e.getMessage());
+        }
+    }
+
+    private CompletableFuture<Void> hashRemote(List<File> files) {
+        Map<String, List<File>> byPath = new HashMap<>();
+        for (File file : files)
+            byPath.computeIfAbsent(pathAsStr(file.getRawFullPath()), p -> new ArrayList<>()).add(file);
+        return hashRemotePaths(byPath.keySet()).thenAccept(hashes -> hashes.forEach((path, hash) -> {
+            for (File file : byPath.getOrDefault(path, List.of()))
+                remember(file, hash);
+        }));
+    }
+
+    /**
+     * Hashes remote files with one {@code sha256sum} run. The paths go in on standard input and come back with their
+     * hashes, both separated by {@code NUL}s so that no file name can confuse the two.
+     * <br/> Note: Nothing is cached here, since there are no {@link File}s to tie the hashes to.
+     *
+     * @param paths The absolute paths of the files on the remote.
+     * @return A future of the hash of every file that could be hashed, by path. Files that couldn't be hashed (or all
+     * of them, if the remote can't run commands) are left out.
+     */
+    public CompletableFuture<Map<String, String>> hashRemotePaths(Collection<String> paths) {
+        Optional<RemoteShell> shell = lister.remoteShell();
+        if (shell.isEmpty() || paths.isEmpty())
+            return CompletableFuture.completedFuture(Map.of());
+        logger.debug("Hashing {} remote files", paths.size());
+        return shell.get().exec("xargs -0 -r sha256sum -z --").thenApplyAsync(command -> {
+            Map<String, String> hashes = new HashMap<>();
+            try (command) {
+                // Paths are written on their own thread, since sha256sum starts answering before it has them all.
+                Thread.ofVirtual().start(() -> {
+                    try (OutputStream stdin = new BufferedOutputStream(command.stdin())) {
+                        for (String path : paths) {
+                            stdin.write(path.getBytes(StandardCharsets.UTF_8));
+                            stdin.write(0);
+                        }
+                    } catch (IOException e) {
+                        logger.warn("Could not send paths to remote sha256sum: {}", e.getMessage());
+                    }
+                });
+                readRemoteHashes(command.stdout(), hashes);
+                int status = command.waitFor();
+                if (status != 0)
+                    logger.warn("Remote sha256sum exited with {}: {}", status, command.stderr().strip());
+            } catch (IOException e) {
+                logger.warn("Could not read remote hashes", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return hashes;
+        }, pool).exceptionally(ex -> {
+            logger.warn("Could not hash remote files", ex);
+            return Map.of();
+        });
+    }
+
+    /**
+     * Reads {@code sha256sum -z} output, which is a list of {@code "<hash>  <path>\0"} records.
+     */
+    private static void readRemoteHashes(InputStream in, Map<String, String> hashes) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        InputStream buffered = new BufferedInputStream(in);
+        for (int b; (b = buffered.read()) >= 0; ) {
+            if (b != 0) {
+                record.write(b);
+                continue;
+            }
+            String line = record.toString(StandardCharsets.UTF_8);
+            record.reset();
+            // The hash is followed by a space, then either another space or a `*` (for binary mode).
+            if (line.length() < 67)
+                continue;
+            hashes.put(line.substring(66), line.substring(0, 64));
+        }
+    }
+
+    private void remember(File file, String hash) {
+        file.setContentHash(hash);
+        if (file.size >= 0 && file.lastModified >= 0)
+            cache.put(keyOf(file), hash);
+    }
+
+    private static Key keyOf(File file) {
+        return new Key(file.location, file.getRawRelativePath(), file.size, file.lastModified);
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,97 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Rebuilds a target file from a basis file and a delta (see {@link DeltaSignature} for the format). The result is
+ * checked against the SHA-256 sent at the end of the delta, and applying fails if it doesn't match.
+ */
+public final class DeltaApplier {
+
+    /**
+     * What applying a delta took.
+     *
+     * @param literalBytes How many bytes came from the delta itself (these are the ones that were transferred).
+     * @param copiedBytes  How many bytes were copied from the basis.
+     */
+    public record Stats(long literalBytes, long copiedBytes) {}
+
+    private DeltaApplier() {}
+
+    /**
+     * Applies a delta.
+     *
+     * @param delta     The delta to read.
+     * @param signature The signature the delta was made against.
+     * @param basis     The basis file the signature was made from.
+     * @param target    Where to write the rebuilt file. It is flushed, but not closed.
+     * @return How much of the file came from where.
+     * @throws IOException If anything couldn't be read or written, the delta is malformed, or the result doesn't
+     *                     match the checksum.
+     */
+    public static Stats apply(InputStream delta, DeltaSignature signature, Path basis, OutputStream target)
+    throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(delta, 64 * 1024));
+        MessageDigest sha256 = RestoreJournal.newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        long literal = 0;
+        long copied = 0;
+        try (FileChannel basisChannel = FileChannel.open(basis, StandardOpenOption.READ)) {
+            if (basisChannel.size() != signature.basisLength)
+                throw new IOException("Basis file changed while the delta was being made");
+            while (true) {
+                int op = in.read();
+                switch (op) {
+                    case DeltaSignature.OP_COPY -> {
+                        int first = in.readInt();
+                        int count = in.readInt();
+                        if (first < 0 || count <= 0 || (long) first + count > signature.blockCount())
+                            throw new IOException("Delta refers to blocks that don't exist");
+                        long position = (long) first * signature.blockSize;
+                        long end = Math.min(signature.basisLength, (long) (first + count) * signature.blockSize);
+                        while (position < end) {
+                            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+                            int n = basisChannel.read(bb, position);
+                            if (n < 0)
+                                throw new EOFException("Basis file ended early");
+                            target.write(buffer, 0, n);
+                            sha256.update(buffer, 0, n);
+                            position += n;
+                            copied += n;
+                        }
+                    }
+                    case DeltaSignature.OP_LITERAL -> {
+                        int length = in.readInt();
+                        if (length < 0)
+                            throw new IOException("Delta has a negative literal length");
+                        for (int remaining = length; remaining > 0; ) {
+                            int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                            if (n < 0)
+                                throw new EOFException("Delta ended in the middle of a literal");
+                            target.write(buffer, 0, n);
+                            sha256.update(buffer, 0, n);
+                            remaining -= n;
+                        }
+                        literal += length;
+                    }
+                    case DeltaSignature.OP_END -> {
+                        long length = in.readLong();
+                        byte[] expected = in.readNBytes(32);
+                        if (length != literal + copied || !Arrays.equals(expected, sha256.digest()))
+                            throw new IOException("Rebuilt file does not match the original");
+                        target.flush();
+                        return new Stats(literal, copied);
+                    }
+                    case -1 -> throw new EOFException("Delta ended before it was complete");
+                    default -> throw new IOException("Unknown delta operation `%d`".formatted(op));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+
+/**
+ * The block checksums of a <em>basis</em> file, which is a file we already have that is probably similar to the one we
+ * want. Whoever has the wanted file can use these to describe it as "copy these blocks of the basis, then these new
+ * bytes, then..." (see {@code delta-helper.py}), and only the new bytes need to be sent. This is the same idea
+ * {@code rsync} is built on.
+ * <br/> Every block gets two checksums: a weak one (Adler-32) that can be rolled along a file one byte at a time,
+ * and a strong one (MD5) to confirm a weak match. The result of applying a delta is always verified with a SHA-256
+ * of the whole file, so a checksum collision can never slip through unnoticed.
+ * <br/> Note: The wire format is shared with the helper script run on the remote ({@code delta-helper.py}), so any
+ * change here has to be made there too. All numbers are big-endian.
+ * <pre>
+ *     signature := "STVD" blockSize:u32 basisLength:i64 blockCount:u32 (weak:u32 strong:byte[16]){blockCount}
+ *     delta     := op* end
+ *     op        := 'C' firstBlock:u32 blockCount:u32  |  'L' length:u32 byte[length]
+ *     end       := 'E' targetLength:i64 sha256:byte[32]
+ * </pre>
+ */
+public final class DeltaSignature {
+
+    static final byte[] MAGIC       = "STVD".getBytes(StandardCharsets.US_ASCII);
+    static final byte   OP_COPY     = 'C';
+    static final byte   OP_LITERAL  = 'L';
+    static final byte   OP_END      = 'E';
+    static final int    ADLER_MOD   = 65521;
+    static final int    STRONG_SIZE = 16;
+
+    private static final int MIN_BLOCK = 2 * 1024;
+    private static final int MAX_BLOCK = 128 * 1024;
+
+    final int      blockSize;
+    final long     basisLength;
+    final int[]    weak;
+    final byte[][] strong;
+
+    private DeltaSignature(int blockSize, long basisLength, int[] weak, byte[][] strong) {
+        this.blockSize = blockSize;
+        this.basisLength = basisLength;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /**
+     * Picks a block size for a basis file. Like rsync, this grows with the square root of the file size, so both the
+     * signature and the number of blocks stay reasonable for files from kilobytes to many gigabytes.
+     */
+    static int blockSizeFor(long basisLength) {
+        long size = (long) Math.sqrt((double) basisLength);
+        size = (size + 1023) / 1024 * 1024;
+        return (int) Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, size));
+    }
+
+    /**
+     * Computes the signature of a file.
+     *
+     * @param basis The basis file.
+     * @return Its signature.
+     * @throws IOException If the file could not be read.
+     */
+    public static DeltaSignature of(Path basis) throws IOException {
+        try (FileChannel channel = FileChannel.open(basis, StandardOpenOption.READ)) {
+            long length = channel.size();
+            int blockSize = blockSizeFor(length);
+            long count = (length + blockSize - 1) / blockSize;
+            if (count > Integer.MAX_VALUE)
+                throw new IOException("File is too large to compute a signature for");
+            int[] weak = new int[(int) count];
+            byte[][] strong = new byte[(int) count][];
+            ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+            MessageDigest md5 = md5();
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                while (buffer.hasRemaining())
+                    if (channel.read(buffer) < 0)
+                        break;
+                buffer.flip();
+                weak[i] = weakChecksum(buffer.array(), 0, buffer.limit());
+                md5.update(buffer.array(), 0, buffer.limit());
+                strong[i] = md5.digest();
+            }
+            return new DeltaSignature(blockSize, length, weak, strong);
+        }
+    }
+
+    /**
+     * Computes the signature of some bytes.
+     */
+    static DeltaSignature of(byte[] basis) {
+        int blockSize = blockSizeFor(basis.length);
+        int count = (basis.length + blockSize - 1) / blockSize;
+        int[] weak = new int[count];
+        byte[][] strong = new byte[count][];
+        MessageDigest md5 = md5();
+        for (int i = 0; i < count; i++) {
+            int off = i * blockSize;
+            int len = Math.min(blockSize, basis.length - off);
+            weak[i] = weakChecksum(basis, off, len);
+            md5.update(basis, off, len);
+            strong[i] = md5.digest();
+        }
+        return new DeltaSignature(blockSize, basis.length, weak, strong);
+    }
+
+    /**
+     * @return The length of the given block, which is the block size for all but (maybe) the last one.
+     */
+    int blockLength(int block) {
+        return (int) Math.min(blockSize, basisLength - (long) block * blockSize);
+    }
+
+    int blockCount() {
+        return weak.length;
+    }
+
+    /**
+     * Writes the signature in the wire format.
+     *
+     * @param out Where to write it. It is flushed, but not closed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeInt(blockSize);
+        data.writeLong(basisLength);
+        data.writeInt(weak.length);
+        for (int i = 0; i < weak.length; i++) {
+            data.writeInt(weak[i]);
+            data.write(strong[i]);
+        }
+        data.flush();
+    }
+
+    /* **************************************************************
+     MARK: - Checksums
+     ****************************************************************/
+
+    static int weakChecksum(byte[] bytes, int off, int len) {
+        Adler32 adler = new Adler32();
+        adler.update(bytes, off, len);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Slides a weak checksum one byte along.
+     *
+     * @param weak     The checksum of the current window.
+     * @param out      The byte leaving the window.
+     * @param in       The byte entering the window.
+     * @param window   The size of the window.
+     * @return The checksum of the window one byte further on.
+     */
+    static int roll(int weak, int out, int in, int window) {
+        long a = weak & 0xffff;
+        long b = (weak >>> 16) & 0xffff;
+        a = Math.floorMod(a - out + in, ADLER_MOD);
+        b = Math.floorMod(b - (long) window * out + a - 1, ADLER_MOD);
+        return (int) ((b << 16) | a);
+    }
+
+    static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * How many files (and how many bytes of them) every directory of a folder holds, in each {@link Location}, counting
+ * everything beneath it. This is what lets the tree show how many versions a directory has without listing it.
+ * <br/> Each directory keeps the totals of its own files and the totals of its whole subtree. {@link #build()} crawls
+ * the folder with a {@link FolderCrawler}, and each directory's subtree is added to its parent as the crawler leaves
+ * it, so the totals fill in from the bottom up as listings arrive. After that, a change only lists the directory it
+ * touched again (from the lister's cache), and the difference is added to that directory and each of its ancestors,
+ * so nothing is ever walked twice.
+ * <br/> Note: Everything here is thread-safe. Reading the totals of a directory is a single map lookup, so it's fine
+ * to do for every cell the tree draws.
+ */
+public class DirectoryRollups implements FullStLister.FileService {
+    private static final Logger logger = LogManager.getLogger(DirectoryRollups.class);
+
+    /** How long to wait for more changes before listing the directories they touched again. */
+    private static final long REFRESH_DELAY_MS = 200;
+
+    private static final int LOCATIONS = Location.values().length;
+
+    /**
+     * The totals of a directory and everything beneath it.
+     * <br/> Note: This is a copy. It doesn't change when the directory does.
+     */
+    public static final class Totals {
+        public static final Totals EMPTY = new Totals(new long[LOCATIONS * 2]);
+
+        /** The file count of each location, by ordinal, followed by the byte count of each location. */
+        private final long[] values;
+
+        private Totals(long[] values) {
+            this.values = values;
+        }
+
+        /**
+         * @param location The location to count in.
+         * @return How many files are in the subtree, in that location.
+         */
+        public long files(Location location) {
+            return values[location.ordinal()];
+        }
+
+        /**
+         * @param location The location to count in.
+         * @return How many bytes the files in the subtree take up, in that location. Files of unknown size count as
+         *     nothing.
+         */
+        public long bytes(Location location) {
+            return values[LOCATIONS + location.ordinal()];
+        }
+
+        /**
+         * @return How many versions are in the subtree, local and remote together.
+         */
+        public long versions() {
+            return files(Location.LocalVersions) + files(Location.RemoteVersions);
+        }
+
+        /**
+         * @return How many bytes the versions in the subtree take up, local and remote together.
+         */
+        public long versionBytes() {
+            return bytes(Location.LocalVersions) + bytes(Location.RemoteVersions);
+        }
+    }
+
+    /** A single directory. Guarded by the {@link DirectoryRollups} it's in. */
+    private static final class Node {
+        /** The totals of just this directory's own files. */
+        final long[] own   = new long[LOCATIONS * 2];
+        /** The totals of this directory's subtree, including its own files. */
+        final long[] total = new long[LOCATIONS * 2];
+    }
+
+    private final FullStLister lister;
+
+    /**
+     * Every directory, by relative path (with {@code /} separators, and {@code ""} for the root). Kept sorted, so a
+     * directory's subtree is always one range of keys. Guarded by {@code this}.
+     */
+    private final NavigableMap<String, Node> nodes = new TreeMap<>();
+
+    // Directories waiting to be listed again.
+    private final Set<Path>     dirtyDirs     = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    private volatile boolean    building      = false;
+    private volatile boolean    cancelled     = false;
+    private volatile long       changes       = 0;
+
+    /** The crawl of the last build, so it can be cancelled. Guarded by {@code this}. */
+    private FolderCrawler           crawler    = null;
+    /** The first build, started by {@link #ensureBuilt()}. Guarded by {@code this}. */
+    private CompletableFuture<Void> firstBuild = null;
+
+    /**
+     * @param lister Where {@link #build()} and {@link #refresh} list directories from.
+     */
+    public DirectoryRollups(FullStLister lister) {
+        this.lister = lister;
+    }
+
+    /**
+     * @param dir The relative path of a directory.
+     * @return The totals of the directory and everything beneath it, or {@link Totals#EMPTY} if it hasn't been
+     *     listed (yet).
+     */
+    public synchronized Totals of(Path dir) {
+        Node node = nodes.get(pathAsStr(dir));
+        return node == null ? Totals.EMPTY : new Totals(node.total.clone());
+    }
+
+    /**
+     * @return A number that goes up every time any totals change, to tell if they need to be read again.
+     */
+    public long changeCount() {
+        return changes;
+    }
+
+    /* **************************************************************
+     MARK: - Building & Updating
+     ****************************************************************/
+
+    /**
+     * Crawls the whole folder in every location, several directories at a time (see {@link FolderCrawler}). Totals
+     * read while this runs are partial: a directory only includes the subtrees that have been fully crawled.
+     *
+     * @return A future that completes once every directory has its totals.
+     */
+    public CompletableFuture<Void> build() {
+        building = true;
+        long start = System.nanoTime();
+        FolderCrawler crawler = new FolderCrawler(
+            lister, EnumSet.allOf(Location.class), Math.max(8, Runtime.getRuntime().availableProcessors()));
+        synchronized (this) {
+            nodes.clear();
+            this.crawler = crawler;
+            if (cancelled)
+                crawler.cancel();
+        }
+        return crawler.crawl(Path.of(""), new FolderCrawler.Visitor() {
+            @Override
+            public void visit(Path dir, Map<Location, List<FileWithLocation>> listings) {
+                put(pathAsStr(dir), ownTotalsOf(listings));
+            }
+
+            @Override
+            public void leave(Path dir) {
+                rollUp(pathAsStr(dir));
+            }
+        }).whenComplete((x, ex) -> {
+            building = false;
+            if (ex == null)
+                logger.info("Rolled up {} directories in {} ms", size(), (System.nanoTime() - start) / 1_000_000);
+            else if (ex instanceof CancellationException)
+                logger.debug("Stopped rolling up directory totals after {} directories", size());
+            else logger.error("Could not roll up directory totals", ex);
+            // Directories that changed during the crawl may have been listed before they changed.
+            queueRefresh();
+        });
+    }
+
+    /**
+     * Builds the totals, unless they were already built (or are being built).
+     *
+     * @return A future that completes once every directory has had its totals at least once.
+     */
+    public synchronized CompletableFuture<Void> ensureBuilt() {
+        if (firstBuild == null || (firstBuild.isCompletedExceptionally() && !cancelled))
+            firstBuild = build();
+        return firstBuild;
+    }
+
+    /**
+     * Stops building the totals, and keeps them from listing anything ever again. Meant for when the folder is no
+     * longer shown, so its crawl doesn't compete with the next folder's listings.
+     */
+    public void cancel() {
+        FolderCrawler running;
+        synchronized (this) {
+            cancelled = true;
+            running = crawler;
+        }
+        if (running != null)
+            running.cancel();
+    }
+
+    /**
+     * Patches the totals for a change the app made. Meant to be registered as a mutation listener (see
+     * {@link FileManipulationService#addMutationListener}), after the lister's own, since the directory touched is
+     * listed again (shortly after, and only once for a whole burst of changes) from the lister's cache.
+     *
+     * @param mutation The change.
+     */
+    public void apply(FileMutation mutation) {
+        switch (mutation) {
+            case FileMutation.Deleted(Location location, Path raw, boolean isDir) when isDir ->
+                removeTree(pathAsStr(raw), location);
+            case FileMutation.Renamed(Location location, Path from, Path to) ->
+                moveTree(pathAsStr(from), pathAsStr(to), location);
+            default -> {}
+        }
+        dirtyDirs.add(mutation.directory());
+        queueRefresh();
+    }
+
+    /**
+     * Lists a single directory again (in every location), and adds the difference to it and its ancestors.
+     *
+     * @param dir The relative path of the directory.
+     * @return A future that completes once the totals are updated.
+     */
+    public CompletableFuture<Void> refresh(Path dir) {
+        Map<Location, List<FileWithLocation>> listings = new EnumMap<>(Location.class);
+        List<CompletableFuture<?>> scans = new ArrayList<>();
+        for (Location location : Location.values())
+            scans.add(lister.listDir(dir, location).handle((files, ex) -> {
+                synchronized (listings) {
+                    listings.put(location, ex == null ? files : List.of());
+                }
+                return null;
+            }));
+        return CompletableFuture.allOf(scans.toArray(CompletableFuture[]::new))
+            .thenRun(() -> replaceOwn(pathAsStr(dir), ownTotalsOf(listings)));
+    }
+
+    private void queueRefresh() {
+        if (building || cancelled || dirtyDirs.isEmpty() || !refreshQueued.compareAndSet(false, true))
+            return;
+        CompletableFuture.runAsync(() -> {
+            refreshQueued.set(false);
+            List<Path> dirs = new ArrayList<>(dirtyDirs);
+            dirs.forEach(dirtyDirs::remove);
+            logger.debug("Refreshing the totals of {} directories", dirs.size());
+            dirs.forEach(this::refresh);
+        }, CompletableFuture.delayedExecutor(REFRESH_DELAY_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Adds up the files of a single directory's listing.
+     *
+     * @param listings The directory's listing, for each location it exists in.
+     * @return The file count of each location (by ordinal), followed by the byte count of each location.
+     */
+    static long[] ownTotalsOf(Map<Location, List<FileWithLocation>> listings) {
+        long[] own = new long[LOCATIONS * 2];
+        listings.forEach((location, files) -> {
+            for (FileWithLocation file : files) {
+                if (file.isDir())
+                    continue;
+                own[location.ordinal()]++;
+                own[LOCATIONS + location.ordinal()] += Math.max(0, file.size());
+            }
+        });
+        return own;
+    }
+
+    /**
+     * Adds a directory just listed by the crawler. Its subtree is added to its parent later, by {@link #rollUp}.
+     */
+    synchronized void put(String dir, long[] own) {
+        Node node = nodes.computeIfAbsent(dir, d -> new Node());
+        for (int i = 0; i < own.length; i++) {
+            node.total[i] += own[i] - node.own[i];
+            node.own[i] = own[i];
+        }
+        changes++;
+    }
+
+    /**
+     * Adds a directory's subtree to its parent, once the crawler has left it (and so everything beneath it).
+     */
+    synchronized void rollUp(String dir) {
+        Node node = nodes.get(dir);
+        Node parent = dir.isEmpty() ? null : nodes.get(parentOf(dir));
+        if (node == null || parent == null)
+            return;
+        for (int i = 0; i < node.total.length; i++)
+            parent.total[i] += node.total[i];
+        changes++;
+    }
+
+    /**
+     * Replaces the totals of a directory's own files, adding the difference to it and every ancestor. A directory
+     * that isn't known yet is added, along with any of its ancestors that are missing.
+     */
+    synchronized void replaceOwn(String dir, long[] own) {
+        Node node = nodes.get(dir);
+        if (node == null) {
+            node = new Node();
+            nodes.put(dir, node);
+            for (String d = dir; !d.isEmpty(); ) {
+                d = parentOf(d);
+                nodes.putIfAbsent(d, new Node());
+            }
+        }
+        long[] delta = new long[own.length];
+        boolean changed = false;
+        for (int i = 0; i < own.length; i++) {
+            delta[i] = own[i] - node.own[i];
+            node.own[i] = own[i];
+            changed |= delta[i] != 0;
+        }
+        if (changed) {
+            addToAncestry(dir, delta);
+            changes++;
+        }
+    }
+
+    /**
+     * Forgets a directory and everything beneath it in one location, taking its totals in that location off of its
+     * ancestors. Directories left with nothing in any location are dropped.
+     */
+    synchronized void removeTree(String dir, Location location) {
+        Node node = nodes.get(dir);
+        if (node == null || dir.isEmpty())
+            return;
+        long[] delta = new long[LOCATIONS * 2];
+        for (int i : columnsOf(location))
+            delta[i] = -node.total[i];
+        addToAncestry(parentOf(dir), delta);
+        for (String key : subtreeOf(dir)) {
+            Node n = nodes.get(key);
+            for (int i : columnsOf(location))
+                n.own[i] = n.total[i] = 0;
+            dropIfEmpty(key);
+        }
+        changes++;
+    }
+
+    /**
+     * Moves a directory and everything beneath it in one location to a new name in the same parent. Since the parent
+     * doesn't change, none of the ancestors' totals do either.
+     */
+    synchronized void moveTree(String from, String to, Location location) {
+        if (!nodes.containsKey(from) || from.isEmpty())
+            return;
+        for (String key : subtreeOf(from)) {
+            Node source = nodes.get(key);
+            Node target = nodes.computeIfAbsent(to + key.substring(from.length()), d -> new Node());
+            for (int i : columnsOf(location)) {
+                target.own[i] += source.own[i];
+                target.total[i] += source.total[i];
+                source.own[i] = source.total[i] = 0;
+            }
+            dropIfEmpty(key);
+        }
+        changes++;
+    }
+
+    /** Adds a difference to a directory's subtree totals and those of all its ancestors. */
+    private void addToAncestry(String dir, long[] delta) {
+        for (String d = dir; ; d = parentOf(d)) {
+            Node node = nodes.get(d);
+            if (node != null)
+                for (int i = 0; i < delta.length; i++)
+                    node.total[i] += delta[i];
+            if (d.isEmpty())
+                break;
+        }
+    }
+
+    /** The relative paths of a directory and of every directory beneath it. */
+    private List<String> subtreeOf(String dir) {
+        List<String> keys = new ArrayList<>();
+        if (nodes.containsKey(dir))
+            keys.add(dir);
+        // Every key beneath `dir` starts with `dir/`, and '0' is the character right after '/'. Keys like `dir.old`
+        // sort between `dir` and `dir/`, which is why the directory itself is looked up on its own.
+        keys.addAll(nodes.subMap(dir + "/", dir + "0").keySet());
+        return keys;
+    }
+
+    private void dropIfEmpty(String dir) {
+        for (long value : nodes.get(dir).total)
+            if (value != 0)
+                return;
+        nodes.remove(dir);
+    }
+
+    /** The indices of a location's file and byte counts. */
+    private static int[] columnsOf(Location location) {
+        return new int[]{location.ordinal(), LOCATIONS + location.ordinal()};
+    }
+
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    private static String parentOf(String dir) {
+        int slash = dir.lastIndexOf('/');
+        return slash < 0 ? "" : dir.substring(0, slash);
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
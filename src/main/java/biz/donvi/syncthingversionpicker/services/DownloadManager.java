@@ -0,0 +1,295 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Saves copies of file versions, any number at a time. Every request becomes a {@link Download} in a queue, and up
+ * to {@link #setParallelism parallelism} of them run at once. Each download reports its own progress.
+ * <br/> Asking for the same file again while it's still queued or running doesn't download it again. The new target is
+ * added to the download that is already there, and gets a copy of the file once it's done.
+ * <br/> Note: Every remote download reads over an SFTP channel of its own, so running several at once is safe. A
+ * download that doesn't end up with as many bytes as the listing said the file has fails instead of being saved.
+ */
+public class DownloadManager implements FullStLister.FileService {
+    private static final Logger logger = LogManager.getLogger(DownloadManager.class);
+
+    public enum State { Queued, Running, Done, Failed, Cancelled }
+
+    /** Identifies a file's content as far as we can tell without reading it. */
+    private record Key(Location location, Path rawRelativePath, long size, long lastModified) {}
+
+    private final ThreadPoolExecutor       executor;
+    private final Map<Key, Download>       active    = new ConcurrentHashMap<>();
+    private final List<Download>           downloads = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Download>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param parallelism How many downloads may run at the same time.
+     */
+    public DownloadManager(int parallelism) {
+        executor = new ThreadPoolExecutor(
+            parallelism, parallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "download");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return How many downloads may run at the same time.
+     */
+    public int getParallelism() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Changes how many downloads may run at the same time. Running downloads are never interrupted; lowering it just
+     * means fewer get started until the number running drops.
+     *
+     * @param parallelism How many downloads may run at the same time.
+     */
+    public void setParallelism(int parallelism) {
+        int p = Math.max(1, parallelism);
+        if (p > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(p);
+            executor.setCorePoolSize(p);
+        } else {
+            executor.setCorePoolSize(p);
+            executor.setMaximumPoolSize(p);
+        }
+    }
+
+    /**
+     * Registers a listener that is told whenever a download changes state. Listeners are called from download
+     * threads, so they should hand off any UI work themselves.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(Consumer<Download> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return Every download asked for so far, oldest first.
+     */
+    public List<Download> getDownloads() {
+        return List.copyOf(downloads);
+    }
+
+    /**
+     * Forgets about every download that is over.
+     */
+    public void clearFinished() {
+        downloads.removeIf(Download::isFinished);
+    }
+
+    /**
+     * Queues a copy of a file to be saved.
+     *
+     * @param file   The version to save.
+     * @param target Where to save it. Anything already there is replaced.
+     * @return The download that will save it. If the same file is already queued or running, that download is
+     * returned (with the target added to it) instead of a new one.
+     */
+    public Download enqueue(StFileGroup.File file, Path target) {
+        Key key = new Key(file.location, file.getRawRelativePath(), file.size, file.lastModified);
+        while (true) {
+            Download fresh = new Download(key, file, target);
+            Download download = active.putIfAbsent(key, fresh);
+            if (download == null) {
+                downloads.add(fresh);
+                logger.debug("Queued download of `{}` to `{}`", file, target);
+                notifyListeners(fresh);
+                executor.execute(() -> run(fresh));
+                return fresh;
+            }
+            if (download.addTarget(target)) {
+                logger.debug("Added `{}` as another target for the download of `{}`", target, file);
+                return download;
+            }
+            // It finished between us finding it and adding the target, so it's about to leave `active`.
+            active.remove(key, download);
+        }
+    }
+
+    /* **************************************************************
+     MARK: - Downloading
+     ****************************************************************/
+
+    private void run(Download download) {
+        if (download.future.isDone())
+            return;
+        download.setState(State.Running);
+        try {
+            Path first = download.getTargets().getFirst();
+            Path part = first.resolveSibling("." + first.getFileName() + ".stvp-part");
+            try {
+                Files.createDirectories(first.getParent());
+                StFileGroup.File file = download.file;
+                if (file.location.where == Location.Where.Local) {
+                    LocalTransfer.copy(file.getRawFullPath(), part);
+                    download.bytesDone.set(Files.size(part));
+                } else try (InputStream in = file.getInputStream().get();
+                            OutputStream out = Files.newOutputStream(part)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    long read = 0;
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        if (download.cancelled)
+                            throw new CancellationException();
+                        out.write(buffer, 0, n);
+                        read += n;
+                        download.bytesDone.addAndGet(n);
+                    }
+                    // A short or overlong read would otherwise be saved as the user's copy without anyone noticing.
+                    if (file.size >= 0 && read != file.size)
+                        throw new IOException("Read %d bytes, but the file has %d".formatted(read, file.size));
+                }
+                Files.move(part, first, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(part);
+            }
+            // No more targets can be added once the download has left `active`.
+            active.remove(download.key, download);
+            List<Path> targets = download.closeTargets();
+            for (Path other : targets.subList(1, targets.size())) {
+                Files.createDirectories(other.getParent());
+                LocalTransfer.copy(first, other);
+            }
+            logger.info("Downloaded `{}` to {}", download.file, targets);
+            download.setState(State.Done);
+            download.future.complete(targets);
+        } catch (CancellationException e) {
+            logger.debug("Download of `{}` was cancelled", download.file);
+            download.finishExceptionally(State.Cancelled, e);
+        } catch (Exception e) {
+            logger.error("Could not download `%s`".formatted(download.file), e);
+            download.finishExceptionally(State.Failed, e);
+        }
+    }
+
+    private void notifyListeners(Download download) {
+        for (Consumer<Download> listener : listeners) {
+            try {
+                listener.accept(download);
+            } catch (RuntimeException e) {
+                logger.error("Download listener failed for `%s`".formatted(download.file), e);
+            }
+        }
+    }
+
+    /**
+     * A single file being saved to one or more places.
+     */
+    public class Download {
+        private final Key                           key;
+        private final StFileGroup.File              file;
+        private final List<Path>                    targets   = new ArrayList<>();
+        private final AtomicLong                    bytesDone = new AtomicLong();
+        private final CompletableFuture<List<Path>> future    = new CompletableFuture<>();
+
+        private volatile State   state         = State.Queued;
+        private volatile boolean cancelled     = false;
+        private          boolean targetsClosed = false;
+
+        private Download(Key key, StFileGroup.File file, Path target) {
+            this.key = key;
+            this.file = file;
+            this.targets.add(target);
+        }
+
+        public StFileGroup.File getFile() {
+            return file;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return future.isDone();
+        }
+
+        /**
+         * @return Where the file is being saved to.
+         */
+        public synchronized List<Path> getTargets() {
+            return List.copyOf(targets);
+        }
+
+        public long getBytesDone() {
+            return bytesDone.get();
+        }
+
+        /**
+         * @return How far along the download is, from {@code 0} to {@code 1}, or {@code -1} if it isn't known.
+         */
+        public double getProgress() {
+            if (state == State.Done)
+                return 1;
+            return file.size > 0 ? Math.min(1, (double) bytesDone.get() / file.size) : -1;
+        }
+
+        /**
+         * @return A future holding every place the file was saved to.
+         */
+        public CompletableFuture<List<Path>> future() {
+            return future;
+        }
+
+        /**
+         * Stops the download (or keeps it from starting). Nothing is saved to any of its targets.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (state == State.Queued && active.remove(key, this))
+                finishExceptionally(State.Cancelled, new CancellationException());
+        }
+
+        private synchronized boolean addTarget(Path target) {
+            if (targetsClosed)
+                return false;
+            if (!targets.contains(target))
+                targets.add(target);
+            return true;
+        }
+
+        private synchronized List<Path> closeTargets() {
+            targetsClosed = true;
+            return List.copyOf(targets);
+        }
+
+        private void setState(State state) {
+            this.state = state;
+            notifyListeners(this);
+        }
+
+        private void finishExceptionally(State state, Throwable ex) {
+            active.remove(key, this);
+            closeTargets();
+            setState(state);
+            future.completeExceptionally(ex);
+        }
+
+        @Override
+        public String toString() {
+            return "Download{file=" + file + ", state=" + state + ", targets=" + getTargets() + '}';
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Finds every current file that differs between the local and remote copy of a folder. Both sides are crawled at the
+ * same time with a {@link FolderCrawler}, one directory at a time, and compared by size and modified time. Only files
+ * that are the same size but were modified at different times get hashed, in batches (see
+ * {@link ContentHashService#hashRemotePaths}), to find out if they really differ.
+ * <br/> Every difference is reported the moment it's found, both to the listener and as a line in a tab separated
+ * report file. Nothing is kept about files that are the same, so memory stays bounded no matter how big the folder is.
+ * <br/> Note: A directory that only exists on one side is reported once, as a directory, instead of file by file.
+ */
+public class DriftScanner implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(DriftScanner.class);
+
+    /** How many suspect files are hashed together. */
+    private static final int HASH_BATCH = 256;
+
+    public enum Kind {
+        /** The file exists on both sides, but with different content. */
+        Drifted,
+        /** The file only exists on the remote. */
+        Missing,
+        /** The file only exists locally. */
+        Extra
+    }
+
+    /**
+     * A single difference between the local and remote copy of a folder.
+     *
+     * @param kind         What kind of difference it is.
+     * @param relativePath The relative path of the file.
+     * @param isDir        {@code true} if the difference is a whole directory.
+     * @param localSize    The size of the local file, or {@code -1} if there is none (or it's a directory).
+     * @param remoteSize   The size of the remote file, or {@code -1} if there is none (or it's a directory).
+     * @param detail       What gave the difference away, like {@code size} or {@code content}. Empty for missing and
+     *                     extra files.
+     */
+    public record Drift(Kind kind, Path relativePath, boolean isDir, long localSize, long remoteSize, String detail) {}
+
+    /** A file that is the same size on both sides but was modified at a different time. */
+    private record Suspect(Path relativePath, long size) {}
+
+    private final FullStLister       lister;
+    private final Path               root;
+    private final ContentHashService hashes;
+    private final Path               report;
+    private final Consumer<Drift>    listener;
+    private final FolderCrawler      crawler;
+    private final ProgressTracker    tracker  = new ProgressTracker();
+    private final List<Suspect>      suspects = new ArrayList<>();
+
+    private BufferedWriter          writer;
+    private CompletableFuture<Void> future;
+    private long                    drifts = 0;
+
+    /**
+     * @param dir      The directory to scan (recursively).
+     * @param hashes   What to hash suspect files with.
+     * @param report   The file to write the report to. Anything already there is replaced.
+     * @param listener Gets every difference as it's found. Called from the scanner's threads.
+     */
+    public DriftScanner(StDirectory dir, ContentHashService hashes, Path report, Consumer<Drift> listener) {
+        this.lister = dir.getFullStLister();
+        this.root = dir.getRelativePath();
+        this.hashes = hashes;
+        this.report = report;
+        this.listener = listener;
+        this.crawler = new FolderCrawler(
+            lister, EnumSet.of(Location.LocalCurrent, Location.RemoteCurrent),
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Starts the scan.
+     *
+     * @return This scanner.
+     */
+    public DriftScanner start() {
+        logger.info("Scanning `{}` for drift, reporting to `{}`", root, report);
+        try {
+            Files.createDirectories(report.getParent());
+            writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8);
+            writer.write("kind\tpath\tlocal size\tremote size\tdetail\n");
+        } catch (IOException e) {
+            logger.error("Could not open drift report `%s`".formatted(report), e);
+            tracker.finish();
+            future = CompletableFuture.failedFuture(e);
+            return this;
+        }
+        future = crawler.crawl(root, new Visitor()).thenRun(this::flushSuspects);
+        future.whenComplete((x, ex) -> {
+            synchronized (this) {
+                tracker.finish();
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close drift report `{}`", report, e);
+                }
+            }
+            if (ex == null)
+                logger.info("Drift scan of `{}` done, found {} differences", root, drifts);
+        });
+        return this;
+    }
+
+    /**
+     * @return The file the report is written to.
+     */
+    public Path report() {
+        return report;
+    }
+
+    @Override
+    public String title() {
+        return "Scanning " + (root.toString().isEmpty() ? "folder" : root) + " for drift";
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        crawler.cancel();
+    }
+
+    @Override
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Comparing
+     ****************************************************************/
+
+    private class Visitor implements FolderCrawler.Visitor {
+
+        @Override
+        public boolean enter(Path dir, Set<Location> presentIn) {
+            if (presentIn.size() == 2)
+                return true;
+            emit(new Drift(presentIn.contains(Location.LocalCurrent) ? Kind.Extra : Kind.Missing,
+                           dir, true, -1, -1, ""));
+            return false;
+        }
+
+        @Override
+        public void visit(Path dir, Map<Location, List<FileWithLocation>> listings) {
+            Map<String, FileWithLocation> remote = new HashMap<>();
+            for (FileWithLocation file : listings.getOrDefault(Location.RemoteCurrent, List.of()))
+                remote.put(file.name(), file);
+            for (FileWithLocation local : listings.getOrDefault(Location.LocalCurrent, List.of())) {
+                FileWithLocation other = remote.remove(local.name());
+                if (other == null) {
+                    if (!local.isDir())
+                        found(new Drift(Kind.Extra, dir.resolve(local.name()), false, local.size(), -1, ""));
+                } else if (local.isDir() != other.isDir()) {
+                    found(new Drift(Kind.Drifted, dir.resolve(local.name()), false,
+                                    local.isDir() ? -1 : local.size(), other.isDir() ? -1 : other.size(), "type"));
+                } else if (!local.isDir()) {
+                    compare(dir.resolve(local.name()), local, other);
+                }
+            }
+            for (FileWithLocation other : remote.values())
+                if (!other.isDir())
+                    found(new Drift(Kind.Missing, dir.resolve(other.name()), false, -1, other.size(), ""));
+        }
+    }
+
+    private void compare(Path path, FileWithLocation local, FileWithLocation remote) {
+        tracker.found(-1);
+        if (local.size() != remote.size()) {
+            emit(new Drift(Kind.Drifted, path, false, local.size(), remote.size(), "size"));
+            tracker.fileDone();
+        } else if (local.lastModified() / 1000 == remote.lastModified() / 1000) {
+            // The remote only reports modified times to the second.
+            tracker.fileDone();
+        } else {
+            List<Suspect> batch = null;
+            synchronized (suspects) {
+                suspects.add(new Suspect(path, local.size()));
+                if (suspects.size() >= HASH_BATCH) {
+                    batch = List.copyOf(suspects);
+                    suspects.clear();
+                }
+            }
+            if (batch != null)
+                hash(batch);
+        }
+    }
+
+    private void found(Drift drift) {
+        tracker.found(-1);
+        emit(drift);
+        tracker.fileDone();
+    }
+
+    private void flushSuspects() {
+        List<Suspect> batch;
+        synchronized (suspects) {
+            batch = List.copyOf(suspects);
+            suspects.clear();
+        }
+        hash(batch);
+    }
+
+    /**
+     * Hashes a batch of suspects on both sides at once (remote on the remote, local here) and reports the ones that
+     * really differ. If the remote can't hash a file, it counts as drifted, since we can't tell otherwise.
+     */
+    private void hash(List<Suspect> batch) {
+        if (batch.isEmpty())
+            return;
+        Path localRoot = lister.rootDir(Location.LocalCurrent);
+        Path remoteRoot = lister.rootDir(Location.RemoteCurrent);
+        Map<Suspect, String> remotePaths = new HashMap<>();
+        for (Suspect suspect : batch)
+            remotePaths.put(suspect, remoteRoot.resolve(suspect.relativePath()).toString().replace('\\', '/'));
+        CompletableFuture<Map<String, String>> remoteHashes = hashes.hashRemotePaths(remotePaths.values());
+        for (Suspect suspect : batch) {
+            String localHash;
+            try {
+                localHash = RestoreJournal.sha256Of(localRoot.resolve(suspect.relativePath()));
+            } catch (IOException e) {
+                logger.warn("Could not hash local file `{}`: {}", suspect.relativePath(), e.getMessage());
+                localHash = null;
+            }
+            String remoteHash;
+            try {
+                remoteHash = remoteHashes.join().get(remotePaths.get(suspect));
+            } catch (CompletionException e) {
+                remoteHash = null;
+            }
+            if (localHash == null || !localHash.equals(remoteHash))
+                emit(new Drift(Kind.Drifted, suspect.relativePath(), false, suspect.size(), suspect.size(),
+                               remoteHash == null || localHash == null ? "modified time" : "content"));
+            tracker.fileDone();
+        }
+    }
+
+    private void emit(Drift drift) {
+        synchronized (this) {
+            // A cancelled scan may still be finishing a directory after the report was closed.
+            if (tracker.isFinished())
+                return;
+            drifts++;
+            try {
+                writer.write("%s\t%s\t%d\t%d\t%s\n".formatted(
+                    drift.kind(), drift.relativePath().toString().replace('\\', '/') + (drift.isDir() ? "/" : ""),
+                    drift.localSize(), drift.remoteSize(), drift.detail()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        listener.accept(drift);
+    }
+}
@@ -2,23 +2,117 @@ package biz.donvi.syncthingversionpicker.services;
 
 import biz.donvi.syncthingversionpicker.SyncPickerApp;
 import biz.donvi.syncthingversionpicker.files.*;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.List;
-import java.util.Optional;
+import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class FileManipulationService implements FullStLister.FileService {
     private static final Logger logger = LogManager.getLogger(FileManipulationService.class);
 
     final SyncPickerApp app = SyncPickerApp.getApplication();
 
+    private final List<Consumer<FileMutation>> mutationListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Runs single-file restores. These block on the disk and on the remote (delta restores wait on a command running
+     * there), so they get threads of their own instead of tying up the common pool.
+     */
+    private final ExecutorService restoreThreads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "file-restore");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The concurrency limits used for directory restores.
+     */
+    private RestoreJob.Limits restoreLimits = RestoreJob.Limits.DEFAULT;
+
+    public void setRestoreLimits(RestoreJob.Limits restoreLimits) {
+        this.restoreLimits = restoreLimits;
+    }
+
+    /**
+     * The limits used for mirroring versions, in either direction.
+     */
+    private MirrorJob.Limits mirrorLimits = MirrorJob.Limits.DEFAULT;
+
+    public void setMirrorLimits(MirrorJob.Limits mirrorLimits) {
+        this.mirrorLimits = mirrorLimits;
+    }
+
+    /**
+     * The limits used for exporting directories as archives.
+     */
+    private ZipExporter.Limits exportLimits = ZipExporter.Limits.DEFAULT;
+
+    public void setExportLimits(ZipExporter.Limits exportLimits) {
+        this.exportLimits = exportLimits;
+    }
+
+    /**
+     * The limits used for pruning remote versions.
+     */
+    private PruneJob.Limits pruneLimits = PruneJob.Limits.DEFAULT;
+
+    public void setPruneLimits(PruneJob.Limits pruneLimits) {
+        this.pruneLimits = pruneLimits;
+    }
+
+    /**
+     * Remote versions at least this large are restored as a delta against the current file they replace (see
+     * {@link DeltaSignature}). Smaller files aren't worth the extra round trip.
+     */
+    private long deltaThreshold = 1024 * 1024;
+
+    /**
+     * @param deltaThreshold The smallest size of remote version that gets restored as a delta. Use
+     *                       {@link Long#MAX_VALUE} to never restore with deltas.
+     */
+    public void setDeltaThreshold(long deltaThreshold) {
+        this.deltaThreshold = deltaThreshold;
+    }
+
+    /** The helper script run on the remote for delta restores, loaded the first time it is needed. */
+    private static String deltaHelper;
+
+    /**
+     * Registers a listener that will be told about every change this service makes to the file system. Listeners are
+     * called on whichever thread made the change, so they should hand off any UI work themselves.
+     *
+     * @param listener The listener to add.
+     */
+    public void addMutationListener(Consumer<FileMutation> listener) {
+        mutationListeners.add(listener);
+    }
+
+    void publish(FileMutation mutation) {
+        logger.debug("Publishing mutation `{}`", mutation);
+        for (Consumer<FileMutation> listener : mutationListeners) {
+            try {
+                listener.accept(mutation);
+            } catch (RuntimeException e) {
+                logger.error("Mutation listener failed for mutation `%s`".formatted(mutation), e);
+            }
+        }
+    }
+
     public void showFileInExplorer(StFileGroup.File file) {
         logger.info("Will show file in explorer `{}`", file);
         file.getLocalFile().whenCompleteAsync((iof, ex) -> {
@@ -61,16 +155,69 @@ public class FileManipulationService implements FullStLister.FileService {
         }
     }
 
-    private void copyFile(File saveLocation, File dataSoSave, Throwable ex) {
+    /**
+     * Saves copies of several files at once into a directory the user picks. The copies are queued on the folder's
+     * {@link DownloadManager}, so they download in parallel, and a file that is already on its way isn't downloaded a
+     * second time.
+     * <br/> Each copy keeps the file's raw name, so versions of the same file don't overwrite each other. Files that
+     * would still end up with the same name (like the local and remote current file) get a number added.
+     *
+     * @param files The files to save copies of.
+     * @return The downloads the copies were queued on, or an empty list if the user didn't pick a directory.
+     */
+    public List<DownloadManager.Download> saveCopies(List<StFileGroup.File> files) {
+        if (files.isEmpty())
+            return List.of();
+        logger.info("Attempting to save copies of {} files", files.size());
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Save Copies To...");
+        java.io.File saveDir = chooser.showDialog(app.getStage());
+        if (saveDir == null) {
+            logger.debug("Did not get a directory to save the files to. Aborting action.");
+            return List.of();
+        }
+        DownloadManager downloads = files.getFirst().getParent().getFullStLister().getService(DownloadManager.class);
+        Set<String> usedNames = new HashSet<>();
+        List<DownloadManager.Download> queued = new ArrayList<>();
+        for (StFileGroup.File file : files) {
+            String raw = file.getRawRelativePath().getFileName().toString();
+            String name = raw;
+            String end = file.nameInfo.getEnd();
+            for (int i = 2; !usedNames.add(name); i++)
+                name = raw.substring(0, raw.length() - end.length()) + " (%d)".formatted(i) + end;
+            queued.add(downloads.enqueue(file, saveDir.toPath().resolve(name)));
+        }
+        return queued;
+    }
+
+    /**
+     * Saves a copy of the newest version of each file group, like {@link #saveCopies}. Groups without any versions
+     * are skipped.
+     *
+     * @param groups The file groups to save the newest versions of.
+     * @return The downloads the copies were queued on, or an empty list if there was nothing to save or the user
+     * didn't pick a directory.
+     */
+    public List<DownloadManager.Download> saveNewestVersions(List<StFileGroup> groups) {
+        return saveCopies(groups.stream()
+                              .map(FileManipulationService::newestVersion)
+                              .flatMap(Optional::stream)
+                              .toList());
+    }
+
+    private boolean copyFile(File saveLocation, File dataSoSave, Throwable ex) {
+        boolean copied = false;
         if (dataSoSave != null) try {
             Files.copy(dataSoSave.toPath(), saveLocation.toPath(), StandardCopyOption.REPLACE_EXISTING);
             logger.debug("Successfully copied file.");
+            copied = true;
         } catch (IOException e) {
             logger.error("Could not copy file %s to %s".formatted(dataSoSave, saveLocation), e);
         }
         if (ex != null) {
             logger.error("Could not get file %s".formatted(dataSoSave), ex);
         }
+        return copied;
     }
 
     /**
@@ -83,42 +230,258 @@ public class FileManipulationService implements FullStLister.FileService {
      * TODO: This is the file *before* it was copied, right? Does that make sense? Is that useful?
      */
     public CompletableFuture<File> restoreVersion(StFileGroup.File fileToRestore, boolean replaceExisting) {
+        return restoreVersion(fileToRestore, replaceExisting, false);
+    }
+
+    /**
+     * Restores a <b>specific version</b> of a file, just like {@link #restoreVersion(StFileGroup.File, boolean)}.
+     * <br/> Note: When the version is a {@link Location#LocalVersions} file, it never gets streamed. It is either
+     * moved into place ({@code moveVersion}) or copied with {@link LocalTransfer}, which clones it if the file system
+     * can. Either way, restoring from a {@code .stversions} folder on the same volume takes the same time no matter
+     * how big the file is.
+     * <br/> Note: When a large remote version replaces a current file, only the parts that differ are transferred
+     * (see {@link #setDeltaThreshold}).
+     *
+     * @param fileToRestore   The specific version of the file to restore.
+     * @param replaceExisting If the user currently has a file in this group, do we replace it?
+     * @param moveVersion     If {@code true}, a local version is moved out of the versions folder instead of copied.
+     *                        This is ignored for remote versions.
+     * @return A completable future holding the {@code File} that has been copied.
+     */
+    public CompletableFuture<File> restoreVersion(
+        StFileGroup.File fileToRestore, boolean replaceExisting, boolean moveVersion
+    ) {
         logger.info("Attempting to restore file `{}`", fileToRestore);
         // Find the current file
         Optional<StFileGroup.File> oCurrentFile = fileToRestore
             .getParent().getFiles()
             .stream().filter(f -> f.location == Location.LocalCurrent)
             .findFirst();
+        // Look for a local replica now, while the current file (which may be it) is still where it was listed.
+        Optional<StFileGroup.File> replica = fileToRestore.getParent().getFullStLister().localReplicaOf(fileToRestore);
+        Path basis = null;
         if (oCurrentFile.isPresent() && !replaceExisting) {
             // If we don't want to replace the file, let the logs know, then exit early.
             logger.debug("File `{}` already had a current version and `replaceExisting` is set to false. Skipping.",
                          fileToRestore);
             return CompletableFuture.completedFuture(null);
         } else if (oCurrentFile.isPresent()) {
-            StFileGroup.File currentFile = oCurrentFile.get();
-            logger.debug("Current file appears to be present. Will rename file `{}`", currentFile);
-            File currentFileReal;
-            try {
-                // We can call `get()` because Local files don't move threads.
-                // Local files should also not throw any exceptions.
-                currentFileReal = currentFile.getLocalFile().get();
-            } catch (Exception e) {
-                logger.error("Somehow got an exception?? This should not be possible for local files...", e);
-                throw new RuntimeException(e);
-            }
-            // Renaming shenanigans
-            ParsedFileName nameParsed = new ParsedFileName(currentFileReal.getName());
-            String name = nameParsed.getBeginning() + "~VP-PREV" + nameParsed.getEnd();
-            File newFile = currentFileReal.toPath().getParent().resolve(name).toFile();
-            // And time to actually do the renaming
-            boolean didRename = currentFileReal.renameTo(newFile);
-            if (didRename)
-                logger.debug("Successfully renamed file to `{}`", currentFileReal.getPath());
-            else logger.warn("Could not rename file to `{}`", newFile.getPath());
+            basis = moveCurrentAside(oCurrentFile.get()).orElse(null);
             // Current file should no longer be present. Now we can continue on
         }
-        File saveLocation = fileToRestore.getParent().getFullPath().toFile();
-        return fileToRestore.getLocalFile().whenCompleteAsync((iof, ex) -> copyFile(saveLocation, iof, ex));
+        StFileGroup group = fileToRestore.getParent();
+        if (fileToRestore.location == Location.LocalVersions)
+            return CompletableFuture.supplyAsync(() -> restoreLocally(fileToRestore, moveVersion), restoreThreads);
+        if (replica.isPresent()) {
+            // The replica is either a local version, or the current file that was just moved aside.
+            StFileGroup.File local = replica.get();
+            Path source = local.location == Location.LocalCurrent ? basis : local.getRawFullPath();
+            if (source != null) {
+                logger.info("Restoring `{}` from its local replica `{}`", fileToRestore, source);
+                return CompletableFuture.supplyAsync(() -> restoreLocally(source, group), restoreThreads);
+            }
+        }
+        Optional<RemoteShell> shell = group.getFullStLister().remoteShell();
+        if (basis != null && shell.isPresent() && fileToRestore.location.where == Location.Where.Remote
+            && fileToRestore.size >= deltaThreshold) {
+            Path deltaBasis = basis;
+            return CompletableFuture.supplyAsync(
+                () -> restoreDelta(fileToRestore, deltaBasis, shell.get()), restoreThreads);
+        }
+        File saveLocation = group.getFullPath().toFile();
+        return fileToRestore.getLocalFile().whenCompleteAsync((iof, ex) -> {
+            if (iof != null)
+                createParentDirs(group);
+            if (copyFile(saveLocation, iof, ex))
+                publishCreated(group);
+        }, restoreThreads);
+    }
+
+    /**
+     * Restores a {@link Location#LocalVersions} file without streaming it. The current file must already be out of
+     * the way.
+     *
+     * @param version     The version to restore.
+     * @param moveVersion Move the version instead of copying it?
+     * @return The version's file (where it was before, if it got moved).
+     */
+    private File restoreLocally(StFileGroup.File version, boolean moveVersion) {
+        StFileGroup group = version.getParent();
+        Path source = version.getRawFullPath();
+        if (!moveVersion)
+            return restoreLocally(source, group);
+        Path target = group.getFullPath();
+        try {
+            if (!createParentDirs(group))
+                throw new IOException("Could not create the parent directory of " + target);
+            LocalTransfer.move(source, target);
+            publish(new FileMutation.Deleted(Location.LocalVersions, version.getRawRelativePath(), false));
+            publishCreated(group);
+            return source.toFile();
+        } catch (IOException e) {
+            logger.error("Could not restore `%s` to `%s`".formatted(source, target), e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies a local file into the place of a group's current file with {@link LocalTransfer}. The current file must
+     * already be out of the way.
+     *
+     * @param source The local file holding the content to restore.
+     * @param group  The group whose current file gets written.
+     * @return The source file.
+     */
+    private File restoreLocally(Path source, StFileGroup group) {
+        Path target = group.getFullPath();
+        try {
+            if (!createParentDirs(group))
+                throw new IOException("Could not create the parent directory of " + target);
+            LocalTransfer.copy(source, target);
+            publishCreated(group);
+            return source.toFile();
+        } catch (IOException e) {
+            logger.error("Could not restore `%s` to `%s`".formatted(source, target), e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Restores a remote version by only transferring what differs from the file it replaces. The basis file's block
+     * signature is sent to a helper on the remote, which answers with the delta. If anything goes wrong (no python on
+     * the remote, the basis changed, a checksum doesn't match...), the whole file is transferred instead.
+     *
+     * @param version The remote version to restore.
+     * @param basis   The file it replaces, after it was moved aside.
+     * @param shell   The remote shell to run the helper with.
+     * @return The restored file.
+     */
+    private File restoreDelta(StFileGroup.File version, Path basis, RemoteShell shell) {
+        StFileGroup group = version.getParent();
+        Path target = group.getFullPath();
+        Path part = target.resolveSibling("." + target.getFileName() + ".stvp-part");
+        try {
+            DeltaSignature signature = DeltaSignature.of(basis);
+            String command = "python3 -c %s %s".formatted(
+                RemoteShell.quote(deltaHelper()),
+                RemoteShell.quote(version.getRawFullPath().toString().replace('\\', '/')));
+            DeltaApplier.Stats stats;
+            try (RemoteShell.Command delta = shell.exec(command).get()) {
+                // The helper reads the whole signature before it writes anything, so this can't stall.
+                try (OutputStream stdin = delta.stdin()) {
+                    signature.writeTo(stdin);
+                }
+                try (OutputStream out = Files.newOutputStream(part)) {
+                    stats = DeltaApplier.apply(delta.stdout(), signature, basis, out);
+                }
+                int status = delta.waitFor();
+                if (status != 0)
+                    throw new IOException("Delta helper exited with %d: %s".formatted(status, delta.stderr().strip()));
+            }
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Restored `{}` as a delta: {} transferred, {} reused from `{}`", target,
+                        JobProgress.humanBytes(stats.literalBytes()), JobProgress.humanBytes(stats.copiedBytes()),
+                        basis.getFileName());
+            publishCreated(group);
+            return target.toFile();
+        } catch (Exception e) {
+            logger.warn("Could not restore `%s` as a delta. Transferring all of it instead.".formatted(version), e);
+        }
+        try {
+            Files.deleteIfExists(part);
+            File iof = version.getLocalFile().get();
+            if (copyFile(target.toFile(), iof, null))
+                publishCreated(group);
+            return iof;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static synchronized String deltaHelper() throws IOException {
+        if (deltaHelper == null) {
+            try (InputStream in = DeltaSignature.class.getResourceAsStream("delta-helper.py")) {
+                if (in == null)
+                    throw new FileNotFoundException("delta-helper.py is missing from the app");
+                deltaHelper = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        return deltaHelper;
+    }
+
+    /**
+     * Renames a current file out of the way by adding a {@code ~VP-PREV} marker to its name, so that a restored
+     * version can take its place.
+     *
+     * @param currentFile The {@link Location#LocalCurrent} file to rename.
+     * @return Where the file is now, if it was renamed.
+     */
+    Optional<Path> moveCurrentAside(StFileGroup.File currentFile) {
+        logger.debug("Current file appears to be present. Will rename file `{}`", currentFile);
+        File currentFileReal;
+        try {
+            // We can call `get()` because Local files don't move threads.
+            // Local files should also not throw any exceptions.
+            currentFileReal = currentFile.getLocalFile().get();
+        } catch (Exception e) {
+            logger.error("Somehow got an exception?? This should not be possible for local files...", e);
+            throw new RuntimeException(e);
+        }
+        // Renaming shenanigans
+        ParsedFileName nameParsed = new ParsedFileName(currentFileReal.getName());
+        String name = nameParsed.getBeginning() + "~VP-PREV" + nameParsed.getEnd();
+        File newFile = currentFileReal.toPath().getParent().resolve(name).toFile();
+        // And time to actually do the renaming
+        boolean didRename = currentFileReal.renameTo(newFile);
+        if (didRename) {
+            logger.debug("Successfully renamed file to `{}`", currentFileReal.getPath());
+            Path rawRelativePath = currentFile.getRawRelativePath();
+            publish(new FileMutation.Renamed(
+                Location.LocalCurrent, rawRelativePath, FileMutation.parentOf(rawRelativePath).resolve(name)));
+            return Optional.of(newFile.toPath());
+        }
+        logger.warn("Could not rename file to `{}`", newFile.getPath());
+        return Optional.empty();
+    }
+
+    /**
+     * Publishes that the current file of a group was just (re)created by a restore.
+     *
+     * @param group The group whose {@link Location#LocalCurrent} file was written.
+     */
+    void publishCreated(StFileGroup group) {
+        File file = group.getFullPath().toFile();
+        publish(new FileMutation.Created(
+            Location.LocalCurrent, group.getRelativePath(), false, file.length(), file.lastModified()));
+    }
+
+    /**
+     * Makes sure that the local directory a {@link StFile} should be restored into exists. Every directory that had to
+     * be created gets published as a mutation.
+     *
+     * @param file The file that is about to be restored.
+     * @return {@code true} if the parent directory exists now, {@code false} if it could not be created.
+     */
+    boolean createParentDirs(StFile file) {
+        Path relativeParent = file.getRelativePath().getParent();
+        if (relativeParent == null)
+            return true;
+        Path root = file.getFullStLister().rootDir(Location.LocalCurrent);
+        Path relativeDir = Path.of("");
+        try {
+            for (Path part : relativeParent) {
+                relativeDir = relativeDir.resolve(part);
+                Path dir = root.resolve(relativeDir);
+                if (!Files.isDirectory(dir)) {
+                    Files.createDirectory(dir);
+                    publish(new FileMutation.Created(Location.LocalCurrent, relativeDir, true, 0, -1));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Could not create directory `%s`".formatted(root.resolve(relativeDir)), e);
+            return false;
+        }
     }
 
     /**
@@ -134,10 +497,7 @@ public class FileManipulationService implements FullStLister.FileService {
     public CompletableFuture<File> restoreVersion(StFileGroup fileToRestore, boolean replaceExisting) {
         logger.info("Restoring StFileGroup `{}`", fileToRestore);
         // Find the first file that isn't a current file
-        var firstVersion = fileToRestore
-            .getFiles().stream()
-            .filter(f -> f.location.when != Location.When.Current)
-            .findFirst();
+        var firstVersion = newestVersion(fileToRestore);
         if (firstVersion.isPresent()) {
             logger.debug("A previous version does exist. Restoring...");
             return restoreVersion(firstVersion.get(), replaceExisting);
@@ -145,66 +505,196 @@ public class FileManipulationService implements FullStLister.FileService {
     }
 
     /**
-     * Helper method that takes a {@link StFile} and directs it to the correct method. <br/>
-     * Type {@link StFileGroup} goes to {@link #restoreVersion(StFileGroup, boolean)} <br/>
-     * Type {@link StDirectory} goes to {@link #restoreVersion(StDirectory, boolean)} <br/>
-     * Note: The actual file to take will be decided automatically.
+     * Finds the version that gets restored when the user doesn't pick one: the newest file that isn't a current file.
      *
-     * @param fileToRestore   The {@link StFile} to restore.
-     * @param replaceExisting If a current file exists, do we replace it or just cancel.
-     * @return A completable future holding a {@code List} of {@code File}s that have been copied.
+     * @param group The group to pick a version from.
+     * @return The newest version, if there are any versions at all.
      */
-    private CompletableFuture<List<File>> restoreVersion(StFile fileToRestore, boolean replaceExisting) {
-        return switch (fileToRestore) {
-            case StFileGroup fileGroup -> restoreVersion(fileGroup, replaceExisting).thenApplyAsync(List::of);
-            case StDirectory folder -> restoreVersion(folder, replaceExisting);
-            case null -> CompletableFuture.completedFuture(List.of());
-        };
+    static Optional<StFileGroup.File> newestVersion(StFileGroup group) {
+        return group.getFiles().stream()
+                    .filter(f -> f.location.when != Location.When.Current)
+                    .findFirst();
     }
 
     /**
      * Restores an entire directory. Since this takes a directory, there is no way to specify individually which
      * versions will be restored. Like the other overloads of this method, replaceExisting can be used to control
      * whether current files are replace. It is recommended to leave this as false.
+     * <br/> See {@link #restoreDirectory(StDirectory, boolean)} for a version of this that reports its progress.
      *
      * @param directoryToRestore The directory of which to restore all child files (recursively)
      * @param replaceExisting    If a current file exists, do we replace it or skip it?
-     * @return A completable future holding a list of all the files that have been copied.
+     * @return A completable future holding a list of all the files that have been restored.
      */
     public CompletableFuture<List<File>> restoreVersion(StDirectory directoryToRestore, boolean replaceExisting) {
-        // This method is a bit to unpack. It's recursive, yet still returns a flat list at the end.
+        return restoreDirectory(directoryToRestore, replaceExisting).future();
+    }
+
+    /**
+     * Starts restoring an entire directory, restoring the newest version of every file that needs one. The returned
+     * {@link RestoreJob} walks the tree with bounded concurrency (see {@link #setRestoreLimits}), reports its
+     * progress, and can be cancelled. If the same directory was being restored before and didn't finish, the job picks
+     * up where the last one stopped (see {@link RestoreJournal}).
+     *
+     * @param directoryToRestore The directory of which to restore all child files (recursively)
+     * @param replaceExisting    If a current file exists, do we replace it or skip it?
+     * @return The running job.
+     */
+    public RestoreJob restoreDirectory(StDirectory directoryToRestore, boolean replaceExisting) {
         logger.info("Restoring entire directory `{}`", directoryToRestore);
-        // So we'll be doing the manual future completion. This future will hold all the results.
-        CompletableFuture<List<File>> theFuture = new CompletableFuture<>();
-        // Alright, first things ~~third~~ first, we need to actually list the files.
-        // Once they are listed, we can begin restoring.
-        directoryToRestore.listFilesAsync().thenAcceptAsync((List<StFile> listOfFiles) -> {
-            // Let's take that list of StFiles and stream it...
-            List<CompletableFuture<List<File>>> listOfLists = listOfFiles
-                .stream() // ↓ Here ↓ we call the #restoreVersion() method. Remember that this method EITHER restores a
-                .map(f -> restoreVersion(f, replaceExisting)) //  single file, OR recursively calls the method we're in.
-                .toList(); // The recursion ends when all calls to #restoreVersion() restore a file, not a directory.
-            // Now we need to know when all of these are done.
-            CompletableFuture
-                .allOf(listOfLists.toArray(CompletableFuture[]::new))
-                .whenComplete((unused, throwable) -> {
-                    // If we have some sort of error, propagate it.
-                    if (throwable != null) {
-                        theFuture.completeExceptionally(new Exception(throwable));
-                        return; // Explicitly return here so there is less nesting.
-                    }
-                    // If we've gotten here, that means that all the futures completed. Time to get all the files that
-                    // we updated. Remember: listOfLists is a List<CompletableFuture<List<File>>>, though we now know
-                    // that the Future part is complete, we want to remove that and flatten it.
-                    List<File> listOfModified = listOfLists
-                        .stream() // First ↓ getNow() gets the inner List<File>, removing the CompletableFuture portion.
-                        .flatMap(f -> f.getNow(List.of()).stream()) // Then its flatMapped, removing the inner list.
-                        .toList(); // Last it's turned from a stream into a list.
-                    // Now everything's been flattened, we can return our value!
-                    // If your thinking of this in its recursive call sequence, now read where `listOfLists` is declared
-                    theFuture.complete(listOfModified);
-                });
-        });
-        return theFuture;
+        return new RestoreJob(
+            this, directoryToRestore, replaceExisting, FileManipulationService::newestVersion, restoreLimits,
+            openJournal(directoryToRestore, "newest|replace=" + replaceExisting)
+        ).start();
+    }
+
+    /**
+     * Starts working out what restoring a directory to how it was at a point in time would do, without writing
+     * anything (see {@link RestorePlanner}). Hand the finished plan to {@link #restoreDirectory(RestorePlan)} to carry
+     * it out.
+     *
+     * @param directory The directory to restore (recursively).
+     * @param time      The point in time to restore it to.
+     * @return The running planner.
+     */
+    public RestorePlanner planRestore(StDirectory directory, LocalDateTime time) {
+        logger.info("Planning restore of `{}` to {}", directory, time);
+        return new RestorePlanner(directory, time, restoreLimits.listing()).start();
+    }
+
+    /**
+     * Starts carrying out a {@link RestorePlan}, restoring exactly the files it lists with the limits set with
+     * {@link #setRestoreLimits}. Current files get replaced (moved aside first, like any other restore).
+     *
+     * @param plan The plan to carry out.
+     * @return The running job.
+     */
+    public RestoreJob restoreDirectory(RestorePlan plan) {
+        logger.info("Restoring `{}` to {} ({} files)", plan.root(), plan.time(), plan.entries().size());
+        return new RestoreJob(this, plan, restoreLimits, openJournal(plan.root(), "at=" + plan.time())).start();
+    }
+
+    /**
+     * Starts copying every remote version of a directory that the local versions folder doesn't have yet (see
+     * {@link MirrorJob}). Transfers run with the limits set with {@link #setMirrorLimits}.
+     *
+     * @param directory The directory to mirror the versions of (recursively).
+     * @return The running job.
+     */
+    public MirrorJob mirrorVersions(StDirectory directory) {
+        logger.info("Mirroring remote versions of `{}`", directory);
+        ContentHashService hashes = directory.getFullStLister().getService(ContentHashService.class);
+        return new MirrorJob(this, directory, MirrorJob.Direction.Pull, hashes, mirrorLimits).start();
+    }
+
+    /**
+     * Starts copying every local version of a directory that the remote versions folder doesn't have yet, the other
+     * way around from {@link #mirrorVersions}. Uploads run in parallel over separate connections (see
+     * {@link RemoteUploader}), with the limits set with {@link #setMirrorLimits}.
+     *
+     * @param directory The directory to push the versions of (recursively).
+     * @return The running job.
+     */
+    public MirrorJob pushVersions(StDirectory directory) {
+        logger.info("Pushing local versions of `{}`", directory);
+        ContentHashService hashes = directory.getFullStLister().getService(ContentHashService.class);
+        return new MirrorJob(this, directory, MirrorJob.Direction.Push, hashes, mirrorLimits).start();
+    }
+
+    /**
+     * Starts resolving the conflicts of several files at once, keeping one copy of each file and moving the others
+     * into the local versions folder (see {@link ConflictResolver}). As many files are resolved at the same time as a
+     * directory restore may write (see {@link #setRestoreLimits}).
+     *
+     * @param directory Any directory of the folder the conflicts are in.
+     * @param groups    The files to resolve, as found by a {@link ConflictFinder}.
+     * @param rule      How to pick the copy of each file that is kept.
+     * @return The running job.
+     */
+    public ConflictResolver resolveConflicts(
+        StDirectory directory, List<ConflictFinder.ConflictGroup> groups, ConflictResolver.Rule rule
+    ) {
+        logger.info("Resolving conflicts of {} files in `{}` with rule {}", groups.size(), directory, rule);
+        return new ConflictResolver(this, directory.getFullStLister(), groups, rule, restoreLimits.writing()).start();
+    }
+
+    /**
+     * Starts working out which remote versions of a directory pruning it by a rule would delete, without deleting
+     * anything (see {@link PrunePlanner}). Hand the finished plan to {@link #prune(PrunePlan)} to carry it out.
+     *
+     * @param directory The directory to prune (recursively).
+     * @param rule      Which versions go.
+     * @return The running planner.
+     */
+    public PrunePlanner planPrune(StDirectory directory, PrunePlan.Rule rule) {
+        logger.info("Planning prune of `{}` with rule {}", directory, rule);
+        return new PrunePlanner(directory, rule, restoreLimits.listing()).start();
+    }
+
+    /**
+     * Starts deleting exactly the remote versions a {@link PrunePlan} lists, in batches with the limits set with
+     * {@link #setPruneLimits} (see {@link PruneJob}).
+     *
+     * @param plan The plan to carry out.
+     * @return The running job.
+     */
+    public PruneJob prune(PrunePlan plan) {
+        logger.info("Pruning {} remote versions of `{}`", plan.entries().size(), plan.root());
+        return new PruneJob(this, plan, pruneLimits).start();
+    }
+
+    /**
+     * Starts exporting a directory as a ZIP archive, streaming every file straight into it (see {@link ZipExporter}).
+     * Each file goes in as it currently is, or as its newest version if it was deleted.
+     *
+     * @param directory   The directory to export (recursively).
+     * @param destination Where to write the archive.
+     * @return The running job.
+     */
+    public ZipExporter exportZip(StDirectory directory, Path destination) {
+        return exportZip(directory, FileManipulationService::currentOrNewest, destination);
+    }
+
+    /**
+     * Starts exporting a directory as a ZIP archive, with the version of each file chosen by {@code versionPicker}.
+     * Runs with the limits set with {@link #setExportLimits}.
+     *
+     * @param directory     The directory to export (recursively).
+     * @param versionPicker Picks which version of each file goes into the archive, if any.
+     * @param destination   Where to write the archive.
+     * @return The running job.
+     */
+    public ZipExporter exportZip(
+        StDirectory directory, Function<StFileGroup, Optional<StFileGroup.File>> versionPicker, Path destination
+    ) {
+        logger.info("Exporting `{}` to `{}`", directory, destination);
+        return new ZipExporter(directory, versionPicker, destination, exportLimits).start();
+    }
+
+    /**
+     * Finds the file that best stands for a group as it is now: the current file (local first, since it's cheaper to
+     * read), or the newest version if there is no current file anymore. Conflict copies are never picked.
+     *
+     * @param group The group to pick a file from.
+     * @return The picked file, if the group has any files that aren't conflicts.
+     */
+    static Optional<StFileGroup.File> currentOrNewest(StFileGroup group) {
+        Optional<StFileGroup.File> current = group.getFiles().stream()
+            .filter(f -> f.location.when == Location.When.Current && !f.nameInfo.hasConflict())
+            .min(Comparator.comparing(f -> f.location.where));
+        return current.isPresent() ? current : newestVersion(group);
+    }
+
+    /**
+     * Opens the journal for restoring a directory.
+     *
+     * @param dir  The directory being restored.
+     * @param mode Anything else that changes what the job does (like which versions it picks). Jobs with a different
+     *             mode never share a journal.
+     * @return The journal to hand to the {@link RestoreJob}.
+     */
+    RestoreJournal openJournal(StDirectory dir, String mode) {
+        Path root = dir.getFullStLister().rootDir(Location.LocalCurrent);
+        return RestoreJournal.open(root + "|" + dir.getRelativePath() + "|" + mode, root);
     }
 }
@@ -0,0 +1,229 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a whole folder tree, in any number of {@link Location}s at once, listing several directories in parallel.
+ * Every directory is listed once per location it exists in, and handed to a {@link Visitor} with all of those
+ * listings together, so comparing locations never needs more than one directory's worth of memory.
+ * <br/> Note: Directories are crawled depth first, which keeps the number of directories waiting to be listed about
+ * as small as the tree is deep (times how wide it is), rather than as big as the whole tree.
+ * <br/> Note: Listings always come from the file system, never the cache (see {@link FullStLister#scanDir}).
+ */
+public class FolderCrawler {
+    private static final Logger logger = LogManager.getLogger(FolderCrawler.class);
+
+    /**
+     * Gets told about every directory the crawler finds. Its methods are called from the crawler's threads, and for
+     * different directories at the same time, so they must be thread-safe.
+     */
+    public interface Visitor {
+
+        /**
+         * Decides if a directory should be crawled at all. Returning {@code false} skips the directory and everything
+         * in it.
+         *
+         * @param dir       The relative path of the directory.
+         * @param presentIn The locations the directory exists in.
+         * @return {@code true} to crawl the directory.
+         */
+        default boolean enter(Path dir, Set<Location> presentIn) {
+            return true;
+        }
+
+        /**
+         * Called once for every crawled directory, with its listing in every location it exists in.
+         *
+         * @param dir      The relative path of the directory.
+         * @param listings The directory's listing, for each location it exists in.
+         * @throws Exception Throwing stops the whole crawl.
+         */
+        void visit(Path dir, Map<Location, List<FileWithLocation>> listings) throws Exception;
+
+        /**
+         * Called once everything inside a directory (including all of its subdirectories) has been visited and left.
+         * This is where anything that rolls up from the bottom of the tree should happen.
+         *
+         * @param dir The relative path of the directory.
+         * @throws Exception Throwing stops the whole crawl.
+         */
+        default void leave(Path dir) throws Exception {}
+
+        /**
+         * Called when a directory could not be listed in some location. The directory is still visited, as if it
+         * were empty in that location.
+         *
+         * @param dir      The relative path of the directory.
+         * @param location The location that couldn't be listed.
+         * @param ex       What went wrong.
+         */
+        default void failed(Path dir, Location location, Throwable ex) {
+            logger.warn("Could not list `{}` in {}: {}", dir, location, ex.getMessage());
+        }
+    }
+
+    /** A directory, and how many things (itself and its subdirectories) have to finish before it can be left. */
+    private static final class Node {
+        final Path          dir;
+        final Set<Location> presentIn;
+        final Node          parent;
+        final AtomicInteger open = new AtomicInteger(1);
+
+        Node(Path dir, Set<Location> presentIn, Node parent) {
+            this.dir = dir;
+            this.presentIn = presentIn;
+            this.parent = parent;
+        }
+    }
+
+    private final FullStLister            lister;
+    private final EnumSet<Location>       locations;
+    private final int                     parallelism;
+    private final Deque<Node>             pending = new ArrayDeque<>();
+    private final CompletableFuture<Void> done    = new CompletableFuture<>();
+
+    private          ExecutorService pool;
+    private          Visitor         visitor;
+    private          int             inFlight  = 0;
+    private volatile boolean         cancelled = false;
+
+    /**
+     * @param lister      Where to list directories from.
+     * @param locations   The locations to crawl.
+     * @param parallelism How many directories may be listed (and visited) at once.
+     */
+    public FolderCrawler(FullStLister lister, Set<Location> locations, int parallelism) {
+        this.lister = lister;
+        this.locations = EnumSet.copyOf(locations);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Starts crawling. A crawler can only crawl once.
+     *
+     * @param root    The relative path of the directory to start from. It is assumed to exist in every location.
+     * @param visitor Who to tell about every directory.
+     * @return A future that completes once every directory has been left. It completes exceptionally if the visitor
+     * threw, or with a {@link CancellationException} if the crawl was cancelled.
+     */
+    public synchronized CompletableFuture<Void> crawl(Path root, Visitor visitor) {
+        if (this.visitor != null)
+            throw new IllegalStateException("This crawler has already been started");
+        this.visitor = visitor;
+        this.pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "folder-crawler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        done.whenComplete((x, ex) -> pool.shutdown());
+        if (visitor.enter(root, locations)) {
+            pending.push(new Node(root, locations, null));
+            pump();
+        } else done.complete(null);
+        return done;
+    }
+
+    /**
+     * Stops the crawl. Directories that are being visited right now still finish, but no more are listed.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        pending.clear();
+        if (inFlight == 0)
+            done.completeExceptionally(new CancellationException());
+    }
+
+    /** Starts listing as many waiting directories as the parallelism allows. */
+    private synchronized void pump() {
+        while (!cancelled && inFlight < parallelism && !pending.isEmpty()) {
+            inFlight++;
+            Node node = pending.pop();
+            pool.execute(() -> list(node));
+        }
+    }
+
+    private void list(Node node) {
+        Map<Location, CompletableFuture<List<FileWithLocation>>> futures = new EnumMap<>(Location.class);
+        for (Location location : node.presentIn)
+            futures.put(location, lister.scanDir(node.dir, location));
+        CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new))
+            .handleAsync((x, ignored) -> {
+                try {
+                    visit(node, futures);
+                } catch (Throwable ex) {
+                    fail(ex);
+                }
+                return null;
+            }, pool)
+            .whenComplete((x, ignored) -> {
+                synchronized (this) {
+                    inFlight--;
+                    if (cancelled && inFlight == 0)
+                        done.completeExceptionally(new CancellationException());
+                }
+                pump();
+            });
+    }
+
+    private void visit(Node node, Map<Location, CompletableFuture<List<FileWithLocation>>> futures) throws Exception {
+        if (cancelled || done.isDone())
+            return;
+        Map<Location, List<FileWithLocation>> listings = new EnumMap<>(Location.class);
+        // Sorted, so subdirectories are crawled in a predictable order.
+        SortedMap<String, EnumSet<Location>> subDirs = new TreeMap<>();
+        futures.forEach((location, future) -> {
+            List<FileWithLocation> files;
+            try {
+                files = future.join();
+            } catch (CompletionException | CancellationException e) {
+                visitor.failed(node.dir, location, e.getCause() != null ? e.getCause() : e);
+                files = List.of();
+            }
+            listings.put(location, files);
+            for (FileWithLocation file : files)
+                if (file.isDir())
+                    subDirs.computeIfAbsent(file.name(), n -> EnumSet.noneOf(Location.class)).add(location);
+        });
+        visitor.visit(node.dir, listings);
+        List<Node> children = new ArrayList<>();
+        subDirs.forEach((name, presentIn) -> {
+            Path dir = node.dir.resolve(name);
+            if (visitor.enter(dir, presentIn))
+                children.add(new Node(dir, presentIn, node));
+        });
+        node.open.addAndGet(children.size());
+        synchronized (this) {
+            if (!cancelled)
+                for (int i = children.size() - 1; i >= 0; i--)
+                    pending.push(children.get(i));
+        }
+        finish(node);
+    }
+
+    /** Marks one open thing of a node as finished, leaving it (and maybe its parents) once nothing is left open. */
+    private void finish(Node node) throws Exception {
+        for (Node n = node; n != null && n.open.decrementAndGet() == 0; n = n.parent) {
+            visitor.leave(n.dir);
+            if (n.parent == null)
+                done.complete(null);
+        }
+    }
+
+    private void fail(Throwable ex) {
+        logger.error("Crawl failed", ex);
+        done.completeExceptionally(ex);
+        synchronized (this) {
+            cancelled = true;
+            pending.clear();
+        }
+    }
+}
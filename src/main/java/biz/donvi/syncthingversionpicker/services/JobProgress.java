@@ -0,0 +1,57 @@
+package biz.donvi.syncthingversionpicker.services;
+
+/**
+ * A snapshot of how far along a long-running job (like a {@link RestoreJob}) is.
+ *
+ * @param filesDone      How many files have been dealt with, including ones that failed.
+ * @param filesFailed    How many of the files that were dealt with failed.
+ * @param filesTotal     How many files have been found that need to be dealt with. This keeps growing until
+ *                       {@code discoveryDone} is {@code true}.
+ * @param bytesDone      How many bytes have been transferred.
+ * @param bytesTotal     How many bytes will need to be transferred (as far as we know so far).
+ * @param bytesPerSecond The current throughput.
+ * @param discoveryDone  {@code true} once all the work has been found, meaning the totals will not grow anymore.
+ * @param finished       {@code true} once the job is over, whether it completed, failed, or was cancelled.
+ */
+public record JobProgress(
+    long filesDone, long filesFailed, long filesTotal,
+    long bytesDone, long bytesTotal, double bytesPerSecond,
+    boolean discoveryDone, boolean finished
+) {
+
+    /**
+     * @return How far along the job is, from {@code 0} to {@code 1}. Bytes are used when they are known, files
+     * otherwise.
+     */
+    public double fraction() {
+        if (bytesTotal > 0)
+            return Math.min(1, (double) bytesDone / bytesTotal);
+        if (filesTotal > 0)
+            return Math.min(1, (double) filesDone / filesTotal);
+        return finished ? 1 : 0;
+    }
+
+    /**
+     * @return A short human-readable summary, like {@code 12 / 40 files, 1.2 MB / 5.3 MB (340.0 KB/s)}.
+     */
+    public String describe() {
+        return "%d / %d%s files%s, %s / %s (%s/s)".formatted(
+            filesDone, filesTotal, discoveryDone ? "" : "+",
+            filesFailed > 0 ? " (%d failed)".formatted(filesFailed) : "",
+            humanBytes(bytesDone), humanBytes(bytesTotal), humanBytes((long) bytesPerSecond));
+    }
+
+    /**
+     * Formats a byte count with a binary unit, like {@code 1.5 MB}.
+     *
+     * @param bytes The number of bytes.
+     * @return The formatted string.
+     */
+    public static String humanBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        String units = "KMGTPE";
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return "%.1f %sB".formatted(bytes / Math.pow(1024, unit), units.charAt(unit - 1));
+    }
+}
@@ -0,0 +1,151 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fast ways to get a file from one local path to another, for when both the version and the target are on this
+ * machine. In order of preference:
+ * <ol>
+ *     <li><b>Move:</b> If the version isn't needed anymore, it is simply renamed into place. On the same volume this
+ *     takes the same (tiny) amount of time no matter how large the file is.</li>
+ *     <li><b>Clone:</b> On file systems with copy-on-write support (btrfs, XFS, APFS, ...) the copy shares its blocks
+ *     with the original, which is also constant time.</li>
+ *     <li><b>Channel transfer:</b> Otherwise, {@link FileChannel#transferTo} lets the OS copy the data without it
+ *     ever passing through the JVM.</li>
+ * </ol>
+ * <br/> Note: Cloning means starting a process, which takes longer than just copying a small file, so files smaller
+ * than {@link #CLONE_THRESHOLD} always go straight to a channel transfer.
+ */
+final class LocalTransfer {
+    private static final Logger logger = LogManager.getLogger(LocalTransfer.class);
+
+    private static final String OS = System.getProperty("os.name").toLowerCase();
+
+    /** Files smaller than this are never cloned. */
+    static final long CLONE_THRESHOLD = 1024 * 1024;
+
+    /**
+     * What {@code cp} says (in lower case) when the file system can't clone, as opposed to the copy failing for some
+     * other reason, like a missing directory or a full disk.
+     */
+    private static final List<String> NO_CLONE_MESSAGES = List.of(
+        "not supported", "cross-device", "inappropriate ioctl", "invalid argument");
+
+    /**
+     * The (source, target) file store pairs that cloning has already failed between. There is no point asking again
+     * for every file.
+     */
+    private static final Map<List<FileStore>, Boolean> noCloneStores = new ConcurrentHashMap<>();
+
+    private LocalTransfer() {}
+
+    /**
+     * Moves a file, replacing the target if it exists. If the two paths are on different volumes (so the move can't
+     * be atomic) the file is copied and then the source is deleted.
+     *
+     * @param source The file to move.
+     * @param target Where to move it to.
+     * @throws IOException If the file could not be moved.
+     */
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.debug("Moved `{}` to `{}`", source, target);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.debug("Can't move `{}` atomically, copying it instead", source);
+            copy(source, target);
+            Files.delete(source);
+        }
+    }
+
+    /**
+     * Copies a file, replacing the target if it exists. A copy-on-write clone is tried first, then a channel
+     * transfer.
+     *
+     * @param source The file to copy.
+     * @param target Where to copy it to.
+     * @throws IOException If the file could not be copied.
+     */
+    static void copy(Path source, Path target) throws IOException {
+        if (tryClone(source, target)) {
+            logger.debug("Cloned `{}` to `{}`", source, target);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long position = 0; position < size; )
+                position += in.transferTo(position, size - position, out);
+        }
+        logger.debug("Transferred `{}` to `{}`", source, target);
+    }
+
+    /**
+     * Tries to make {@code target} a copy-on-write clone of {@code source}. Java has no API for this, so the system's
+     * {@code cp} is used, which asks the file system for a clone and fails (instead of falling back to a plain copy)
+     * if it can't make one.
+     *
+     * @return {@code true} if the clone was made.
+     */
+    private static boolean tryClone(Path source, Path target) {
+        try {
+            if (Files.size(source) < CLONE_THRESHOLD)
+                return false;
+        } catch (IOException e) {
+            return false;
+        }
+        List<String> command;
+        if (OS.contains("linux"))
+            command = List.of("cp", "--reflink=always", "--", source.toString(), target.toString());
+        else if (OS.contains("mac"))
+            command = List.of("cp", "-c", source.toString(), target.toString());
+        else return false;
+        List<FileStore> store;
+        try {
+            store = List.of(Files.getFileStore(source), Files.getFileStore(target.toAbsolutePath().getParent()));
+        } catch (IOException e) {
+            return false;
+        }
+        if (noCloneStores.containsKey(store))
+            return false;
+        try {
+            Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .start();
+            // cp only ever says a line or two, so this can't fill up the pipe and stall it.
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                return false;
+            }
+            if (process.exitValue() == 0)
+                return true;
+            String lower = output.toLowerCase();
+            if (NO_CLONE_MESSAGES.stream().anyMatch(lower::contains)) {
+                logger.debug("Can't clone files from `{}` to `{}`, using channel transfers instead: {}",
+                             store.get(0), store.get(1), output);
+                noCloneStores.put(store, true);
+            } else {
+                // Whatever went wrong, the channel transfer will run into it too and report it properly.
+                logger.debug("Could not clone `{}`: {}", source, output);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not run `cp` to clone `{}`: {}", source, e.getMessage());
+            noCloneStores.put(store, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
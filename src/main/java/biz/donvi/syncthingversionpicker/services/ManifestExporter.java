@@ -0,0 +1,261 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes a manifest of every file and version in a folder, one row per file, in every {@link Location}. Each row has
+ * the file's location, raw path, the name it is a version of, its sync and conflict details (see
+ * {@link ParsedFileName}), its size and its modified time.
+ * <br/> The folder is crawled with a {@link FolderCrawler}, several directories at a time, and each directory's rows
+ * are written as soon as it's listed. Nothing is kept once it's written, so even a folder with millions of versions
+ * is exported in constant memory.
+ * <br/> Note: Rows come out one directory at a time, but the directories don't come out in any particular order.
+ */
+public class ManifestExporter implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(ManifestExporter.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** The columns of every row, in order. */
+    static final List<String> COLUMNS = List.of(
+        "location", "path", "file", "sync date", "conflict date", "conflict device", "size", "modified");
+
+    public enum Format {
+        /** Comma separated values, with a header row. */
+        Csv(".csv"),
+        /** One JSON object per line. */
+        JsonLines(".jsonl");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @param file A file name.
+         * @return The format that the file's extension stands for, with CSV being the default.
+         */
+        public static Format forFile(Path file) {
+            return file.getFileName().toString().toLowerCase().endsWith(JsonLines.extension) ? JsonLines : Csv;
+        }
+
+        /**
+         * @return The line to start the file with, if any.
+         */
+        String header() {
+            return this == Csv ? String.join(",", COLUMNS.stream().map(Format::csvValue).toList()) + "\n" : "";
+        }
+
+        /**
+         * Formats a single row. Values are given in the order of {@link #COLUMNS}; a {@code null} value is written as
+         * empty in CSV and as {@code null} in JSON. Numbers are written as numbers in JSON.
+         */
+        String row(Object... values) {
+            StringBuilder line = new StringBuilder();
+            if (this == JsonLines)
+                line.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    line.append(',');
+                if (this == Csv) {
+                    line.append(values[i] == null ? "" : csvValue(values[i].toString()));
+                } else {
+                    line.append(jsonString(COLUMNS.get(i))).append(':');
+                    line.append(switch (values[i]) {
+                        case null -> "null";
+                        case Number number -> number.toString();
+                        default -> jsonString(values[i].toString());
+                    });
+                }
+            }
+            if (this == JsonLines)
+                line.append('}');
+            return line.append('\n').toString();
+        }
+
+        private static String csvValue(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+                return value;
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+
+        private static String jsonString(String value) {
+            StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+            for (char c : value.toCharArray()) {
+                switch (c) {
+                    case '"' -> out.append("\\\"");
+                    case '\\' -> out.append("\\\\");
+                    case '\n' -> out.append("\\n");
+                    case '\r' -> out.append("\\r");
+                    case '\t' -> out.append("\\t");
+                    default -> {
+                        if (c < 0x20)
+                            out.append("\\u%04x".formatted((int) c));
+                        else out.append(c);
+                    }
+                }
+            }
+            return out.append('"').toString();
+        }
+    }
+
+    private final Path            root;
+    private final Path            destination;
+    private final Format          format;
+    private final FolderCrawler   crawler;
+    private final ProgressTracker tracker = new ProgressTracker();
+    private final Path            part;
+
+    private BufferedWriter          writer;
+    private CompletableFuture<Void> future;
+
+    /**
+     * @param dir         The directory to write the manifest of (recursively).
+     * @param destination The file to write the manifest to. Anything already there is replaced once it's done.
+     * @param format      The format to write the manifest in.
+     */
+    public ManifestExporter(StDirectory dir, Path destination, Format format) {
+        FullStLister lister = dir.getFullStLister();
+        this.root = dir.getRelativePath();
+        this.destination = destination;
+        this.format = format;
+        this.part = destination.resolveSibling("." + destination.getFileName() + ".stvp-part");
+        this.crawler = new FolderCrawler(
+            lister, EnumSet.allOf(Location.class), Math.max(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Starts the export.
+     *
+     * @return This exporter.
+     */
+    public ManifestExporter start() {
+        logger.info("Writing manifest of `{}` to `{}`", root, destination);
+        try {
+            Files.createDirectories(part.getParent());
+            writer = Files.newBufferedWriter(part, StandardCharsets.UTF_8);
+            writer.write(format.header());
+        } catch (IOException e) {
+            logger.error("Could not open manifest `%s`".formatted(destination), e);
+            tracker.finish();
+            future = CompletableFuture.failedFuture(e);
+            return this;
+        }
+        future = crawler.crawl(root, this::visit).whenComplete((x, ex) -> {
+            synchronized (this) {
+                tracker.finish();
+                try {
+                    writer.close();
+                    if (ex == null)
+                        Files.move(part, destination, StandardCopyOption.REPLACE_EXISTING,
+                                   StandardCopyOption.ATOMIC_MOVE);
+                    else Files.deleteIfExists(part);
+                } catch (IOException e) {
+                    logger.error("Could not finish manifest `%s`".formatted(destination), e);
+                }
+            }
+            if (ex == null)
+                logger.info("Manifest of `{}` done: {}", root, tracker.snapshot().describe());
+        });
+        return this;
+    }
+
+    /**
+     * @return The file the manifest is written to.
+     */
+    public Path destination() {
+        return destination;
+    }
+
+    @Override
+    public String title() {
+        return "Writing manifest of " + (root.toString().isEmpty() ? "folder" : root);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        crawler.cancel();
+    }
+
+    @Override
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Writing
+     ****************************************************************/
+
+    /** Writes the rows of one directory, all at once so rows of different directories never mix. */
+    private void visit(Path dir, Map<Location, List<FileWithLocation>> listings) throws IOException {
+        StringBuilder rows = new StringBuilder();
+        int count = 0;
+        for (var entry : listings.entrySet()) {
+            for (FileWithLocation file : entry.getValue()) {
+                if (file.isDir())
+                    continue;
+                ParsedFileName name = new ParsedFileName(file.name());
+                rows.append(format.row(
+                    entry.getKey(),
+                    pathAsStr(dir.resolve(file.name())),
+                    pathAsStr(dir.resolve(name.nameFixed())),
+                    name.hasSyncDate() ? isoDate(name.syncDate()) : null,
+                    name.hasConflictDate() ? isoDate(name.conflictDate()) : null,
+                    name.hasConflictDevice() ? name.conflictDevice() : null,
+                    file.size() < 0 ? null : file.size(),
+                    file.lastModified() < 0 ? null : Instant.ofEpochMilli(file.lastModified()).toString()
+                ));
+                count++;
+            }
+        }
+        synchronized (this) {
+            // A cancelled crawl may still be finishing a directory after the manifest was closed.
+            if (tracker.isFinished())
+                return;
+            writer.write(rows.toString());
+            for (int i = 0; i < count; i++) {
+                tracker.found(-1);
+                tracker.fileDone();
+            }
+        }
+    }
+
+    private static String isoDate(String nameDate) {
+        try {
+            return LocalDateTime.parse(nameDate, nameDateFormat).toString();
+        } catch (DateTimeParseException e) {
+            return nameDate;
+        }
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
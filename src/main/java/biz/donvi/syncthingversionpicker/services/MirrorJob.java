@@ -0,0 +1,380 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.RemoteUploader;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies every version that one side's versions folder has and the other's doesn't, so that the receiving
+ * {@code .stversions} folder ends up holding the other side's whole version history (see {@link Direction}).
+ * <br/> Both versions folders are crawled together with a {@link FolderCrawler}. For each directory, the sending
+ * listing minus the receiving one (by name and size) is what gets transferred, so running the job again only costs
+ * the listings plus whatever is new. Transfers run in parallel, share a bandwidth cap (see {@link Limits}), and keep
+ * the sender's modified time.
+ * <ul>
+ *     <li><b>Pulled</b> versions are verified before they are moved into place: the size always, and the SHA-256
+ *     against a hash worked out on the remote when the remote can run commands.</li>
+ *     <li><b>Pushed</b> versions go through {@link RemoteUploader}, which writes to a temporary file on the remote and
+ *     renames it into place once the size checks out.</li>
+ * </ul>
+ */
+public class MirrorJob implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(MirrorJob.class);
+
+    /** How many times a transfer is tried before it counts as failed. */
+    private static final int ATTEMPTS = 2;
+
+    /** Which way versions get copied. */
+    public enum Direction {
+        /** Remote versions are copied into the local versions folder. */
+        Pull(Location.RemoteVersions, Location.LocalVersions),
+        /** Local versions are copied into the remote versions folder. */
+        Push(Location.LocalVersions, Location.RemoteVersions);
+
+        public final Location from;
+        public final Location to;
+
+        Direction(Location from, Location to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * The limits of a {@link MirrorJob}.
+     *
+     * @param transfers      How many files may be transferred at the same time.
+     * @param bytesPerSecond The bandwidth cap shared by all transfers, or {@code 0} for none.
+     * @param queueCapacity  How many files may be waiting to be transferred.
+     */
+    public record Limits(int transfers, long bytesPerSecond, int queueCapacity) {
+        public static final Limits DEFAULT = new Limits(4, 0, 256);
+    }
+
+    /**
+     * A single version to transfer. A transfer with no path tells a worker to stop.
+     *
+     * @param expected The hashes of the versions in the same directory, worked out on the remote, by remote path.
+     */
+    private record Transfer(
+        Path relativePath, long size, long lastModified, CompletableFuture<Map<String, String>> expected
+    ) {
+        static final Transfer STOP = new Transfer(null, 0, 0, null);
+    }
+
+    private final FileManipulationService service;
+    private final FullStLister            lister;
+    private final Path                    root;
+    private final Direction               direction;
+    private final Limits                  limits;
+    private final ContentHashService      hashes;
+    private final FolderCrawler           crawler;
+    private final TokenBucket             bandwidth;
+
+    private final ProgressTracker         tracker  = new ProgressTracker();
+    private final AtomicLong              mirrored = new AtomicLong();
+    private final CompletableFuture<Long> future   = new CompletableFuture<>();
+    private final BlockingQueue<Transfer> queue;
+    private final ExecutorService         threads;
+
+    private          boolean started   = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates (but does not start) a new mirror job.
+     *
+     * @param service The service that changes get published through.
+     * @param root      The directory to mirror the versions of (recursively).
+     * @param direction Which way to copy versions.
+     * @param hashes    What to get remote hashes from, to verify transfers with.
+     * @param limits    The limits to use.
+     */
+    MirrorJob(
+        FileManipulationService service, StDirectory root, Direction direction, ContentHashService hashes,
+        Limits limits
+    ) {
+        this.service = service;
+        this.lister = root.getFullStLister();
+        this.root = root.getRelativePath();
+        this.direction = direction;
+        this.limits = limits;
+        this.hashes = hashes;
+        this.crawler = new FolderCrawler(lister, EnumSet.of(Location.RemoteVersions, Location.LocalVersions), 4);
+        this.bandwidth = new TokenBucket(limits.bytesPerSecond());
+        this.queue = new ArrayBlockingQueue<>(limits.queueCapacity());
+        this.threads = Executors.newFixedThreadPool(limits.transfers(), runnable -> {
+            Thread thread = new Thread(runnable, "mirror");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the job. Calling this more than once does nothing.
+     *
+     * @return This job.
+     */
+    synchronized MirrorJob start() {
+        if (started)
+            return this;
+        started = true;
+        logger.info("Starting {} of versions in `{}` with limits {}", direction, root, limits);
+        if (direction == Direction.Push && lister.remoteUploader().isEmpty()) {
+            logger.error("Can't push versions of `{}`, the remote can't be written to", root);
+            tracker.finish();
+            threads.shutdown();
+            future.completeExceptionally(new UnsupportedOperationException("The remote can't be written to"));
+            return this;
+        }
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < limits.transfers(); i++)
+            workers.add(threads.submit(this::work));
+        crawler.crawl(root, new Differ()).whenComplete((x, ex) -> {
+            if (ex != null && !cancelled)
+                logger.error("Could not crawl the versions of `%s`".formatted(root), ex);
+            tracker.discoveryDone();
+            try {
+                for (int i = 0; i < limits.transfers(); i++)
+                    queue.put(Transfer.STOP);
+                for (Future<?> worker : workers)
+                    worker.get();
+            } catch (InterruptedException | ExecutionException e) {
+                logger.error("Mirror worker ended unexpectedly", e);
+            }
+            tracker.finish();
+            threads.shutdown();
+            if (cancelled) {
+                logger.info("Mirror of `{}` was cancelled after {}", root, tracker.snapshot().describe());
+                future.completeExceptionally(new CancellationException("Mirror was cancelled"));
+            } else if (ex != null) {
+                future.completeExceptionally(ex);
+            } else {
+                logger.info("Mirror of `{}` finished: {}", root, tracker.snapshot().describe());
+                future.complete(mirrored.get());
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public String title() {
+        String path = root.toString();
+        String what = direction == Direction.Pull ? "Mirroring remote versions" : "Pushing local versions";
+        return path.isEmpty() ? what : what + " of " + path;
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        logger.info("Cancelling mirror of `{}`", root);
+        cancelled = true;
+        crawler.cancel();
+    }
+
+    /**
+     * @return A future holding how many versions were mirrored.
+     */
+    @Override
+    public CompletableFuture<Long> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Diffing
+     ****************************************************************/
+
+    /** Turns each directory's sending listing minus its receiving listing into transfers. */
+    private class Differ implements FolderCrawler.Visitor {
+
+        @Override
+        public boolean enter(Path dir, Set<Location> presentIn) {
+            // Directories that only exist on the receiving side have nothing to mirror.
+            return presentIn.contains(direction.from);
+        }
+
+        @Override
+        public void visit(Path dir, Map<Location, List<FileWithLocation>> listings) throws InterruptedException {
+            Map<String, FileWithLocation> received = new HashMap<>();
+            for (FileWithLocation file : listings.getOrDefault(direction.to, List.of()))
+                received.put(file.name(), file);
+            List<FileWithLocation> missing = new ArrayList<>();
+            for (FileWithLocation file : listings.getOrDefault(direction.from, List.of())) {
+                if (file.isDir())
+                    continue;
+                FileWithLocation have = received.get(file.name());
+                // A file of a different size is left over from a transfer that never finished.
+                if (have == null || !have.isDir() && have.size() != file.size())
+                    missing.add(file);
+                else if (have.isDir())
+                    logger.warn("Can't mirror `{}`, there is a directory in its place", dir.resolve(file.name()));
+            }
+            if (missing.isEmpty())
+                return;
+            Path remoteRoot = lister.rootDir(Location.RemoteVersions);
+            CompletableFuture<Map<String, String>> expected = direction == Direction.Pull
+                ? hashes.hashRemotePaths(
+                    missing.stream().map(f -> remotePath(remoteRoot, dir.resolve(f.name()))).toList())
+                : CompletableFuture.completedFuture(Map.of());
+            for (FileWithLocation file : missing) {
+                if (cancelled)
+                    return;
+                tracker.found(file.size());
+                queue.put(new Transfer(dir.resolve(file.name()), file.size(), file.lastModified(), expected));
+            }
+        }
+    }
+
+    /* **************************************************************
+     MARK: - Transferring
+     ****************************************************************/
+
+    private void work() {
+        try {
+            for (Transfer transfer = queue.take(); transfer.relativePath() != null; transfer = queue.take()) {
+                if (cancelled)
+                    continue;
+                for (int attempt = 1; attempt <= ATTEMPTS; attempt++) {
+                    try {
+                        switch (direction) {
+                            case Pull -> pull(transfer);
+                            case Push -> push(transfer);
+                        }
+                        mirrored.incrementAndGet();
+                        tracker.fileDone();
+                        break;
+                    } catch (CancellationException e) {
+                        logger.debug("Stopped mirroring `{}` because the job was cancelled", transfer.relativePath());
+                        break;
+                    } catch (Exception e) {
+                        if (attempt < ATTEMPTS) {
+                            logger.warn("Could not mirror `{}`, trying again: {}", transfer.relativePath(),
+                                        e.getMessage());
+                        } else {
+                            logger.error("Could not mirror `%s`".formatted(transfer.relativePath()), e);
+                            tracker.fileFailed();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Mirror worker was interrupted", e);
+        }
+    }
+
+    /**
+     * Downloads a single version into a part file next to where it goes, verifies it, and moves it into place.
+     */
+    private void pull(Transfer transfer) throws Exception {
+        Path rel = transfer.relativePath();
+        Path target = lister.rootDir(Location.LocalVersions).resolve(rel);
+        Path part = target.resolveSibling("." + target.getFileName() + ".stvp-part");
+        createDirs(FileMutation.parentOf(rel));
+        MessageDigest digest = RestoreJournal.newSha256();
+        long written = 0;
+        try {
+            try (InputStream in = lister.readFile(rel, Location.RemoteVersions).get();
+                 OutputStream out = new DigestOutputStream(Files.newOutputStream(part), digest)) {
+                byte[] buffer = new byte[64 * 1024];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    if (cancelled)
+                        throw new CancellationException();
+                    bandwidth.take(n);
+                    out.write(buffer, 0, n);
+                    written += n;
+                    tracker.transferred(n);
+                }
+            }
+            if (transfer.size() >= 0 && written != transfer.size())
+                throw new IOException("Expected %d bytes but got %d".formatted(transfer.size(), written));
+            String expected = transfer.expected().join()
+                .get(remotePath(lister.rootDir(Location.RemoteVersions), rel));
+            String actual = RestoreJournal.toHex(digest);
+            if (expected != null && !expected.equals(actual))
+                throw new IOException("Checksum mismatch: expected %s but got %s".formatted(expected, actual));
+            if (transfer.lastModified() >= 0)
+                Files.setLastModifiedTime(part, FileTime.fromMillis(transfer.lastModified()));
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            tracker.transferred(-written);
+            throw e;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        logger.debug("Mirrored `{}`", rel);
+        service.publish(new FileMutation.Created(
+            Location.LocalVersions, rel, false, written, Files.getLastModifiedTime(target).toMillis()));
+    }
+
+    /**
+     * Uploads a single version. The bandwidth cap and cancelling both work through the upload's progress callback.
+     */
+    private void push(Transfer transfer) throws Exception {
+        Path rel = transfer.relativePath();
+        RemoteUploader uploader = lister.remoteUploader().orElseThrow();
+        AtomicLong sent = new AtomicLong();
+        try {
+            uploader.upload(lister.rootDir(Location.LocalVersions).resolve(rel), rel, Location.When.Version, n -> {
+                if (cancelled)
+                    return false;
+                try {
+                    bandwidth.take(n);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                sent.addAndGet(n);
+                tracker.transferred(n);
+                return true;
+            }).get();
+        } catch (ExecutionException e) {
+            tracker.transferred(-sent.get());
+            if (cancelled)
+                throw new CancellationException();
+            throw e;
+        }
+        if (transfer.size() >= 0 && sent.get() != transfer.size())
+            throw new IOException("Expected to send %d bytes but sent %d".formatted(transfer.size(), sent.get()));
+        logger.debug("Pushed `{}`", rel);
+        // The remote only keeps modified times to the second.
+        long lastModified = transfer.lastModified() < 0 ? -1 : transfer.lastModified() / 1000 * 1000;
+        service.publish(new FileMutation.Created(Location.RemoteVersions, rel, false, sent.get(), lastModified));
+    }
+
+    /** Creates a local versions directory (and any missing parents), publishing every directory it makes. */
+    private synchronized void createDirs(Path relativeDir) throws IOException {
+        Path versionsRoot = lister.rootDir(Location.LocalVersions);
+        Deque<Path> missing = new ArrayDeque<>();
+        for (Path dir = relativeDir; !dir.toString().isEmpty() && !Files.isDirectory(versionsRoot.resolve(dir));
+             dir = FileMutation.parentOf(dir))
+            missing.push(dir);
+        Files.createDirectories(versionsRoot.resolve(relativeDir));
+        for (Path dir : missing)
+            service.publish(new FileMutation.Created(Location.LocalVersions, dir, true, -1, -1));
+    }
+
+    private static String remotePath(Path remoteRoot, Path relativePath) {
+        return remoteRoot.resolve(relativePath).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,99 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters that a job updates as it works, and that anyone can turn into a {@link JobProgress} snapshot
+ * at any time. The throughput is measured between snapshots and smoothed, so it reflects the current speed rather
+ * than the average over the whole job.
+ */
+public class ProgressTracker {
+
+    private static final long SAMPLE_NANOS = 500_000_000L;
+
+    private final AtomicLong filesDone   = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong filesTotal  = new AtomicLong();
+    private final AtomicLong bytesDone   = new AtomicLong();
+    private final AtomicLong bytesTotal  = new AtomicLong();
+
+    private volatile boolean discoveryDone = false;
+    private volatile boolean finished      = false;
+
+    private long   lastSampleNanos = System.nanoTime();
+    private long   lastSampleBytes = 0;
+    private double bytesPerSecond  = 0;
+
+    /**
+     * Records that another file needing work was found.
+     *
+     * @param bytes The size of the file, or {@code -1} if it is not known.
+     */
+    public void found(long bytes) {
+        filesTotal.incrementAndGet();
+        if (bytes > 0)
+            bytesTotal.addAndGet(bytes);
+    }
+
+    /** Records that some bytes were transferred. */
+    public void transferred(long bytes) {
+        bytesDone.addAndGet(bytes);
+    }
+
+    /** Records that a file is done (whether it needed work in the end or not). */
+    public void fileDone() {
+        filesDone.incrementAndGet();
+    }
+
+    /**
+     * Records that a file turned out to need no work after all. Its bytes are taken out of the total instead of being
+     * counted as transferred, so skipping files doesn't inflate the throughput.
+     *
+     * @param bytes The size the file was {@link #found} with.
+     */
+    public void skipped(long bytes) {
+        if (bytes > 0)
+            bytesTotal.addAndGet(-bytes);
+        filesDone.incrementAndGet();
+    }
+
+    /** Records that a file could not be dealt with. */
+    public void fileFailed() {
+        filesFailed.incrementAndGet();
+        filesDone.incrementAndGet();
+    }
+
+    /** Records that all work has been found. */
+    public void discoveryDone() {
+        discoveryDone = true;
+    }
+
+    /** Records that the job is over. */
+    public void finish() {
+        discoveryDone = true;
+        finished = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return A snapshot of the current progress.
+     */
+    public synchronized JobProgress snapshot() {
+        long now = System.nanoTime();
+        long bytes = bytesDone.get();
+        long elapsed = now - lastSampleNanos;
+        if (elapsed >= SAMPLE_NANOS) {
+            double current = (bytes - lastSampleBytes) * 1e9 / elapsed;
+            bytesPerSecond = bytesPerSecond == 0 ? current : 0.6 * current + 0.4 * bytesPerSecond;
+            lastSampleNanos = now;
+            lastSampleBytes = bytes;
+        }
+        return new JobProgress(
+            filesDone.get(), filesFailed.get(), filesTotal.get(),
+            bytes, bytesTotal.get(), finished ? 0 : bytesPerSecond,
+            discoveryDone, finished);
+    }
+}
@@ -0,0 +1,289 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.RemoteShell;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Deletes the remote versions of a {@link PrunePlan}. Versions are deleted in batches, each with a single command
+ * run over the remote's shell ({@code xargs -0 rm}) with the paths sent on its standard input, so deleting a hundred
+ * thousand versions takes a handful of round trips instead of one per version.
+ * <br/> Batches run one at a time, at a lowered CPU priority, and at most {@link Limits#filesPerSecond()} versions
+ * are deleted per second (see {@link TokenBucket}), so a big prune doesn't get in the way of the Syncthing instance
+ * running on the remote. When a batch doesn't fully succeed, the remote is asked which of its versions are still
+ * there, and only those count as failed.
+ * <br/> Every version deleted is written to a journal in {@code ~/StVersionPicker/journals}, and the journal is kept,
+ * as a record of what was deleted. Each line is flushed right away, so the record survives the app going down.
+ */
+public class PruneJob implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(PruneJob.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * The limits of a {@link PruneJob}.
+     *
+     * @param batchSize      How many versions are deleted with each command.
+     * @param filesPerSecond The most versions deleted per second, or {@code 0} for no cap.
+     */
+    public record Limits(int batchSize, double filesPerSecond) {
+        public static final Limits DEFAULT = new Limits(10_000, 5_000);
+    }
+
+    private final FileManipulationService service;
+    private final PrunePlan               plan;
+    private final Limits                  limits;
+    private final TokenBucket             rate;
+    private final ProgressTracker         tracker = new ProgressTracker();
+    private final CompletableFuture<Long> future  = new CompletableFuture<>();
+    private final LocalDateTime           stamp   = LocalDateTime.now().withNano(0);
+    private final Path                    journalFile;
+
+    private          BufferedWriter journal;
+    private          long           deleted   = 0;
+    private volatile boolean        cancelled = false;
+
+    /**
+     * @param service The service that changes get published through.
+     * @param plan    The plan to carry out.
+     * @param limits  The limits to use.
+     */
+    PruneJob(FileManipulationService service, PrunePlan plan, Limits limits) {
+        this.service = service;
+        this.plan = plan;
+        this.limits = limits;
+        this.rate = new TokenBucket(limits.filesPerSecond());
+        this.journalFile = RestoreJournal.journalDir().resolve(
+            "prune-%s.tsv".formatted(stamp.format(nameDateFormat)));
+    }
+
+    /**
+     * Starts deleting.
+     *
+     * @return This job.
+     */
+    PruneJob start() {
+        Optional<RemoteShell> shell = plan.root().getFullStLister().remoteShell();
+        if (shell.isEmpty()) {
+            logger.error("Can't prune `{}`, the remote can't run commands", plan.root());
+            tracker.finish();
+            future.completeExceptionally(new UnsupportedOperationException("The remote can't run commands"));
+            return this;
+        }
+        logger.debug("Pruning with limits {}", limits);
+        for (StFileGroup.File file : plan.entries())
+            tracker.found(Math.max(0, file.size));
+        tracker.discoveryDone();
+        Thread thread = new Thread(() -> run(shell.get()), "prune");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * @return The file every deleted version is recorded in.
+     */
+    public Path journalFile() {
+        return journalFile;
+    }
+
+    @Override
+    public String title() {
+        String path = plan.root().getRelativePath().toString();
+        return "Pruning versions of " + (path.isEmpty() ? "entire folder" : path);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return A future holding how many versions were deleted.
+     */
+    @Override
+    public CompletableFuture<Long> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Deleting
+     ****************************************************************/
+
+    private void run(RemoteShell shell) {
+        openJournal();
+        String root = RemoteShell.quote(pathAsStr(plan.root().getFullStLister().rootDir(Location.RemoteVersions)));
+        List<StFileGroup.File> entries = plan.entries();
+        int batchSize = Math.max(1, limits.batchSize());
+        try {
+            for (int from = 0; from < entries.size() && !cancelled; from += batchSize) {
+                int to = Math.min(entries.size(), from + batchSize);
+                List<StFileGroup.File> batch = entries.subList(from, to);
+                rate.take(batch.size());
+                if (cancelled)
+                    break;
+                deleteBatch(shell, root, batch);
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Prune was interrupted", e);
+            cancelled = true;
+        } catch (RuntimeException e) {
+            logger.error("Could not prune `%s`".formatted(plan.root()), e);
+            finish(e);
+            return;
+        }
+        finish(cancelled ? new CancellationException("Pruning was cancelled") : null);
+    }
+
+    private void deleteBatch(RemoteShell shell, String root, List<StFileGroup.File> batch)
+        throws InterruptedException {
+        logger.debug("Deleting a batch of {} remote versions", batch.size());
+        int status = run(shell, "cd %s && nice -n 10 xargs -0 -r rm -f --".formatted(root), batch, null);
+        Set<String> left = Set.of();
+        if (status != 0) {
+            // Some (or all) of them couldn't be deleted, so find out which.
+            Set<String> remaining = new HashSet<>();
+            int checked = run(shell, ("cd %s && xargs -0 -r sh -c "
+                                      + "'for f; do if [ -e \"$f\" ]; then printf \"%%s\\0\" \"$f\"; fi; done' sh")
+                .formatted(root), batch, remaining);
+            left = checked == 0 ? remaining : null;
+        }
+        for (StFileGroup.File file : batch) {
+            String path = pathAsStr(file.getRawRelativePath());
+            if (left == null || left.contains(path)) {
+                tracker.fileFailed();
+                continue;
+            }
+            deleted++;
+            journal(path, file.size);
+            tracker.transferred(Math.max(0, file.size));
+            tracker.fileDone();
+            service.publish(new FileMutation.Deleted(Location.RemoteVersions, file.getRawRelativePath(), false));
+        }
+        if (left == null)
+            logger.error("Could not delete or check a batch of {} remote versions", batch.size());
+        else if (!left.isEmpty())
+            logger.warn("{} remote versions of a batch could not be deleted", left.size());
+    }
+
+    /**
+     * Runs a command with the relative paths of a batch on its standard input, separated by {@code NUL}s.
+     *
+     * @param output Where to put the {@code NUL} separated paths the command prints, or {@code null} to ignore them.
+     * @return The exit status of the command, or {@code -1} if it couldn't be run.
+     */
+    private static int run(RemoteShell shell, String command, List<StFileGroup.File> batch, Set<String> output)
+        throws InterruptedException {
+        try (RemoteShell.Command running = shell.exec(command).get()) {
+            // Paths are written on their own thread, since the command starts answering before it has them all.
+            Thread writer = Thread.ofVirtual().start(() -> {
+                try (OutputStream stdin = new BufferedOutputStream(running.stdin())) {
+                    for (StFileGroup.File file : batch) {
+                        stdin.write(pathAsStr(file.getRawRelativePath()).getBytes(StandardCharsets.UTF_8));
+                        stdin.write(0);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Could not send paths to `{}`: {}", command, e.getMessage());
+                }
+            });
+            readPaths(running.stdout(), output);
+            writer.join();
+            int status = running.waitFor();
+            if (status != 0)
+                logger.warn("`{}` exited with {}: {}", command, status, running.stderr().strip());
+            return status;
+        } catch (ExecutionException | IOException e) {
+            logger.warn("Could not run `%s`".formatted(command), e);
+            return -1;
+        }
+    }
+
+    private static void readPaths(InputStream in, Set<String> output) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) >= 0; ) {
+            if (output == null)
+                continue;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != 0) {
+                    record.write(buffer[i]);
+                    continue;
+                }
+                output.add(record.toString(StandardCharsets.UTF_8));
+                record.reset();
+            }
+        }
+    }
+
+    private void finish(Throwable ex) {
+        closeJournal();
+        tracker.finish();
+        logger.info("Pruning `{}` done: {}", plan.root(), tracker.snapshot().describe());
+        if (ex == null)
+            future.complete(deleted);
+        else future.completeExceptionally(ex);
+    }
+
+    private void openJournal() {
+        try {
+            Files.createDirectories(journalFile.getParent());
+            journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8);
+            journal.write("deleted\tsize\n");
+        } catch (IOException e) {
+            logger.warn("Could not open prune journal `%s`. Deletes will only be logged.".formatted(journalFile), e);
+            journal = null;
+        }
+    }
+
+    private void journal(String path, long size) {
+        logger.trace("Pruned remote version `{}`", path);
+        if (journal == null)
+            return;
+        try {
+            journal.write("%s\t%d\n".formatted(RestoreJournal.escape(path), size));
+            journal.flush();
+        } catch (IOException e) {
+            logger.warn("Could not write to prune journal `%s`. Journaling is off for the rest of this job."
+                            .formatted(journalFile), e);
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warn("Could not close prune journal `%s`".formatted(journalFile), e);
+        } finally {
+            journal = null;
+        }
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
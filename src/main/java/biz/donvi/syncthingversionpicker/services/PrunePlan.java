@@ -0,0 +1,73 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Every remote version pruning a directory would delete, worked out up front by a {@link PrunePlanner} without
+ * deleting anything. Read it (see {@link #describe()}) to see what pruning would do, then hand it to
+ * {@link FileManipulationService#prune(PrunePlan)} to do exactly that.
+ *
+ * @param root    The directory to prune (recursively).
+ * @param rule    Which versions go.
+ * @param entries Every remote version that would be deleted.
+ * @param kept    How many remote versions would be kept.
+ * @param files   How many file groups would lose at least one version.
+ */
+public record PrunePlan(StDirectory root, Rule rule, List<StFileGroup.File> entries, long kept, long files) {
+
+    private static final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm a");
+
+    /**
+     * Which versions of a file get deleted. Whatever the rule, the newest version of a file that has no current copy
+     * anywhere is always kept, so that pruning never makes a deleted file unrecoverable.
+     */
+    public sealed interface Rule {
+        /**
+         * Delete every version synced before a point in time.
+         *
+         * @param cutoff The point in time.
+         */
+        record OlderThan(LocalDateTime cutoff) implements Rule {}
+
+        /**
+         * Delete every version but the newest few of each file.
+         *
+         * @param count How many versions of each file to keep. Must be at least {@code 1}.
+         */
+        record KeepNewest(int count) implements Rule {
+            public KeepNewest {
+                if (count < 1)
+                    throw new IllegalArgumentException("At least one version has to be kept, not %d".formatted(count));
+            }
+        }
+    }
+
+    /**
+     * @return How many bytes would be freed on the remote, as far as sizes are known.
+     */
+    public long bytes() {
+        return entries.stream().mapToLong(f -> Math.max(0, f.size)).sum();
+    }
+
+    /**
+     * @return A few lines saying what pruning would do.
+     */
+    public String describe() {
+        String path = root.getRelativePath().toString();
+        String what = switch (rule) {
+            case Rule.OlderThan(LocalDateTime cutoff) -> "versions older than " + cutoff.format(timeFormat);
+            case Rule.KeepNewest(int count) -> "all but the newest %d versions of each file".formatted(count);
+        };
+        return """
+            Pruning %s from %s would delete %d remote versions of %d files (%s).
+            %d remote versions would be kept. Local versions are not touched.
+            Deleted versions can not be restored."""
+            .formatted(what, path.isEmpty() ? "the folder" : path, entries.size(), files,
+                       JobProgress.humanBytes(bytes()), kept);
+    }
+}
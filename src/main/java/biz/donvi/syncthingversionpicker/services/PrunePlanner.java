@@ -0,0 +1,159 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import biz.donvi.syncthingversionpicker.services.PrunePlan.Rule;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Works out which remote versions pruning a directory by a {@link Rule} would delete, without deleting anything (a
+ * dry run). Every file group in the tree is looked at on its own, and the result is a {@link PrunePlan}.
+ * <br/> Only {@link Location#RemoteVersions} with a sync date in their name are ever picked. Everything else
+ * (current files, local versions, and anything Syncthing didn't name) is left alone.
+ * <br/> Note: The tree is walked with a {@link TreeWalker}, with at most {@code listing} directories listed at once.
+ */
+public class PrunePlanner implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(PrunePlanner.class);
+
+    private final StDirectory     root;
+    private final Rule            rule;
+    private final int             listing;
+    private final ProgressTracker tracker = new ProgressTracker();
+
+    private final CompletableFuture<PrunePlan> future  = new CompletableFuture<>();
+    private final List<StFileGroup.File>       entries = new ArrayList<>();
+
+    private long kept  = 0;
+    private long files = 0;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param root    The directory to plan pruning (recursively).
+     * @param rule    Which versions go.
+     * @param listing How many directories may be listed at the same time.
+     */
+    PrunePlanner(StDirectory root, Rule rule, int listing) {
+        this.root = root;
+        this.rule = rule;
+        this.listing = Math.max(1, listing);
+    }
+
+    /**
+     * Starts planning.
+     *
+     * @return This planner.
+     */
+    PrunePlanner start() {
+        logger.info("Planning prune of `{}` with rule {}", root, rule);
+        Thread thread = new Thread(this::plan, "prune-planner");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public String title() {
+        String path = root.getRelativePath().toString();
+        return "Planning prune of " + (path.isEmpty() ? "entire folder" : path);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return A future holding the plan.
+     */
+    @Override
+    public CompletableFuture<PrunePlan> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Planning
+     ****************************************************************/
+
+    private void plan() {
+        try {
+            TreeWalker.walk(root, listing, () -> cancelled, this::plan);
+        } catch (InterruptedException e) {
+            logger.warn("Prune planner was interrupted", e);
+            cancelled = true;
+        } catch (RuntimeException e) {
+            logger.error("Could not plan prune of `%s`".formatted(root), e);
+            tracker.finish();
+            future.completeExceptionally(e);
+            return;
+        }
+        tracker.discoveryDone();
+        tracker.finish();
+        if (cancelled) {
+            future.completeExceptionally(new CancellationException("Planning was cancelled"));
+            return;
+        }
+        PrunePlan plan = new PrunePlan(root, rule, List.copyOf(entries), kept, files);
+        logger.info("Planned prune of `{}` with rule {}: {} versions ({} bytes) of {} files, {} kept",
+                    root, rule, entries.size(), plan.bytes(), files, kept);
+        future.complete(plan);
+    }
+
+    private void plan(StFileGroup group) {
+        List<StFileGroup.File> versions = group.getFiles().stream()
+            .filter(f -> f.location == Location.RemoteVersions && f.getSyncDate() != null)
+            .toList();
+        if (versions.isEmpty())
+            return;
+        boolean hasCurrent = group.getFiles().stream().anyMatch(f -> f.location.when == Location.When.Current);
+        List<StFileGroup.File> pruned = toPrune(versions, StFileGroup.File::getSyncDate, hasCurrent, rule);
+        entries.addAll(pruned);
+        kept += versions.size() - pruned.size();
+        if (!pruned.isEmpty())
+            files++;
+        for (StFileGroup.File file : pruned) {
+            tracker.found(Math.max(0, file.size));
+            tracker.fileDone();
+        }
+    }
+
+    /**
+     * Picks the versions of a single file that a rule deletes.
+     *
+     * @param versions   The versions of the file.
+     * @param syncDateOf Gets the sync date of a version.
+     * @param hasCurrent {@code true} if the file still has a current copy somewhere.
+     * @param rule       Which versions go.
+     * @return The versions to delete, newest first.
+     */
+    static <T> List<T> toPrune(
+        List<T> versions, Function<T, LocalDateTime> syncDateOf, boolean hasCurrent, Rule rule
+    ) {
+        List<T> newestFirst = new ArrayList<>(versions);
+        newestFirst.sort(Comparator.comparing(syncDateOf).reversed());
+        // Without a current copy, the newest version is all that's left of the file, so no rule may pick it.
+        int size = newestFirst.size();
+        int kept = Math.min(hasCurrent ? 0 : 1, size);
+        return switch (rule) {
+            case Rule.KeepNewest(int count) -> List.copyOf(
+                newestFirst.subList(Math.min(Math.max(kept, count), size), size));
+            case Rule.OlderThan(LocalDateTime cutoff) -> newestFirst
+                .subList(kept, size)
+                .stream()
+                .filter(v -> syncDateOf.apply(v).isBefore(cutoff))
+                .toList();
+        };
+    }
+}
@@ -0,0 +1,211 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Finds the most recently versioned files anywhere in a folder. The local and remote versions folders are crawled
+ * with a {@link FolderCrawler}, several directories at a time, and every version found is offered to a min-heap that
+ * holds the {@code k} newest by sync date (see {@link TopK}). Memory is bounded by {@code k}, not by the size of the
+ * folder, and {@link #newest()} can be read at any time to show the results so far.
+ * <br/> Note: A version that is in both the local and remote versions folder is only listed once, as the local copy.
+ */
+public class RecentChanges implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(RecentChanges.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * A single version.
+     *
+     * @param location        Where the version is.
+     * @param rawRelativePath The relative path of the version, as it is named in the versions folder.
+     * @param relativePath    The relative path of the file it is a version of.
+     * @param syncDate        When the file was replaced (and versioned) by Syncthing.
+     * @param size            The size of the version in bytes, or {@code -1} if it is not known.
+     */
+    public record Hit(Location location, Path rawRelativePath, Path relativePath, LocalDateTime syncDate, long size) {}
+
+    private final Path            root;
+    private final FolderCrawler   crawler;
+    private final TopK            newest;
+    private final ProgressTracker tracker = new ProgressTracker();
+
+    private CompletableFuture<Void> future;
+
+    /**
+     * @param dir The directory to search (recursively).
+     * @param k   How many versions to keep.
+     */
+    public RecentChanges(StDirectory dir, int k) {
+        this.root = dir.getRelativePath();
+        this.newest = new TopK(k);
+        this.crawler = new FolderCrawler(
+            dir.getFullStLister(), EnumSet.of(Location.LocalVersions, Location.RemoteVersions),
+            Math.max(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Starts the search.
+     *
+     * @return This search.
+     */
+    public RecentChanges start() {
+        logger.info("Finding the {} most recent changes in `{}`", newest.k, root);
+        future = crawler.crawl(root, this::visit);
+        future.whenComplete((x, ex) -> {
+            tracker.discoveryDone();
+            tracker.finish();
+            if (ex == null)
+                logger.info("Finding recent changes in `{}` done: {}", root, tracker.snapshot().describe());
+        });
+        return this;
+    }
+
+    /**
+     * @return The newest versions found so far, newest first.
+     */
+    public List<Hit> newest() {
+        return newest.snapshot();
+    }
+
+    /**
+     * @return A number that goes up every time {@link #newest()} changes, to tell if it needs to be read again.
+     */
+    public long changeCount() {
+        return newest.changes();
+    }
+
+    @Override
+    public String title() {
+        return "Finding recent changes in " + (root.toString().isEmpty() ? "folder" : root);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        crawler.cancel();
+    }
+
+    @Override
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Crawling
+     ****************************************************************/
+
+    private void visit(Path dir, Map<Location, List<FileWithLocation>> listings) {
+        List<Hit> hits = new ArrayList<>();
+        listings.forEach((location, files) -> {
+            for (FileWithLocation file : files) {
+                if (file.isDir())
+                    continue;
+                ParsedFileName name = new ParsedFileName(file.name());
+                LocalDateTime synced = syncDateOf(name);
+                if (synced != null)
+                    hits.add(new Hit(location, dir.resolve(file.name()), dir.resolve(name.nameFixed()), synced,
+                                     file.size()));
+            }
+        });
+        newest.offerAll(hits);
+        for (int i = 0; i < hits.size(); i++) {
+            tracker.found(-1);
+            tracker.fileDone();
+        }
+    }
+
+    private static LocalDateTime syncDateOf(ParsedFileName name) {
+        if (!name.hasSyncDate())
+            return null;
+        try {
+            return LocalDateTime.parse(name.syncDate(), nameDateFormat);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /* **************************************************************
+     MARK: - Top K
+     ****************************************************************/
+
+    /**
+     * The {@code k} newest versions offered so far. They are kept in a min-heap, so the oldest of them is always on
+     * top and anything older than it is turned away without touching the heap. Thread-safe.
+     */
+    static final class TopK {
+        /** Oldest first. Ties are broken by path, so the same versions always win no matter the order they came in. */
+        private static final Comparator<Hit> order = Comparator
+            .comparing(Hit::syncDate)
+            .thenComparing(h -> h.rawRelativePath().toString(), Comparator.reverseOrder());
+
+        private final int                k;
+        private final PriorityQueue<Hit> heap;
+        private final Map<Path, Hit>     byPath  = new HashMap<>();
+        private       long               changes = 0;
+
+        TopK(int k) {
+            this.k = Math.max(1, k);
+            this.heap = new PriorityQueue<>(this.k, order);
+        }
+
+        /**
+         * Offers several versions at once, taking the lock only once.
+         */
+        synchronized void offerAll(Collection<Hit> hits) {
+            for (Hit hit : hits)
+                offer(hit);
+        }
+
+        private void offer(Hit hit) {
+            Hit same = byPath.get(hit.rawRelativePath());
+            if (same != null) {
+                // The same version on the other side. Keep the local one, since it's cheaper to open.
+                if (hit.location().where == Location.Where.Local && same.location().where != Location.Where.Local) {
+                    heap.remove(same);
+                    heap.add(hit);
+                    byPath.put(hit.rawRelativePath(), hit);
+                    changes++;
+                }
+                return;
+            }
+            if (heap.size() >= k) {
+                if (order.compare(hit, heap.peek()) <= 0)
+                    return;
+                byPath.remove(heap.poll().rawRelativePath());
+            }
+            heap.add(hit);
+            byPath.put(hit.rawRelativePath(), hit);
+            changes++;
+        }
+
+        /**
+         * @return Every version kept, newest first.
+         */
+        synchronized List<Hit> snapshot() {
+            List<Hit> hits = new ArrayList<>(heap);
+            hits.sort(order.reversed());
+            return hits;
+        }
+
+        synchronized long changes() {
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.RemoteShell;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Restores an entire directory tree. The work is split into three stages, each with its own concurrency limit
+ * (see {@link Limits}):
+ * <ol>
+ *     <li><b>Listing:</b> A single producer walks the tree, keeping at most {@link Limits#listing()} directory
+ *     listings in flight. Every file that needs restoring is put into a bounded work queue. When the queue is full,
+ *     the producer waits, so a huge tree never floods memory. A job made from a {@link RestorePlan} skips the walk
+ *     and feeds the queue the planned files instead.</li>
+ *     <li><b>Downloading:</b> Workers take files off the queue and make sure a local copy of the chosen version exists
+ *     (for remote versions, that means downloading it). At most {@link Limits#downloading()} run at once.</li>
+ *     <li><b>Writing:</b> The local copy gets written next to the target, then moved into place. At most
+ *     {@link Limits#writing()} writes run at once.</li>
+ * </ol>
+ * Progress can be read at any time with {@link #progress()}, and the job can be stopped with {@link #cancel()}.
+ * Every change made is published through the {@link FileManipulationService} just like a single-file restore.
+ * <br/> If the remote can run commands (see {@link RemoteShell}), {@link Location#RemoteVersions} files skip the
+ * downloading stage entirely. Their paths are fed to a single {@code tar} running on the remote as they are found,
+ * and its output is unpacked straight into place. If that doesn't work out, the files go through the regular
+ * download stage instead.
+ * <br/> Every finished file is written to a {@link RestoreJournal}, so running the same job again after it stopped
+ * part way skips whatever was already done.
+ */
+public class RestoreJob implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(RestoreJob.class);
+
+    /**
+     * The biggest local copy that gets hashed for the journal. Copying locally is much faster than hashing, so bigger
+     * files are journaled by size and modified time only.
+     */
+    private static final long LOCAL_CHECKSUM_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * The concurrency limits of a {@link RestoreJob}.
+     *
+     * @param listing       How many directories may be listed at the same time.
+     * @param downloading   How many files may be downloaded at the same time.
+     * @param writing       How many files may be written at the same time.
+     * @param queueCapacity How many files may be waiting between the listing and downloading stages.
+     */
+    public record Limits(int listing, int downloading, int writing, int queueCapacity) {
+        public static final Limits DEFAULT = new Limits(4, 2, 2, 256);
+    }
+
+    /** A single file to restore. A task with no group tells a worker to stop. */
+    private record Task(StFileGroup group, StFileGroup.File version) {
+        static final Task STOP = new Task(null, null);
+    }
+
+    private final FileManipulationService                           service;
+    private final StDirectory                                       root;
+    private final boolean                                           replaceExisting;
+    private final Function<StFileGroup, Optional<StFileGroup.File>> versionPicker;
+    private final Limits                                            limits;
+    private final RestoreJournal                                    journal;
+    /** The files to restore, if they were planned up front. If this is {@code null}, the tree gets walked instead. */
+    private final List<RestorePlan.Entry>                           planned;
+
+    private final ProgressTracker               tracker  = new ProgressTracker();
+    private final List<File>                    restored = Collections.synchronizedList(new ArrayList<>());
+    private final CompletableFuture<List<File>> future   = new CompletableFuture<>();
+    private final BlockingQueue<Task>           queue;
+    private final Semaphore                     downloadPermits;
+    private final Semaphore                     writePermits;
+    private final ExecutorService               threads;
+    private final int                           workerCount;
+    private final RemoteShell                   shell;
+
+    /** The remote tar stream. Only ever touched by the producer. */
+    private TarStream tar       = null;
+    private boolean   tarFailed = false;
+
+    private          boolean   started   = false;
+    private volatile boolean   cancelled = false;
+    /** What stopped the job, if it didn't end on its own or by being cancelled. */
+    private volatile Throwable failure   = null;
+
+    /**
+     * Creates (but does not start) a new restore job.
+     *
+     * @param service         The service that changes get published through.
+     * @param root            The directory to restore (recursively).
+     * @param replaceExisting If a current file exists, do we replace it or skip it?
+     * @param versionPicker   Picks which version of each {@link StFileGroup} gets restored, if any.
+     * @param limits          The concurrency limits to use.
+     * @param journal         The journal to skip finished files with and record newly finished files in. The job
+     *                        closes it when it ends.
+     */
+    RestoreJob(
+        FileManipulationService service, StDirectory root, boolean replaceExisting,
+        Function<StFileGroup, Optional<StFileGroup.File>> versionPicker, Limits limits, RestoreJournal journal
+    ) {
+        this(service, root, replaceExisting, versionPicker, null, limits, journal);
+    }
+
+    /**
+     * Creates (but does not start) a new restore job that restores exactly what a {@link RestorePlan} says to. The
+     * tree isn't walked again; the planned files go straight into the work queue.
+     *
+     * @param service The service that changes get published through.
+     * @param plan    The plan to carry out.
+     * @param limits  The concurrency limits to use.
+     * @param journal The journal to skip finished files with and record newly finished files in. The job closes it
+     *                when it ends.
+     */
+    RestoreJob(FileManipulationService service, RestorePlan plan, Limits limits, RestoreJournal journal) {
+        this(service, plan.root(), true, g -> Optional.empty(), plan.entries(), limits, journal);
+    }
+
+    private RestoreJob(
+        FileManipulationService service, StDirectory root, boolean replaceExisting,
+        Function<StFileGroup, Optional<StFileGroup.File>> versionPicker, List<RestorePlan.Entry> planned,
+        Limits limits, RestoreJournal journal
+    ) {
+        this.service = service;
+        this.root = root;
+        this.replaceExisting = replaceExisting;
+        this.versionPicker = versionPicker;
+        this.planned = planned;
+        this.limits = limits;
+        this.journal = journal;
+        this.queue = new ArrayBlockingQueue<>(limits.queueCapacity());
+        this.downloadPermits = new Semaphore(limits.downloading());
+        this.writePermits = new Semaphore(limits.writing());
+        this.workerCount = Math.max(limits.downloading(), limits.writing());
+        // The producer, the workers, the tar reader and the one waiting for them all to finish
+        this.threads = Executors.newFixedThreadPool(workerCount + 3, runnable -> {
+            Thread thread = new Thread(runnable, "restore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.shell = root.getFullStLister().remoteShell().orElse(null);
+    }
+
+    /**
+     * Starts the job. Calling this more than once does nothing.
+     *
+     * @return This job.
+     */
+    synchronized RestoreJob start() {
+        if (started)
+            return this;
+        started = true;
+        logger.info("Starting restore of `{}` with limits {}", root, limits);
+        List<Future<?>> workers = new ArrayList<>();
+        threads.submit(this::produce);
+        for (int i = 0; i < workerCount; i++)
+            workers.add(threads.submit(this::work));
+        threads.submit(() -> {
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    logger.error("Restore worker ended unexpectedly", e);
+                    failure = e;
+                }
+            }
+            tracker.finish();
+            threads.shutdown();
+            JobProgress done = tracker.snapshot();
+            // The journal is only dropped once everything is done, so a failed or cancelled job can be picked up again.
+            journal.close(failure == null && !cancelled && done.filesFailed() == 0);
+            if (failure != null) {
+                logger.error("Restore of `{}` failed after {}", root, done.describe());
+                future.completeExceptionally(failure);
+            } else if (cancelled) {
+                logger.info("Restore of `{}` was cancelled after {}", root, tracker.snapshot().describe());
+                future.completeExceptionally(new CancellationException("Restore was cancelled"));
+            } else {
+                logger.info("Restore of `{}` finished: {}", root, tracker.snapshot().describe());
+                future.complete(List.copyOf(restored));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public String title() {
+        String path = root.getRelativePath().toString();
+        return path.isEmpty() ? "Restoring entire folder" : "Restoring " + path;
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        logger.info("Cancelling restore of `{}`", root);
+        cancelled = true;
+    }
+
+    /**
+     * @return A future holding every file that was restored (the restored files, not the versions they came from).
+     */
+    @Override
+    public CompletableFuture<List<File>> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Listing Stage
+     ****************************************************************/
+
+    /**
+     * Feeds the queue, either with the planned files or by walking the tree.
+     */
+    private void produce() {
+        try {
+            if (planned != null)
+                producePlanned();
+            else
+                walk();
+        } catch (InterruptedException e) {
+            logger.warn("Restore producer was interrupted", e);
+            cancelled = true;
+        } catch (RuntimeException e) {
+            // Without the producer, whatever is left of the tree would silently never be restored.
+            logger.error("Could not list everything to restore in `%s`".formatted(root), e);
+            failure = e;
+        } finally {
+            tracker.discoveryDone();
+            if (tar != null)
+                endTarStream();
+            stopWorkers();
+        }
+    }
+
+    private void producePlanned() throws InterruptedException {
+        int sinceFlush = 0;
+        for (RestorePlan.Entry entry : planned) {
+            if (cancelled)
+                return;
+            offer(entry.group(), entry.version());
+            if (tar != null && ++sinceFlush >= 64) {
+                tar.flush();
+                sinceFlush = 0;
+            }
+        }
+    }
+
+    /**
+     * Walks the tree (see {@link TreeWalker}), keeping up to {@link Limits#listing()} listings in flight, and feeds
+     * the queue. Blocking on a full queue only ever blocks the producer, never a thread that a download might need.
+     */
+    private void walk() throws InterruptedException {
+        TreeWalker.walk(root, limits.listing(), () -> cancelled, new TreeWalker.Visitor() {
+            @Override
+            public void visit(StFileGroup group) throws InterruptedException {
+                offer(group);
+            }
+
+            @Override
+            public void listed(StDirectory dir) {
+                if (tar != null)
+                    tar.flush();
+            }
+        });
+    }
+
+    private void offer(StFileGroup group) throws InterruptedException {
+        if (!replaceExisting && currentFile(group).isPresent())
+            return;
+        Optional<StFileGroup.File> version = versionPicker.apply(group);
+        if (version.isPresent())
+            offer(group, version.get());
+    }
+
+    private void offer(StFileGroup group, StFileGroup.File version) throws InterruptedException {
+        tracker.found(version.size);
+        Task task = new Task(group, version);
+        if (task.version().location == Location.RemoteVersions && shell != null && !tarFailed
+            && group.getFullStLister().localReplicaOf(task.version()).isEmpty()) {
+            if (alreadyRestored(task)) {
+                tracker.skipped(task.version().size);
+                return;
+            }
+            if (tar == null)
+                startTarStream();
+            if (tar != null && tar.send(task))
+                return;
+        }
+        queue.put(task);
+    }
+
+    private void stopWorkers() {
+        for (int i = 0; i < workerCount; i++) {
+            try {
+                queue.put(Task.STOP);
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while stopping restore workers", e);
+            }
+        }
+    }
+
+    /* **************************************************************
+     MARK: - Streaming Stage
+     ****************************************************************/
+
+    /**
+     * A {@code tar} running on the remote, packing up versions as their paths come in on its standard input. A reader
+     * thread unpacks each entry as soon as it arrives and writes it into place.
+     * <br/> Note: The number of files sent but not yet unpacked is bounded, just like the work queue. GNU tar only
+     * writes its output once it has a full 10 KiB record, so that bound is never set below 64 files. Any less and tar
+     * could be holding the last few files back, waiting for more paths that the producer won't send until those files
+     * are unpacked.
+     */
+    private class TarStream {
+        private final RemoteShell.Command command;
+        private final OutputStream        names;
+        private final Map<String, Task>   sent    = new ConcurrentHashMap<>();
+        private final Semaphore           permits = new Semaphore(Math.max(limits.queueCapacity(), 64));
+        private final Future<?>           reader;
+
+        private TarStream(RemoteShell.Command command) {
+            this.command = command;
+            this.names = new BufferedOutputStream(command.stdin());
+            this.reader = threads.submit(this::unpack);
+        }
+
+        /**
+         * Sends the path of a version to tar.
+         *
+         * @return {@code false} if tar can't take it, in which case the task should be restored another way.
+         */
+        private boolean send(Task task) throws InterruptedException {
+            if (!permits.tryAcquire()) {
+                flush();
+                permits.acquire();
+            }
+            String name = pathAsStr(task.version().getRawRelativePath());
+            sent.put(name, task);
+            try {
+                names.write(name.getBytes(StandardCharsets.UTF_8));
+                names.write(0);
+                return true;
+            } catch (IOException e) {
+                logger.warn("Remote tar stopped taking paths, falling back to downloading files one at a time: {}",
+                            e.getMessage());
+                sent.remove(name);
+                permits.release();
+                tarFailed = true;
+                return false;
+            }
+        }
+
+        private void flush() {
+            try {
+                names.flush();
+            } catch (IOException e) {
+                logger.debug("Could not flush paths to remote tar: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * Reads the archive until it ends, restoring every file in it.
+         */
+        private void unpack() {
+            TarReader archive = new TarReader(command.stdout());
+            try {
+                for (TarReader.Entry entry; !cancelled && (entry = archive.next()) != null; ) {
+                    if (!entry.isFile())
+                        continue;
+                    Task task = sent.remove(entry.name());
+                    if (task == null) {
+                        logger.warn("Remote tar sent a file that wasn't asked for: `{}`", entry.name());
+                        continue;
+                    }
+                    permits.release();
+                    try {
+                        write(task.group(), task.version(), part -> copy(archive.entryStream(), part));
+                        tracker.fileDone();
+                    } catch (CancellationException e) {
+                        logger.debug("Stopped restoring `{}` because the job was cancelled", task.version());
+                    } catch (Exception e) {
+                        logger.error("Could not restore `%s`".formatted(task.version()), e);
+                        tracker.fileFailed();
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Could not read the archive from the remote tar", e);
+            } finally {
+                // Once we stop reading, tar has to go, or it could block forever on a full output buffer.
+                command.close();
+                // Make sure the producer isn't left waiting for room that will never free up. It will find out tar
+                // is gone as soon as it tries to send the next path.
+                permits.release(Integer.MAX_VALUE / 2);
+            }
+        }
+    }
+
+    private void startTarStream() {
+        String command = "tar -cf - -C %s --null -T -".formatted(
+            RemoteShell.quote(pathAsStr(root.getFullStLister().rootDir(Location.RemoteVersions))));
+        try {
+            tar = new TarStream(shell.exec(command).get());
+            logger.info("Streaming remote versions with `{}`", command);
+        } catch (InterruptedException | ExecutionException e) {
+            logger.warn("Could not start remote tar, falling back to downloading files one at a time", e);
+            tarFailed = true;
+        }
+    }
+
+    /**
+     * Tells tar that there are no more paths, waits for everything to be unpacked, and hands whatever tar didn't
+     * send over to the regular download stage.
+     */
+    private void endTarStream() {
+        try {
+            tar.names.close();
+        } catch (IOException e) {
+            logger.debug("Could not close the path list of remote tar: {}", e.getMessage());
+        }
+        try {
+            tar.reader.get();
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error("Remote tar reader ended unexpectedly", e);
+        }
+        String stderr = tar.command.stderr();
+        if (!stderr.isBlank())
+            logger.warn("Remote tar reported: {}", stderr.strip());
+        if (!tar.sent.isEmpty())
+            logger.info("Remote tar did not send {} files, downloading them one at a time", tar.sent.size());
+        for (Task task : tar.sent.values()) {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while handing over files remote tar did not send", e);
+                break;
+            }
+        }
+        tar.sent.clear();
+    }
+
+    /* **************************************************************
+     MARK: - Downloading & Writing Stages
+     ****************************************************************/
+
+    private void work() {
+        try {
+            for (Task task = queue.take(); task.group() != null; task = queue.take()) {
+                if (cancelled)
+                    continue;
+                try {
+                    if (restore(task.group(), task.version()))
+                        tracker.fileDone();
+                    else tracker.skipped(task.version().size);
+                } catch (CancellationException e) {
+                    logger.debug("Stopped restoring `{}` because the job was cancelled", task.version());
+                } catch (Exception e) {
+                    logger.error("Could not restore `%s`".formatted(task.version()), e);
+                    tracker.fileFailed();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Restore worker was interrupted", e);
+        }
+    }
+
+    /**
+     * Restores a single file.
+     *
+     * @return {@code true} if the file was restored, {@code false} if the journal says it already was.
+     */
+    private boolean restore(StFileGroup group, StFileGroup.File version) throws Exception {
+        if (alreadyRestored(new Task(group, version)))
+            return false;
+        // Remote versions with a local replica are restored just like local versions.
+        Optional<StFileGroup.File> local = version.location == Location.LocalVersions
+            ? Optional.of(version)
+            : group.getFullStLister().localReplicaOf(version);
+        if (local.isPresent()) {
+            // Local versions have nothing to download. They are cloned or transferred rather than copied through a
+            // digest, so the copy gets hashed afterwards (unless it's too big to be worth it).
+            File source = local.get().getRawFullPath().toFile();
+            write(group, version, part -> {
+                if (cancelled)
+                    throw new CancellationException();
+                LocalTransfer.copy(source.toPath(), part);
+                tracker.transferred(source.length());
+                return Files.size(part) <= LOCAL_CHECKSUM_LIMIT ? RestoreJournal.sha256Of(part) : "";
+            });
+            return true;
+        }
+        // Download stage
+        File source;
+        downloadPermits.acquire();
+        try {
+            source = version.getLocalFile().get();
+        } finally {
+            downloadPermits.release();
+        }
+        write(group, version, part -> {
+            try (InputStream in = Files.newInputStream(source.toPath())) {
+                return copy(in, part);
+            }
+        });
+        return true;
+    }
+
+    private boolean alreadyRestored(Task task) {
+        Path target = task.group().getFullPath();
+        if (!journal.isDone(target, sourceId(task.version())))
+            return false;
+        logger.debug("Journal says `{}` was already restored. Skipping.", target);
+        return true;
+    }
+
+    /** Writes the data of a version to a file, returning its checksum (or an empty string if there is none). */
+    private interface PartWriter {
+        String writeTo(Path part) throws IOException;
+    }
+
+    /**
+     * The write stage. The data is written next to the target first, and only once it's all there does the current
+     * file get moved aside and the new one moved into place.
+     * <br/> Note: If the current file can't be moved aside, or there is a file at the target that the listing didn't
+     * show, the file fails rather than overwriting what is there.
+     */
+    private void write(StFileGroup group, StFileGroup.File version, PartWriter writer) throws Exception {
+        Path target = group.getFullPath();
+        writePermits.acquire();
+        try {
+            if (!service.createParentDirs(group))
+                throw new IOException("Could not create the parent directory of " + group.getFullPath());
+            Path part = target.resolveSibling("." + target.getFileName() + ".stvp-part");
+            String sha256;
+            try {
+                sha256 = writer.writeTo(part);
+                Optional<StFileGroup.File> current = currentFile(group);
+                if (current.isPresent() && service.moveCurrentAside(current.get()).isEmpty())
+                    throw new IOException("Could not move the current file `%s` aside".formatted(target));
+                // Never replaces anything: a current file the listing didn't know about fails this file instead.
+                Files.move(part, target);
+            } finally {
+                Files.deleteIfExists(part);
+            }
+            service.publishCreated(group);
+            journal.record(target, sourceId(version), sha256);
+            restored.add(target.toFile());
+        } finally {
+            writePermits.release();
+        }
+    }
+
+    /**
+     * Copies a file, computing its checksum along the way so the journal gets one without reading the file twice.
+     *
+     * @return The SHA-256 of what was written.
+     */
+    private String copy(InputStream in, Path target) throws IOException {
+        MessageDigest digest = RestoreJournal.newSha256();
+        try (OutputStream out = new DigestOutputStream(Files.newOutputStream(target), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                if (cancelled)
+                    throw new CancellationException();
+                out.write(buffer, 0, n);
+                tracker.transferred(n);
+            }
+        }
+        return RestoreJournal.toHex(digest);
+    }
+
+    private static String sourceId(StFileGroup.File version) {
+        return RestoreJournal.sourceId(
+            version.location.name(), version.getRawRelativePath(), version.size, version.lastModified);
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+
+    private static Optional<StFileGroup.File> currentFile(StFileGroup group) {
+        return group.getFiles().stream().filter(f -> f.location == Location.LocalCurrent).findFirst();
+    }
+}
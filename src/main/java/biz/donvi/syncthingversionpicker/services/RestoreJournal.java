@@ -0,0 +1,268 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.SyncPickerApp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only record of every file a restore job has finished. Each line holds the target that was written, the
+ * version it came from, and the size, modified time and SHA-256 of the result.
+ * <br/> When a job with the same key is started again (because the last run crashed, lost its connection, or was
+ * cancelled), the journal is read back in and every target that is still exactly as the journal left it gets skipped.
+ * Once a job finishes with nothing left to do, its journal is deleted.
+ * <br/> Note: Journals live in {@code ~/StVersionPicker/journals}. If the journal can't be opened, the job still runs,
+ * it just won't be able to pick up where it left off.
+ */
+public class RestoreJournal implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(RestoreJournal.class);
+
+    /**
+     * A target the journal says was finished.
+     *
+     * @param source       Identifies the version that was restored (see {@link #sourceId}).
+     * @param size         The size of the target after it was written.
+     * @param lastModified The last modified time of the target after it was written, in epoch milliseconds.
+     * @param sha256       The checksum of what was written, or an empty string if it wasn't computed.
+     */
+    record Entry(String source, long size, long lastModified, String sha256) {}
+
+    private final Path               file;
+    private final Path               targetRoot;
+    private final Map<String, Entry> entries;
+    private       BufferedWriter     writer;
+
+    private RestoreJournal(Path file, Path targetRoot, Map<String, Entry> entries, BufferedWriter writer) {
+        this.file = file;
+        this.targetRoot = targetRoot;
+        this.entries = entries;
+        this.writer = writer;
+    }
+
+    /**
+     * Opens (or starts) the journal for a job.
+     *
+     * @param jobKey     Identifies the job. Running "the same job" again must produce the same key.
+     * @param targetRoot The directory all targets are relative to.
+     * @return The journal. This never fails; if the journal can't be read or written, it simply won't remember
+     * anything.
+     */
+    public static RestoreJournal open(String jobKey, Path targetRoot) {
+        return open(journalDir().resolve(fileNameFor(jobKey)), targetRoot);
+    }
+
+    /**
+     * Opens (or starts) the journal kept in a given file.
+     *
+     * @param file       The journal file.
+     * @param targetRoot The directory all targets are relative to.
+     * @return The journal. See {@link #open(String, Path)}.
+     */
+    static RestoreJournal open(Path file, Path targetRoot) {
+        Map<String, Entry> entries = new HashMap<>();
+        try {
+            Files.createDirectories(file.getParent());
+            if (Files.exists(file))
+                read(file, entries);
+            BufferedWriter writer = Files.newBufferedWriter(
+                file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            logger.info("Opened restore journal `{}` with {} finished targets", file, entries.size());
+            return new RestoreJournal(file, targetRoot, entries, writer);
+        } catch (IOException e) {
+            logger.warn("Could not open restore journal `%s`. Restore will not be resumable.".formatted(file), e);
+            return new RestoreJournal(file, targetRoot, entries, null);
+        }
+    }
+
+    static Path journalDir() {
+        return SyncPickerApp.STVP_HOME.resolve("journals");
+    }
+
+    /**
+     * Builds the string that identifies a restored version. It includes the size and modified time, so if a version
+     * gets replaced by a different one with the same name, the journal won't treat it as done.
+     */
+    static String sourceId(String location, Path rawRelativePath, long size, long lastModified) {
+        return location + ":" + rawRelativePath + ":" + size + ":" + lastModified;
+    }
+
+    /**
+     * Checks if a target was already finished by a previous run. The target's size and modified time must still
+     * match what was recorded. If only the modified time differs (say, something touched the file), the checksum
+     * decides.
+     *
+     * @param target The target about to be written.
+     * @param source The version that would be written to it.
+     * @return {@code true} if the target can be skipped.
+     */
+    public boolean isDone(Path target, String source) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(target));
+        }
+        if (entry == null || !entry.source().equals(source))
+            return false;
+        try {
+            if (Files.size(target) != entry.size())
+                return false;
+            if (Files.getLastModifiedTime(target).toMillis() == entry.lastModified())
+                return true;
+            return !entry.sha256().isEmpty() && entry.sha256().equals(sha256Of(target));
+        } catch (IOException e) {
+            // Most likely the target was removed since.
+            logger.debug("Journaled target `{}` can't be checked, will restore it again: {}", target, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Records that a target was finished. The line is flushed right away so it survives the app going down.
+     *
+     * @param target The target that was just written.
+     * @param source The version it was written from.
+     * @param sha256 The checksum of what was written, or an empty string if it wasn't computed.
+     */
+    public synchronized void record(Path target, String source, String sha256) {
+        String key = key(target);
+        try {
+            Entry entry = new Entry(
+                source, Files.size(target), Files.getLastModifiedTime(target).toMillis(), sha256);
+            entries.put(key, entry);
+            if (writer != null) {
+                writer.write(String.join("\t",
+                    escape(key), escape(entry.source()),
+                    Long.toString(entry.size()), Long.toString(entry.lastModified()), entry.sha256()));
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not journal target `%s`. Journaling is off for the rest of this job.".formatted(target),
+                        e);
+            closeWriter();
+        }
+    }
+
+    /**
+     * Closes the journal.
+     *
+     * @param complete If {@code true}, the job has nothing left to do and its journal gets deleted.
+     */
+    public synchronized void close(boolean complete) {
+        closeWriter();
+        if (complete) try {
+            Files.deleteIfExists(file);
+            logger.debug("Deleted finished restore journal `{}`", file);
+        } catch (IOException e) {
+            logger.warn("Could not delete finished restore journal `%s`".formatted(file), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    private void closeWriter() {
+        if (writer != null) try {
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("Could not close restore journal `%s`".formatted(file), e);
+        } finally {
+            writer = null;
+        }
+    }
+
+    private String key(Path target) {
+        return targetRoot.relativize(target).toString();
+    }
+
+    /* **************************************************************
+     MARK: - Reading & Formatting
+     ****************************************************************/
+
+    /**
+     * Reads a journal into the given map. Later lines win over earlier ones. Lines that don't parse (most likely the
+     * last line, cut off by a crash) are ignored.
+     */
+    static void read(Path file, Map<String, Entry> entries) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] parts = line.split("\t", -1);
+            if (parts.length != 5 || !(parts[4].isEmpty() || parts[4].length() == 64))
+                continue;
+            try {
+                entries.put(unescape(parts[0]), new Entry(
+                    unescape(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4]));
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring malformed journal line in `{}`", file);
+            }
+        }
+    }
+
+    /** Makes a value safe to put in a tab separated line. */
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                out.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static String fileNameFor(String jobKey) {
+        return "restore-" + HexFormat.of().formatHex(newSha256().digest(jobKey.getBytes(StandardCharsets.UTF_8)))
+                                     .substring(0, 32) + ".journal";
+    }
+
+    /* **************************************************************
+     MARK: - Checksums
+     ****************************************************************/
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String sha256Of(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) > 0; )
+                digest.update(buffer, 0, n);
+        }
+        return toHex(digest);
+    }
+}
@@ -0,0 +1,86 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Everything restoring a directory to a point in time would do, worked out up front by a {@link RestorePlanner}
+ * without writing anything. Read it (see {@link #describe()}) to see what a restore would do, then hand it to
+ * {@link FileManipulationService#restoreDirectory(RestorePlan)} to do exactly that.
+ *
+ * @param root      The directory to restore (recursively).
+ * @param time      The point in time to restore it to.
+ * @param entries   Every file that would be written, at most one per file group.
+ * @param unchanged How many files are already the same as they were at {@link #time}.
+ * @param absent    How many files didn't exist at {@link #time}. These are left alone.
+ */
+public record RestorePlan(StDirectory root, LocalDateTime time, List<Entry> entries, int unchanged, int absent) {
+
+    private static final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm a");
+
+    /**
+     * A single file to restore.
+     *
+     * @param group    The file group to restore.
+     * @param version  The file to restore it from. This is the cheapest copy of the content there is, so a local
+     *                 copy whenever there is one.
+     * @param replaces {@code true} if there is a current file that will be moved aside.
+     */
+    public record Entry(StFileGroup group, StFileGroup.File version, boolean replaces) {}
+
+    /**
+     * @return How many bytes would be written, as far as sizes are known.
+     */
+    public long bytes() {
+        return entries.stream().mapToLong(e -> Math.max(0, e.version().size)).sum();
+    }
+
+    /**
+     * @param where Where the files to count come from.
+     * @return How many files would be restored from there.
+     */
+    public long count(Location.Where where) {
+        return entries.stream().filter(e -> e.version().location.where == where).count();
+    }
+
+    /**
+     * @param where Where the files to count come from.
+     * @return How many bytes would be restored from there, as far as sizes are known.
+     */
+    public long bytes(Location.Where where) {
+        return entries.stream()
+                      .filter(e -> e.version().location.where == where)
+                      .mapToLong(e -> Math.max(0, e.version().size))
+                      .sum();
+    }
+
+    /**
+     * @return How many current files would be moved aside.
+     */
+    public long replacing() {
+        return entries.stream().filter(Entry::replaces).count();
+    }
+
+    /**
+     * @return A few lines saying what restoring would do.
+     */
+    public String describe() {
+        String path = root.getRelativePath().toString();
+        return """
+            Restoring %s to how it was at %s would write %d files (%s):
+              %d from this computer (%s)
+              %d from the remote (%s)
+            %d current files would be moved aside first.
+            %d files are already the same, and %d didn't exist then (these are left alone)."""
+            .formatted(path.isEmpty() ? "the folder" : path, time.format(timeFormat),
+                       entries.size(), JobProgress.humanBytes(bytes()),
+                       count(Location.Where.Local), JobProgress.humanBytes(bytes(Location.Where.Local)),
+                       count(Location.Where.Remote), JobProgress.humanBytes(bytes(Location.Where.Remote)),
+                       replacing(), unchanged, absent);
+    }
+}
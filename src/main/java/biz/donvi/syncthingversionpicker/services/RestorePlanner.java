@@ -0,0 +1,141 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Works out how to restore a directory to how it was at a point in time, without writing anything (a dry run). Every
+ * file group in the tree is resolved to the file that held its content at that time (see
+ * {@link StFileGroup#resolveAt}), and the result is a {@link RestorePlan} saying which files would be written, from
+ * where, and how many bytes that is.
+ * <br/> Content is always taken from the cheapest copy of it there is. A remote version with a local replica (see
+ * {@link biz.donvi.syncthingversionpicker.files.FullStLister#localReplicaOf}) is restored from the replica, and a
+ * file whose content at that time is what it has now isn't restored at all.
+ * <br/> Note: The tree is walked with a {@link TreeWalker}, with at most {@code listing} directories listed at once.
+ */
+public class RestorePlanner implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(RestorePlanner.class);
+
+    private final StDirectory     root;
+    private final LocalDateTime   time;
+    private final int             listing;
+    private final ProgressTracker tracker = new ProgressTracker();
+
+    private final CompletableFuture<RestorePlan> future = new CompletableFuture<>();
+    private final List<RestorePlan.Entry>        entries = new ArrayList<>();
+
+    private int unchanged = 0;
+    private int absent    = 0;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param root    The directory to plan restoring (recursively).
+     * @param time    The point in time to restore it to.
+     * @param listing How many directories may be listed at the same time.
+     */
+    RestorePlanner(StDirectory root, LocalDateTime time, int listing) {
+        this.root = root;
+        this.time = time;
+        this.listing = Math.max(1, listing);
+    }
+
+    /**
+     * Starts planning.
+     *
+     * @return This planner.
+     */
+    RestorePlanner start() {
+        logger.info("Planning restore of `{}` to {}", root, time);
+        Thread thread = new Thread(this::plan, "restore-planner");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public String title() {
+        String path = root.getRelativePath().toString();
+        return "Planning restore of " + (path.isEmpty() ? "entire folder" : path);
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return A future holding the plan.
+     */
+    @Override
+    public CompletableFuture<RestorePlan> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Planning
+     ****************************************************************/
+
+    private void plan() {
+        try {
+            TreeWalker.walk(root, listing, () -> cancelled, this::plan);
+        } catch (InterruptedException e) {
+            logger.warn("Restore planner was interrupted", e);
+            cancelled = true;
+        } catch (RuntimeException e) {
+            logger.error("Could not plan restore of `%s`".formatted(root), e);
+            tracker.finish();
+            future.completeExceptionally(e);
+            return;
+        }
+        tracker.discoveryDone();
+        tracker.finish();
+        if (cancelled) {
+            future.completeExceptionally(new CancellationException("Planning was cancelled"));
+            return;
+        }
+        RestorePlan plan = new RestorePlan(root, time, List.copyOf(entries), unchanged, absent);
+        logger.info("Planned restore of `{}` to {}: {} files ({} bytes), {} unchanged, {} absent",
+                    root, time, entries.size(), plan.bytes(), unchanged, absent);
+        future.complete(plan);
+    }
+
+    private void plan(StFileGroup group) {
+        Optional<StFileGroup.File> resolved = group.resolveAt(time);
+        if (resolved.isEmpty()) {
+            absent++;
+            return;
+        }
+        StFileGroup.File version = resolved.get();
+        if (version.location.when == Location.When.Current || sameAsCurrent(group, version)) {
+            unchanged++;
+            return;
+        }
+        StFileGroup.File source = group.getFullStLister().localReplicaOf(version).orElse(version);
+        if (source.location == Location.LocalCurrent) {
+            unchanged++;
+            return;
+        }
+        boolean replaces = group.getFiles().stream().anyMatch(f -> f.location == Location.LocalCurrent);
+        entries.add(new RestorePlan.Entry(group, source, replaces));
+        tracker.found(Math.max(0, source.size));
+        tracker.fileDone();
+    }
+
+    /** Checks if a version is known (by its content hash) to be the same as the local current file. */
+    private static boolean sameAsCurrent(StFileGroup group, StFileGroup.File version) {
+        return group.getIdenticalFiles(version).stream().anyMatch(f -> f.location == Location.LocalCurrent);
+    }
+}
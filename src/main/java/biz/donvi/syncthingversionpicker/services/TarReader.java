@@ -0,0 +1,273 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a tar archive from a stream, one entry at a time, without ever holding more than a single block in memory.
+ * <br/> This only knows as much of the format as is needed to get files out of what GNU, BSD and busybox {@code tar}
+ * write: ustar headers (including the name prefix), GNU long names ({@code L}), and pax headers ({@code x}) for long
+ * paths and large sizes. Anything else (links, devices, global headers...) is handed out as an entry with its type so
+ * that callers can skip it.
+ */
+public class TarReader {
+
+    private static final int BLOCK = 512;
+
+    /**
+     * An entry of the archive.
+     *
+     * @param name         The path of the entry, as it was given to {@code tar}.
+     * @param size         How many bytes of data the entry has.
+     * @param type         The entry's type flag. {@code '0'} (or {@code '\0'}) for regular files and {@code '5'} for
+     *                     directories.
+     * @param lastModified The modified time stored in the archive, in epoch milliseconds.
+     */
+    public record Entry(String name, long size, char type, long lastModified) {
+        public boolean isFile() {
+            return isFileType(type);
+        }
+
+        public boolean isDirectory() {
+            return type == '5';
+        }
+    }
+
+    private final InputStream in;
+    private final byte[]      header = new byte[BLOCK];
+
+    /** The bytes of the current entry that haven't been read yet. */
+    private long remaining = 0;
+    /** The padding after the current entry's data. */
+    private long padding   = 0;
+    private boolean ended  = false;
+
+    public TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Moves on to the next entry, skipping whatever is left of the current one.
+     *
+     * @return The next entry, or {@code null} if the archive has ended.
+     * @throws IOException If the stream fails or doesn't hold a valid archive.
+     */
+    public Entry next() throws IOException {
+        if (ended)
+            return null;
+        skipFully(remaining + padding);
+        remaining = padding = 0;
+        String longName = null;
+        String paxPath = null;
+        long paxSize = -1;
+        while (true) {
+            if (!readBlock()) {
+                ended = true;
+                return null;
+            }
+            if (isZeroBlock()) {
+                // The archive ends with two zero blocks, but one is enough for us to know.
+                ended = true;
+                return null;
+            }
+            verifyChecksum();
+            char type = (char) header[156];
+            long size = parseNumber(124, 12);
+            switch (type) {
+                case 'L' -> longName = trimNul(new String(readData(size), StandardCharsets.UTF_8));
+                case 'x' -> {
+                    String pax = new String(readData(size), StandardCharsets.UTF_8);
+                    for (String[] record : paxRecords(pax)) {
+                        if (record[0].equals("path"))
+                            paxPath = record[1];
+                        else if (record[0].equals("size"))
+                            paxSize = Long.parseLong(record[1]);
+                    }
+                }
+                case 'g' -> skipData(size);
+                default -> {
+                    String name = paxPath != null ? paxPath
+                        : longName != null ? longName
+                        : headerName();
+                    if (paxSize >= 0)
+                        size = paxSize;
+                    long mtime = parseNumber(136, 12) * 1000L;
+                    if (isFileType(type)) {
+                        remaining = size;
+                        padding = padding(size);
+                    } else if (type != '1' && type != '2' && type != '5') {
+                        // Links and directories never have data, whatever their size says. Anything else might.
+                        skipData(size);
+                    }
+                    return new Entry(name, size, type, mtime);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A stream of the current entry's data. It ends at the end of the entry, and closing it does nothing.
+     */
+    public InputStream entryStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0)
+                    return -1;
+                int b = in.read();
+                if (b < 0)
+                    throw new EOFException("Archive ended in the middle of an entry");
+                remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0)
+                    return -1;
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n < 0)
+                    throw new EOFException("Archive ended in the middle of an entry");
+                remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    /* **************************************************************
+     MARK: - Header Parsing
+     ****************************************************************/
+
+    private String headerName() {
+        String name = field(0, 100);
+        // ustar splits long names into a prefix and a name
+        if (field(257, 6).startsWith("ustar")) {
+            String prefix = field(345, 155);
+            if (!prefix.isEmpty())
+                return prefix + "/" + name;
+        }
+        return name;
+    }
+
+    private String field(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0)
+            end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a numeric field, which is either octal text or (for values too large for that) big-endian binary with the
+     * high bit of the first byte set.
+     */
+    private long parseNumber(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++)
+                value = (value << 8) | (header[offset + i] & 0xff);
+            return value;
+        }
+        String text = field(offset, length).trim();
+        if (text.isEmpty())
+            return 0;
+        try {
+            return Long.parseLong(text, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number in tar header: `%s`".formatted(text), e);
+        }
+    }
+
+    private void verifyChecksum() throws IOException {
+        long expected = parseNumber(148, 8);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++)
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+        if (sum != expected)
+            throw new IOException("Not a tar archive (bad header checksum)");
+    }
+
+    /**
+     * Splits pax extended header data, which is a list of {@code "<length> <key>=<value>\n"} records.
+     */
+    static List<String[]> paxRecords(String pax) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        byte[] bytes = pax.getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos < bytes.length) {
+            int space = pos;
+            while (space < bytes.length && bytes[space] != ' ')
+                space++;
+            int length;
+            try {
+                length = Integer.parseInt(new String(bytes, pos, space - pos, StandardCharsets.UTF_8));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad pax header record", e);
+            }
+            if (length <= 0 || pos + length > bytes.length)
+                throw new IOException("Bad pax header record length");
+            // The record includes its own trailing newline
+            String record = new String(bytes, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            int eq = record.indexOf('=');
+            if (eq > 0)
+                records.add(new String[]{record.substring(0, eq), record.substring(eq + 1)});
+            pos += length;
+        }
+        return records;
+    }
+
+    private static boolean isFileType(char type) {
+        return type == '0' || type == '\0' || type == '7';
+    }
+
+    private static String trimNul(String s) {
+        int nul = s.indexOf('\0');
+        return nul >= 0 ? s.substring(0, nul) : s;
+    }
+
+    /* **************************************************************
+     MARK: - Stream Helpers
+     ****************************************************************/
+
+    private boolean readBlock() throws IOException {
+        int read = in.readNBytes(header, 0, BLOCK);
+        if (read == 0)
+            return false;
+        if (read < BLOCK)
+            throw new EOFException("Archive ended in the middle of a header");
+        return true;
+    }
+
+    private boolean isZeroBlock() {
+        for (byte b : header)
+            if (b != 0)
+                return false;
+        return true;
+    }
+
+    private byte[] readData(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK)
+            throw new IOException("Tar header data is too large");
+        byte[] data = in.readNBytes((int) size);
+        if (data.length < size)
+            throw new EOFException("Archive ended in the middle of a header");
+        skipFully(padding(size));
+        return data;
+    }
+
+    private void skipData(long size) throws IOException {
+        skipFully(size + padding(size));
+    }
+
+    private void skipFully(long n) throws IOException {
+        in.skipNBytes(n);
+    }
+
+    private static long padding(long size) {
+        long rest = size % BLOCK;
+        return rest == 0 ? 0 : BLOCK - rest;
+    }
+}
@@ -0,0 +1,46 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps a rate (bytes per second, files per second...) shared by any number of threads. Tokens refill continuously, up
+ * to one second's worth, so short bursts go through at full speed while the average stays at the cap.
+ * <br/> Note: Taking more tokens than there are puts the bucket in debt, and the taker waits the debt off. That keeps
+ * large chunks from starving small ones.
+ */
+final class TokenBucket {
+
+    private final double perSecond;
+
+    private double tokens;
+    private long   lastRefill = System.nanoTime();
+
+    /**
+     * @param perSecond How many tokens become available per second. Zero or less means no cap at all.
+     */
+    TokenBucket(double perSecond) {
+        this.perSecond = perSecond;
+        this.tokens = perSecond;
+    }
+
+    /**
+     * Takes tokens, waiting as long as the cap requires.
+     *
+     * @param count How many tokens to take.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    void take(long count) throws InterruptedException {
+        if (perSecond <= 0)
+            return;
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(perSecond, tokens + (now - lastRefill) * perSecond / 1e9);
+            lastRefill = now;
+            tokens -= count;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / perSecond) : 0;
+        }
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+}
@@ -0,0 +1,30 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A long-running job that reports its progress and can be cancelled.
+ */
+public interface TrackedJob {
+
+    /**
+     * @return A short description of the job, fit for a window title.
+     */
+    String title();
+
+    /**
+     * @return A snapshot of how far along the job is.
+     */
+    JobProgress progress();
+
+    /**
+     * Asks the job to stop as soon as it can. Work that is already finished is kept.
+     */
+    void cancel();
+
+    /**
+     * @return A future that completes when the job is over. It completes exceptionally with a
+     * {@link java.util.concurrent.CancellationException} if the job was cancelled.
+     */
+    CompletableFuture<?> future();
+}
@@ -0,0 +1,89 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFile;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Walks a tree of {@link StDirectory}s depth first, keeping a bounded number of listings (see
+ * {@link StDirectory#scanFilesAsync()}) in flight. Listings complete on other threads, but every file group is handed
+ * to the {@link Visitor} on the thread that called {@link #walk}, so the visitor may block (say, on a full work queue)
+ * without ever holding up a listing. Cached listings are never used, since whatever the walk finds gets acted on.
+ * <br/> Unlike a {@link FolderCrawler}, which hands over raw listings per location, this hands over the same
+ * {@link StFileGroup}s the tree shows. It is how the restore, prune and export jobs walk their trees.
+ * <br/> Note: A directory that can't be listed is logged and skipped. Anything the visitor throws ends the walk and
+ * is thrown from {@link #walk}.
+ */
+final class TreeWalker {
+    private static final Logger logger = LogManager.getLogger(TreeWalker.class);
+
+    /** Gets told about everything the walk finds. Only ever called from the walking thread. */
+    interface Visitor {
+
+        /**
+         * Called once for every file group in the tree.
+         *
+         * @param group The file group.
+         */
+        void visit(StFileGroup group) throws InterruptedException;
+
+        /**
+         * Called once every file group of a directory (but not of its subdirectories) has been visited.
+         *
+         * @param dir The directory.
+         */
+        default void listed(StDirectory dir) throws InterruptedException {}
+    }
+
+    /** The result of listing a directory, handed from the listing futures to the walking thread. */
+    private record Listing(StDirectory dir, List<StFile> files, Throwable ex) {}
+
+    private TreeWalker() {}
+
+    /**
+     * Walks a tree, returning once every directory in it has been listed and visited, or the walk was cancelled.
+     *
+     * @param root      The directory to walk (recursively).
+     * @param listing   How many directories may be listed at the same time.
+     * @param cancelled Checked between listings. Once it returns {@code true}, the walk stops.
+     * @param visitor   Who to hand the file groups to.
+     * @throws InterruptedException If the walking thread is interrupted, or the visitor was.
+     */
+    static void walk(StDirectory root, int listing, BooleanSupplier cancelled, Visitor visitor)
+        throws InterruptedException {
+        int maxInFlight = Math.max(1, listing);
+        Deque<StDirectory> pending = new ArrayDeque<>();
+        BlockingQueue<Listing> listings = new LinkedBlockingQueue<>();
+        pending.push(root);
+        int inFlight = 0;
+        while (!cancelled.getAsBoolean() && (!pending.isEmpty() || inFlight > 0)) {
+            while (inFlight < maxInFlight && !pending.isEmpty()) {
+                StDirectory dir = pending.pop();
+                inFlight++;
+                dir.scanFilesAsync().whenComplete((files, ex) -> listings.add(new Listing(dir, files, ex)));
+            }
+            Listing next = listings.take();
+            inFlight--;
+            if (next.ex() != null) {
+                logger.error("Could not list directory `%s`. Skipping it.".formatted(next.dir()), next.ex());
+                continue;
+            }
+            for (StFile file : next.files()) {
+                switch (file) {
+                    case StDirectory dir -> pending.push(dir);
+                    case StFileGroup group -> visitor.visit(group);
+                }
+            }
+            visitor.listed(next.dir());
+        }
+    }
+}
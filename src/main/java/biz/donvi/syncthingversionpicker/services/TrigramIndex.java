@@ -0,0 +1,465 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A search index over the name of every file and directory in a folder, in any location, as the tree shows them
+ * (which is with the Syncthing text removed, see {@link ParsedFileName#nameFixed()}). Every name is broken into
+ * trigrams (each run of three characters, ignoring case), and every trigram keeps a list of the names that contain
+ * it, so a search only ever looks at names that share something with what was typed.
+ * <br/> Results are ranked with exact names first, then names that start with the search, then names that contain
+ * it, and then names that only share most of their trigrams with it (so {@code budget 2023} still finds
+ * {@code budget-2023.xlsx}).
+ * <br/> Note: Everything here is thread-safe. Searching a million names takes a few milliseconds, which is fine for
+ * typeahead but still shouldn't happen on the FX thread.
+ */
+public class TrigramIndex implements FullStLister.FileService {
+    private static final Logger logger = LogManager.getLogger(TrigramIndex.class);
+
+    /** The length of a gram. Searches shorter than this only find names that start with them. */
+    private static final int GRAM = 3;
+
+    /** Marks the start of a name, so that every name also has a trigram for its first two characters. */
+    private static final char START = '\0';
+
+    /** The share of a search's trigrams that a name must have to count as a (fuzzy) match. */
+    private static final double FUZZY_SHARE = 0.5;
+
+    /** How long to wait for more changes before listing the directories they touched again. */
+    private static final long REFRESH_DELAY_MS = 200;
+
+    /** Removed names are only dropped from the posting lists once there are this many of them (or more than live). */
+    private static final int MIN_DEAD_TO_COMPACT = 4096;
+
+    private static final int TIER_EXACT    = 0;
+    private static final int TIER_PREFIX   = 1;
+    private static final int TIER_CONTAINS = 2;
+    private static final int TIER_FUZZY    = 3;
+
+    /**
+     * A search result.
+     *
+     * @param relativePath The relative path of the {@link biz.donvi.syncthingversionpicker.files.StFile} found.
+     * @param isDir        {@code true} if it's a directory.
+     */
+    public record Hit(Path relativePath, boolean isDir) {}
+
+    /** A candidate result, and everything it's ranked by. */
+    private record Ranked(int id, int tier, int shared, int nameLength, String path) {}
+
+    private static final Comparator<Ranked> RANKING = Comparator
+        .comparingInt(Ranked::tier)
+        .thenComparing(Comparator.comparingInt(Ranked::shared).reversed())
+        .thenComparingInt(Ranked::nameLength)
+        .thenComparingInt(r -> r.path().length())
+        .thenComparing(Ranked::path);
+
+    /** The ids of every name with a given trigram, in increasing order. */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int   size;
+
+        void add(int id) {
+            // A name with the same trigram twice only gets listed once. Ids are handed out in order, so a repeat is
+            // always the last one added.
+            if (size > 0 && ids[size - 1] == id)
+                return;
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    private final FullStLister lister;
+
+    // The index itself, guarded by `this`. The lower case names are all kept back to back in one array, in order of
+    // id, so that looking at lots of them in a row stays in the CPU's cache instead of chasing a string for each.
+    private String[] paths      = new String[1024];
+    private char[]   names      = new char[16 * 1024];
+    private int[]    nameStart  = new int[1025];
+    private BitSet   dirs       = new BitSet();
+    private BitSet   live       = new BitSet();
+    private int      nextId     = 0;
+    private int      liveCount  = 0;
+    private int[]    scratch    = new int[0];
+
+    private final Map<Long, Postings>               postings = new HashMap<>();
+    /** The names in every directory (by relative path, with {@code /} separators), and their ids. */
+    private final Map<String, Map<String, Integer>> byDir    = new HashMap<>();
+
+    // Directories waiting to be listed again.
+    private final Set<Path>     dirtyDirs     = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    private volatile boolean    building      = false;
+    private volatile boolean    cancelled     = false;
+
+    /** The crawl of the last build, so it can be cancelled. Guarded by {@code this}. */
+    private FolderCrawler           crawler    = null;
+    /** The first build, started by {@link #ensureBuilt()}. Guarded by {@code this}. */
+    private CompletableFuture<Void> firstBuild = null;
+
+    /**
+     * @param lister Where {@link #build()} and {@link #refresh} list directories from.
+     */
+    public TrigramIndex(FullStLister lister) {
+        this.lister = lister;
+    }
+
+    /* **************************************************************
+     MARK: - Building & Updating
+     ****************************************************************/
+
+    /**
+     * Crawls the whole folder in every location, several directories at a time (see {@link FolderCrawler}), and adds
+     * every directory to the index as soon as it's listed. Searches made while this runs see whatever has been
+     * indexed so far.
+     *
+     * @return A future that completes once the whole folder has been indexed.
+     */
+    public CompletableFuture<Void> build() {
+        building = true;
+        long start = System.nanoTime();
+        FolderCrawler crawler = new FolderCrawler(
+            lister, EnumSet.allOf(Location.class), Math.max(8, Runtime.getRuntime().availableProcessors()));
+        synchronized (this) {
+            this.crawler = crawler;
+            if (cancelled)
+                crawler.cancel();
+        }
+        return crawler.crawl(Path.of(""), (dir, listings) -> replaceDir(pathAsStr(dir), namesOf(listings)))
+            .whenComplete((x, ex) -> {
+                building = false;
+                if (ex == null)
+                    logger.info("Indexed {} names in {} ms", size(), (System.nanoTime() - start) / 1_000_000);
+                else if (ex instanceof CancellationException)
+                    logger.debug("Stopped building name index after {} names", size());
+                else logger.error("Could not build name index", ex);
+                // Directories that changed during the crawl may have been listed before they changed.
+                queueRefresh();
+            });
+    }
+
+    /**
+     * Builds the index, unless it was already built (or is being built).
+     *
+     * @return A future that completes once the index has been built at least once.
+     */
+    public synchronized CompletableFuture<Void> ensureBuilt() {
+        if (firstBuild == null || (firstBuild.isCompletedExceptionally() && !cancelled))
+            firstBuild = build();
+        return firstBuild;
+    }
+
+    /**
+     * Stops building the index, and keeps it from listing anything ever again. Meant for when the folder is no longer
+     * shown, so its crawl doesn't compete with the next folder's listings.
+     */
+    public void cancel() {
+        FolderCrawler running;
+        synchronized (this) {
+            cancelled = true;
+            running = crawler;
+        }
+        if (running != null)
+            running.cancel();
+    }
+
+    /**
+     * Patches the index for a change the app made. Meant to be registered as a mutation listener (see
+     * {@link FileManipulationService#addMutationListener}), after the lister's own, since the directories touched are
+     * listed again (shortly after, and only once for a whole burst of changes) from the lister's cache.
+     *
+     * @param mutation The change.
+     */
+    public void apply(FileMutation mutation) {
+        dirtyDirs.add(mutation.directory());
+        if (mutation instanceof FileMutation.Deleted deleted && deleted.isDir())
+            for (String dir : dirsUnder(pathAsStr(deleted.rawRelativePath())))
+                dirtyDirs.add(Path.of(dir));
+        queueRefresh();
+    }
+
+    /**
+     * Lists a single directory again (in every location) and replaces what the index has for it. A directory that
+     * can't be listed anywhere is dropped.
+     *
+     * @param dir The relative path of the directory.
+     * @return A future that completes once the index is updated.
+     */
+    public CompletableFuture<Void> refresh(Path dir) {
+        Map<Location, List<FileWithLocation>> listings = new EnumMap<>(Location.class);
+        List<CompletableFuture<?>> scans = new ArrayList<>();
+        for (Location location : Location.values())
+            scans.add(lister.listDir(dir, location).handle((files, ex) -> {
+                synchronized (listings) {
+                    listings.put(location, ex == null ? files : List.of());
+                }
+                return null;
+            }));
+        return CompletableFuture.allOf(scans.toArray(CompletableFuture[]::new))
+            .thenRun(() -> replaceDir(pathAsStr(dir), namesOf(listings)));
+    }
+
+    private void queueRefresh() {
+        if (building || cancelled || dirtyDirs.isEmpty() || !refreshQueued.compareAndSet(false, true))
+            return;
+        CompletableFuture.runAsync(() -> {
+            refreshQueued.set(false);
+            List<Path> dirs = new ArrayList<>(dirtyDirs);
+            dirs.forEach(dirtyDirs::remove);
+            logger.debug("Refreshing {} directories in the name index", dirs.size());
+            dirs.forEach(this::refresh);
+        }, CompletableFuture.delayedExecutor(REFRESH_DELAY_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Replaces the names the index has for a directory. Names that didn't change keep their ids.
+     *
+     * @param dir   The relative path of the directory, with {@code /} separators.
+     * @param names Every name in the directory, and whether it's a directory.
+     */
+    synchronized void replaceDir(String dir, Map<String, Boolean> names) {
+        Map<String, Integer> old = byDir.getOrDefault(dir, Map.of());
+        Map<String, Integer> now = new HashMap<>();
+        for (var entry : names.entrySet()) {
+            Integer id = old.get(entry.getKey());
+            if (id != null && dirs.get(id) != entry.getValue()) {
+                remove(id);
+                id = null;
+            }
+            now.put(entry.getKey(), id != null ? id : add(dir, entry.getKey(), entry.getValue()));
+        }
+        for (var entry : old.entrySet())
+            if (!names.containsKey(entry.getKey()))
+                remove(entry.getValue());
+        if (now.isEmpty())
+            byDir.remove(dir);
+        else byDir.put(dir, now);
+        if (nextId - liveCount >= Math.max(MIN_DEAD_TO_COMPACT, liveCount))
+            compact();
+    }
+
+    private int add(String dir, String name, boolean isDir) {
+        int id = nextId++;
+        if (id == paths.length) {
+            paths = Arrays.copyOf(paths, id * 2);
+            nameStart = Arrays.copyOf(nameStart, id * 2 + 1);
+        }
+        String lower = name.toLowerCase(Locale.ROOT);
+        int start = nameStart[id];
+        if (start + lower.length() > names.length)
+            names = Arrays.copyOf(names, Math.max(names.length * 2, start + lower.length()));
+        lower.getChars(0, lower.length(), names, start);
+        nameStart[id + 1] = start + lower.length();
+        paths[id] = dir.isEmpty() ? name : dir + "/" + name;
+        dirs.set(id, isDir);
+        live.set(id);
+        liveCount++;
+        if (lower.length() >= GRAM - 1)
+            postings.computeIfAbsent(gram(START, lower.charAt(0), lower.charAt(1)), g -> new Postings()).add(id);
+        for (int i = 0; i + GRAM <= lower.length(); i++)
+            postings.computeIfAbsent(gramAt(lower, i), g -> new Postings()).add(id);
+        return id;
+    }
+
+    /**
+     * Forgets a name. It stays in the posting lists (and its characters in {@link #names}), but is skipped, until the
+     * next {@link #compact()}.
+     */
+    private void remove(int id) {
+        live.clear(id);
+        paths[id] = null;
+        liveCount--;
+    }
+
+    /**
+     * Hands out new ids to every live name and rebuilds the posting lists without the removed ones.
+     */
+    synchronized void compact() {
+        long start = System.nanoTime();
+        int[] newIds = new int[nextId];
+        String[] oldPaths = paths;
+        BitSet oldDirs = dirs;
+        paths = new String[Math.max(1024, liveCount * 2)];
+        names = new char[Math.max(16 * 1024, names.length)];
+        nameStart = new int[paths.length + 1];
+        dirs = new BitSet();
+        live = new BitSet();
+        postings.clear();
+        int dead = nextId - liveCount;
+        nextId = 0;
+        liveCount = 0;
+        for (int id = 0; id < newIds.length; id++) {
+            if (oldPaths[id] == null)
+                continue;
+            int slash = oldPaths[id].lastIndexOf('/');
+            String dir = slash < 0 ? "" : oldPaths[id].substring(0, slash);
+            newIds[id] = add(dir, oldPaths[id].substring(slash + 1), oldDirs.get(id));
+        }
+        for (Map<String, Integer> names : byDir.values())
+            names.replaceAll((name, id) -> newIds[id]);
+        logger.debug("Compacted name index to {} names, dropping {}, in {} ms",
+                     liveCount, dead, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private synchronized List<String> dirsUnder(String dir) {
+        return byDir.keySet().stream().filter(known -> isUnder(known, dir)).toList();
+    }
+
+    private static Map<String, Boolean> namesOf(Map<Location, List<FileWithLocation>> listings) {
+        Map<String, Boolean> names = new HashMap<>();
+        for (List<FileWithLocation> files : listings.values())
+            for (FileWithLocation file : files)
+                names.merge(file.isDir() ? file.name() : new ParsedFileName(file.name()).nameFixed(),
+                            file.isDir(), Boolean::logicalOr);
+        return names;
+    }
+
+    /* **************************************************************
+     MARK: - Searching
+     ****************************************************************/
+
+    /**
+     * @return How many names the index holds.
+     */
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    /**
+     * Finds the files and directories whose names best match some text, ignoring case.
+     *
+     * @param text  What to search for.
+     * @param limit The most results to return.
+     * @return The best matches, best first. Blank text matches nothing.
+     */
+    public synchronized List<Hit> search(String text, int limit) {
+        String query = text == null ? "" : text.strip().toLowerCase(Locale.ROOT);
+        if (query.isEmpty() || limit <= 0)
+            return List.of();
+        char[] chars = query.toCharArray();
+        // The worst result so far sits on top, ready to be replaced by something better.
+        PriorityQueue<Ranked> best = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        if (query.length() == 1) {
+            for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1))
+                if (nameStart[id + 1] > nameStart[id] && names[nameStart[id]] == chars[0])
+                    offer(best, limit, id, nameStart[id + 1] - nameStart[id] == 1 ? TIER_EXACT : TIER_PREFIX, 0);
+        } else if (query.length() < GRAM) {
+            Postings list = postings.getOrDefault(gram(START, chars[0], chars[1]), new Postings());
+            for (int i = 0; i < list.size; i++) {
+                int id = list.ids[i];
+                if (live.get(id))
+                    offer(best, limit, id, tierOf(id, chars), 0);
+            }
+        } else {
+            Set<Long> grams = new HashSet<>();
+            for (int i = 0; i + GRAM <= query.length(); i++)
+                grams.add(gramAt(query, i));
+            int needed = Math.max(1, (int) Math.ceil(grams.size() * FUZZY_SHARE));
+            // Counts how many of the search's trigrams each name has. Only the names counted are ever looked at.
+            if (scratch.length < nextId)
+                scratch = new int[Math.max(nextId, scratch.length * 2)];
+            int[] shared = scratch;
+            int[] counted = new int[64];
+            int countedSize = 0;
+            for (long gram : grams) {
+                Postings list = postings.get(gram);
+                if (list == null)
+                    continue;
+                for (int i = 0; i < list.size; i++) {
+                    int id = list.ids[i];
+                    if (shared[id]++ == 0) {
+                        if (countedSize == counted.length)
+                            counted = Arrays.copyOf(counted, countedSize * 2);
+                        counted[countedSize++] = id;
+                    }
+                }
+            }
+            for (int i = 0; i < countedSize; i++) {
+                int id = counted[i];
+                int count = shared[id];
+                shared[id] = 0;
+                if (!live.get(id))
+                    continue;
+                int tier = count == grams.size() ? tierOf(id, chars) : TIER_FUZZY;
+                if (tier != TIER_FUZZY || count >= needed)
+                    offer(best, limit, id, tier, count);
+            }
+        }
+        List<Ranked> ranked = new ArrayList<>(best);
+        ranked.sort(RANKING);
+        return ranked.stream().map(r -> new Hit(Path.of(r.path()), dirs.get(r.id()))).toList();
+    }
+
+    private void offer(PriorityQueue<Ranked> best, int limit, int id, int tier, int shared) {
+        if (best.size() == limit) {
+            // Most candidates lose to the worst result so far, so they get turned away before anything is made.
+            Ranked worst = best.peek();
+            int nameLength = nameStart[id + 1] - nameStart[id];
+            int cheap = tier != worst.tier() ? Integer.compare(tier, worst.tier())
+                : shared != worst.shared() ? Integer.compare(worst.shared(), shared)
+                : Integer.compare(nameLength, worst.nameLength());
+            if (cheap > 0)
+                return;
+            Ranked candidate = new Ranked(id, tier, shared, nameLength, paths[id]);
+            if (RANKING.compare(candidate, worst) >= 0)
+                return;
+            best.poll();
+            best.add(candidate);
+        } else best.add(new Ranked(id, tier, shared, nameStart[id + 1] - nameStart[id], paths[id]));
+    }
+
+    private int tierOf(int id, char[] query) {
+        int start = nameStart[id];
+        int length = nameStart[id + 1] - start;
+        if (length < query.length)
+            return TIER_FUZZY;
+        if (matchesAt(start, query))
+            return length == query.length ? TIER_EXACT : TIER_PREFIX;
+        for (int at = start + 1; at + query.length <= start + length; at++)
+            if (matchesAt(at, query))
+                return TIER_CONTAINS;
+        return TIER_FUZZY;
+    }
+
+    private boolean matchesAt(int at, char[] query) {
+        for (int i = 0; i < query.length; i++)
+            if (names[at + i] != query[i])
+                return false;
+        return true;
+    }
+
+    private static long gramAt(String s, int i) {
+        return gram(s.charAt(i), s.charAt(i + 1), s.charAt(i + 2));
+    }
+
+    private static long gram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    /* **************************************************************
+     MARK: - Paths
+     ****************************************************************/
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+
+    private static boolean isUnder(String path, String dir) {
+        return dir.isEmpty() || path.equals(dir) || path.startsWith(dir) && path.charAt(dir.length()) == '/';
+    }
+}
@@ -0,0 +1,763 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * An in-memory index of every file and version in a folder, in every {@link Location}, that answers structured
+ * queries (see {@link Query}) without listing anything.
+ * <br/> The bulk of the index is a <b>segment</b>: one array per field (columnar), with the rows sorted by sync date,
+ * plus a posting list (the sorted row numbers) for every extension, conflict device, location and directory. A query
+ * narrows the rows down to its date range with a binary search, walks the shortest posting list that applies, and
+ * checks the other fields straight from the arrays. Segments never change once built, so queries never lock.
+ * <br/> Changes (see {@link #apply(FileMutation)} and {@link #update}) don't touch the segment. Each changed
+ * directory gets its rows copied out into a small <b>delta</b>, and its rows in the segment are skipped from then on.
+ * Once the delta gets big, it is merged into a new segment.
+ * <br/> Note: Sync dates come from the file names (see {@link ParsedFileName#syncDate()}). Files without one, like
+ * current files, only match queries without a date range.
+ */
+public class VersionIndex implements FullStLister.FileService {
+    private static final Logger logger = LogManager.getLogger(VersionIndex.class);
+
+    private static final DateTimeFormatter nameDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** The sync date of rows that don't have one. Sorts before every real date. */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /** The delta is merged into a new segment once it holds this many rows, or an eighth of the segment's rows. */
+    private static final int MIN_DELTA_ROWS = 10_000;
+
+    /**
+     * A version that matched a query.
+     *
+     * @param location        Where the version is.
+     * @param rawRelativePath The raw relative path of the version.
+     * @param relativePath    The relative path of the file it is a version of (with the Syncthing text removed).
+     * @param syncDate        When the version was made, or {@code null} if it's not a version.
+     * @param conflictDevice  The device the conflict came from, or {@code null} if it isn't a conflict copy.
+     * @param prevMarker      {@code true} if the name has a {@code ~VP-PREV} marker.
+     * @param size            The size in bytes, or {@code -1} if it is not known.
+     * @param lastModified    The modified time in epoch milliseconds, or {@code -1} if it is not known.
+     */
+    public record Hit(
+        Location location, Path rawRelativePath, Path relativePath, LocalDateTime syncDate, String conflictDevice,
+        boolean prevMarker, long size, long lastModified
+    ) {}
+
+    /**
+     * What to look for. Every field that is set has to match; {@link #ALL} matches everything. Use the {@code with}
+     * methods to narrow it down.
+     *
+     * @param pathPrefix     Only files in this directory (or below it). Empty for the whole folder.
+     * @param extension      Only files with this extension (like {@code xlsx}), or {@code null} for any.
+     * @param locations      Only files in these locations.
+     * @param from           Only versions synced at or after this, or {@code null} for no lower bound.
+     * @param to             Only versions synced before this, or {@code null} for no upper bound.
+     * @param conflictOnly   Only conflict copies.
+     * @param conflictDevice Only conflict copies from this device, or {@code null} for any device.
+     * @param prevMarker     Only files with ({@code true}) or without ({@code false}) a {@code ~VP-PREV} marker, or
+     *                       {@code null} for either.
+     * @param limit          The most hits to return. The newest ones are returned first.
+     */
+    public record Query(
+        String pathPrefix, String extension, Set<Location> locations, LocalDateTime from, LocalDateTime to,
+        boolean conflictOnly, String conflictDevice, Boolean prevMarker, int limit
+    ) {
+        public static final Query ALL = new Query(
+            "", null, EnumSet.allOf(Location.class), null, null, false, null, null, 1000);
+
+        public Query withPathPrefix(String pathPrefix) {
+            return new Query(normalizeDir(pathPrefix), extension, locations, from, to, conflictOnly, conflictDevice,
+                             prevMarker, limit);
+        }
+
+        public Query withExtension(String extension) {
+            return new Query(pathPrefix, normalizeExtension(extension), locations, from, to, conflictOnly,
+                             conflictDevice, prevMarker, limit);
+        }
+
+        public Query withLocations(Set<Location> locations) {
+            return new Query(pathPrefix, extension, Set.copyOf(locations), from, to, conflictOnly, conflictDevice,
+                             prevMarker, limit);
+        }
+
+        public Query withDates(LocalDateTime from, LocalDateTime to) {
+            return new Query(pathPrefix, extension, locations, from, to, conflictOnly, conflictDevice, prevMarker,
+                             limit);
+        }
+
+        public Query withConflict(boolean conflictOnly, String conflictDevice) {
+            String device = conflictDevice == null || conflictDevice.isBlank() ? null : conflictDevice.trim();
+            return new Query(pathPrefix, extension, locations, from, to, conflictOnly || device != null, device,
+                             prevMarker, limit);
+        }
+
+        public Query withPrevMarker(Boolean prevMarker) {
+            return new Query(pathPrefix, extension, locations, from, to, conflictOnly, conflictDevice, prevMarker,
+                             limit);
+        }
+
+        public Query withLimit(int limit) {
+            return new Query(pathPrefix, extension, locations, from, to, conflictOnly, conflictDevice, prevMarker,
+                             limit);
+        }
+    }
+
+    /** A single row, as kept in the delta and while building a segment. */
+    private record Row(
+        String dir, String name, Location location, long syncDate, String extension, String conflictDevice,
+        boolean prevMarker, long size, long lastModified
+    ) {
+        static Row of(String dir, Location location, String name, long size, long lastModified) {
+            ParsedFileName parsed = new ParsedFileName(name);
+            return new Row(
+                dir, name, location, parsed.hasSyncDate() ? dateOf(parsed.syncDate()) : NO_DATE,
+                normalizeExtension(parsed.getEnd()), parsed.hasConflict() ? parsed.conflictDevice() : null,
+                parsed.hasPrevMarker(), size, lastModified);
+        }
+
+        boolean sameFile(Row other) {
+            return location == other.location && name.equals(other.name);
+        }
+    }
+
+    /** Everything a query needs, swapped out as a whole whenever the index changes. */
+    private record State(Segment main, BitSet staleDirs, Map<String, List<Row>> delta, int deltaRows) {
+        static final State EMPTY = new State(Segment.of(new Rows()), new BitSet(), Map.of(), 0);
+    }
+
+    private final FullStLister lister;
+
+    private volatile State state = State.EMPTY;
+
+    /** Changes that come in while the index is being built, replayed once it's done. Guarded by {@code this}. */
+    private List<FileMutation> pendingMutations = null;
+
+    /** The first build, started by {@link #ensureBuilt()}. Guarded by {@code this}. */
+    private CompletableFuture<Void> firstBuild = null;
+
+    /**
+     * @param lister Where {@link #build()} and {@link #refresh} list directories from.
+     */
+    public VersionIndex(FullStLister lister) {
+        this.lister = lister;
+    }
+
+    /* **************************************************************
+     MARK: - Building & Updating
+     ****************************************************************/
+
+    /**
+     * (Re)builds the whole index by crawling the folder in every location, several directories at a time (see
+     * {@link FolderCrawler}). The old index keeps answering queries until the new one is done.
+     *
+     * @return A future that completes once the new index is in use.
+     */
+    public CompletableFuture<Void> build() {
+        synchronized (this) {
+            if (pendingMutations == null)
+                pendingMutations = new ArrayList<>();
+        }
+        long start = System.nanoTime();
+        Rows rows = new Rows();
+        FolderCrawler crawler = new FolderCrawler(
+            lister, EnumSet.allOf(Location.class), Math.max(8, Runtime.getRuntime().availableProcessors()));
+        return crawler.crawl(Path.of(""), (dir, listings) -> {
+            List<Row> dirRows = rowsOf(pathAsStr(dir), listings);
+            synchronized (rows) {
+                dirRows.forEach(rows::add);
+            }
+        }).whenComplete((x, ex) -> {
+            synchronized (this) {
+                if (ex == null) {
+                    state = new State(Segment.of(rows), new BitSet(), Map.of(), 0);
+                    logger.info("Built version index of {} rows in {} ms",
+                                rows.size, (System.nanoTime() - start) / 1_000_000);
+                } else logger.error("Could not build version index", ex);
+                List<FileMutation> pending = pendingMutations;
+                pendingMutations = null;
+                // Anything that changed during the crawl may or may not be in the listings, which is fine since
+                // applying a mutation twice changes nothing.
+                if (pending != null)
+                    pending.forEach(this::apply);
+            }
+        });
+    }
+
+    /**
+     * Builds the index, unless it was already built (or is being built).
+     *
+     * @return A future that completes once the index has been built at least once.
+     */
+    public synchronized CompletableFuture<Void> ensureBuilt() {
+        if (firstBuild == null || firstBuild.isCompletedExceptionally())
+            firstBuild = build();
+        return firstBuild;
+    }
+
+    /**
+     * Lists a single directory again (in every location) and replaces what the index has for it.
+     *
+     * @param dir The relative path of the directory.
+     * @return A future that completes once the index is updated.
+     */
+    public CompletableFuture<Void> refresh(Path dir) {
+        Map<Location, List<FileWithLocation>> listings = new EnumMap<>(Location.class);
+        List<CompletableFuture<?>> scans = new ArrayList<>();
+        for (Location location : Location.values())
+            scans.add(lister.scanDir(dir, location).handle((files, ex) -> {
+                synchronized (listings) {
+                    listings.put(location, ex == null ? files : List.of());
+                }
+                return null;
+            }));
+        return CompletableFuture.allOf(scans.toArray(CompletableFuture[]::new)).thenRun(() -> update(dir, listings));
+    }
+
+    /**
+     * Replaces what the index has for a directory.
+     *
+     * @param dir      The relative path of the directory.
+     * @param listings The directory's listing, for every location it exists in.
+     */
+    public void update(Path dir, Map<Location, List<FileWithLocation>> listings) {
+        String dirStr = pathAsStr(dir);
+        List<Row> rows = rowsOf(dirStr, listings);
+        editDir(dirStr, old -> rows);
+    }
+
+    /**
+     * Patches the index for a change the app made. Meant to be registered as a mutation listener (see
+     * {@link FileManipulationService#addMutationListener}). Applying the same mutation twice changes nothing.
+     *
+     * @param mutation The change.
+     */
+    public void apply(FileMutation mutation) {
+        synchronized (this) {
+            if (pendingMutations != null)
+                pendingMutations.add(mutation);
+        }
+        switch (mutation) {
+            case FileMutation.Created created when !created.isDir() -> {
+                Row row = Row.of(pathAsStr(created.directory()), created.location(),
+                                 created.rawRelativePath().getFileName().toString(), created.size(),
+                                 created.lastModified());
+                editDir(row.dir(), old -> {
+                    List<Row> rows = new ArrayList<>(old);
+                    rows.removeIf(row::sameFile);
+                    rows.add(row);
+                    return rows;
+                });
+            }
+            case FileMutation.Created created -> {}
+            case FileMutation.Renamed renamed -> {
+                String from = renamed.from().getFileName().toString();
+                String to = renamed.to().getFileName().toString();
+                editDir(pathAsStr(renamed.directory()), old -> {
+                    List<Row> rows = new ArrayList<>(old);
+                    Optional<Row> moved = rows.stream()
+                        .filter(r -> r.location() == renamed.location() && r.name().equals(from))
+                        .findFirst();
+                    if (moved.isEmpty())
+                        return old;
+                    Row row = Row.of(moved.get().dir(), renamed.location(), to, moved.get().size(),
+                                     moved.get().lastModified());
+                    rows.remove(moved.get());
+                    rows.removeIf(row::sameFile);
+                    rows.add(row);
+                    return rows;
+                });
+            }
+            case FileMutation.Deleted deleted when deleted.isDir() -> {
+                String gone = pathAsStr(deleted.rawRelativePath());
+                for (String dir : dirsUnder(gone))
+                    editDir(dir, old -> old.stream().filter(r -> r.location() != deleted.location()).toList());
+            }
+            case FileMutation.Deleted deleted -> {
+                String name = deleted.rawRelativePath().getFileName().toString();
+                editDir(pathAsStr(deleted.directory()), old -> old.stream()
+                    .filter(r -> r.location() != deleted.location() || !r.name().equals(name))
+                    .toList());
+            }
+        }
+    }
+
+    /**
+     * Replaces the rows of a single directory. The directory's rows in the segment are skipped from then on, and its
+     * rows live in the delta instead.
+     */
+    private synchronized void editDir(String dir, UnaryOperator<List<Row>> edit) {
+        State current = state;
+        List<Row> old = current.delta().get(dir);
+        if (old == null)
+            old = current.main().rowsOfDir(dir);
+        List<Row> rows = List.copyOf(edit.apply(old));
+        Map<String, List<Row>> delta = new HashMap<>(current.delta());
+        List<Row> replaced = delta.put(dir, rows);
+        int deltaRows = current.deltaRows() + rows.size() - (replaced == null ? 0 : replaced.size());
+        BitSet stale = current.staleDirs();
+        int dirId = current.main().dirId(dir);
+        if (dirId >= 0 && !stale.get(dirId)) {
+            stale = (BitSet) stale.clone();
+            stale.set(dirId);
+        }
+        state = new State(current.main(), stale, Map.copyOf(delta), deltaRows);
+        if (deltaRows >= Math.max(MIN_DELTA_ROWS, current.main().size / 8))
+            compact();
+    }
+
+    /**
+     * Merges the delta into a new segment.
+     */
+    synchronized void compact() {
+        State current = state;
+        if (current.delta().isEmpty())
+            return;
+        long start = System.nanoTime();
+        Rows rows = new Rows();
+        Segment main = current.main();
+        for (int i = 0; i < main.size; i++)
+            if (!current.staleDirs().get(main.dirOf[i]))
+                rows.add(main.row(i));
+        current.delta().values().forEach(dirRows -> dirRows.forEach(rows::add));
+        state = new State(Segment.of(rows), new BitSet(), Map.of(), 0);
+        logger.debug("Compacted version index to {} rows in {} ms", rows.size, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private List<String> dirsUnder(String dir) {
+        State current = state;
+        List<String> dirs = new ArrayList<>();
+        for (String known : current.main().dirs)
+            if (isUnder(known, dir))
+                dirs.add(known);
+        for (String known : current.delta().keySet())
+            if (isUnder(known, dir) && !dirs.contains(known))
+                dirs.add(known);
+        return dirs;
+    }
+
+    private static List<Row> rowsOf(String dir, Map<Location, List<FileWithLocation>> listings) {
+        List<Row> rows = new ArrayList<>();
+        for (var entry : listings.entrySet())
+            for (FileWithLocation file : entry.getValue())
+                if (!file.isDir())
+                    rows.add(Row.of(dir, entry.getKey(), file.name(), file.size(), file.lastModified()));
+        return rows;
+    }
+
+    /* **************************************************************
+     MARK: - Querying
+     ****************************************************************/
+
+    /**
+     * @return How many files and versions the index holds.
+     */
+    public int size() {
+        State current = state;
+        Segment main = current.main();
+        int stale = 0;
+        for (int dirId = current.staleDirs().nextSetBit(0); dirId >= 0;
+             dirId = current.staleDirs().nextSetBit(dirId + 1))
+            stale += main.byDir[dirId].length;
+        return main.size - stale + current.deltaRows();
+    }
+
+    /**
+     * Finds the files and versions matching a query.
+     *
+     * @param query What to look for.
+     * @return Up to {@link Query#limit()} hits, newest first.
+     */
+    public List<Hit> query(Query query) {
+        State current = state;
+        List<Row> hits = current.main().query(query, current.staleDirs());
+        List<Row> deltaHits = new ArrayList<>();
+        for (List<Row> rows : current.delta().values())
+            for (Row row : rows)
+                if (matches(row, query))
+                    deltaHits.add(row);
+        if (!deltaHits.isEmpty()) {
+            hits = new ArrayList<>(hits);
+            hits.addAll(deltaHits);
+            hits.sort(Comparator.comparingLong(Row::syncDate).reversed());
+        }
+        return hits.stream().limit(query.limit()).map(VersionIndex::toHit).toList();
+    }
+
+    private static boolean matches(Row row, Query query) {
+        long from = query.from() == null ? NO_DATE : dateOf(query.from());
+        long to = query.to() == null ? Long.MAX_VALUE : dateOf(query.to());
+        boolean dated = query.from() != null || query.to() != null;
+        return query.locations().contains(row.location())
+               && (!dated || row.syncDate() != NO_DATE && row.syncDate() >= from && row.syncDate() < to)
+               && isUnder(row.dir(), query.pathPrefix())
+               && (query.extension() == null || query.extension().equals(row.extension()))
+               && (!query.conflictOnly() || row.conflictDevice() != null)
+               && (query.conflictDevice() == null || query.conflictDevice().equals(row.conflictDevice()))
+               && (query.prevMarker() == null || query.prevMarker() == row.prevMarker());
+    }
+
+    private static Hit toHit(Row row) {
+        Path dir = Path.of(row.dir());
+        return new Hit(
+            row.location(), dir.resolve(row.name()), FileMutation.fixedPathOf(dir.resolve(row.name())),
+            row.syncDate() == NO_DATE ? null : LocalDateTime.ofEpochSecond(row.syncDate(), 0, ZoneOffset.UTC),
+            row.conflictDevice(), row.prevMarker(), row.size(), row.lastModified());
+    }
+
+    /* **************************************************************
+     MARK: - Segment
+     ****************************************************************/
+
+    /** Rows being gathered for a new segment, one growing array per field. */
+    private static final class Rows {
+        int        size          = 0;
+        String[]   dirs          = new String[1024];
+        String[]   names         = new String[1024];
+        Location[] locations     = new Location[1024];
+        long[]     syncDates     = new long[1024];
+        String[]   extensions    = new String[1024];
+        String[]   devices       = new String[1024];
+        boolean[]  prevMarkers   = new boolean[1024];
+        long[]     sizes         = new long[1024];
+        long[]     lastModifieds = new long[1024];
+
+        void add(Row row) {
+            if (size == names.length) {
+                int grown = size * 2;
+                dirs = Arrays.copyOf(dirs, grown);
+                names = Arrays.copyOf(names, grown);
+                locations = Arrays.copyOf(locations, grown);
+                syncDates = Arrays.copyOf(syncDates, grown);
+                extensions = Arrays.copyOf(extensions, grown);
+                devices = Arrays.copyOf(devices, grown);
+                prevMarkers = Arrays.copyOf(prevMarkers, grown);
+                sizes = Arrays.copyOf(sizes, grown);
+                lastModifieds = Arrays.copyOf(lastModifieds, grown);
+            }
+            dirs[size] = row.dir();
+            names[size] = row.name();
+            locations[size] = row.location();
+            syncDates[size] = row.syncDate();
+            extensions[size] = row.extension();
+            devices[size] = row.conflictDevice();
+            prevMarkers[size] = row.prevMarker();
+            sizes[size] = row.size();
+            lastModifieds[size] = row.lastModified();
+            size++;
+        }
+    }
+
+    /** An immutable, columnar set of rows sorted by sync date, with posting lists for the fields queries use. */
+    private static final class Segment {
+        final int size;
+
+        // Dictionaries. Directories are sorted, so every directory under some path has an id in one range.
+        final String[] dirs;
+        final String[] extensions;
+        final String[] devices;
+
+        // Columns, one entry per row, in sync date order.
+        final int[]    dirOf;
+        final String[] names;
+        final byte[]   locationOf;
+        final long[]   syncDates;
+        final int[]    extensionOf;
+        final int[]    deviceOf;
+        final BitSet   prevMarkers;
+        final long[]   sizes;
+        final long[]   lastModifieds;
+
+        // Posting lists: the rows with each value, in row order.
+        final int[][] byDir;
+        final int[][] byExtension;
+        final int[][] byDevice;
+        final int[][] byLocation;
+        final int[]   conflicts;
+        final int[]   withPrevMarker;
+
+        private final Map<String, Integer> dirIds       = new HashMap<>();
+        private final Map<String, Integer> extensionIds = new HashMap<>();
+        private final Map<String, Integer> deviceIds    = new HashMap<>();
+
+        private Segment(Rows rows) {
+            size = rows.size;
+            int[] order = sortedByDate(rows);
+            dirs = dictionary(rows.dirs, size, dirIds);
+            extensions = dictionary(rows.extensions, size, extensionIds);
+            devices = dictionary(rows.devices, size, deviceIds);
+
+            dirOf = new int[size];
+            names = new String[size];
+            locationOf = new byte[size];
+            syncDates = new long[size];
+            extensionOf = new int[size];
+            deviceOf = new int[size];
+            prevMarkers = new BitSet(size);
+            sizes = new long[size];
+            lastModifieds = new long[size];
+            for (int i = 0; i < size; i++) {
+                int from = order[i];
+                dirOf[i] = dirIds.get(rows.dirs[from]);
+                names[i] = rows.names[from];
+                locationOf[i] = (byte) rows.locations[from].ordinal();
+                syncDates[i] = rows.syncDates[from];
+                extensionOf[i] = rows.extensions[from] == null ? -1 : extensionIds.get(rows.extensions[from]);
+                deviceOf[i] = rows.devices[from] == null ? -1 : deviceIds.get(rows.devices[from]);
+                prevMarkers.set(i, rows.prevMarkers[from]);
+                sizes[i] = rows.sizes[from];
+                lastModifieds[i] = rows.lastModifieds[from];
+            }
+
+            byDir = postings(dirOf, dirs.length);
+            byExtension = postings(extensionOf, extensions.length);
+            byDevice = postings(deviceOf, devices.length);
+            byLocation = postings(toInts(locationOf), Location.values().length);
+            conflicts = rowsWhere(i -> deviceOf[i] >= 0);
+            withPrevMarker = prevMarkers.stream().toArray();
+        }
+
+        static Segment of(Rows rows) {
+            return new Segment(rows);
+        }
+
+        /**
+         * Sorts row numbers by sync date. Dates and row numbers are packed into single longs when they fit, so a
+         * million rows sort as primitives instead of boxed integers.
+         */
+        private static int[] sortedByDate(Rows rows) {
+            int n = rows.size;
+            long minDate = Long.MAX_VALUE, maxDate = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (rows.syncDates[i] == NO_DATE)
+                    continue;
+                minDate = Math.min(minDate, rows.syncDates[i]);
+                maxDate = Math.max(maxDate, rows.syncDates[i]);
+            }
+            int[] order = new int[n];
+            boolean packable = n < (1 << 24) && (maxDate < minDate || maxDate - minDate < (1L << 38));
+            if (packable) {
+                long[] keys = new long[n];
+                for (int i = 0; i < n; i++) {
+                    long date = rows.syncDates[i] == NO_DATE ? 0 : rows.syncDates[i] - minDate + 1;
+                    keys[i] = date << 24 | i;
+                }
+                Arrays.sort(keys);
+                for (int i = 0; i < n; i++)
+                    order[i] = (int) (keys[i] & ((1 << 24) - 1));
+            } else {
+                Integer[] boxed = new Integer[n];
+                for (int i = 0; i < n; i++)
+                    boxed[i] = i;
+                Arrays.sort(boxed, Comparator.comparingLong(i -> rows.syncDates[i]));
+                for (int i = 0; i < n; i++)
+                    order[i] = boxed[i];
+            }
+            return order;
+        }
+
+        private static String[] dictionary(String[] values, int size, Map<String, Integer> ids) {
+            TreeSet<String> distinct = new TreeSet<>();
+            for (int i = 0; i < size; i++)
+                if (values[i] != null)
+                    distinct.add(values[i]);
+            String[] dictionary = distinct.toArray(String[]::new);
+            for (int i = 0; i < dictionary.length; i++)
+                ids.put(dictionary[i], i);
+            return dictionary;
+        }
+
+        private static int[][] postings(int[] column, int values) {
+            int[] counts = new int[values];
+            for (int value : column)
+                if (value >= 0)
+                    counts[value]++;
+            int[][] postings = new int[values][];
+            for (int v = 0; v < values; v++)
+                postings[v] = new int[counts[v]];
+            int[] filled = new int[values];
+            for (int row = 0; row < column.length; row++)
+                if (column[row] >= 0)
+                    postings[column[row]][filled[column[row]]++] = row;
+            return postings;
+        }
+
+        private static int[] toInts(byte[] bytes) {
+            int[] ints = new int[bytes.length];
+            for (int i = 0; i < bytes.length; i++)
+                ints[i] = bytes[i];
+            return ints;
+        }
+
+        private int[] rowsWhere(java.util.function.IntPredicate predicate) {
+            return java.util.stream.IntStream.range(0, size).filter(predicate).toArray();
+        }
+
+        int dirId(String dir) {
+            return dirIds.getOrDefault(dir, -1);
+        }
+
+        Row row(int i) {
+            return new Row(dirs[dirOf[i]], names[i], Location.values()[locationOf[i]], syncDates[i],
+                           extensionOf[i] < 0 ? null : extensions[extensionOf[i]],
+                           deviceOf[i] < 0 ? null : devices[deviceOf[i]],
+                           prevMarkers.get(i), sizes[i], lastModifieds[i]);
+        }
+
+        List<Row> rowsOfDir(String dir) {
+            int dirId = dirId(dir);
+            if (dirId < 0)
+                return List.of();
+            List<Row> rows = new ArrayList<>();
+            for (int i : byDir[dirId])
+                rows.add(row(i));
+            return rows;
+        }
+
+        /**
+         * Answers a query, newest rows first.
+         * <ol>
+         *     <li>The date range becomes a range of rows, with two binary searches.</li>
+         *     <li>Of the posting lists the query can use, the shortest one is picked, and clipped to that range.</li>
+         *     <li>The rows it lists (or all rows in the range, if there is none) are checked against the rest of the
+         *     query, newest first, until there are enough.</li>
+         * </ol>
+         */
+        List<Row> query(Query query, BitSet staleDirs) {
+            boolean dated = query.from() != null || query.to() != null;
+            int lo = dated ? lowerBound(syncDates, query.from() == null ? NO_DATE + 1 : dateOf(query.from())) : 0;
+            int hi = query.to() == null ? size : lowerBound(syncDates, dateOf(query.to()));
+
+            // Directories under the prefix: the prefix itself, and one contiguous range of the sorted dictionary.
+            int exactDir = query.pathPrefix().isEmpty() ? -1 : dirId(query.pathPrefix());
+            int dirsLo = query.pathPrefix().isEmpty() ? 0 : lowerBound(dirs, query.pathPrefix() + "/");
+            int dirsHi = query.pathPrefix().isEmpty() ? dirs.length : lowerBound(dirs, query.pathPrefix() + "0");
+
+            int extensionId = query.extension() == null ? -1 : extensionIds.getOrDefault(query.extension(), -2);
+            int deviceId = query.conflictDevice() == null ? -1 : deviceIds.getOrDefault(query.conflictDevice(), -2);
+            if (extensionId == -2 || deviceId == -2 || lo >= hi)
+                return List.of();
+            boolean[] locations = new boolean[Location.values().length];
+            query.locations().forEach(l -> locations[l.ordinal()] = true);
+
+            int[] postings = null;
+            if (extensionId >= 0)
+                postings = shorter(postings, byExtension[extensionId]);
+            if (deviceId >= 0)
+                postings = shorter(postings, byDevice[deviceId]);
+            else if (query.conflictOnly())
+                postings = shorter(postings, conflicts);
+            if (Boolean.TRUE.equals(query.prevMarker()))
+                postings = shorter(postings, withPrevMarker);
+            if (query.locations().size() == 1)
+                postings = shorter(postings, byLocation[query.locations().iterator().next().ordinal()]);
+            if (exactDir >= 0 && dirsLo == dirsHi)
+                postings = shorter(postings, byDir[exactDir]);
+
+            int from = postings == null ? lo : lowerBound(postings, lo);
+            int to = postings == null ? hi : lowerBound(postings, hi);
+            List<Row> hits = new ArrayList<>();
+            for (int p = to - 1; p >= from && hits.size() < query.limit(); p--) {
+                int i = postings == null ? p : postings[p];
+                int dir = dirOf[i];
+                if (staleDirs.get(dir)
+                    || !locations[locationOf[i]]
+                    || !(dir == exactDir || dir >= dirsLo && dir < dirsHi)
+                    || extensionId >= 0 && extensionOf[i] != extensionId
+                    || deviceId >= 0 && deviceOf[i] != deviceId
+                    || query.conflictOnly() && deviceOf[i] < 0
+                    || query.prevMarker() != null && query.prevMarker() != prevMarkers.get(i))
+                    continue;
+                hits.add(row(i));
+            }
+            return hits;
+        }
+
+        private static int[] shorter(int[] a, int[] b) {
+            return a == null || b.length < a.length ? b : a;
+        }
+
+        private static int lowerBound(long[] values, long key) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < key)
+                    lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private static int lowerBound(int[] values, int key) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < key)
+                    lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private static int lowerBound(String[] values, String key) {
+            int index = Arrays.binarySearch(values, key);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    /* **************************************************************
+     MARK: - Helpers
+     ****************************************************************/
+
+    private static long dateOf(String nameDate) {
+        try {
+            return dateOf(LocalDateTime.parse(nameDate, nameDateFormat));
+        } catch (DateTimeParseException e) {
+            return NO_DATE;
+        }
+    }
+
+    private static long dateOf(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static boolean isUnder(String dir, String prefix) {
+        return prefix.isEmpty() || dir.equals(prefix) || dir.startsWith(prefix + "/");
+    }
+
+    private static String normalizeDir(String dir) {
+        String normalized = dir == null ? "" : dir.trim().replace('\\', '/');
+        while (normalized.startsWith("/"))
+            normalized = normalized.substring(1);
+        while (normalized.endsWith("/"))
+            normalized = normalized.substring(0, normalized.length() - 1);
+        return normalized;
+    }
+
+    private static String normalizeExtension(String extension) {
+        if (extension == null || extension.isBlank())
+            return null;
+        String normalized = extension.trim().toLowerCase();
+        if (normalized.startsWith("*"))
+            normalized = normalized.substring(1);
+        return normalized.startsWith(".") ? normalized.substring(1) : normalized;
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
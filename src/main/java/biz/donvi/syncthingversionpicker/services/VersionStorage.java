@@ -0,0 +1,480 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.files.ParsedFileName;
+import biz.donvi.syncthingversionpicker.files.RemoteShell;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * How much space the versions of a folder take up, and where: broken down by directory, by extension and by age, for
+ * the local and the remote versions folder separately.
+ * <br/> Nothing is kept per version. Each directory only keeps a count and a byte total for every extension and month
+ * (of sync date) that its versions have, so a folder with millions of versions costs a few cells per directory. Every
+ * breakdown is summed up from those cells when it's asked for.
+ * <br/> A {@link #scan()} reads the remote versions folder in one pass, with a single {@code find} run over the
+ * remote's shell (or, when there isn't one, by listing it with a {@link FolderCrawler}), and the local one with a
+ * {@link FolderCrawler}, several directories at a time. The results of the last scan are kept until the next one
+ * finishes, and are patched in between from the changes the app makes (see {@link #apply}), by listing just the
+ * directories touched again from the lister's cache.
+ * <br/> Note: Everything here is thread-safe.
+ */
+public class VersionStorage implements FullStLister.FileService {
+    private static final Logger logger = LogManager.getLogger(VersionStorage.class);
+
+    /** How long to wait for more changes before listing the directories they touched again. */
+    private static final long REFRESH_DELAY_MS = 200;
+
+    /** The month of versions without a sync date in their name. */
+    private static final int NO_MONTH = -1;
+
+    private static final List<Location> VERSIONS = List.of(Location.LocalVersions, Location.RemoteVersions);
+
+    /** What a breakdown groups versions by. */
+    public enum Dimension {Directory, Extension, Age}
+
+    /**
+     * A single line of a breakdown.
+     *
+     * @param key         What the versions have in common (a directory, an extension or an age).
+     * @param localFiles  How many local versions there are.
+     * @param localBytes  How many bytes the local versions take up.
+     * @param remoteFiles How many remote versions there are.
+     * @param remoteBytes How many bytes the remote versions take up.
+     */
+    public record Bucket(String key, long localFiles, long localBytes, long remoteFiles, long remoteBytes) {
+
+        /**
+         * @return How many bytes the versions take up, local and remote together.
+         */
+        public long bytes() {
+            return localBytes + remoteBytes;
+        }
+    }
+
+    /**
+     * Versions in a directory that share an extension and a month.
+     *
+     * @param extension The extension, lower case and without the dot, or empty if there is none.
+     * @param month     The month they were synced in (see {@link #monthOf}), or {@link #NO_MONTH}.
+     */
+    record Cell(String extension, int month) {}
+
+    /** The age buckets, by how many whole months old a version is. The last one holds everything older. */
+    private static final int[]    AGE_MONTHS = {1, 3, 6, 12, 24};
+    private static final String[] AGE_NAMES  = {
+        "Under 1 month", "1 to 3 months", "3 to 6 months", "6 to 12 months", "1 to 2 years", "Over 2 years"};
+
+    private final FullStLister lister;
+
+    /**
+     * The cells of every directory, by relative path (with {@code /} separators), for each versions location. The
+     * count and byte total of a cell are the two longs of its array. Guarded by {@code this}.
+     */
+    private final Map<Location, Map<String, Map<Cell, long[]>>> cells = new EnumMap<>(Location.class);
+
+    // Directories waiting to be listed again.
+    private final Set<Dirty>    dirtyDirs     = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    private volatile Scan       scan          = null;
+    private volatile long       changes       = 0;
+
+    private record Dirty(Location location, Path dir) {}
+
+    /**
+     * @param lister The folder to look at.
+     */
+    public VersionStorage(FullStLister lister) {
+        this.lister = lister;
+        for (Location location : VERSIONS)
+            cells.put(location, new HashMap<>());
+    }
+
+    /**
+     * @return A number that goes up every time the results change, to tell if they need to be read again.
+     */
+    public long changeCount() {
+        return changes;
+    }
+
+    /**
+     * @return {@code true} once a scan has finished, so the results cover the whole folder.
+     */
+    public boolean isScanned() {
+        Scan last = scan;
+        return last != null && last.future.isDone() && !last.future.isCompletedExceptionally();
+    }
+
+    /* **************************************************************
+     MARK: - Breakdowns
+     ****************************************************************/
+
+    /**
+     * Sums up the versions of the folder by one dimension.
+     *
+     * @param dimension What to group the versions by.
+     * @param depth     For {@link Dimension#Directory}, how many levels of directories to go down. Versions deeper
+     *                  than that count towards their ancestor at this depth. Ignored otherwise.
+     * @return A bucket for each group, the biggest (in bytes) first.
+     */
+    public List<Bucket> breakdown(Dimension dimension, int depth) {
+        YearMonth now = YearMonth.now();
+        return switch (dimension) {
+            case Directory -> breakdown((dir, cell) -> truncate(dir, depth));
+            case Extension -> breakdown((dir, cell) -> cell.extension().isEmpty() ? "(none)" : cell.extension());
+            case Age -> breakdown((dir, cell) -> ageOf(cell.month(), now));
+        };
+    }
+
+    /**
+     * @return The totals of the whole folder, as a single bucket.
+     */
+    public Bucket total() {
+        List<Bucket> all = breakdown((dir, cell) -> "Total");
+        return all.isEmpty() ? new Bucket("Total", 0, 0, 0, 0) : all.getFirst();
+    }
+
+    private synchronized List<Bucket> breakdown(BiFunction<String, Cell, String> keyOf) {
+        Map<String, long[]> sums = new HashMap<>();
+        for (int side = 0; side < VERSIONS.size(); side++) {
+            int column = side * 2;
+            cells.get(VERSIONS.get(side)).forEach((dir, dirCells) -> dirCells.forEach((cell, value) -> {
+                long[] sum = sums.computeIfAbsent(keyOf.apply(dir, cell), k -> new long[4]);
+                sum[column] += value[0];
+                sum[column + 1] += value[1];
+            }));
+        }
+        List<Bucket> buckets = new ArrayList<>();
+        sums.forEach((key, sum) -> buckets.add(new Bucket(key, sum[0], sum[1], sum[2], sum[3])));
+        buckets.sort(Comparator.comparingLong(Bucket::bytes).reversed().thenComparing(Bucket::key));
+        return buckets;
+    }
+
+    /**
+     * @param dir   A relative directory path, with {@code /} separators.
+     * @param depth How many levels to keep.
+     * @return The directory's ancestor at that depth (or itself, if it isn't that deep).
+     */
+    static String truncate(String dir, int depth) {
+        if (dir.isEmpty())
+            return "/";
+        int end = -1;
+        for (int level = 0; level < Math.max(1, depth); level++) {
+            end = dir.indexOf('/', end + 1);
+            if (end < 0)
+                return dir + "/";
+        }
+        return dir.substring(0, end) + "/";
+    }
+
+    /**
+     * @param month The month a version was synced in (see {@link #monthOf}).
+     * @param now   The current month.
+     * @return The name of the age bucket the version falls in.
+     */
+    static String ageOf(int month, YearMonth now) {
+        if (month == NO_MONTH)
+            return "Unknown";
+        long age = now.getYear() * 12L + now.getMonthValue() - 1 - month;
+        for (int i = 0; i < AGE_MONTHS.length; i++)
+            if (age < AGE_MONTHS[i])
+                return AGE_NAMES[i];
+        return AGE_NAMES[AGE_MONTHS.length];
+    }
+
+    /**
+     * @param name The name of a version.
+     * @return The month its sync date is in, as months since year 0, or {@link #NO_MONTH} if it doesn't have one.
+     */
+    static int monthOf(ParsedFileName name) {
+        if (!name.hasSyncDate())
+            return NO_MONTH;
+        // Sync dates are `yyyyMMdd-HHmmss`, and the name pattern already made sure they are digits.
+        String date = name.syncDate();
+        return Integer.parseInt(date, 0, 4, 10) * 12 + Integer.parseInt(date, 4, 6, 10) - 1;
+    }
+
+    /**
+     * Adds a single version to the cells of its directory.
+     *
+     * @param dirCells The cells of the directory the version is in.
+     * @param name     The name of the version.
+     * @param size     Its size in bytes, or {@code -1} if it is not known.
+     */
+    static void add(Map<Cell, long[]> dirCells, String name, long size) {
+        ParsedFileName parsed = new ParsedFileName(name);
+        String extension = parsed.hasExtension() ? parsed.extension().substring(1).toLowerCase(Locale.ROOT) : "";
+        long[] value = dirCells.computeIfAbsent(new Cell(extension, monthOf(parsed)), c -> new long[2]);
+        value[0]++;
+        value[1] += Math.max(0, size);
+    }
+
+    /* **************************************************************
+     MARK: - Scanning
+     ****************************************************************/
+
+    /**
+     * Scans the local and remote versions folders again, at the same time. The results of the last scan are kept
+     * until this one finishes.
+     *
+     * @return The scan, to show the progress of.
+     */
+    public synchronized Scan scan() {
+        Scan last = scan;
+        if (last != null && !last.future.isDone())
+            return last;
+        scan = new Scan().start();
+        return scan;
+    }
+
+    /**
+     * A single scan of both versions folders.
+     */
+    public class Scan implements TrackedJob {
+        private final ProgressTracker         tracker  = new ProgressTracker();
+        private final CompletableFuture<Void> future   = new CompletableFuture<>();
+        private final List<FolderCrawler>     crawlers = Collections.synchronizedList(new ArrayList<>());
+
+        private volatile boolean             cancelled = false;
+        private volatile RemoteShell.Command find      = null;
+
+        private Scan start() {
+            long start = System.nanoTime();
+            logger.info("Scanning version storage");
+            CompletableFuture<Map<String, Map<Cell, long[]>>> local = crawl(Location.LocalVersions);
+            CompletableFuture<Map<String, Map<Cell, long[]>>> remote = lister.remoteShell()
+                .map(shell -> findRemote(shell).exceptionallyCompose(ex -> {
+                    if (cancelled)
+                        return CompletableFuture.failedFuture(ex);
+                    logger.warn("Could not scan remote versions with `find`, listing them instead", ex);
+                    return crawl(Location.RemoteVersions);
+                }))
+                .orElseGet(() -> crawl(Location.RemoteVersions));
+            tracker.discoveryDone();
+            local.thenAcceptBoth(remote, (l, r) -> {
+                synchronized (VersionStorage.this) {
+                    cells.put(Location.LocalVersions, l);
+                    cells.put(Location.RemoteVersions, r);
+                    changes++;
+                }
+            }).whenComplete((x, ex) -> {
+                tracker.finish();
+                if (ex == null) {
+                    Bucket total = total();
+                    logger.info("Scanned version storage in {} ms: {} local versions ({}), {} remote versions ({})",
+                                (System.nanoTime() - start) / 1_000_000,
+                                total.localFiles(), JobProgress.humanBytes(total.localBytes()),
+                                total.remoteFiles(), JobProgress.humanBytes(total.remoteBytes()));
+                    future.complete(null);
+                } else {
+                    logger.warn("Version storage scan did not finish, keeping the last results: {}", ex.toString());
+                    future.completeExceptionally(ex);
+                }
+                // Directories that changed during the scan may have been read before they changed.
+                queueRefresh();
+            });
+            return this;
+        }
+
+        /** Lists every directory of a versions folder, several at a time. */
+        private CompletableFuture<Map<String, Map<Cell, long[]>>> crawl(Location location) {
+            Map<String, Map<Cell, long[]>> found = new ConcurrentHashMap<>();
+            FolderCrawler crawler = new FolderCrawler(
+                lister, EnumSet.of(location), Math.max(8, Runtime.getRuntime().availableProcessors()));
+            crawlers.add(crawler);
+            if (cancelled)
+                crawler.cancel();
+            return crawler.crawl(Path.of(""), (dir, listings) -> {
+                Map<Cell, long[]> dirCells = cellsOf(listings.getOrDefault(location, List.of()));
+                if (!dirCells.isEmpty())
+                    found.put(pathAsStr(dir), dirCells);
+            }).thenApply(x -> found);
+        }
+
+        private Map<Cell, long[]> cellsOf(List<FileWithLocation> files) {
+            Map<Cell, long[]> dirCells = new HashMap<>();
+            for (FileWithLocation file : files) {
+                if (file.isDir())
+                    continue;
+                add(dirCells, file.name(), file.size());
+                tracker.found(-1);
+                tracker.fileDone();
+            }
+            return dirCells;
+        }
+
+        /**
+         * Reads the whole remote versions folder with a single {@code find}, which prints the size and path of every
+         * file, separated by {@code NUL}s so that no file name can confuse the two.
+         */
+        private CompletableFuture<Map<String, Map<Cell, long[]>>> findRemote(RemoteShell shell) {
+            String command = "find %s -type f -printf '%%s %%P\\0'".formatted(
+                RemoteShell.quote(pathAsStr(lister.rootDir(Location.RemoteVersions))));
+            logger.debug("Scanning remote versions with `{}`", command);
+            return shell.exec(command).thenApplyAsync(running -> {
+                Map<String, Map<Cell, long[]>> found = new HashMap<>();
+                try (running) {
+                    find = running;
+                    if (cancelled)
+                        throw new CancellationException();
+                    readFind(running.stdout(), (path, size) -> {
+                        int slash = path.lastIndexOf('/');
+                        String dir = slash < 0 ? "" : path.substring(0, slash);
+                        add(found.computeIfAbsent(dir, d -> new HashMap<>()), path.substring(slash + 1), size);
+                        tracker.found(-1);
+                        tracker.fileDone();
+                    });
+                    int status = running.waitFor();
+                    if (cancelled)
+                        throw new CancellationException();
+                    // Unreadable directories make find exit with 1, but everything it could read is still good.
+                    if (status != 0)
+                        logger.warn("Remote find exited with {}: {}", status, running.stderr().strip());
+                    if (status < 0)
+                        throw new IllegalStateException("The connection was lost while scanning remote versions");
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read the remote file list", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+                return found;
+            });
+        }
+
+        @Override
+        public String title() {
+            return "Scanning version storage";
+        }
+
+        @Override
+        public JobProgress progress() {
+            return tracker.snapshot();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (crawlers) {
+                crawlers.forEach(FolderCrawler::cancel);
+            }
+            RemoteShell.Command running = find;
+            if (running != null)
+                running.close();
+        }
+
+        @Override
+        public CompletableFuture<Void> future() {
+            return future;
+        }
+    }
+
+    /**
+     * Reads {@code find -printf '%s %P\0'} output, which is a list of {@code "<size> <path>\0"} records.
+     *
+     * @param in      The output of find.
+     * @param forEach Called with the path and size of every file.
+     */
+    static void readFind(InputStream in, ObjLongConsumer<String> forEach) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        InputStream buffered = new BufferedInputStream(in);
+        for (int b; (b = buffered.read()) >= 0; ) {
+            if (b != 0) {
+                record.write(b);
+                continue;
+            }
+            String line = record.toString(StandardCharsets.UTF_8);
+            record.reset();
+            int space = line.indexOf(' ');
+            if (space <= 0 || space == line.length() - 1)
+                continue;
+            try {
+                forEach.accept(line.substring(space + 1), Long.parseLong(line, 0, space, 10));
+            } catch (NumberFormatException e) {
+                logger.debug("Skipping unreadable find record `{}`", line);
+            }
+        }
+    }
+
+    /* **************************************************************
+     MARK: - Updating
+     ****************************************************************/
+
+    /**
+     * Patches the results for a change the app made. Meant to be registered as a mutation listener (see
+     * {@link FileManipulationService#addMutationListener}), after the lister's own, since the directory touched is
+     * listed again (shortly after, and only once for a whole burst of changes) from the lister's cache.
+     *
+     * @param mutation The change.
+     */
+    public void apply(FileMutation mutation) {
+        if (mutation.location().when != Location.When.Version)
+            return;
+        if (mutation instanceof FileMutation.Deleted deleted && deleted.isDir())
+            removeTree(mutation.location(), pathAsStr(deleted.rawRelativePath()));
+        dirtyDirs.add(new Dirty(mutation.location(), mutation.directory()));
+        queueRefresh();
+    }
+
+    private void queueRefresh() {
+        Scan running = scan;
+        if (running != null && !running.future.isDone())
+            return;
+        if (dirtyDirs.isEmpty() || !refreshQueued.compareAndSet(false, true))
+            return;
+        CompletableFuture.runAsync(() -> {
+            refreshQueued.set(false);
+            List<Dirty> dirs = new ArrayList<>(dirtyDirs);
+            dirs.forEach(dirtyDirs::remove);
+            logger.debug("Refreshing the version storage of {} directories", dirs.size());
+            for (Dirty dirty : dirs)
+                lister.listDir(dirty.dir(), dirty.location()).handle((files, ex) -> {
+                    Map<Cell, long[]> dirCells = new HashMap<>();
+                    if (ex == null)
+                        for (FileWithLocation file : files)
+                            if (!file.isDir())
+                                add(dirCells, file.name(), file.size());
+                    replaceDir(dirty.location(), pathAsStr(dirty.dir()), dirCells);
+                    return null;
+                });
+        }, CompletableFuture.delayedExecutor(REFRESH_DELAY_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Replaces the cells of a single directory.
+     */
+    synchronized void replaceDir(Location location, String dir, Map<Cell, long[]> dirCells) {
+        if (dirCells.isEmpty())
+            cells.get(location).remove(dir);
+        else cells.get(location).put(dir, dirCells);
+        changes++;
+    }
+
+    private synchronized void removeTree(Location location, String dir) {
+        cells.get(location).keySet().removeIf(d -> d.equals(dir) || d.startsWith(dir + "/"));
+        changes++;
+    }
+
+    private static String pathAsStr(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+}
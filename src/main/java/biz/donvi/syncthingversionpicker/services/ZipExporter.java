@@ -0,0 +1,305 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.FullStLister;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFileGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports a directory tree as a ZIP archive, with one chosen version of every file in it. The data is streamed
+ * straight from wherever each version lives (see {@link FullStLister#readFile(StFileGroup.File)}) into the archive,
+ * so nothing gets restored or downloaded to disk first.
+ * <br/> The archive has to be written one entry at a time, but the files going into it don't have to be fetched that
+ * way. While one entry is being written, up to {@link Limits#prefetch()} of the files that come after it are already
+ * being read in parallel. Files up to {@link Limits#bufferLimit()} bytes are read ahead into memory; bigger ones are
+ * streamed into the archive once their turn comes, so memory stays bounded no matter how big the files are.
+ * <br/> Note: The archive is written next to the destination first, and only moved into place once it's complete.
+ * Every remote file is read over an SFTP channel of its own, and a file that doesn't read back at its listed size
+ * never makes it into a finished archive.
+ */
+public class ZipExporter implements TrackedJob {
+    private static final Logger logger = LogManager.getLogger(ZipExporter.class);
+
+    /**
+     * The limits of a {@link ZipExporter}.
+     *
+     * @param listing     How many directories may be listed at the same time.
+     * @param prefetch    How many files may be read ahead of the one being written.
+     * @param bufferLimit The biggest file that gets read ahead into memory. Bigger files are streamed.
+     */
+    public record Limits(int listing, int prefetch, long bufferLimit) {
+        public static final Limits DEFAULT = new Limits(4, 8, 4 * 1024 * 1024);
+    }
+
+    /**
+     * A single file to put in the archive. The data holds the whole file if it was read ahead, or {@code null} if it
+     * has to be streamed. An entry with no version tells the writer to stop.
+     */
+    private record Entry(String name, StFileGroup.File version, Future<byte[]> data) {
+        static final Entry STOP = new Entry(null, null, null);
+    }
+
+    private final StDirectory                                       root;
+    private final FullStLister                                      lister;
+    private final Function<StFileGroup, Optional<StFileGroup.File>> versionPicker;
+    private final Path                                              destination;
+    private final Limits                                            limits;
+
+    private final ProgressTracker         tracker = new ProgressTracker();
+    private final CompletableFuture<Path> future  = new CompletableFuture<>();
+    private final BlockingQueue<Entry>    queue;
+    private final ExecutorService         threads = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "export");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService         fetchers;
+
+    private          boolean   started   = false;
+    private volatile boolean   cancelled = false;
+    /** What stopped the producer, if it didn't end on its own or by being cancelled. */
+    private volatile Throwable failure   = null;
+
+    /**
+     * Creates (but does not start) a new export.
+     *
+     * @param root          The directory to export (recursively).
+     * @param versionPicker Picks which version of each {@link StFileGroup} goes into the archive, if any.
+     * @param destination   Where to write the archive. Anything already there is replaced once the archive is done.
+     * @param limits        The limits to use.
+     */
+    ZipExporter(
+        StDirectory root, Function<StFileGroup, Optional<StFileGroup.File>> versionPicker, Path destination,
+        Limits limits
+    ) {
+        this.root = root;
+        this.lister = root.getFullStLister();
+        this.versionPicker = versionPicker;
+        this.destination = destination;
+        this.limits = limits;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, limits.prefetch()));
+        this.fetchers = Executors.newFixedThreadPool(Math.max(1, limits.prefetch()), runnable -> {
+            Thread thread = new Thread(runnable, "export-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the export. Calling this more than once does nothing.
+     *
+     * @return This export.
+     */
+    synchronized ZipExporter start() {
+        if (started)
+            return this;
+        started = true;
+        logger.info("Exporting `{}` to `{}` with limits {}", root, destination, limits);
+        threads.submit(this::produce);
+        threads.submit(this::write);
+        return this;
+    }
+
+    @Override
+    public String title() {
+        String path = root.getRelativePath().toString();
+        return "Exporting " + (path.isEmpty() ? "entire folder" : path) + " to " + destination.getFileName();
+    }
+
+    @Override
+    public JobProgress progress() {
+        return tracker.snapshot();
+    }
+
+    @Override
+    public void cancel() {
+        logger.info("Cancelling export of `{}`", root);
+        cancelled = true;
+    }
+
+    /**
+     * @return A future holding the finished archive.
+     */
+    @Override
+    public CompletableFuture<Path> future() {
+        return future;
+    }
+
+    /* **************************************************************
+     MARK: - Listing & Prefetching
+     ****************************************************************/
+
+    /**
+     * Walks the tree (see {@link TreeWalker}), keeping up to {@link Limits#listing()} listings in flight. Every file
+     * that goes in
+     * the archive starts being fetched as it's queued, and the queue only holds {@link Limits#prefetch()} files, so
+     * the walk never gets further ahead of the writer than that.
+     */
+    private void produce() {
+        Path base = root.getRelativePath();
+        try {
+            TreeWalker.walk(root, limits.listing(), () -> cancelled, group -> {
+                Optional<StFileGroup.File> version = versionPicker.apply(group);
+                if (version.isPresent())
+                    offer(new Entry(entryName(base, group), version.get(), prefetch(version.get())));
+            });
+        } catch (InterruptedException e) {
+            logger.warn("Export producer was interrupted", e);
+            cancelled = true;
+        } catch (RuntimeException e) {
+            // Without this, the writer would finish an archive that is silently missing the rest of the tree.
+            logger.error("Could not list everything to export in `%s`".formatted(root), e);
+            failure = e;
+            cancelled = true;
+        } finally {
+            tracker.discoveryDone();
+            try {
+                offer(Entry.STOP);
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while stopping the export writer", e);
+            }
+        }
+    }
+
+    /** Puts an entry in the queue, giving up if the export is cancelled while waiting for room. */
+    private void offer(Entry entry) throws InterruptedException {
+        if (entry.version() != null)
+            tracker.found(entry.version().size);
+        // Once cancelled, the writer stops taking entries (even the stop entry), so there's no point in waiting.
+        while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+            if (cancelled)
+                return;
+        }
+    }
+
+    private Future<byte[]> prefetch(StFileGroup.File version) {
+        if (version.size < 0 || version.size > limits.bufferLimit())
+            return CompletableFuture.completedFuture(null);
+        return fetchers.submit(() -> {
+            if (cancelled)
+                throw new CancellationException();
+            try (InputStream in = lister.readFile(version).get()) {
+                byte[] data = in.readAllBytes();
+                checkLength(version, data.length);
+                return data;
+            }
+        });
+    }
+
+    private static String entryName(Path base, StFileGroup group) {
+        return base.relativize(group.getRelativePath()).toString().replace('\\', '/');
+    }
+
+    /* **************************************************************
+     MARK: - Writing
+     ****************************************************************/
+
+    private void write() {
+        Path part = destination.resolveSibling("." + destination.getFileName() + ".stvp-part");
+        try {
+            Files.createDirectories(part.getParent());
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(part)))) {
+                for (Entry entry = queue.take(); entry.version() != null; entry = queue.take()) {
+                    if (cancelled)
+                        throw new CancellationException();
+                    writeEntry(zip, entry);
+                }
+            }
+            if (cancelled)
+                throw new CancellationException();
+            Files.move(part, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Export of `{}` finished: {}", root, tracker.snapshot().describe());
+            future.complete(destination);
+        } catch (CancellationException e) {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                logger.info("Export of `{}` was cancelled after {}", root, tracker.snapshot().describe());
+                future.completeExceptionally(new CancellationException("Export was cancelled"));
+            }
+        } catch (Exception e) {
+            logger.error("Export of `%s` to `%s` failed".formatted(root, destination), e);
+            cancelled = true;
+            future.completeExceptionally(e);
+        } finally {
+            // Unblock the producer if it's still waiting for room, then let everything wind down.
+            cancelled |= future.isCompletedExceptionally();
+            queue.clear();
+            tracker.finish();
+            fetchers.shutdownNow();
+            threads.shutdown();
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                logger.warn("Could not delete partial archive `{}`", part, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a single entry. A file that can't be read before anything of it is written is left out of the archive
+     * (and counted as failed). Once part of a file is written there's no taking it back, so a failure after that fails
+     * the whole export.
+     */
+    private void writeEntry(ZipOutputStream zip, Entry entry) throws Exception {
+        byte[] data;
+        try {
+            data = entry.data().get();
+        } catch (ExecutionException e) {
+            leaveOut(entry, e.getCause());
+            return;
+        }
+        InputStream in = null;
+        if (data == null) try {
+            in = lister.readFile(entry.version()).get();
+        } catch (ExecutionException e) {
+            leaveOut(entry, e.getCause());
+            return;
+        }
+        ZipEntry zipEntry = new ZipEntry(entry.name());
+        if (entry.version().lastModified > 0)
+            zipEntry.setTime(entry.version().lastModified);
+        zip.putNextEntry(zipEntry);
+        if (data != null) {
+            zip.write(data);
+            tracker.transferred(data.length);
+        } else try (InputStream stream = in) {
+            byte[] buffer = new byte[64 * 1024];
+            long read = 0;
+            for (int n; (n = stream.read(buffer)) > 0; ) {
+                if (cancelled)
+                    throw new CancellationException();
+                zip.write(buffer, 0, n);
+                read += n;
+                tracker.transferred(n);
+            }
+            checkLength(entry.version(), read);
+        }
+        zip.closeEntry();
+        tracker.fileDone();
+    }
+
+    /** Makes sure as many bytes were read as the listing said the file has, so a broken read can't go unnoticed. */
+    private static void checkLength(StFileGroup.File version, long read) throws IOException {
+        if (version.size >= 0 && read != version.size)
+            throw new IOException("Read %d bytes of `%s`, but it has %d".formatted(read, version, version.size));
+    }
+
+    private void leaveOut(Entry entry, Throwable cause) {
+        logger.error("Could not read `%s`. Leaving it out of the archive.".formatted(entry.version()), cause);
+        tracker.fileFailed();
+    }
+}
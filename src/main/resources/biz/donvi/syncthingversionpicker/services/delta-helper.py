@@ -0,0 +1,107 @@
+# Runs on the remote to describe a file as a delta against a signature read from stdin.
+# Its Java twin is DeltaEncoder.java (in the tests); see DeltaSignature.java for the wire format.
+# Usage: python3 -c "<this script>" <path of the wanted file>
+import hashlib, mmap, os, struct, sys, zlib
+
+MOD = 65521
+MAX_LITERAL = 1024 * 1024
+
+
+def read_exactly(stream, n):
+    data = stream.read(n)
+    if len(data) != n:
+        sys.exit("signature ended early")
+    return data
+
+
+def main():
+    inp = sys.stdin.buffer
+    out = sys.stdout.buffer
+    magic, bs, basis_len, count = struct.unpack('>4sIqI', read_exactly(inp, 20))
+    if magic != b'STVD':
+        sys.exit("not a signature")
+    strong = []
+    by_weak = {}
+    last_len = basis_len - (count - 1) * bs if count else 0
+    short_block = count - 1 if count and last_len != bs else -1
+    short_weak = None
+    for i in range(count):
+        weak, s = struct.unpack('>I16s', read_exactly(inp, 20))
+        strong.append(s)
+        if i == short_block:
+            short_weak = weak
+        else:
+            by_weak.setdefault(weak, []).append(i)
+
+    path = sys.argv[1]
+    n = os.path.getsize(path)
+    pending = [-1, 0]  # first block and count of the copy being built up
+
+    def flush_copy():
+        if pending[0] >= 0:
+            out.write(b'C' + struct.pack('>II', pending[0], pending[1]))
+            pending[0], pending[1] = -1, 0
+
+    def copy(block):
+        if pending[0] >= 0 and pending[0] + pending[1] == block:
+            pending[1] += 1
+        else:
+            flush_copy()
+            pending[0], pending[1] = block, 1
+
+    with open(path, 'rb') as f:
+        m = mmap.mmap(f.fileno(), 0, access=mmap.ACCESS_READ) if n else b''
+
+        def literal(start, end):
+            if start < end:
+                flush_copy()
+                out.write(b'L' + struct.pack('>I', end - start))
+                out.write(m[start:end])
+
+        i = 0
+        lit = 0
+        expected = 0
+        weak = None
+        while n - i >= bs:
+            if weak is None:
+                weak = zlib.adler32(m[i:i + bs])
+            hit = -1
+            candidates = by_weak.get(weak)
+            if candidates is not None:
+                s = hashlib.md5(m[i:i + bs]).digest()
+                for block in candidates:
+                    if strong[block] == s:
+                        hit = block
+                        if block == expected:
+                            break
+            if hit >= 0:
+                literal(lit, i)
+                copy(hit)
+                expected = hit + 1
+                i += bs
+                lit = i
+                weak = None
+                continue
+            if n - i > bs:
+                a = weak & 0xffff
+                b = weak >> 16
+                o = m[i]
+                a = (a - o + m[i + bs]) % MOD
+                b = (b - bs * o + a - 1) % MOD
+                weak = (b << 16) | a
+            i += 1
+            if i - lit >= MAX_LITERAL:
+                literal(lit, i)
+                lit = i
+        if short_block >= 0 and n - i == last_len and zlib.adler32(m[i:n]) == short_weak \
+                and hashlib.md5(m[i:n]).digest() == strong[short_block]:
+            literal(lit, i)
+            copy(short_block)
+            lit = i = n
+        literal(lit, n)
+        flush_copy()
+        out.write(b'E' + struct.pack('>q', n) + hashlib.sha256(m).digest())
+    out.flush()
+
+
+main()
@@ -0,0 +1,57 @@
+package biz.donvi.syncthingversionpicker.files;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ListingCacheTest {
+
+    private static final Path DIR = Path.of("docs");
+
+    private static final FileWithLocation A = new FileWithLocation(Location.LocalCurrent, "a.txt", false, 5, 1000);
+    private static final FileWithLocation B = new FileWithLocation(Location.LocalCurrent, "b.txt", false, 6, 2000);
+
+    private final AtomicLong   now   = new AtomicLong();
+    private final ListingCache cache = new ListingCache(16, Duration.ofSeconds(30), now::get);
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        cache.put(DIR, Location.LocalCurrent, List.of(A));
+        advance(Duration.ofSeconds(29));
+        Assertions.assertEquals(List.of(A), cache.get(DIR, Location.LocalCurrent));
+        advance(Duration.ofSeconds(2));
+        Assertions.assertNull(cache.get(DIR, Location.LocalCurrent));
+    }
+
+    @Test
+    public void testPatchingDoesNotMakeEntriesYounger() {
+        cache.put(DIR, Location.LocalCurrent, List.of(A));
+        advance(Duration.ofSeconds(20));
+        cache.apply(new FileMutation.Created(Location.LocalCurrent, DIR.resolve("b.txt"), false, 6, 2000));
+        Assertions.assertEquals(List.of(A, B), cache.get(DIR, Location.LocalCurrent));
+        // Syncthing may have changed the directory since it was listed, whatever the app did to it.
+        advance(Duration.ofSeconds(20));
+        Assertions.assertNull(cache.get(DIR, Location.LocalCurrent));
+    }
+
+    @Test
+    public void testRefreshOnlyReplacesCachedEntries() {
+        cache.refresh(DIR, Location.LocalCurrent, List.of(A));
+        Assertions.assertNull(cache.get(DIR, Location.LocalCurrent));
+
+        cache.put(DIR, Location.LocalCurrent, List.of(A));
+        advance(Duration.ofSeconds(20));
+        cache.refresh(DIR, Location.LocalCurrent, List.of(A, B));
+        advance(Duration.ofSeconds(20));
+        Assertions.assertEquals(List.of(A, B), cache.get(DIR, Location.LocalCurrent));
+    }
+}
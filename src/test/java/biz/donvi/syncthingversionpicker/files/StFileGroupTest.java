@@ -0,0 +1,74 @@
+package biz.donvi.syncthingversionpicker.files;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Optional;
+
+public class StFileGroupTest {
+
+    private static long epochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static void add(StFileGroup group, Location location, String name, LocalDateTime modified) {
+        group.add(group.new File(new ParsedFileName(name), location, 10, epochMillis(modified)));
+    }
+
+    private static Optional<String> nameAt(StFileGroup group, LocalDateTime time) {
+        return group.resolveAt(time).map(f -> f.nameInfo.originalName());
+    }
+
+    @Test
+    public void testResolveAt() {
+        var group = new StFileGroup(null, null, Path.of("notes.md"));
+        add(group, Location.LocalCurrent, "notes.md", LocalDateTime.of(2024, 5, 1, 0, 0));
+        add(group, Location.RemoteVersions, "notes~20240301-000000.md", LocalDateTime.of(2024, 2, 1, 0, 0));
+        add(group, Location.LocalVersions, "notes~20240401-000000.md", LocalDateTime.of(2024, 3, 1, 0, 0));
+        add(group, Location.RemoteVersions, "notes~20240401-000000.md", LocalDateTime.of(2024, 3, 1, 0, 0));
+        add(group, Location.LocalCurrent, "notes.sync-conflict-20240315-000000-ABCDEFG.md",
+            LocalDateTime.of(2024, 3, 15, 0, 0));
+
+        // Before the oldest content was written, the file didn't exist yet.
+        Assertions.assertEquals(Optional.empty(), nameAt(group, LocalDateTime.of(2024, 1, 15, 0, 0)));
+        Assertions.assertEquals(Optional.of("notes~20240301-000000.md"),
+                                nameAt(group, LocalDateTime.of(2024, 2, 15, 0, 0)));
+        // A version holds the content up to (not including) the moment it was replaced. Of identical versions, the
+        // cheaper one is used.
+        Assertions.assertEquals(Optional.of("notes~20240401-000000.md"),
+                                nameAt(group, LocalDateTime.of(2024, 3, 1, 0, 0)));
+        Assertions.assertEquals(Location.LocalVersions,
+                                group.resolveAt(LocalDateTime.of(2024, 3, 20, 0, 0)).orElseThrow().location);
+        // The current file was edited in place after then, but the file plainly existed, so the nearest known
+        // content stands in.
+        Assertions.assertEquals(Optional.of("notes.md"), nameAt(group, LocalDateTime.of(2024, 4, 15, 0, 0)));
+        Assertions.assertEquals(Optional.of("notes.md"), nameAt(group, LocalDateTime.of(2024, 6, 1, 0, 0)));
+
+        // Once the current file is gone, the file was deleted when its last version was made.
+        group.apply(new FileMutation.Deleted(Location.LocalCurrent, Path.of("notes.md"), false));
+        Assertions.assertEquals(Optional.empty(), nameAt(group, LocalDateTime.of(2024, 6, 1, 0, 0)));
+        Assertions.assertEquals(Optional.of("notes~20240401-000000.md"),
+                                nameAt(group, LocalDateTime.of(2024, 3, 20, 0, 0)));
+    }
+
+    @Test
+    public void testResolveAtEditedInPlace() {
+        // A file that was only ever edited in place has just its current content and modified time to go on.
+        var group = new StFileGroup(null, null, Path.of("todo.txt"));
+        add(group, Location.LocalCurrent, "todo.txt", LocalDateTime.of(2024, 5, 1, 0, 0));
+        add(group, Location.RemoteCurrent, "todo.txt", LocalDateTime.of(2024, 5, 1, 0, 0));
+        Assertions.assertEquals(Optional.empty(), nameAt(group, LocalDateTime.of(2024, 4, 30, 0, 0)));
+        Assertions.assertEquals(Location.LocalCurrent,
+                                group.resolveAt(LocalDateTime.of(2024, 5, 2, 0, 0)).orElseThrow().location);
+
+        // Once a version shows the file was around earlier, the current content stands in for the time in between.
+        add(group, Location.LocalVersions, "todo~20240201-000000.txt", LocalDateTime.of(2024, 1, 1, 0, 0));
+        Assertions.assertEquals(Optional.of("todo.txt"), nameAt(group, LocalDateTime.of(2024, 4, 30, 0, 0)));
+        Assertions.assertEquals(Optional.of("todo~20240201-000000.txt"),
+                                nameAt(group, LocalDateTime.of(2024, 1, 15, 0, 0)));
+        Assertions.assertEquals(Optional.empty(), nameAt(group, LocalDateTime.of(2023, 12, 1, 0, 0)));
+    }
+}
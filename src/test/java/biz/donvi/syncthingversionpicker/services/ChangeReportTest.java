@@ -0,0 +1,60 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.ChangeReport.FileChanges;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+
+public class ChangeReportTest {
+
+    private static FileWithLocation file(Location location, String name, LocalDateTime modified) {
+        return new FileWithLocation(location, name, false, 10, modified.atZone(ZoneId.systemDefault())
+                                                                       .toInstant().toEpochMilli());
+    }
+
+    @Test
+    public void testChangesIn() {
+        LocalDateTime old = LocalDateTime.of(2023, 1, 1, 0, 0);
+        var listings = Map.of(
+            Location.LocalCurrent, List.of(
+                file(Location.LocalCurrent, "a.txt", LocalDateTime.of(2024, 3, 1, 11, 59)),
+                file(Location.LocalCurrent, "new.txt", LocalDateTime.of(2024, 3, 5, 8, 0)),
+                file(Location.LocalCurrent, "same.txt", old),
+                file(Location.LocalCurrent, "a.sync-conflict-20240302-000000-ABCDEFG.txt",
+                     LocalDateTime.of(2024, 3, 2, 0, 0)),
+                new FileWithLocation(Location.LocalCurrent, "sub", true, -1, -1)),
+            Location.RemoteCurrent, List.of(
+                file(Location.RemoteCurrent, "a.txt", LocalDateTime.of(2024, 3, 1, 11, 59))),
+            Location.LocalVersions, List.of(
+                file(Location.LocalVersions, "a~20240201-120000.txt", old),
+                file(Location.LocalVersions, "a~20240301-120000.txt", old),
+                file(Location.LocalVersions, "gone~20240310-090000.txt", old)),
+            Location.RemoteVersions, List.of(
+                file(Location.RemoteVersions, "a~20240301-120000.txt", old),
+                file(Location.RemoteVersions, "a~20231201-120000.txt", old))
+        );
+        List<FileChanges> changes = ChangeReport.changesIn(
+            Path.of("docs"), listings, LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2024, 4, 1, 0, 0));
+        Assertions.assertEquals(List.of(
+            // The same version on both sides counts once, and the current file is what replaced the newest one.
+            new FileChanges(Path.of("docs", "a.txt"), 2,
+                            LocalDateTime.of(2024, 2, 1, 12, 0), LocalDateTime.of(2024, 3, 1, 12, 0)),
+            new FileChanges(Path.of("docs", "gone.txt"), 1,
+                            LocalDateTime.of(2024, 3, 10, 9, 0), LocalDateTime.of(2024, 3, 10, 9, 0)),
+            new FileChanges(Path.of("docs", "new.txt"), 1,
+                            LocalDateTime.of(2024, 3, 5, 8, 0), LocalDateTime.of(2024, 3, 5, 8, 0))
+        ), changes);
+
+        // The end of the window is exclusive.
+        Assertions.assertEquals(List.of(Path.of("docs", "a.txt")), ChangeReport.changesIn(
+            Path.of("docs"), listings, LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2024, 3, 1, 12, 0)
+        ).stream().map(FileChanges::relativePath).toList());
+    }
+}
@@ -0,0 +1,84 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder.ConflictGroup;
+import biz.donvi.syncthingversionpicker.services.ConflictFinder.Copy;
+import biz.donvi.syncthingversionpicker.services.ConflictResolver.Resolution;
+import biz.donvi.syncthingversionpicker.services.ConflictResolver.Rule;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class ConflictResolverTest {
+
+    private static final String CONFLICT_A = "notes.sync-conflict-20240301-120000-AAAAAAA.md";
+    private static final String CONFLICT_B = "notes.sync-conflict-20240302-120000-BBBBBBB.md";
+
+    private static FileWithLocation file(Location location, String name, long lastModified) {
+        return new FileWithLocation(location, name, false, 10, lastModified);
+    }
+
+    private static ConflictGroup sampleGroup() {
+        List<ConflictGroup> groups = ConflictFinder.conflictsIn(Path.of("docs"), Map.of(
+            Location.LocalCurrent, List.of(
+                file(Location.LocalCurrent, "notes.md", 300),
+                file(Location.LocalCurrent, CONFLICT_A, 100),
+                file(Location.LocalCurrent, CONFLICT_B, 200),
+                file(Location.LocalCurrent, "other.md", 100)),
+            Location.RemoteCurrent, List.of(
+                file(Location.RemoteCurrent, "notes.md", 300)),
+            Location.RemoteVersions, List.of(
+                file(Location.RemoteVersions, "notes.sync-conflict-20240101-120000-CCCCCCC~20240102-000000.md", 50))
+        ));
+        Assertions.assertEquals(1, groups.size());
+        return groups.getFirst();
+    }
+
+    private static List<String> names(List<Copy> copies) {
+        return copies.stream().map(c -> c.rawRelativePath().getFileName().toString()).sorted().toList();
+    }
+
+    @Test
+    public void testFindConflicts() {
+        ConflictGroup group = sampleGroup();
+        Assertions.assertEquals(Path.of("docs", "notes.md"), group.relativePath());
+        Assertions.assertEquals(5, group.files().size());
+        Assertions.assertEquals(3, group.conflicts().size());
+        Assertions.assertEquals(List.of("AAAAAAA", "BBBBBBB", "CCCCCCC"), List.copyOf(group.devices()));
+        Assertions.assertEquals(LocalDateTime.of(2024, 3, 1, 12, 0), group.conflicts().stream()
+            .filter(c -> c.device().equals("AAAAAAA")).findFirst().orElseThrow().conflictDate());
+        Assertions.assertEquals(List.of(), ConflictFinder.conflictsIn(Path.of(""), Map.of(
+            Location.LocalCurrent, List.of(file(Location.LocalCurrent, "plain.txt", 1)))));
+    }
+
+    @Test
+    public void testPlan() {
+        ConflictGroup group = sampleGroup();
+        // Only local current files are touched.
+        Resolution newest = ConflictResolver.plan(group, new Rule.KeepNewest()).orElseThrow();
+        Assertions.assertEquals("notes.md", newest.winner().rawRelativePath().getFileName().toString());
+        Assertions.assertEquals(List.of(CONFLICT_A, CONFLICT_B), names(newest.losers()));
+
+        Resolution device = ConflictResolver.plan(group, new Rule.KeepDevice("AAAAAAA")).orElseThrow();
+        Assertions.assertEquals(CONFLICT_A, device.winner().rawRelativePath().getFileName().toString());
+        Assertions.assertEquals(List.of("notes.md", CONFLICT_B), names(device.losers()));
+
+        // The remote versions copy can't be kept.
+        Assertions.assertEquals(Optional.empty(), ConflictResolver.plan(group, new Rule.KeepDevice("CCCCCCC")));
+    }
+
+    @Test
+    public void testVersionName() {
+        LocalDateTime stamp = LocalDateTime.of(2024, 5, 6, 7, 8, 9);
+        Assertions.assertEquals("notes~20240506-070809.md", ConflictResolver.versionName("notes.md", stamp));
+        Assertions.assertEquals("notes.sync-conflict-20240301-120000-AAAAAAA~20240506-070809.md",
+                                ConflictResolver.versionName(CONFLICT_A, stamp));
+        Assertions.assertEquals("Makefile~20240506-070809", ConflictResolver.versionName("Makefile", stamp));
+    }
+}
@@ -0,0 +1,137 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Describes a target file as a delta against a {@link DeltaSignature}. This is the Java twin of the matching loop in
+ * {@code delta-helper.py}, which is what actually runs on the remote. It lets the format be tested without python
+ * (see {@link DeltaHelperTest} for the helper itself).
+ * <br/> The target is walked one block at a time for as long as blocks keep matching, which is the common case for
+ * files that only changed a little. Only where they stop matching does the weak checksum get rolled byte by byte
+ * until the two files line up again.
+ */
+public final class DeltaEncoder {
+
+    /** Literal runs are sent in pieces of at most this size, so neither side has to buffer much. */
+    static final int MAX_LITERAL = 1024 * 1024;
+
+    private final DeltaSignature              signature;
+    private final Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+    /** The last block, if it is shorter than the others. It can only ever match at the very end of the target. */
+    private final int                         shortBlock;
+
+    private DataOutputStream out;
+    private int              copyStart = -1;
+    private int              copyCount = 0;
+
+    public DeltaEncoder(DeltaSignature signature) {
+        this.signature = signature;
+        int count = signature.blockCount();
+        boolean lastIsShort = count > 0 && signature.blockLength(count - 1) != signature.blockSize;
+        for (int i = 0; i < (lastIsShort ? count - 1 : count); i++)
+            blocksByWeak.computeIfAbsent(signature.weak[i], k -> new ArrayList<>(1)).add(i);
+        this.shortBlock = lastIsShort ? count - 1 : -1;
+    }
+
+    /**
+     * Writes the delta that turns the basis into {@code target}.
+     *
+     * @param target The wanted file.
+     * @param output Where to write the delta. It is flushed, but not closed.
+     */
+    public void encode(byte[] target, OutputStream output) throws IOException {
+        out = new DataOutputStream(output);
+        int bs = signature.blockSize;
+        int n = target.length;
+        MessageDigest md5 = DeltaSignature.md5();
+        int i = 0;
+        int literalStart = 0;
+        int nextExpected = 0;
+        boolean haveWeak = false;
+        int weak = 0;
+        while (n - i >= bs) {
+            if (!haveWeak) {
+                weak = DeltaSignature.weakChecksum(target, i, bs);
+                haveWeak = true;
+            }
+            int hit = -1;
+            List<Integer> candidates = blocksByWeak.get(weak);
+            if (candidates != null) {
+                md5.update(target, i, bs);
+                byte[] strong = md5.digest();
+                for (int block : candidates) {
+                    if (Arrays.equals(signature.strong[block], strong)) {
+                        hit = block;
+                        // Prefer the block that follows the last match, so runs of copies stay together.
+                        if (block == nextExpected)
+                            break;
+                    }
+                }
+            }
+            if (hit >= 0) {
+                literal(target, literalStart, i);
+                copy(hit);
+                nextExpected = hit + 1;
+                i += bs;
+                literalStart = i;
+                haveWeak = false;
+                continue;
+            }
+            if (n - i > bs)
+                weak = DeltaSignature.roll(weak, target[i] & 0xff, target[i + bs] & 0xff, bs);
+            i++;
+            if (i - literalStart >= MAX_LITERAL) {
+                literal(target, literalStart, i);
+                literalStart = i;
+            }
+        }
+        if (shortBlock >= 0 && n - i == signature.blockLength(shortBlock)
+            && DeltaSignature.weakChecksum(target, i, n - i) == signature.weak[shortBlock]) {
+            md5.update(target, i, n - i);
+            if (Arrays.equals(signature.strong[shortBlock], md5.digest())) {
+                literal(target, literalStart, i);
+                copy(shortBlock);
+                literalStart = i = n;
+            }
+        }
+        literal(target, literalStart, n);
+        flushCopy();
+        out.writeByte(DeltaSignature.OP_END);
+        out.writeLong(n);
+        out.write(RestoreJournal.newSha256().digest(target));
+        out.flush();
+    }
+
+    private void copy(int block) throws IOException {
+        if (copyStart >= 0 && copyStart + copyCount == block) {
+            copyCount++;
+            return;
+        }
+        flushCopy();
+        copyStart = block;
+        copyCount = 1;
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyStart < 0)
+            return;
+        out.writeByte(DeltaSignature.OP_COPY);
+        out.writeInt(copyStart);
+        out.writeInt(copyCount);
+        copyStart = -1;
+        copyCount = 0;
+    }
+
+    private void literal(byte[] target, int from, int to) throws IOException {
+        if (from >= to)
+            return;
+        flushCopy();
+        out.writeByte(DeltaSignature.OP_LITERAL);
+        out.writeInt(to - from);
+        out.write(target, from, to - from);
+    }
+}
@@ -0,0 +1,112 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@code delta-helper.py} (the encoder that actually runs on the remote) against {@link DeltaApplier}. Skipped
+ * if there's no {@code python3} on this machine.
+ */
+public class DeltaHelperTest {
+
+    private static String helper() throws IOException {
+        try (InputStream in = DeltaSignature.class.getResourceAsStream("delta-helper.py")) {
+            Assertions.assertNotNull(in);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean hasPython() {
+        try {
+            Process process = new ProcessBuilder("python3", "--version")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            return process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Runs the helper the same way a delta restore does, with the command's streams standing in for the remote's. */
+    private static DeltaApplier.Stats roundTrip(byte[] basis, byte[] target) throws Exception {
+        Assumptions.assumeTrue(hasPython(), "python3 is not available");
+        Path basisFile = Files.createTempFile("stvp-basis", ".bin");
+        Path targetFile = Files.createTempFile("stvp-target", ".bin");
+        try {
+            Files.write(basisFile, basis);
+            Files.write(targetFile, target);
+            DeltaSignature signature = DeltaSignature.of(basisFile);
+            Process process = new ProcessBuilder("python3", "-c", helper(), targetFile.toString()).start();
+            try (OutputStream stdin = process.getOutputStream()) {
+                signature.writeTo(stdin);
+            }
+            var rebuilt = new ByteArrayOutputStream();
+            var stats = DeltaApplier.apply(process.getInputStream(), signature, basisFile, rebuilt);
+            Assertions.assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, process.exitValue(),
+                                    new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8));
+            Assertions.assertArrayEquals(target, rebuilt.toByteArray());
+            return stats;
+        } finally {
+            Files.delete(basisFile);
+            Files.delete(targetFile);
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testIdenticalFiles() throws Exception {
+        byte[] data = randomBytes(300_000, 1);
+        Assertions.assertEquals(0, roundTrip(data, data).literalBytes());
+    }
+
+    @Test
+    public void testSmallEditOnlySendsTheEdit() throws Exception {
+        byte[] basis = randomBytes(1_000_000, 2);
+        byte[] target = basis.clone();
+        target[500_000] ^= 1;
+        var stats = roundTrip(basis, target);
+        Assertions.assertTrue(stats.literalBytes() <= DeltaSignature.blockSizeFor(basis.length));
+    }
+
+    @Test
+    public void testInsertionShiftsTheRest() throws Exception {
+        byte[] basis = randomBytes(500_000, 3);
+        byte[] target = new byte[basis.length + 7];
+        System.arraycopy(basis, 0, target, 0, 100_000);
+        System.arraycopy("INSERTED".getBytes(), 0, target, 100_000, 7);
+        System.arraycopy(basis, 100_000, target, 100_007, basis.length - 100_000);
+        var stats = roundTrip(basis, target);
+        Assertions.assertTrue(stats.literalBytes() < 2L * DeltaSignature.blockSizeFor(basis.length));
+    }
+
+    @Test
+    public void testUnrelatedAndEmptyFiles() throws Exception {
+        roundTrip(randomBytes(50_000, 4), randomBytes(70_001, 5));
+        roundTrip(new byte[0], randomBytes(10, 6));
+        roundTrip(randomBytes(10, 7), new byte[0]);
+        // The short last block of the basis can only match at the very end.
+        byte[] basis = randomBytes(100_003, 8);
+        roundTrip(basis, basis.clone());
+    }
+}
@@ -0,0 +1,101 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class DeltaRoundTripTest {
+
+    private static DeltaApplier.Stats roundTrip(byte[] basis, byte[] target) throws IOException {
+        Path basisFile = Files.createTempFile("stvp-basis", ".bin");
+        try {
+            Files.write(basisFile, basis);
+            DeltaSignature signature = DeltaSignature.of(basisFile);
+            var delta = new ByteArrayOutputStream();
+            new DeltaEncoder(signature).encode(target, delta);
+            var rebuilt = new ByteArrayOutputStream();
+            var stats = DeltaApplier.apply(
+                new ByteArrayInputStream(delta.toByteArray()), signature, basisFile, rebuilt);
+            Assertions.assertArrayEquals(target, rebuilt.toByteArray());
+            return stats;
+        } finally {
+            Files.delete(basisFile);
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testIdenticalFiles() throws IOException {
+        byte[] data = randomBytes(300_000, 1);
+        var stats = roundTrip(data, data);
+        Assertions.assertEquals(0, stats.literalBytes());
+    }
+
+    @Test
+    public void testSmallEditOnlySendsTheEdit() throws IOException {
+        byte[] basis = randomBytes(1_000_000, 2);
+        byte[] target = basis.clone();
+        target[500_000] ^= 1;
+        var stats = roundTrip(basis, target);
+        Assertions.assertTrue(stats.literalBytes() <= DeltaSignature.blockSizeFor(basis.length));
+    }
+
+    @Test
+    public void testInsertionShiftsTheRest() throws IOException {
+        byte[] basis = randomBytes(500_000, 3);
+        byte[] target = new byte[basis.length + 7];
+        System.arraycopy(basis, 0, target, 0, 100_000);
+        System.arraycopy("INSERTED".getBytes(), 0, target, 100_000, 7);
+        System.arraycopy(basis, 100_000, target, 100_007, basis.length - 100_000);
+        var stats = roundTrip(basis, target);
+        // Everything after the insertion is found again by rolling the checksum.
+        Assertions.assertTrue(stats.literalBytes() < 2L * DeltaSignature.blockSizeFor(basis.length));
+    }
+
+    @Test
+    public void testUnrelatedAndEmptyFiles() throws IOException {
+        roundTrip(randomBytes(50_000, 4), randomBytes(70_001, 5));
+        roundTrip(new byte[0], randomBytes(10, 6));
+        roundTrip(randomBytes(10, 7), new byte[0]);
+    }
+
+    @Test
+    public void testRollingMatchesFreshChecksum() {
+        byte[] data = randomBytes(5000, 8);
+        int window = 2048;
+        int weak = DeltaSignature.weakChecksum(data, 0, window);
+        for (int i = 0; i + window < data.length; i++) {
+            weak = DeltaSignature.roll(weak, data[i] & 0xff, data[i + window] & 0xff, window);
+            Assertions.assertEquals(DeltaSignature.weakChecksum(data, i + 1, window), weak);
+        }
+    }
+
+    @Test
+    public void testCorruptDeltaIsRejected() throws IOException {
+        byte[] basis = randomBytes(100_000, 9);
+        Path basisFile = Files.createTempFile("stvp-basis", ".bin");
+        try {
+            Files.write(basisFile, basis);
+            DeltaSignature signature = DeltaSignature.of(basisFile);
+            var delta = new ByteArrayOutputStream();
+            new DeltaEncoder(signature).encode(randomBytes(100_000, 10), delta);
+            byte[] corrupt = delta.toByteArray();
+            corrupt[corrupt.length / 2] ^= 1;
+            Assertions.assertThrows(IOException.class, () -> DeltaApplier.apply(
+                new ByteArrayInputStream(corrupt), signature, basisFile, new ByteArrayOutputStream()));
+        } finally {
+            Files.delete(basisFile);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DirectoryRollupsTest {
+
+    private static long[] own(int localVersions, int remoteVersions) {
+        return DirectoryRollups.ownTotalsOf(Map.of(
+            Location.LocalVersions, files(Location.LocalVersions, localVersions),
+            Location.RemoteVersions, files(Location.RemoteVersions, remoteVersions)));
+    }
+
+    private static List<FileWithLocation> files(Location location, int count) {
+        var files = new ArrayList<FileWithLocation>();
+        for (int i = 0; i < count; i++)
+            files.add(new FileWithLocation(location, "f" + i + "~20240101-000000.txt", false, 100, -1));
+        files.add(new FileWithLocation(location, "sub", true, -1, -1));
+        return files;
+    }
+
+    /** Builds `a/b` and `a.old` under the root the way the crawler would, leaving each directory bottom-up. */
+    private static DirectoryRollups built() {
+        var rollups = new DirectoryRollups(null);
+        rollups.put("", own(1, 0));
+        rollups.put("a", own(2, 1));
+        rollups.put("a.old", own(0, 4));
+        rollups.put("a/b", own(3, 3));
+        rollups.rollUp("a/b");
+        rollups.rollUp("a");
+        rollups.rollUp("a.old");
+        rollups.rollUp("");
+        return rollups;
+    }
+
+    @Test
+    public void testBuildRollsUp() {
+        var rollups = built();
+        var root = rollups.of(Path.of(""));
+        Assertions.assertEquals(6, root.files(Location.LocalVersions));
+        Assertions.assertEquals(8, root.files(Location.RemoteVersions));
+        Assertions.assertEquals(1400, root.versionBytes());
+        Assertions.assertEquals(9, rollups.of(Path.of("a")).versions());
+        Assertions.assertEquals(6, rollups.of(Path.of("a", "b")).versions());
+        Assertions.assertEquals(0, rollups.of(Path.of("missing")).versions());
+    }
+
+    @Test
+    public void testChangesOnlyTouchAncestors() {
+        var rollups = built();
+        rollups.replaceOwn("a/b", own(5, 3));
+        Assertions.assertEquals(8, rollups.of(Path.of("a", "b")).versions());
+        Assertions.assertEquals(11, rollups.of(Path.of("a")).versions());
+        Assertions.assertEquals(16, rollups.of(Path.of("")).versions());
+        Assertions.assertEquals(4, rollups.of(Path.of("a.old")).versions());
+
+        // A directory that's new gets added on the fly.
+        rollups.replaceOwn("a/c", own(1, 0));
+        Assertions.assertEquals(12, rollups.of(Path.of("a")).versions());
+        Assertions.assertEquals(17, rollups.of(Path.of("")).versions());
+    }
+
+    @Test
+    public void testRemoveAndMoveTree() {
+        var rollups = built();
+        rollups.removeTree("a", Location.LocalVersions);
+        Assertions.assertEquals(4, rollups.of(Path.of("a")).versions());
+        Assertions.assertEquals(1, rollups.of(Path.of("")).files(Location.LocalVersions));
+        // A sibling whose name starts the same isn't part of the subtree.
+        Assertions.assertEquals(4, rollups.of(Path.of("a.old")).versions());
+
+        rollups.moveTree("a", "z", Location.RemoteVersions);
+        Assertions.assertEquals(0, rollups.of(Path.of("a")).versions());
+        Assertions.assertEquals(4, rollups.of(Path.of("z")).versions());
+        Assertions.assertEquals(3, rollups.of(Path.of("z", "b")).versions());
+        Assertions.assertEquals(9, rollups.of(Path.of("")).versions());
+    }
+}
@@ -0,0 +1,41 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.ManifestExporter.Format;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+public class ManifestExporterTest {
+
+    @Test
+    public void testCsvRows() {
+        Assertions.assertEquals(
+            "location,path,file,sync date,conflict date,conflict device,size,modified\n", Format.Csv.header());
+        Assertions.assertEquals(
+            "RemoteVersions,a/b~20240101-120000.txt,a/b.txt,2024-01-01T12:00,,,12,2024-01-01T12:00:00Z\n",
+            Format.Csv.row(Location.RemoteVersions, "a/b~20240101-120000.txt", "a/b.txt", "2024-01-01T12:00",
+                           null, null, 12L, "2024-01-01T12:00:00Z"));
+        Assertions.assertEquals(
+            "LocalCurrent,\"x, \"\"y\"\"\",\"line\nbreak\",,,,,\n",
+            Format.Csv.row(Location.LocalCurrent, "x, \"y\"", "line\nbreak", null, null, null, null, null));
+    }
+
+    @Test
+    public void testJsonLinesRows() {
+        Assertions.assertEquals("", Format.JsonLines.header());
+        Assertions.assertEquals(
+            "{\"location\":\"LocalVersions\",\"path\":\"q\\\"\\\\\\n\\u0001\",\"file\":\"q\",\"sync date\":null,"
+            + "\"conflict date\":\"2024-01-01T12:00\",\"conflict device\":\"ABCDEFG\",\"size\":0,\"modified\":null}\n",
+            Format.JsonLines.row(Location.LocalVersions, "q\"\\\n\u0001", "q", null, "2024-01-01T12:00", "ABCDEFG",
+                                 0L, null));
+    }
+
+    @Test
+    public void testFormatForFile() {
+        Assertions.assertEquals(Format.JsonLines, Format.forFile(Path.of("out", "manifest.JSONL")));
+        Assertions.assertEquals(Format.Csv, Format.forFile(Path.of("manifest.csv")));
+        Assertions.assertEquals(Format.Csv, Format.forFile(Path.of("manifest")));
+    }
+}
@@ -0,0 +1,55 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.services.PrunePlan.Rule;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+
+public class PrunePlannerTest {
+
+    private static final LocalDateTime JAN = LocalDateTime.of(2024, 1, 1, 12, 0);
+    private static final LocalDateTime FEB = LocalDateTime.of(2024, 2, 1, 12, 0);
+    private static final LocalDateTime MAR = LocalDateTime.of(2024, 3, 1, 12, 0);
+    private static final LocalDateTime APR = LocalDateTime.of(2024, 4, 1, 12, 0);
+
+    /** The versions of a file, in no particular order. */
+    private static final List<LocalDateTime> VERSIONS = List.of(FEB, APR, JAN, MAR);
+
+    private static List<LocalDateTime> toPrune(boolean hasCurrent, Rule rule) {
+        return PrunePlanner.toPrune(VERSIONS, Function.identity(), hasCurrent, rule);
+    }
+
+    @Test
+    public void testKeepNewest() {
+        Assertions.assertEquals(List.of(FEB, JAN), toPrune(true, new Rule.KeepNewest(2)));
+        Assertions.assertEquals(List.of(MAR, FEB, JAN), toPrune(true, new Rule.KeepNewest(1)));
+        Assertions.assertEquals(List.of(), toPrune(true, new Rule.KeepNewest(10)));
+        Assertions.assertEquals(List.of(MAR, FEB, JAN), toPrune(false, new Rule.KeepNewest(1)));
+    }
+
+    @Test
+    public void testKeepNewestMustKeepSomething() {
+        // Keeping nothing would delete the only copy of a file that was deleted.
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Rule.KeepNewest(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Rule.KeepNewest(-1));
+    }
+
+    @Test
+    public void testOlderThan() {
+        Assertions.assertEquals(List.of(FEB, JAN), toPrune(true, new Rule.OlderThan(MAR)));
+        Assertions.assertEquals(List.of(), toPrune(true, new Rule.OlderThan(JAN)));
+        Assertions.assertEquals(List.of(APR, MAR, FEB, JAN), toPrune(true, new Rule.OlderThan(APR.plusDays(1))));
+    }
+
+    @Test
+    public void testOlderThanKeepsNewestOfDeletedFile() {
+        // Without a current copy, the newest version is all that's left of the file.
+        Assertions.assertEquals(List.of(MAR, FEB, JAN), toPrune(false, new Rule.OlderThan(APR.plusDays(1))));
+        Assertions.assertEquals(List.of(FEB, JAN), toPrune(false, new Rule.OlderThan(MAR)));
+        Assertions.assertEquals(List.of(), PrunePlanner.toPrune(
+            List.<LocalDateTime>of(), Function.identity(), false, new Rule.OlderThan(APR)));
+    }
+}
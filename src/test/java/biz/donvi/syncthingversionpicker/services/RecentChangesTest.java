@@ -0,0 +1,59 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.RecentChanges.Hit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class RecentChangesTest {
+
+    private static Hit hit(Location location, String raw, int day) {
+        return new Hit(location, Path.of(raw), Path.of(raw.replaceAll("~\\d{8}-\\d{6}", "")),
+                       LocalDateTime.of(2024, 1, day, 0, 0), 10);
+    }
+
+    private static List<String> paths(List<Hit> hits) {
+        return hits.stream().map(h -> h.location() + ":" + h.rawRelativePath()).toList();
+    }
+
+    @Test
+    public void testKeepsNewest() {
+        var top = new RecentChanges.TopK(3);
+        top.offerAll(List.of(
+            hit(Location.RemoteVersions, "a~20240105-000000.txt", 5),
+            hit(Location.RemoteVersions, "b~20240101-000000.txt", 1),
+            hit(Location.RemoteVersions, "c~20240109-000000.txt", 9)));
+        top.offerAll(List.of(
+            hit(Location.LocalVersions, "d~20240103-000000.txt", 3),
+            hit(Location.LocalVersions, "e~20240107-000000.txt", 7)));
+        Assertions.assertEquals(List.of(
+            "RemoteVersions:c~20240109-000000.txt",
+            "LocalVersions:e~20240107-000000.txt",
+            "RemoteVersions:a~20240105-000000.txt"
+        ), paths(top.snapshot()));
+
+        // Anything older than all three is turned away without changing anything.
+        long changes = top.changes();
+        top.offerAll(List.of(hit(Location.LocalVersions, "f~20240102-000000.txt", 2)));
+        Assertions.assertEquals(changes, top.changes());
+    }
+
+    @Test
+    public void testPrefersLocalCopy() {
+        var top = new RecentChanges.TopK(2);
+        top.offerAll(List.of(
+            hit(Location.RemoteVersions, "a~20240105-000000.txt", 5),
+            hit(Location.RemoteVersions, "b~20240104-000000.txt", 4)));
+        top.offerAll(List.of(
+            hit(Location.LocalVersions, "a~20240105-000000.txt", 5),
+            hit(Location.RemoteVersions, "a~20240105-000000.txt", 5)));
+        Assertions.assertEquals(List.of(
+            "LocalVersions:a~20240105-000000.txt",
+            "RemoteVersions:b~20240104-000000.txt"
+        ), paths(top.snapshot()));
+    }
+}
@@ -0,0 +1,151 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister;
+import biz.donvi.syncthingversionpicker.files.LocalDirectoryLister;
+import biz.donvi.syncthingversionpicker.files.StDirectory;
+import biz.donvi.syncthingversionpicker.files.StFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class RestoreJobTest {
+
+    private static final RestoreJob.Limits LIMITS = new RestoreJob.Limits(2, 2, 2, 4);
+
+    /** Makes a local-only folder with a current and a versions directory, and a few versions in them. */
+    private static Path sampleTree() throws IOException {
+        Path root = Files.createTempDirectory("stvp-restore");
+        Files.createDirectories(root.resolve("current"));
+        Path versions = Files.createDirectories(root.resolve("versions").resolve("docs"));
+        Files.writeString(versions.resolve("a~20240101-000000.txt"), "old a");
+        Files.writeString(versions.resolve("a~20240201-000000.txt"), "newer a");
+        Files.writeString(root.resolve("versions").resolve("b~20240101-000000.txt"), "b");
+        Files.writeString(root.resolve("current").resolve("c.txt"), "c");
+        return root;
+    }
+
+    private static StDirectory rootDir(Path root) {
+        return StFile.newRootDir(
+            null, new LocalDirectoryLister(root.resolve("current"), root.resolve("versions")),
+            DirectoryLister.emptyLister);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRestoresNewestVersions() throws Exception {
+        Path root = sampleTree();
+        try {
+            Path journalFile = root.resolve("restore.journal");
+            RestoreJob job = new RestoreJob(
+                new FileManipulationService(), rootDir(root), false, FileManipulationService::newestVersion, LIMITS,
+                RestoreJournal.open(journalFile, root.resolve("current"))
+            ).start();
+            List<File> restored = job.future().get(30, TimeUnit.SECONDS);
+
+            Assertions.assertEquals(2, restored.size());
+            Assertions.assertEquals("newer a", Files.readString(root.resolve("current/docs/a.txt")));
+            Assertions.assertEquals("b", Files.readString(root.resolve("current/b.txt")));
+            Assertions.assertEquals("c", Files.readString(root.resolve("current/c.txt")));
+            Assertions.assertEquals(0, job.progress().filesFailed());
+            Assertions.assertTrue(job.progress().finished());
+            // Nothing is left to do, so there's nothing to resume.
+            Assertions.assertFalse(Files.exists(journalFile));
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @Test
+    public void testMovesCurrentFileAside() throws Exception {
+        Path root = sampleTree();
+        try {
+            Files.writeString(root.resolve("current/b.txt"), "current b");
+            RestoreJob job = new RestoreJob(
+                new FileManipulationService(), rootDir(root), true, FileManipulationService::newestVersion, LIMITS,
+                RestoreJournal.open(root.resolve("restore.journal"), root.resolve("current"))
+            ).start();
+            job.future().get(30, TimeUnit.SECONDS);
+
+            Assertions.assertEquals("b", Files.readString(root.resolve("current/b.txt")));
+            Assertions.assertEquals("current b", Files.readString(root.resolve("current/b~VP-PREV.txt")));
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @Test
+    public void testNeverOverwritesUnlistedCurrentFile() throws Exception {
+        Path root = sampleTree();
+        try {
+            Path unlisted = root.resolve("current/b.txt");
+            Path journalFile = root.resolve("restore.journal");
+            RestoreJob job = new RestoreJob(
+                new FileManipulationService(), rootDir(root), false,
+                group -> {
+                    // Shows up after the listing, so the job doesn't know to move it aside.
+                    if (group.getRelativePath().equals(Path.of("b.txt"))) try {
+                        Files.writeString(unlisted, "appeared");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return FileManipulationService.newestVersion(group);
+                },
+                LIMITS, RestoreJournal.open(journalFile, root.resolve("current"))
+            ).start();
+            job.future().get(30, TimeUnit.SECONDS);
+
+            Assertions.assertEquals("appeared", Files.readString(unlisted));
+            Path restored = root.resolve("current/docs/a.txt");
+            Assertions.assertEquals("newer a", Files.readString(restored));
+            Assertions.assertEquals(1, job.progress().filesFailed());
+            // The failed file keeps the journal around, and the local copy that did get restored has a checksum in it.
+            Map<String, RestoreJournal.Entry> entries = new HashMap<>();
+            RestoreJournal.read(journalFile, entries);
+            Assertions.assertEquals(
+                RestoreJournal.sha256Of(restored), entries.get(Path.of("docs", "a.txt").toString()).sha256());
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @Test
+    public void testFailedWalkKeepsJournal() throws Exception {
+        Path root = sampleTree();
+        try {
+            Path journalFile = root.resolve("restore.journal");
+            RestoreJob job = new RestoreJob(
+                new FileManipulationService(), rootDir(root), false,
+                group -> {
+                    throw new IllegalStateException("picker failed");
+                },
+                LIMITS, RestoreJournal.open(journalFile, root.resolve("current"))
+            ).start();
+
+            var thrown = Assertions.assertThrows(
+                ExecutionException.class, () -> job.future().get(30, TimeUnit.SECONDS));
+            Assertions.assertTrue(thrown.getCause() instanceof IllegalStateException);
+            Assertions.assertTrue(job.progress().finished());
+            Assertions.assertTrue(Files.exists(journalFile));
+        } finally {
+            deleteTree(root);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class RestoreJournalTest {
+
+    private static final String SOURCE =
+        RestoreJournal.sourceId("LocalVersions", Path.of("a~20240101-000000.txt"), 5, 1);
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testEscapeRoundTrip() {
+        for (String s : new String[]{"", "plain.txt", "tab\there", "new\nline\r", "back\\slash", "\\t literally"}) {
+            String escaped = RestoreJournal.escape(s);
+            Assertions.assertFalse(escaped.contains("\t") || escaped.contains("\n") || escaped.contains("\r"));
+            Assertions.assertEquals(s, RestoreJournal.unescape(escaped));
+        }
+    }
+
+    @Test
+    public void testReadSkipsTruncatedLines() throws IOException {
+        String sha = "ab".repeat(32);
+        Path file = Files.createTempFile("stvp-journal", ".journal");
+        try {
+            Files.writeString(file, String.join("\n",
+                "a.txt\tsrc-a\t5\t100\t" + sha,
+                "tab\\there.txt\tsrc-b\t6\t200\t",
+                "a.txt\tsrc-a2\t7\t300\t",
+                "not\ta\tnumber\there\t",
+                "cut.txt\tsrc-c\t8\t400\t" + sha.substring(0, 20)
+            ), StandardCharsets.UTF_8);
+            Map<String, RestoreJournal.Entry> entries = new HashMap<>();
+            RestoreJournal.read(file, entries);
+            Assertions.assertEquals(2, entries.size());
+            // Later lines win over earlier ones.
+            Assertions.assertEquals(new RestoreJournal.Entry("src-a2", 7, 300, ""), entries.get("a.txt"));
+            Assertions.assertEquals(new RestoreJournal.Entry("src-b", 6, 200, ""), entries.get("tab\there.txt"));
+            Assertions.assertNull(entries.get("cut.txt"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testIsDoneChecksSizeThenTimeThenChecksum() throws IOException {
+        Path root = Files.createTempDirectory("stvp-journal");
+        try {
+            Path target = root.resolve("a.txt");
+            Files.writeString(target, "hello");
+            Path journalFile = root.resolve("restore.journal");
+            try (RestoreJournal journal = RestoreJournal.open(journalFile, root)) {
+                journal.record(target, SOURCE, RestoreJournal.sha256Of(target));
+                Assertions.assertTrue(journal.isDone(target, SOURCE));
+                Assertions.assertFalse(journal.isDone(target, SOURCE + "-other"));
+            }
+
+            // Read back by a later run.
+            try (RestoreJournal journal = RestoreJournal.open(journalFile, root)) {
+                Assertions.assertTrue(journal.isDone(target, SOURCE));
+                // Only the time changed, so the checksum decides.
+                long modified = Files.getLastModifiedTime(target).toMillis();
+                Files.setLastModifiedTime(target, FileTime.fromMillis(modified - 60_000));
+                Assertions.assertTrue(journal.isDone(target, SOURCE));
+                // Same size, different content.
+                Files.writeString(target, "HELLO");
+                Files.setLastModifiedTime(target, FileTime.fromMillis(0));
+                Assertions.assertFalse(journal.isDone(target, SOURCE));
+                // Different size.
+                Files.writeString(target, "hello!");
+                Assertions.assertFalse(journal.isDone(target, SOURCE));
+                // Gone.
+                Files.delete(target);
+                Assertions.assertFalse(journal.isDone(target, SOURCE));
+            }
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @Test
+    public void testWithoutChecksumTimeMustMatch() throws IOException {
+        Path root = Files.createTempDirectory("stvp-journal");
+        try {
+            Path target = root.resolve("a.txt");
+            Files.writeString(target, "hello");
+            try (RestoreJournal journal = RestoreJournal.open(root.resolve("restore.journal"), root)) {
+                journal.record(target, SOURCE, "");
+                Assertions.assertTrue(journal.isDone(target, SOURCE));
+                Files.setLastModifiedTime(target, FileTime.fromMillis(0));
+                Assertions.assertFalse(journal.isDone(target, SOURCE));
+            }
+        } finally {
+            deleteTree(root);
+        }
+    }
+
+    @Test
+    public void testCloseCompleteDeletesJournal() throws IOException {
+        Path root = Files.createTempDirectory("stvp-journal");
+        try {
+            Path journalFile = root.resolve("restore.journal");
+            RestoreJournal.open(journalFile, root).close(false);
+            Assertions.assertTrue(Files.exists(journalFile));
+            RestoreJournal.open(journalFile, root).close(true);
+            Assertions.assertFalse(Files.exists(journalFile));
+        } finally {
+            deleteTree(root);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class TarReaderTest {
+
+    @Test
+    public void testRegularFilesAndDirectories() throws IOException {
+        var tar = new ByteArrayOutputStream();
+        writeEntry(tar, "", "dir/", '5', new byte[0]);
+        writeEntry(tar, "", "dir/a.txt", '0', bytes("hello"));
+        writeEntry(tar, "", "dir/empty.txt", '0', new byte[0]);
+        writeEntry(tar, "", "b.bin", '0', new byte[1000]);
+        end(tar);
+        var reader = new TarReader(new ByteArrayInputStream(tar.toByteArray()));
+
+        var dir = reader.next();
+        Assertions.assertEquals("dir/", dir.name());
+        Assertions.assertTrue(dir.isDirectory());
+        var a = reader.next();
+        Assertions.assertEquals("dir/a.txt", a.name());
+        Assertions.assertTrue(a.isFile());
+        Assertions.assertEquals("hello", new String(reader.entryStream().readAllBytes(), StandardCharsets.UTF_8));
+        Assertions.assertEquals(0, reader.next().size());
+        // Not reading an entry's data must not break the next one.
+        Assertions.assertEquals(1000, reader.next().size());
+        Assertions.assertNull(reader.next());
+        Assertions.assertNull(reader.next());
+    }
+
+    @Test
+    public void testUstarPrefix() throws IOException {
+        var tar = new ByteArrayOutputStream();
+        writeEntry(tar, "some/long/directory", "file.txt", '0', bytes("x"));
+        end(tar);
+        var reader = new TarReader(new ByteArrayInputStream(tar.toByteArray()));
+        Assertions.assertEquals("some/long/directory/file.txt", reader.next().name());
+    }
+
+    @Test
+    public void testGnuLongName() throws IOException {
+        String longName = "d/".repeat(80) + "file~20240101-120000.txt";
+        var tar = new ByteArrayOutputStream();
+        writeEntry(tar, "", "././@LongLink", 'L', bytes(longName + "\0"));
+        writeEntry(tar, "", longName.substring(0, 99), '0', bytes("data"));
+        end(tar);
+        var reader = new TarReader(new ByteArrayInputStream(tar.toByteArray()));
+        var entry = reader.next();
+        Assertions.assertEquals(longName, entry.name());
+        Assertions.assertEquals("data", new String(reader.entryStream().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPaxPathAndSize() throws IOException {
+        String path = "ünïcode/" + "x".repeat(120);
+        var tar = new ByteArrayOutputStream();
+        writeEntry(tar, "", "PaxHeaders/x", 'x', bytes(paxRecord("path", path) + paxRecord("size", "3")));
+        writeEntry(tar, "", "truncated", '0', bytes("abc"));
+        end(tar);
+        var reader = new TarReader(new ByteArrayInputStream(tar.toByteArray()));
+        var entry = reader.next();
+        Assertions.assertEquals(path, entry.name());
+        Assertions.assertEquals(3, entry.size());
+        Assertions.assertNull(reader.next());
+    }
+
+    @Test
+    public void testGarbageIsRejected() {
+        byte[] garbage = new byte[1024];
+        garbage[0] = 'n';
+        garbage[300] = 'o';
+        var reader = new TarReader(new ByteArrayInputStream(garbage));
+        Assertions.assertThrows(IOException.class, reader::next);
+    }
+
+    /* **************************************************************
+     MARK: - Archive Building
+     ****************************************************************/
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String paxRecord(String key, String value) {
+        int length = bytes(" " + key + "=" + value + "\n").length;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() != Integer.toString(length).length())
+            total++;
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static void writeEntry(ByteArrayOutputStream out, String prefix, String name, char type, byte[] data) {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 124, "%011o".formatted(data.length));
+        put(header, 136, "%011o".formatted(1700000000L));
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 345, prefix);
+        long sum = 0;
+        for (int i = 0; i < 512; i++)
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+        put(header, 148, "%06o".formatted(sum));
+        header[155] = ' ';
+        out.writeBytes(header);
+        out.writeBytes(data);
+        out.writeBytes(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        byte[] b = bytes(value);
+        System.arraycopy(b, 0, header, offset, b.length);
+    }
+
+    private static void end(ByteArrayOutputStream out) {
+        out.writeBytes(new byte[1024]);
+    }
+}
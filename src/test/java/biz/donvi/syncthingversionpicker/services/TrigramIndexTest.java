@@ -0,0 +1,64 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.services.TrigramIndex.Hit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class TrigramIndexTest {
+
+    private static TrigramIndex sampleIndex() {
+        var index = new TrigramIndex(null);
+        index.replaceDir("", Map.of("finance", true, "Report.docx", false, "notes.txt", false));
+        index.replaceDir("finance", Map.of(
+            "report", true, "budget-2023.xlsx", false, "budget-2024.xlsx", false, "q1.pdf", false));
+        index.replaceDir("finance/report", Map.of("annual report.pdf", false, "report", false));
+        return index;
+    }
+
+    private static List<String> paths(List<Hit> hits) {
+        return hits.stream().map(h -> h.relativePath().toString().replace('\\', '/')).toList();
+    }
+
+    @Test
+    public void testRanking() {
+        var index = sampleIndex();
+        Assertions.assertEquals(9, index.size());
+        // Exact names, then prefixes, then anything containing it. Ties go to the shorter path.
+        Assertions.assertEquals(List.of(
+            "finance/report", "finance/report/report", "Report.docx", "finance/report/annual report.pdf"
+        ), paths(index.search(" REPORT ", 10)));
+        Assertions.assertTrue(index.search("report", 1).getFirst().isDir());
+        Assertions.assertEquals(List.of("finance/report"), paths(index.search("report", 1)));
+        // Searches too short for a trigram only find names starting with them.
+        Assertions.assertEquals(List.of("finance/q1.pdf"), paths(index.search("q1", 10)));
+        Assertions.assertEquals(List.of("notes.txt"), paths(index.search("N", 10)));
+        Assertions.assertEquals(List.of(), paths(index.search("df", 10)));
+        Assertions.assertEquals(List.of(), index.search("  ", 10));
+    }
+
+    @Test
+    public void testFuzzy() {
+        var index = sampleIndex();
+        Assertions.assertEquals(List.of("finance/budget-2023.xlsx", "finance/budget-2024.xlsx"),
+                                paths(index.search("budget 2023", 10)));
+        Assertions.assertEquals(List.of(), index.search("spreadsheet", 10));
+    }
+
+    @Test
+    public void testUpdates() {
+        var index = sampleIndex();
+        index.replaceDir("finance", Map.of("report", true, "budget-2024.xlsx", false, "forecast.xlsx", false));
+        Assertions.assertEquals(8, index.size());
+        Assertions.assertEquals(List.of("finance/budget-2024.xlsx"), paths(index.search("budget", 10)));
+        Assertions.assertEquals(List.of("finance/forecast.xlsx"), paths(index.search("forecast", 10)));
+        index.replaceDir("finance/report", Map.of());
+        index.compact();
+        Assertions.assertEquals(6, index.size());
+        Assertions.assertEquals(List.of("finance/report", "Report.docx"), paths(index.search("report", 10)));
+        Assertions.assertEquals(List.of("finance/budget-2024.xlsx"), paths(index.search("budget", 10)));
+    }
+}
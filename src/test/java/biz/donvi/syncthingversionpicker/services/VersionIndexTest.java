@@ -0,0 +1,133 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.DirectoryLister.FileWithLocation;
+import biz.donvi.syncthingversionpicker.files.FileMutation;
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.VersionIndex.Hit;
+import biz.donvi.syncthingversionpicker.services.VersionIndex.Query;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class VersionIndexTest {
+
+    private static VersionIndex sampleIndex() {
+        var index = new VersionIndex(null);
+        index.update(Path.of("finance"), Map.of(
+            Location.LocalCurrent, List.of(file(Location.LocalCurrent, "budget.xlsx")),
+            Location.RemoteVersions, List.of(
+                file(Location.RemoteVersions, "budget~20240310-090000.xlsx"),
+                file(Location.RemoteVersions, "budget~20240420-090000.xlsx"),
+                file(Location.RemoteVersions, "budget.sync-conflict-20240415-101010-ABCDEFG~20240416-120000.xlsx"),
+                file(Location.RemoteVersions, "notes~20240401-120000.txt"),
+                new FileWithLocation(Location.RemoteVersions, "old", true, -1, -1)
+            )
+        ));
+        index.update(Path.of("finance/2024"), Map.of(
+            Location.LocalVersions, List.of(
+                file(Location.LocalVersions, "q1.sync-conflict-20240402-101010-HIJKLMN~20240403-120000.xlsx"),
+                file(Location.LocalVersions, "q1~VP-PREV~20240601-120000.xlsx")
+            )
+        ));
+        index.update(Path.of("finance-old"), Map.of(
+            Location.LocalVersions, List.of(file(Location.LocalVersions, "budget~20240401-120000.xlsx"))
+        ));
+        return index;
+    }
+
+    private static FileWithLocation file(Location location, String name) {
+        return new FileWithLocation(location, name, false, 10, 1000);
+    }
+
+    private static List<String> names(List<Hit> hits) {
+        return hits.stream().map(h -> h.rawRelativePath().getFileName().toString()).toList();
+    }
+
+    /** Runs every check against the delta first, then again against a compacted segment. */
+    @Test
+    public void testQueriesBeforeAndAfterCompaction() {
+        var index = sampleIndex();
+        checkQueries(index);
+        index.compact();
+        checkQueries(index);
+    }
+
+    private static void checkQueries(VersionIndex index) {
+        Assertions.assertEquals(8, index.size());
+
+        // Newest first, with undated (current) files last.
+        var all = index.query(Query.ALL);
+        Assertions.assertEquals(8, all.size());
+        Assertions.assertEquals("q1~VP-PREV~20240601-120000.xlsx", names(all).getFirst());
+        Assertions.assertEquals("budget.xlsx", names(all).getLast());
+        Assertions.assertNull(all.getLast().syncDate());
+
+        var conflictsInSpring = index.query(Query.ALL
+            .withPathPrefix("/finance/")
+            .withExtension("*.XLSX")
+            .withDates(LocalDateTime.of(2024, 3, 1, 0, 0), LocalDateTime.of(2024, 6, 1, 0, 0))
+            .withConflict(true, null));
+        Assertions.assertEquals(List.of(
+            "budget.sync-conflict-20240415-101010-ABCDEFG~20240416-120000.xlsx",
+            "q1.sync-conflict-20240402-101010-HIJKLMN~20240403-120000.xlsx"
+        ), names(conflictsInSpring));
+        Assertions.assertEquals(Path.of("finance", "2024", "q1.xlsx"), conflictsInSpring.get(1).relativePath());
+        Assertions.assertEquals("HIJKLMN", conflictsInSpring.get(1).conflictDevice());
+
+        // A prefix never matches a sibling that merely starts with the same text.
+        Assertions.assertEquals(List.of("q1~VP-PREV~20240601-120000.xlsx",
+                                        "q1.sync-conflict-20240402-101010-HIJKLMN~20240403-120000.xlsx"),
+                                names(index.query(Query.ALL.withPathPrefix("finance/2024"))));
+        Assertions.assertEquals(1, index.query(Query.ALL.withPathPrefix("finance-old")).size());
+        Assertions.assertEquals(7, index.query(Query.ALL.withPathPrefix("finance")).size());
+
+        Assertions.assertEquals(List.of("budget.sync-conflict-20240415-101010-ABCDEFG~20240416-120000.xlsx"),
+                                names(index.query(Query.ALL.withConflict(false, "ABCDEFG"))));
+        Assertions.assertEquals(List.of(), index.query(Query.ALL.withConflict(false, "NOSUCHD")));
+        Assertions.assertEquals(List.of("q1~VP-PREV~20240601-120000.xlsx"),
+                                names(index.query(Query.ALL.withPrevMarker(true))));
+        Assertions.assertEquals(List.of("notes~20240401-120000.txt"),
+                                names(index.query(Query.ALL.withExtension("txt"))));
+        Assertions.assertEquals(List.of("budget.xlsx"),
+                                names(index.query(Query.ALL.withLocations(Set.of(Location.LocalCurrent)))));
+        Assertions.assertEquals(3, index.query(Query.ALL.withLimit(3)).size());
+        // The upper bound is exclusive, and a date range leaves out undated files.
+        Assertions.assertEquals(List.of("budget~20240310-090000.xlsx"), names(index.query(Query.ALL.withDates(
+            null, LocalDateTime.of(2024, 4, 1, 12, 0)))));
+    }
+
+    @Test
+    public void testMutations() {
+        var index = sampleIndex();
+        index.compact();
+        Path dir = Path.of("finance");
+        index.apply(new FileMutation.Deleted(Location.RemoteVersions, dir.resolve("notes~20240401-120000.txt"), false));
+        index.apply(new FileMutation.Deleted(Location.RemoteVersions, dir.resolve("notes~20240401-120000.txt"), false));
+        index.apply(new FileMutation.Created(
+            Location.LocalVersions, dir.resolve("notes~20240501-120000.txt"), false, 5, 2000));
+        index.apply(new FileMutation.Created(
+            Location.LocalVersions, dir.resolve("notes~20240501-120000.txt"), false, 5, 2000));
+        index.apply(new FileMutation.Renamed(
+            Location.LocalCurrent, dir.resolve("budget.xlsx"), dir.resolve("budget~20240701-000000.xlsx")));
+
+        Assertions.assertEquals(8, index.size());
+        var notes = index.query(Query.ALL.withExtension("txt"));
+        Assertions.assertEquals(List.of("notes~20240501-120000.txt"), names(notes));
+        Assertions.assertEquals(Location.LocalVersions, notes.getFirst().location());
+        Assertions.assertEquals(5, notes.getFirst().size());
+        var newest = index.query(Query.ALL).getFirst();
+        Assertions.assertEquals("budget~20240701-000000.xlsx", newest.rawRelativePath().getFileName().toString());
+        Assertions.assertEquals(Location.LocalCurrent, newest.location());
+
+        index.apply(new FileMutation.Deleted(Location.LocalVersions, Path.of("finance/2024"), true));
+        Assertions.assertEquals(6, index.size());
+        Assertions.assertEquals(List.of(), index.query(Query.ALL.withPathPrefix("finance/2024")));
+        index.compact();
+        Assertions.assertEquals(6, index.query(Query.ALL).size());
+    }
+}
@@ -0,0 +1,81 @@
+package biz.donvi.syncthingversionpicker.services;
+
+import biz.donvi.syncthingversionpicker.files.Location;
+import biz.donvi.syncthingversionpicker.services.VersionStorage.Bucket;
+import biz.donvi.syncthingversionpicker.services.VersionStorage.Cell;
+import biz.donvi.syncthingversionpicker.services.VersionStorage.Dimension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VersionStorageTest {
+
+    @Test
+    public void testReadFind() throws IOException {
+        String out = "12 a/b~20240101-000000.txt\0" + "0 top level.bin\0" + "junk\0" + "7 dir/with space/c.md\0";
+        List<String> found = new ArrayList<>();
+        VersionStorage.readFind(new ByteArrayInputStream(out.getBytes(StandardCharsets.UTF_8)),
+                                (path, size) -> found.add(path + "=" + size));
+        Assertions.assertEquals(List.of("a/b~20240101-000000.txt=12", "top level.bin=0", "dir/with space/c.md=7"),
+                                found);
+    }
+
+    @Test
+    public void testCells() {
+        Map<Cell, long[]> cells = new HashMap<>();
+        VersionStorage.add(cells, "a~20240105-000000.TXT", 10);
+        VersionStorage.add(cells, "b~20240120-000000.txt", 5);
+        VersionStorage.add(cells, "c~20240201-000000.txt", -1);
+        VersionStorage.add(cells, "noext~20240101-000000", 3);
+        int january = 2024 * 12;
+        Assertions.assertEquals("[2, 15]", Arrays.toString(cells.get(new Cell("txt", january))));
+        Assertions.assertEquals("[1, 0]", Arrays.toString(cells.get(new Cell("txt", january + 1))));
+        Assertions.assertEquals("[1, 3]", Arrays.toString(cells.get(new Cell("", january))));
+    }
+
+    @Test
+    public void testAges() {
+        YearMonth now = YearMonth.of(2024, 6);
+        int june = 2024 * 12 + 5;
+        Assertions.assertEquals("Under 1 month", VersionStorage.ageOf(june, now));
+        Assertions.assertEquals("1 to 3 months", VersionStorage.ageOf(june - 2, now));
+        Assertions.assertEquals("1 to 2 years", VersionStorage.ageOf(june - 12, now));
+        Assertions.assertEquals("Over 2 years", VersionStorage.ageOf(june - 40, now));
+        Assertions.assertEquals("Unknown", VersionStorage.ageOf(-1, now));
+    }
+
+    @Test
+    public void testBreakdowns() {
+        var storage = new VersionStorage(null);
+        Map<Cell, long[]> deep = new HashMap<>();
+        VersionStorage.add(deep, "x~20240101-000000.pdf", 100);
+        Map<Cell, long[]> shallow = new HashMap<>();
+        VersionStorage.add(shallow, "y~20240101-000000.txt", 10);
+        Map<Cell, long[]> remote = new HashMap<>();
+        VersionStorage.add(remote, "z~20240101-000000.pdf", 1000);
+        storage.replaceDir(Location.LocalVersions, "a/b/c", deep);
+        storage.replaceDir(Location.LocalVersions, "a", shallow);
+        storage.replaceDir(Location.RemoteVersions, "d", remote);
+
+        List<Bucket> dirs = storage.breakdown(Dimension.Directory, 1);
+        Assertions.assertEquals(List.of(new Bucket("d/", 0, 0, 1, 1000), new Bucket("a/", 2, 110, 0, 0)), dirs);
+        Assertions.assertEquals(new Bucket("a/b/", 1, 100, 0, 0),
+                                storage.breakdown(Dimension.Directory, 2).get(1));
+        Assertions.assertEquals(List.of(new Bucket("pdf", 1, 100, 1, 1000), new Bucket("txt", 1, 10, 0, 0)),
+                                storage.breakdown(Dimension.Extension, 0));
+        Assertions.assertEquals(new Bucket("Total", 2, 110, 1, 1000), storage.total());
+
+        // Refreshing a directory replaces what it had.
+        storage.replaceDir(Location.LocalVersions, "a/b/c", Map.of());
+        Assertions.assertEquals(new Bucket("Total", 1, 10, 1, 1000), storage.total());
+    }
+}